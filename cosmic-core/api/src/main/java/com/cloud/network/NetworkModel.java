@@ -13,6 +13,7 @@ import com.cloud.offering.NetworkOffering;
 import com.cloud.offering.NetworkOffering.Detail;
 import com.cloud.user.Account;
 import com.cloud.utils.exception.InvalidParameterValueException;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
 import com.cloud.vm.VirtualMachine;
@@ -21,7 +22,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 
 /**
  * The NetworkModel presents a read-only view into the Network data such as L2 networks,
@@ -221,7 +221,11 @@ public interface NetworkModel {
 
     NicProfile getNicProfile(VirtualMachine vm, long networkId, String broadcastUri);
 
-    SortedSet<Long> getAvailableIps(Network network, String requestedIp);
+    /**
+     * @return the addresses of the network that are neither used, excluded nor the gateway, or null when the requested
+     * address is used or excluded
+     */
+    IpAddressPool getAvailableIps(Network network, String requestedIp);
 
     String getDomainNetworkDomain(long domainId, long zoneId);
 
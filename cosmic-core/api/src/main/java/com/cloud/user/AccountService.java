@@ -9,6 +9,8 @@ import com.cloud.exception.PermissionDeniedException;
 import com.cloud.offering.DiskOffering;
 import com.cloud.offering.ServiceOffering;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 public interface AccountService {
@@ -61,6 +63,16 @@ public interface AccountService {
 
     UserAccount getActiveUserAccount(String username, Long domainId);
 
+    /**
+     * @return the active accounts of the domain that have one of the names, in one query
+     */
+    List<? extends Account> getActiveAccountsByName(Collection<String> accountNames, Long domainId);
+
+    /**
+     * @return the active users of the domain that have one of the usernames, in one query
+     */
+    List<? extends UserAccount> getActiveUserAccounts(Collection<String> usernames, Long domainId);
+
     UserAccount updateUser(Long userId, String firstName, String lastName, String email, String userName, String password, String apiKey, String secretKey, String timeZone);
 
     Account getActiveAccountById(long accountId);
@@ -0,0 +1,40 @@
+package com.cloud.user;
+
+import com.cloud.acl.RoleType;
+
+/**
+ * What the API request path needs to know about the calling user to authorize a request.
+ */
+public class AuthorizationContext {
+    private final User user;
+    private final Account account;
+    private final RoleType roleType;
+    private final String domainPath;
+
+    public AuthorizationContext(final User user, final Account account, final RoleType roleType, final String domainPath) {
+        this.user = user;
+        this.account = account;
+        this.roleType = roleType;
+        this.domainPath = domainPath;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public RoleType getRoleType() {
+        return roleType;
+    }
+
+    public String getDomainPath() {
+        return domainPath;
+    }
+
+    public String getSecretKey() {
+        return user.getSecretKey();
+    }
+}
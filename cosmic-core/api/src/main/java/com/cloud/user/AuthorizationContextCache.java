@@ -0,0 +1,24 @@
+package com.cloud.user;
+
+/**
+ * Caches the {@link AuthorizationContext} of the users that call the API, so authorizing a request does not read the
+ * user, the account and the domain from the database every time.
+ */
+public interface AuthorizationContextCache {
+
+    /**
+     * @return the context of the user, or null when there is no user with the id that is not removed
+     */
+    AuthorizationContext getByUserId(long userId);
+
+    /**
+     * @return the context of the user with the API key, or null when the key does not belong to any user
+     */
+    AuthorizationContext getByApiKey(String apiKey);
+
+    void invalidateUser(long userId);
+
+    void invalidateAccount(long accountId);
+
+    void invalidateAll();
+}
@@ -7,6 +7,7 @@ import com.cloud.utils.Pair;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -44,6 +45,9 @@ public interface AccountDao extends GenericDao<AccountVO, Long> {
     //returns only non-removed account
     Account findActiveAccount(String accountName, Long domainId);
 
+    //returns only non-removed accounts
+    List<AccountVO> findActiveAccountsByName(Collection<String> accountNames, Long domainId);
+
     Account findActiveNonProjectAccount(String accountName, Long domainId);
 
     List<Long> getAccountIdsForDomains(List<Long> ids);
@@ -17,6 +17,8 @@ import com.cloud.utils.db.TransactionLegacy;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -245,6 +247,17 @@ public class AccountDaoImpl extends GenericDaoBase<AccountVO, Long> implements A
         return findOneBy(sc);
     }
 
+    @Override
+    public List<AccountVO> findActiveAccountsByName(final Collection<String> accountNames, final Long domainId) {
+        if (accountNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final SearchCriteria<AccountVO> sc = createSearchCriteria();
+        sc.addAnd("accountName", SearchCriteria.Op.IN, accountNames.toArray());
+        sc.addAnd("domainId", SearchCriteria.Op.EQ, domainId);
+        return listBy(sc);
+    }
+
     @Override
     public Account findActiveNonProjectAccount(final String accountName, final Long domainId) {
         final SearchCriteria<AccountVO> sc = NonProjectAccountSearch.create("accountName", accountName);
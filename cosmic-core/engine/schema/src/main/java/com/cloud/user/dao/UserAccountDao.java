@@ -4,6 +4,7 @@ import com.cloud.user.UserAccount;
 import com.cloud.user.UserAccountVO;
 import com.cloud.utils.db.GenericDao;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface UserAccountDao extends GenericDao<UserAccountVO, Long> {
@@ -11,6 +12,8 @@ public interface UserAccountDao extends GenericDao<UserAccountVO, Long> {
 
     UserAccount getUserAccount(String username, Long domainId);
 
+    List<UserAccountVO> getUserAccounts(Collection<String> usernames, Long domainId);
+
     boolean validateUsernameInDomain(String username, Long domainId);
 
     UserAccount getUserByApiKey(String apiKey);
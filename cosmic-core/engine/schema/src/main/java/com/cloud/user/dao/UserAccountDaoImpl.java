@@ -6,6 +6,8 @@ import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.springframework.stereotype.Component;
@@ -44,6 +46,18 @@ public class UserAccountDaoImpl extends GenericDaoBase<UserAccountVO, Long> impl
         return findOneBy(sc);
     }
 
+    @Override
+    public List<UserAccountVO> getUserAccounts(final Collection<String> usernames, final Long domainId) {
+        if (usernames.isEmpty() || domainId == null) {
+            return Collections.emptyList();
+        }
+
+        final SearchCriteria<UserAccountVO> sc = createSearchCriteria();
+        sc.addAnd("username", SearchCriteria.Op.IN, usernames.toArray());
+        sc.addAnd("domainId", SearchCriteria.Op.EQ, domainId);
+        return listBy(sc);
+    }
+
     @Override
     public boolean validateUsernameInDomain(final String username, final Long domainId) {
         final UserAccount userAcct = getUserAccount(username, domainId);
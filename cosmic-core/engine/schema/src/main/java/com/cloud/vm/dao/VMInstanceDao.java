@@ -102,6 +102,13 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     List<Long> listHostIdsByVmCount(long dcId, Long podId, Long clusterId, long accountId);
 
+    /**
+     * @param stoppedSince the vms of the groups stopped since then still count on their last host, where they keep
+     *                     their capacity
+     * @return the hosts the vms of the affinity groups are on, other than the excluded vm, read in one query
+     */
+    List<Long> listHostIdsOfAffinityGroups(List<Long> affinityGroupIds, long excludedVmId, Date stoppedSince);
+
     Long countStartingOrRunningByAccount(long accountId);
 
     List<VMInstanceVO> listNonRemovedVmsByTypeAndNetwork(long networkId, VirtualMachine.Type... types);
@@ -40,6 +40,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +70,10 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
                     "INNER JOIN `cloud`.`host` ON vm.host_id = host.id WHERE vm.state = 'Running' AND host.data_center_id = ? ";
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES2 =
             "GROUP BY offering.service_offering_id) results GROUP BY pci, type";
+    private static final String LIST_HOST_IDS_OF_AFFINITY_GROUPS =
+            "SELECT DISTINCT COALESCE(vm.host_id, vm.last_host_id) FROM `cloud`.`vm_instance` vm INNER JOIN `cloud`.`affinity_group_vm_map` map ON map.instance_id = vm.id " +
+                    "WHERE vm.id != ? AND vm.removed IS NULL AND (vm.host_id IS NOT NULL OR (vm.state = 'Stopped' AND vm.last_host_id IS NOT NULL AND vm.update_time > ?)) " +
+                    "AND map.affinity_group_id IN ";
 
     private SearchBuilder<VMInstanceVO> _vmClusterSearch;
     private SearchBuilder<VMInstanceVO> _lhvmClusterSearch;
@@ -546,6 +551,36 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         }
     }
 
+    @Override
+    public List<Long> listHostIdsOfAffinityGroups(final List<Long> affinityGroupIds, final long excludedVmId, final Date stoppedSince) {
+        final List<Long> result = new ArrayList<>();
+        if (affinityGroupIds.isEmpty()) {
+            return result;
+        }
+        final StringBuilder sql = new StringBuilder(LIST_HOST_IDS_OF_AFFINITY_GROUPS).append('(');
+        for (int i = 0; i < affinityGroupIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            final PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            pstmt.setLong(1, excludedVmId);
+            pstmt.setString(2, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), stoppedSince));
+            for (int i = 0; i < affinityGroupIds.size(); i++) {
+                pstmt.setLong(i + 3, affinityGroupIds.get(i));
+            }
+            final ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getLong(1));
+            }
+            return result;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + sql, e);
+        }
+    }
+
     @Override
     public Long countStartingOrRunningByAccount(final long accountId) {
         final SearchCriteria<Long> sc = _countStartingOrRunningByAccount.create();
@@ -0,0 +1,144 @@
+package com.cloud.storage.cache.manager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the objects on one cache store, ranked for replacement GreedyDual-Size-Frequency style:
+ * priority = clock + frequency * cost / size, where the cost is the time it takes to copy the object onto the cache
+ * store again. Small objects, that cost a lot to fetch again for the space they take, and often used objects rank high;
+ * large and rarely used objects rank low. The clock is raised to the priority of every replaced object, so objects
+ * that were used often a long time ago do not stay forever.
+ */
+class StorageCacheIndex<K> {
+    // copying an object onto the cache store takes a setup time plus the transfer time
+    static final double FETCH_SETUP_SECONDS = 30;
+    static final double FETCH_BYTES_PER_SECOND = 100 * 1024 * 1024;
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final Map<K, Entry> entries = new HashMap<>();
+    private double clock = 0;
+    private long cachedBytes = 0;
+
+    static double fetchSeconds(final long size) {
+        return FETCH_SETUP_SECONDS + size / FETCH_BYTES_PER_SECOND;
+    }
+
+    /**
+     * Adds or updates an object on the cache store, as found in the database. How often it was used is kept.
+     *
+     * @param replaceable whether the object may be removed, it is not when it is in use
+     */
+    synchronized void update(final K key, final long size, final Date lastUsed, final boolean replaceable) {
+        Entry entry = entries.get(key);
+        final boolean rank = entry == null || entry.size != size;
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        cachedBytes += size - entry.size;
+        entry.size = size;
+        entry.lastUsed = lastUsed;
+        entry.replaceable = replaceable;
+        // ranked when it is fetched or used only, or it would never age
+        if (rank) {
+            entry.rank(clock);
+        }
+    }
+
+    /**
+     * Forgets the objects that are not on the cache store anymore.
+     */
+    synchronized void retainOnly(final Set<K> keys) {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (!keys.contains(entry.key)) {
+                cachedBytes -= entry.size;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void accessed(final K key, final long size) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entry.size = size;
+            entry.frequency = 0;
+            entries.put(key, entry);
+            cachedBytes += size;
+        }
+        entry.frequency++;
+        entry.lastUsed = new Date();
+        entry.rank(clock);
+    }
+
+    synchronized boolean contains(final K key) {
+        return entries.containsKey(key);
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Plans the replacement in one pass: all replaceable objects unused since the given date, and then the replaceable
+     * objects of the lowest priority until the given number of bytes is freed. The chosen objects are removed from the
+     * index.
+     *
+     * @param unusedBefore null to only free bytes
+     */
+    synchronized List<K> chooseToBeReplaced(final long bytesToFree, final Date unusedBefore) {
+        final List<Entry> candidates = new ArrayList<>();
+        for (final Entry entry : entries.values()) {
+            if (entry.replaceable) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(entry -> entry.priority));
+
+        final List<K> chosen = new ArrayList<>();
+        long freed = 0;
+        for (final Entry entry : candidates) {
+            final boolean unused = unusedBefore != null && entry.lastUsed != null && entry.lastUsed.before(unusedBefore);
+            if (freed >= bytesToFree && !unused) {
+                continue;
+            }
+            chosen.add(entry.key);
+            freed += entry.size;
+            clock = Math.max(clock, entry.priority);
+            cachedBytes -= entry.size;
+            entries.remove(entry.key);
+        }
+        return chosen;
+    }
+
+    private class Entry {
+        private final K key;
+        private long size = 0;
+        private int frequency = 1;
+        private Date lastUsed;
+        private boolean replaceable = true;
+        private double priority;
+
+        Entry(final K key) {
+            this.key = key;
+        }
+
+        void rank(final double clock) {
+            priority = clock + frequency * fetchSeconds(size) / Math.max(size / MEGABYTE, 1);
+        }
+    }
+}
@@ -170,24 +170,12 @@ public class StorageCacheManagerImpl implements StorageCacheManager, Manager {
                 if (replacementLock.lock(3)) {
                     final List<DataStore> stores = getCacheStores();
                     Collections.shuffle(stores);
-                    DataObject object = null;
-                    DataStore findAStore = null;
                     for (final DataStore store : stores) {
-                        object = cacheReplacementAlgorithm.chooseOneToBeReplaced(store);
-                        findAStore = store;
-                        if (object != null) {
-                            break;
+                        final List<DataObject> objects = cacheReplacementAlgorithm.chooseToBeReplaced(store);
+                        for (final DataObject object : objects) {
+                            object.delete();
                         }
                     }
-
-                    if (object == null) {
-                        return;
-                    }
-
-                    while (object != null) {
-                        object.delete();
-                        object = cacheReplacementAlgorithm.chooseOneToBeReplaced(findAStore);
-                    }
                 }
             } catch (final Exception e) {
                 s_logger.debug("Failed to execute CacheReplacementRunner: " + e.toString());
@@ -273,6 +261,7 @@ public class StorageCacheManagerImpl implements StorageCacheManager, Manager {
                     final DataObject dataObj = objectInStoreMgr.get(data, store);
                     dataObj.incRefCount();
                     existingDataObj = dataObj;
+                    cacheReplacementAlgorithm.objectAccessed(dataObj);
                 }
             }
 
@@ -303,6 +292,7 @@ public class StorageCacheManagerImpl implements StorageCacheManager, Manager {
             } else {
                 objOnCacheStore.processEvent(Event.OperationSuccessed, result.getAnswer());
                 objOnCacheStore.incRefCount();
+                cacheReplacementAlgorithm.objectAccessed(objOnCacheStore);
                 return objOnCacheStore;
             }
         } catch (final InterruptedException e) {
@@ -342,6 +332,7 @@ public class StorageCacheManagerImpl implements StorageCacheManager, Manager {
         final DataStore cacheStore = getCacheStorage(scope);
         final DataObject objOnCacheStore = cacheStore.create(data);
         objOnCacheStore.incRefCount();
+        cacheReplacementAlgorithm.objectAccessed(objOnCacheStore);
         return objOnCacheStore;
     }
 
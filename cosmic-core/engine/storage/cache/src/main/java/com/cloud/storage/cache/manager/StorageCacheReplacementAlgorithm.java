@@ -3,6 +3,18 @@ package com.cloud.storage.cache.manager;
 import com.cloud.engine.subsystem.api.storage.DataObject;
 import com.cloud.engine.subsystem.api.storage.DataStore;
 
+import java.util.List;
+
 public interface StorageCacheReplacementAlgorithm {
-    DataObject chooseOneToBeReplaced(DataStore store);
+    /**
+     * Plans the replacement on a cache store in one pass.
+     *
+     * @return the objects to remove from the store, may be empty
+     */
+    List<DataObject> chooseToBeReplaced(DataStore store);
+
+    /**
+     * Tells the algorithm an object on a cache store was copied there or used from there.
+     */
+    void objectAccessed(DataObject data);
 }
@@ -0,0 +1,216 @@
+package com.cloud.storage.cache.manager;
+
+import com.cloud.agent.api.to.DataObjectType;
+import com.cloud.configuration.Config;
+import com.cloud.engine.subsystem.api.storage.DataObject;
+import com.cloud.engine.subsystem.api.storage.DataStore;
+import com.cloud.engine.subsystem.api.storage.ObjectInDataStoreStateMachine;
+import com.cloud.engine.subsystem.api.storage.SnapshotDataFactory;
+import com.cloud.engine.subsystem.api.storage.TemplateDataFactory;
+import com.cloud.engine.subsystem.api.storage.VolumeDataFactory;
+import com.cloud.framework.config.dao.ConfigurationDao;
+import com.cloud.storage.datastore.db.SnapshotDataStoreVO;
+import com.cloud.storage.datastore.db.TemplateDataStoreVO;
+import com.cloud.storage.datastore.db.VolumeDataStoreVO;
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.db.QueryBuilder;
+import com.cloud.utils.db.SearchCriteria;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the objects on a cache store by their size and the cost of copying them there again, see
+ * {@link StorageCacheIndex}. When a capacity is configured, a store that is more than {@link #HIGH_WATERMARK} full is
+ * brought back to {@link #LOW_WATERMARK} in one pass; like {@link StorageCacheReplacementAlgorithmLRU}, objects unused
+ * for storage.cache.replacement.lru.interval days are replaced as well.
+ */
+public class StorageCacheReplacementAlgorithmGDSF implements StorageCacheReplacementAlgorithm {
+    private static final Logger s_logger = LoggerFactory.getLogger(StorageCacheReplacementAlgorithmGDSF.class);
+
+    static final double HIGH_WATERMARK = 0.9;
+    static final double LOW_WATERMARK = 0.8;
+
+    private static final long GIGABYTE = 1024L * 1024 * 1024;
+
+    @Inject
+    ConfigurationDao configDao;
+    @Inject
+    TemplateDataFactory templateFactory;
+    @Inject
+    VolumeDataFactory volumeFactory;
+    @Inject
+    SnapshotDataFactory snapshotFactory;
+
+    Integer unusedTimeInterval;
+    Long capacity;
+
+    // cache store id -> the objects on it
+    private final Map<Long, StorageCacheIndex<CacheKey>> indexes = new ConcurrentHashMap<>();
+
+    static long bytesToFree(final long cachedBytes, final long capacity) {
+        if (capacity <= 0 || cachedBytes <= capacity * HIGH_WATERMARK) {
+            return 0;
+        }
+        return cachedBytes - (long) (capacity * LOW_WATERMARK);
+    }
+
+    public void setUnusedTimeInterval(final Integer interval) {
+        unusedTimeInterval = interval;
+    }
+
+    public void setCapacity(final Long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public List<DataObject> chooseToBeReplaced(final DataStore store) {
+        // not read on construction, the database may not be upgraded yet then
+        if (unusedTimeInterval == null) {
+            unusedTimeInterval = NumbersUtil.parseInt(configDao.getValue(Config.StorageCacheReplacementLRUTimeInterval.key()), 30);
+        }
+        if (capacity == null) {
+            capacity = NumbersUtil.parseInt(configDao.getValue(Config.StorageCacheReplacementCapacity.key()), 0) * GIGABYTE;
+        }
+        final Calendar cal = Calendar.getInstance();
+        cal.setTime(DateUtil.now());
+        cal.add(Calendar.DAY_OF_MONTH, -unusedTimeInterval.intValue());
+        final Date unusedBefore = cal.getTime();
+
+        final StorageCacheIndex<CacheKey> index = getIndex(store.getId());
+        refresh(index, store);
+        final long bytesToFree = bytesToFree(index.getCachedBytes(), capacity);
+        final List<CacheKey> keys = index.chooseToBeReplaced(bytesToFree, unusedBefore);
+
+        final List<DataObject> objects = new ArrayList<>(keys.size());
+        for (final CacheKey key : keys) {
+            final DataObject object = key.getObject(store);
+            if (object != null) {
+                objects.add(object);
+            }
+        }
+        if (!objects.isEmpty()) {
+            s_logger.debug("Replacing " + objects.size() + " objects on cache store " + store.getId() + " to free " + bytesToFree + " bytes of " +
+                    index.getCachedBytes() + " cached");
+        }
+        return objects;
+    }
+
+    @Override
+    public void objectAccessed(final DataObject data) {
+        final DataStore store = data.getDataStore();
+        if (store == null) {
+            return;
+        }
+        final Long size = data.getSize();
+        getIndex(store.getId()).accessed(new CacheKey(data.getType(), data.getId()), size == null ? 0 : size);
+    }
+
+    StorageCacheIndex<CacheKey> getIndex(final long storeId) {
+        return indexes.computeIfAbsent(storeId, id -> new StorageCacheIndex<>());
+    }
+
+    /**
+     * Brings the index in line with the objects the database has on the store, as objects are copied there and
+     * removed by other management servers too.
+     */
+    private void refresh(final StorageCacheIndex<CacheKey> index, final DataStore store) {
+        final Set<CacheKey> keys = new HashSet<>();
+
+        final QueryBuilder<TemplateDataStoreVO> sc = QueryBuilder.create(TemplateDataStoreVO.class);
+        sc.and(sc.entity().getState(), SearchCriteria.Op.EQ, ObjectInDataStoreStateMachine.State.Ready);
+        sc.and(sc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
+        sc.and(sc.entity().getDataStoreRole(), SearchCriteria.Op.EQ, store.getRole());
+        for (final TemplateDataStoreVO template : sc.list()) {
+            final CacheKey key = new CacheKey(DataObjectType.TEMPLATE, template.getTemplateId());
+            index.update(key, sizeOf(template.getPhysicalSize(), template.getSize()), template.getLastUpdated(), isUnused(template.getRefCnt()));
+            keys.add(key);
+        }
+
+        final QueryBuilder<VolumeDataStoreVO> volSc = QueryBuilder.create(VolumeDataStoreVO.class);
+        volSc.and(volSc.entity().getState(), SearchCriteria.Op.EQ, ObjectInDataStoreStateMachine.State.Ready);
+        volSc.and(volSc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
+        for (final VolumeDataStoreVO volume : volSc.list()) {
+            final CacheKey key = new CacheKey(DataObjectType.VOLUME, volume.getVolumeId());
+            index.update(key, sizeOf(volume.getPhysicalSize(), volume.getSize()), volume.getLastUpdated(), isUnused(volume.getRefCnt()));
+            keys.add(key);
+        }
+
+        final QueryBuilder<SnapshotDataStoreVO> snapshotSc = QueryBuilder.create(SnapshotDataStoreVO.class);
+        snapshotSc.and(snapshotSc.entity().getState(), SearchCriteria.Op.EQ, ObjectInDataStoreStateMachine.State.Ready);
+        snapshotSc.and(snapshotSc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
+        snapshotSc.and(snapshotSc.entity().getRole(), SearchCriteria.Op.EQ, store.getRole());
+        for (final SnapshotDataStoreVO snapshot : snapshotSc.list()) {
+            final CacheKey key = new CacheKey(DataObjectType.SNAPSHOT, snapshot.getSnapshotId());
+            index.update(key, sizeOf(snapshot.getPhysicalSize(), snapshot.getSize()), snapshot.getLastUpdated(), isUnused(snapshot.getRefCnt()));
+            keys.add(key);
+        }
+
+        index.retainOnly(keys);
+    }
+
+    private static long sizeOf(final long physicalSize, final long size) {
+        return physicalSize > 0 ? physicalSize : size;
+    }
+
+    private static boolean isUnused(final Long refCnt) {
+        return refCnt != null && refCnt == 0;
+    }
+
+    final class CacheKey {
+        private final DataObjectType type;
+        private final long id;
+
+        CacheKey(final DataObjectType type, final long id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        DataObject getObject(final DataStore store) {
+            switch (type) {
+                case TEMPLATE:
+                    return templateFactory.getTemplate(id, store);
+                case VOLUME:
+                    return volumeFactory.getVolume(id, store);
+                case SNAPSHOT:
+                    return snapshotFactory.getSnapshot(id, store);
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return type == other.type && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, id);
+        }
+
+        @Override
+        public String toString() {
+            return type + "-" + id;
+        }
+    }
+}
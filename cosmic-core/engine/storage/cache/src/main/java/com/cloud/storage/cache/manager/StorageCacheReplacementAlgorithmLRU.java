@@ -18,8 +18,10 @@ import com.cloud.utils.db.SearchCriteria;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
 public class StorageCacheReplacementAlgorithmLRU implements StorageCacheReplacementAlgorithm {
     @Inject
@@ -50,7 +52,7 @@ public class StorageCacheReplacementAlgorithmLRU implements StorageCacheReplacem
     }
 
     @Override
-    public DataObject chooseOneToBeReplaced(final DataStore store) {
+    public List<DataObject> chooseToBeReplaced(final DataStore store) {
         if (unusedTimeInterval == null) {
             unusedTimeInterval = NumbersUtil.parseInt(configDao.getValue(Config.StorageCacheReplacementLRUTimeInterval.key()), 30);
         }
@@ -65,9 +67,9 @@ public class StorageCacheReplacementAlgorithmLRU implements StorageCacheReplacem
         sc.and(sc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
         sc.and(sc.entity().getDataStoreRole(), SearchCriteria.Op.EQ, store.getRole());
         sc.and(sc.entity().getRefCnt(), SearchCriteria.Op.EQ, 0);
-        final TemplateDataStoreVO template = sc.find();
-        if (template != null) {
-            return templateFactory.getTemplate(template.getTemplateId(), store);
+        final List<DataObject> objects = new ArrayList<>();
+        for (final TemplateDataStoreVO template : sc.list()) {
+            addIfFound(objects, templateFactory.getTemplate(template.getTemplateId(), store));
         }
 
         final QueryBuilder<VolumeDataStoreVO> volSc = QueryBuilder.create(VolumeDataStoreVO.class);
@@ -75,9 +77,8 @@ public class StorageCacheReplacementAlgorithmLRU implements StorageCacheReplacem
         volSc.and(volSc.entity().getState(), SearchCriteria.Op.EQ, ObjectInDataStoreStateMachine.State.Ready);
         volSc.and(volSc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
         volSc.and(volSc.entity().getRefCnt(), SearchCriteria.Op.EQ, 0);
-        final VolumeDataStoreVO volume = volSc.find();
-        if (volume != null) {
-            return volumeFactory.getVolume(volume.getVolumeId(), store);
+        for (final VolumeDataStoreVO volume : volSc.list()) {
+            addIfFound(objects, volumeFactory.getVolume(volume.getVolumeId(), store));
         }
 
         final QueryBuilder<SnapshotDataStoreVO> snapshotSc = QueryBuilder.create(SnapshotDataStoreVO.class);
@@ -86,11 +87,21 @@ public class StorageCacheReplacementAlgorithmLRU implements StorageCacheReplacem
         snapshotSc.and(snapshotSc.entity().getDataStoreId(), SearchCriteria.Op.EQ, store.getId());
         snapshotSc.and(snapshotSc.entity().getRole(), SearchCriteria.Op.EQ, store.getRole());
         snapshotSc.and(snapshotSc.entity().getRefCnt(), SearchCriteria.Op.EQ, 0);
-        final SnapshotDataStoreVO snapshot = snapshotSc.find();
-        if (snapshot != null) {
-            return snapshotFactory.getSnapshot(snapshot.getSnapshotId(), store);
+        for (final SnapshotDataStoreVO snapshot : snapshotSc.list()) {
+            addIfFound(objects, snapshotFactory.getSnapshot(snapshot.getSnapshotId(), store));
         }
 
-        return null;
+        return objects;
+    }
+
+    @Override
+    public void objectAccessed(final DataObject data) {
+        // the last updated time of the object is all this algorithm uses
+    }
+
+    private void addIfFound(final List<DataObject> objects, final DataObject object) {
+        if (object != null) {
+            objects.add(object);
+        }
     }
 }
@@ -0,0 +1,111 @@
+package com.cloud.storage.cache.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StorageCacheIndexTest {
+    private static final long MEGABYTE = 1024L * 1024;
+    private static final long GIGABYTE = 1024 * MEGABYTE;
+
+    @Test
+    public void testLargeObjectsAreReplacedFirst() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        index.accessed("template", 10 * GIGABYTE);
+        index.accessed("snapshot-1", 100 * MEGABYTE);
+        index.accessed("snapshot-2", 100 * MEGABYTE);
+
+        final List<String> chosen = index.chooseToBeReplaced(GIGABYTE, null);
+
+        assertEquals(Collections.singletonList("template"), chosen);
+        assertEquals(200 * MEGABYTE, index.getCachedBytes());
+        assertFalse(index.contains("template"));
+    }
+
+    @Test
+    public void testOftenUsedObjectsAreKept() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        index.accessed("once", GIGABYTE);
+        index.accessed("often", GIGABYTE);
+        index.accessed("often", GIGABYTE);
+        index.accessed("often", GIGABYTE);
+
+        assertEquals(Collections.singletonList("once"), index.chooseToBeReplaced(1, null));
+        assertTrue(index.contains("often"));
+    }
+
+    @Test
+    public void testFreesUntilEnoughBytesInOnePass() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        for (int i = 0; i < 10; i++) {
+            index.accessed("volume-" + i, GIGABYTE);
+        }
+
+        final List<String> chosen = index.chooseToBeReplaced(3 * GIGABYTE - 1, null);
+
+        assertEquals(3, chosen.size());
+        assertEquals(7, index.size());
+        assertEquals(7 * GIGABYTE, index.getCachedBytes());
+    }
+
+    @Test
+    public void testObjectsInUseAreNotReplaced() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        index.update("in-use", 10 * GIGABYTE, new Date(0), false);
+        index.update("unused", 100 * MEGABYTE, new Date(), true);
+
+        assertEquals(Collections.singletonList("unused"), index.chooseToBeReplaced(20 * GIGABYTE, new Date(1000)));
+        assertTrue(index.contains("in-use"));
+    }
+
+    @Test
+    public void testStaleObjectsAreReplacedWithoutBytesToFree() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        final Date now = new Date();
+        index.update("stale", 100 * MEGABYTE, new Date(now.getTime() - 60 * 1000), true);
+        index.update("fresh", 100 * MEGABYTE, now, true);
+
+        assertEquals(Collections.singletonList("stale"), index.chooseToBeReplaced(0, new Date(now.getTime() - 1000)));
+        assertTrue(index.contains("fresh"));
+    }
+
+    @Test
+    public void testUpdateKeepsFrequencyAndRetainOnlyForgets() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        index.accessed("a", GIGABYTE);
+        index.accessed("a", GIGABYTE);
+        index.update("a", GIGABYTE, new Date(), true);
+        index.update("b", GIGABYTE, new Date(), true);
+        index.update("c", GIGABYTE, new Date(), true);
+
+        index.retainOnly(new HashSet<>(Arrays.asList("a", "b")));
+
+        assertEquals(2, index.size());
+        assertEquals(2 * GIGABYTE, index.getCachedBytes());
+        // b was only seen in the database, a was used twice
+        assertEquals(Collections.singletonList("b"), index.chooseToBeReplaced(1, null));
+    }
+
+    @Test
+    public void testReplacedObjectsAgeTheOthers() {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        for (int i = 0; i < 5; i++) {
+            index.accessed("old", GIGABYTE);
+        }
+        // every replacement raises the clock, until objects used once now outrank the one used often long ago
+        for (int i = 0; i < 20 && index.contains("old"); i++) {
+            index.accessed("new-" + i, GIGABYTE);
+            index.chooseToBeReplaced(1, null);
+        }
+
+        assertFalse(index.contains("old"));
+    }
+}
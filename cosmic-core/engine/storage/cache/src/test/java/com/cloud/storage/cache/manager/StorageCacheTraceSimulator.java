@@ -0,0 +1,121 @@
+package com.cloud.storage.cache.manager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a trace of accesses to a cache store against the replacement policies, to compare how much copying onto the
+ * store they cause. A trace has one access per line: the object and its size in bytes, separated by white space; lines
+ * starting with # are comments.
+ */
+class StorageCacheTraceSimulator {
+
+    static List<Access> readTrace(final Reader reader) throws IOException {
+        final List<Access> trace = new ArrayList<>();
+        final BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IOException("Expected an object and its size, got: " + line);
+            }
+            trace.add(new Access(fields[0], Long.parseLong(fields[1])));
+        }
+        return trace;
+    }
+
+    /**
+     * Replays the trace against {@link StorageCacheIndex}, replacing objects like
+     * {@link StorageCacheReplacementAlgorithmGDSF} does when the store fills up.
+     */
+    static Result replayGdsf(final List<Access> trace, final long capacity) {
+        final StorageCacheIndex<String> index = new StorageCacheIndex<>();
+        final Result result = new Result("GDSF");
+        for (final Access access : trace) {
+            result.record(access, index.contains(access.key));
+            index.accessed(access.key, access.size);
+            final long bytesToFree = StorageCacheReplacementAlgorithmGDSF.bytesToFree(index.getCachedBytes(), capacity);
+            if (bytesToFree > 0) {
+                index.chooseToBeReplaced(bytesToFree, null);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replays the trace against a least recently used policy that does not look at sizes, between the same watermarks.
+     */
+    static Result replayLru(final List<Access> trace, final long capacity) {
+        final LinkedHashMap<String, Long> cached = new LinkedHashMap<>(16, 0.75f, true);
+        final Result result = new Result("LRU");
+        long cachedBytes = 0;
+        for (final Access access : trace) {
+            final boolean hit = cached.get(access.key) != null;
+            result.record(access, hit);
+            if (!hit) {
+                cached.put(access.key, access.size);
+                cachedBytes += access.size;
+            }
+            long bytesToFree = StorageCacheReplacementAlgorithmGDSF.bytesToFree(cachedBytes, capacity);
+            final Iterator<Map.Entry<String, Long>> it = cached.entrySet().iterator();
+            while (bytesToFree > 0 && it.hasNext()) {
+                final long size = it.next().getValue();
+                it.remove();
+                cachedBytes -= size;
+                bytesToFree -= size;
+            }
+        }
+        return result;
+    }
+
+    static final class Access {
+        final String key;
+        final long size;
+
+        Access(final String key, final long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    static final class Result {
+        final String policy;
+        long accesses = 0;
+        long hits = 0;
+        long bytes = 0;
+        long bytesHit = 0;
+        // time spent copying objects onto the store
+        double fetchSeconds = 0;
+
+        Result(final String policy) {
+            this.policy = policy;
+        }
+
+        void record(final Access access, final boolean hit) {
+            accesses++;
+            bytes += access.size;
+            if (hit) {
+                hits++;
+                bytesHit += access.size;
+            } else {
+                fetchSeconds += StorageCacheIndex.fetchSeconds(access.size);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d of %d accesses hit (%.1f%%), %.1f%% of the bytes, %.0f seconds copying", policy, hits, accesses, 100.0 * hits / accesses,
+                    100.0 * bytesHit / bytes, fetchSeconds);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.cloud.storage.cache.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StorageCacheTraceSimulatorTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(StorageCacheTraceSimulatorTest.class);
+
+    private static final long MEGABYTE = 1024L * 1024;
+
+    /**
+     * A mix of small snapshots and volumes and large templates, used with a Zipf popularity that does not depend on
+     * the size.
+     */
+    private static List<StorageCacheTraceSimulator.Access> zipfTrace(final int objects, final int accesses, final long seed) {
+        final Random random = new Random(seed);
+        final long[] sizes = new long[objects];
+        for (int i = 0; i < objects; i++) {
+            // 50 MB to 20 GB, log uniform
+            sizes[i] = (long) (50 * MEGABYTE * Math.pow(400, random.nextDouble()));
+        }
+        final double[] cumulative = new double[objects];
+        double total = 0;
+        for (int i = 0; i < objects; i++) {
+            total += 1 / Math.pow(i + 1, 0.8);
+            cumulative[i] = total;
+        }
+
+        final List<StorageCacheTraceSimulator.Access> trace = new ArrayList<>(accesses);
+        for (int i = 0; i < accesses; i++) {
+            final double r = random.nextDouble() * total;
+            int object = 0;
+            while (cumulative[object] < r) {
+                object++;
+            }
+            trace.add(new StorageCacheTraceSimulator.Access("object-" + object, sizes[object]));
+        }
+        return trace;
+    }
+
+    private static long totalSize(final List<StorageCacheTraceSimulator.Access> trace) {
+        final Map<String, Long> sizes = new HashMap<>();
+        for (final StorageCacheTraceSimulator.Access access : trace) {
+            sizes.put(access.key, access.size);
+        }
+        long total = 0;
+        for (final long size : sizes.values()) {
+            total += size;
+        }
+        return total;
+    }
+
+    @Test
+    public void testReadTrace() throws IOException {
+        final List<StorageCacheTraceSimulator.Access> trace = StorageCacheTraceSimulator.readTrace(new StringReader(
+                "# object size\n" +
+                        "template-1 1073741824\n" +
+                        "\n" +
+                        "snapshot-2\t52428800\n" +
+                        "template-1 1073741824\n"));
+
+        assertEquals(3, trace.size());
+        assertEquals("snapshot-2", trace.get(1).key);
+        assertEquals(52428800, trace.get(1).size);
+
+        final StorageCacheTraceSimulator.Result result = StorageCacheTraceSimulator.replayGdsf(trace, 10 * 1024 * MEGABYTE);
+        assertEquals(1, result.hits);
+        assertEquals(1073741824, result.bytesHit);
+    }
+
+    @Test
+    public void testGdsfCopiesLessThanLruOnZipfTrace() {
+        final List<StorageCacheTraceSimulator.Access> trace = zipfTrace(500, 20000, 42);
+        final long capacity = totalSize(trace) / 10;
+
+        final StorageCacheTraceSimulator.Result gdsf = StorageCacheTraceSimulator.replayGdsf(trace, capacity);
+        final StorageCacheTraceSimulator.Result lru = StorageCacheTraceSimulator.replayLru(trace, capacity);
+        s_logger.info(gdsf.toString());
+        s_logger.info(lru.toString());
+
+        assertEquals(trace.size(), gdsf.accesses);
+        assertTrue("GDSF should hit more often than LRU", gdsf.hits > lru.hits);
+        assertTrue("GDSF should spend less time copying than LRU", gdsf.fetchSeconds < lru.fetchSeconds);
+    }
+}
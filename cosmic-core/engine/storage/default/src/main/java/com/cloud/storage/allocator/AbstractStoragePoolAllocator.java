@@ -1,7 +1,5 @@
 package com.cloud.storage.allocator;
 
-import com.cloud.capacity.Capacity;
-import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterVO;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentPlan;
@@ -13,6 +11,7 @@ import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.storage.Storage;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.StoragePool;
+import com.cloud.storage.StoragePoolCapacityView;
 import com.cloud.storage.Volume;
 import com.cloud.storage.dao.DiskOfferingDao;
 import com.cloud.storage.dao.VolumeDao;
@@ -61,7 +60,7 @@ public abstract class AbstractStoragePoolAllocator extends AdapterBase implement
     @Inject
     DiskOfferingDao _diskOfferingDao;
     @Inject
-    CapacityDao _capacityDao;
+    StoragePoolCapacityView _capacityView;
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -130,62 +129,43 @@ public abstract class AbstractStoragePoolAllocator extends AdapterBase implement
         if (account == null) {
             return pools;
         }
-        final long dcId = plan.getDataCenterId();
-        final Long podId = plan.getPodId();
-        final Long clusterId = plan.getClusterId();
-
-        final List<Long> poolIdsByVolCount = _volumeDao.listPoolIdsByVolumeCount(dcId, podId, clusterId, account.getAccountId());
+        final List<Long> poolIdsByVolCount = _capacityView.orderPoolsByVolumeCount(plan.getDataCenterId(), getPoolIds(pools), account.getAccountId());
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("List of pools in ascending order of number of volumes for account id: " + account.getAccountId() + " is: " + poolIdsByVolCount);
         }
-
-        // now filter the given list of Pools by this ordered list
-        final Map<Long, StoragePool> poolMap = new HashMap<>();
-        for (final StoragePool pool : pools) {
-            poolMap.put(pool.getId(), pool);
-        }
-        final List<Long> matchingPoolIds = new ArrayList<>(poolMap.keySet());
-
-        poolIdsByVolCount.retainAll(matchingPoolIds);
-
-        final List<StoragePool> reorderedPools = new ArrayList<>();
-        for (final Long id : poolIdsByVolCount) {
-            reorderedPools.add(poolMap.get(id));
-        }
-
-        return reorderedPools;
+        return reorderPools(pools, poolIdsByVolCount);
     }
 
     protected List<StoragePool> reorderPoolsByCapacity(final DeploymentPlan plan,
                                                        final List<StoragePool> pools) {
-        final Long clusterId = plan.getClusterId();
-        final short capacityType;
-        if (pools != null && pools.size() != 0) {
-            capacityType = pools.get(0).getPoolType().isShared() == true ?
-                    Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED : Capacity.CAPACITY_TYPE_LOCAL_STORAGE;
-        } else {
+        if (pools == null || pools.size() == 0) {
             return null;
         }
 
-        final List<Long> poolIdsByCapacity = _capacityDao.orderHostsByFreeCapacity(clusterId, capacityType);
+        final List<Long> poolIdsByCapacity = _capacityView.orderPoolsByFreeCapacity(plan.getDataCenterId(), getPoolIds(pools));
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("List of pools in descending order of free capacity: " + poolIdsByCapacity);
         }
+        return reorderPools(pools, poolIdsByCapacity);
+    }
+
+    private List<Long> getPoolIds(final List<StoragePool> pools) {
+        final List<Long> poolIds = new ArrayList<>(pools.size());
+        for (final StoragePool pool : pools) {
+            poolIds.add(pool.getId());
+        }
+        return poolIds;
+    }
 
-        //now filter the given list of Pools by this ordered list
+    private List<StoragePool> reorderPools(final List<StoragePool> pools, final List<Long> orderedPoolIds) {
         final Map<Long, StoragePool> poolMap = new HashMap<>();
         for (final StoragePool pool : pools) {
             poolMap.put(pool.getId(), pool);
         }
-        final List<Long> matchingPoolIds = new ArrayList<>(poolMap.keySet());
-
-        poolIdsByCapacity.retainAll(matchingPoolIds);
-
         final List<StoragePool> reorderedPools = new ArrayList<>();
-        for (final Long id : poolIdsByCapacity) {
+        for (final Long id : orderedPoolIds) {
             reorderedPools.add(poolMap.get(id));
         }
-
         return reorderedPools;
     }
 
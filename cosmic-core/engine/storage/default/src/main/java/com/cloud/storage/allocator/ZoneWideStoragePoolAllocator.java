@@ -8,15 +8,12 @@ import com.cloud.storage.ScopeType;
 import com.cloud.storage.StoragePool;
 import com.cloud.storage.datastore.db.PrimaryDataStoreDao;
 import com.cloud.storage.datastore.db.StoragePoolVO;
-import com.cloud.user.Account;
 import com.cloud.vm.DiskProfile;
 import com.cloud.vm.VirtualMachineProfile;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,33 +73,4 @@ public class ZoneWideStoragePoolAllocator extends AbstractStoragePoolAllocator {
         detectSuitableOrToAvoidPools(dskCh, plan, avoid, returnUpTo, suitablePools, storagePools);
         return suitablePools;
     }
-
-    @Override
-    protected List<StoragePool> reorderPoolsByNumberOfVolumes(final DeploymentPlan plan, final List<StoragePool> pools, final Account account) {
-        if (account == null) {
-            return pools;
-        }
-        final long dcId = plan.getDataCenterId();
-
-        final List<Long> poolIdsByVolCount = _volumeDao.listZoneWidePoolIdsByVolumeCount(dcId, account.getAccountId());
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug("List of pools in ascending order of number of volumes for account id: " + account.getAccountId() + " is: " + poolIdsByVolCount);
-        }
-
-        // now filter the given list of Pools by this ordered list
-        final Map<Long, StoragePool> poolMap = new HashMap<>();
-        for (final StoragePool pool : pools) {
-            poolMap.put(pool.getId(), pool);
-        }
-        final List<Long> matchingPoolIds = new ArrayList<>(poolMap.keySet());
-
-        poolIdsByVolCount.retainAll(matchingPoolIds);
-
-        final List<StoragePool> reorderedPools = new ArrayList<>();
-        for (final Long id : poolIdsByVolCount) {
-            reorderedPools.add(poolMap.get(id));
-        }
-
-        return reorderedPools;
-    }
 }
@@ -14,6 +14,8 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.LockWaitNotifier;
+import com.cloud.utils.db.Merovingian2;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
@@ -89,6 +91,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private Long _mshostId = null;
     private boolean _peerScanInited = false;
     private String _clusterNodeIP = "127.0.0.1";
+    private boolean _peerChannelEnabled = true;
+    private volatile ClusterPeerChannelService _peerChannels;
 
     public ClusterManagerImpl() {
         _clusterPeers = new HashMap<>();
@@ -166,6 +170,14 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     }
 
     private void addOutgoingClusterPdu(final ClusterServicePdu pdu) {
+        final ClusterPeerChannelService peerChannels = _peerChannels;
+        if (peerChannels != null && peerChannels.send(pdu)) {
+            return;
+        }
+        addOutgoingServletPdu(pdu);
+    }
+
+    private void addOutgoingServletPdu(final ClusterServicePdu pdu) {
         synchronized (_clusterPduOutgoingQueue) {
             _clusterPduOutgoingQueue.add(pdu);
             _clusterPduOutgoingQueue.notifyAll();
@@ -282,6 +294,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             throw new ConfigurationException("cluster node IP should be valid local address where the server is running, please check your configuration");
         }
 
+        final String peerChannel = dbProps.getProperty("cluster.peer.channel");
+        _peerChannelEnabled = peerChannel == null || Boolean.parseBoolean(peerChannel.trim());
+
         for (int i = 0; i < DEFAULT_OUTGOING_WORKERS; i++) {
             _executor.execute(getClusterPduSendingTask());
         }
@@ -416,6 +431,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                 continue;
             }
 
+            if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_LOCK_WAITING || pdu.getPduType() == ClusterServicePdu.PDU_TYPE_LOCK_RELEASED) {
+                // cheap and never blocking, waiters should not have to wait for a worker
+                onLockPdu(pdu);
+                continue;
+            }
+
             _executor.execute(new ManagedContextRunnable() {
                 @Override
                 protected void runInContext() {
@@ -451,6 +472,31 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    private void onLockPdu(final ClusterServicePdu pdu) {
+        final Merovingian2 lockMaster = Merovingian2.getLockMaster();
+        if (lockMaster == null) {
+            return;
+        }
+        try {
+            if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_LOCK_WAITING) {
+                lockMaster.onRemoteWaiter(pdu.getJsonPackage(), Long.parseLong(pdu.getSourcePeer()));
+            } else {
+                lockMaster.onRemoteRelease(pdu.getJsonPackage());
+            }
+        } catch (final RuntimeException e) {
+            s_logger.warn("Unable to handle the lock notification from " + pdu.getSourcePeer() + " for lck-" + pdu.getJsonPackage(), e);
+        }
+    }
+
+    private void sendLockPdu(final long msId, final int pduType, final String key) {
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(pduType);
+        pdu.setSourcePeer(getSelfPeerName());
+        pdu.setDestPeer(Long.toString(msId));
+        pdu.setJsonPackage(key);
+        addOutgoingClusterPdu(pdu);
+    }
+
     public boolean pingManagementNode(final long msid) {
         final ManagementServerHostVO mshost = _mshostDao.findByMsid(msid);
         if (mshost == null) {
@@ -629,6 +675,22 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
         _mshostPeerDao.clearPeerInfo(_mshostId);
 
+        if (_peerChannelEnabled) {
+            startPeerChannels();
+        }
+
+        Merovingian2.setNotifier(new LockWaitNotifier() {
+            @Override
+            public void waitingFor(final long ownerMsId, final String key) {
+                sendLockPdu(ownerMsId, ClusterServicePdu.PDU_TYPE_LOCK_WAITING, key);
+            }
+
+            @Override
+            public void released(final long waiterMsId, final String key) {
+                sendLockPdu(waiterMsId, ClusterServicePdu.PDU_TYPE_LOCK_RELEASED, key);
+            }
+        });
+
         // use seperate thread for heartbeat updates
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
@@ -640,6 +702,23 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         return true;
     }
 
+    private void startPeerChannels() {
+        final ClusterPeerChannelService peerChannels = new ClusterPeerChannelService(_currentServiceAdapter.getServicePort() + ClusterPeerChannelService.PORT_OFFSET,
+                this::getPeerChannelAddress, this::addIncomingClusterPdu, this::addOutgoingServletPdu, ClusterPeerChannelService.DEFAULT_MAX_BATCH_SIZE,
+                ClusterPeerChannelService.DEFAULT_MAX_BATCH_BYTES);
+        if (peerChannels.start()) {
+            _peerChannels = peerChannels;
+        }
+    }
+
+    private InetSocketAddress getPeerChannelAddress(final String strPeer) {
+        final ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+        if (mshost == null) {
+            return null;
+        }
+        return new InetSocketAddress(mshost.getServiceIP(), mshost.getServicePort() + ClusterPeerChannelService.PORT_OFFSET);
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
             @Override
@@ -1064,6 +1143,9 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Leaving node, IP: " + mshost.getServiceIP() + ", msid: " + mshost.getMsid());
             }
+            if (_peerChannels != null) {
+                _peerChannels.closeChannel(String.valueOf(mshost.getMsid()));
+            }
             cancelClusterRequestToPeer(String.valueOf(mshost.getMsid()));
         }
 
@@ -1132,6 +1214,13 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             _mshostDao.update(_mshostId, mshost);
         }
 
+        Merovingian2.setNotifier(null);
+
+        if (_peerChannels != null) {
+            _peerChannels.stop();
+            _peerChannels = null;
+        }
+
         _heartbeatScheduler.shutdownNow();
         _executor.shutdownNow();
 
@@ -0,0 +1,137 @@
+package com.cloud.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes the frames exchanged over a peer channel: a batch of cluster PDUs, or the acknowledgement of the sequence ids
+ * of the PDUs a peer received.
+ */
+final class ClusterPduCodec {
+    static final byte FRAME_PDUS = 1;
+    static final byte FRAME_ACK = 2;
+
+    private ClusterPduCodec() {
+    }
+
+    static byte[] encodePdus(final List<ClusterServicePdu> pdus) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FRAME_PDUS);
+        out.writeInt(pdus.size());
+        for (final ClusterServicePdu pdu : pdus) {
+            out.writeLong(pdu.getSequenceId());
+            out.writeLong(pdu.getAckSequenceId());
+            out.writeLong(pdu.getAgentId());
+            out.writeInt(pdu.getPduType());
+            out.writeBoolean(pdu.isStopOnError());
+            writeString(out, pdu.getSourcePeer());
+            writeString(out, pdu.getDestPeer());
+            writeString(out, pdu.getJsonPackage());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] encodeAck(final List<Long> sequenceIds) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(5 + 8 * sequenceIds.size());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FRAME_ACK);
+        out.writeInt(sequenceIds.size());
+        for (final Long sequenceId : sequenceIds) {
+            out.writeLong(sequenceId);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Frame decode(final byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        final byte type = in.readByte();
+        final int count = in.readInt();
+        if (type == FRAME_ACK) {
+            final List<Long> sequenceIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sequenceIds.add(in.readLong());
+            }
+            return new Frame(type, Collections.emptyList(), sequenceIds);
+        }
+        if (type != FRAME_PDUS) {
+            throw new IOException("Unknown frame type " + type);
+        }
+
+        final List<ClusterServicePdu> pdus = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setSequenceId(in.readLong());
+            pdu.setAckSequenceId(in.readLong());
+            pdu.setAgentId(in.readLong());
+            pdu.setPduType(in.readInt());
+            pdu.setStopOnError(in.readBoolean());
+            pdu.setSourcePeer(readString(in));
+            pdu.setDestPeer(readString(in));
+            pdu.setJsonPackage(readString(in));
+            pdus.add(pdu);
+        }
+        return new Frame(type, pdus, Collections.emptyList());
+    }
+
+    /**
+     * @return a rough size of the PDU on the wire, to bound the size of a batch
+     */
+    static int estimateSize(final ClusterServicePdu pdu) {
+        return 64 + (pdu.getJsonPackage() == null ? 0 : pdu.getJsonPackage().length());
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // unlike writeUTF, not limited to 64k, which a json package may exceed
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static class Frame {
+        private final byte type;
+        private final List<ClusterServicePdu> pdus;
+        private final List<Long> acks;
+
+        Frame(final byte type, final List<ClusterServicePdu> pdus, final List<Long> acks) {
+            this.type = type;
+            this.pdus = pdus;
+            this.acks = acks;
+        }
+
+        boolean isAck() {
+            return type == FRAME_ACK;
+        }
+
+        List<ClusterServicePdu> getPdus() {
+            return pdus;
+        }
+
+        List<Long> getAcks() {
+            return acks;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.cloud.cluster;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.exception.TaskExecutionException;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.Task;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent connection to the peer channel of one other management server, that cluster PDUs are sent over instead
+ * of as an HTTP request each.
+ * <p>
+ * Every channel has its own sender thread, so a slow peer does not hold up the PDUs to the others. The sender takes
+ * whatever is queued for the peer, up to a batch size, and writes it as one frame. The peer acknowledges the sequence
+ * ids of the PDUs it received, asynchronously, so the sender never waits for the peer. When the connection is lost,
+ * the PDUs that were queued or not acknowledged yet are handed back to be sent over HTTP; like the retries of the HTTP
+ * path, a PDU may then be delivered twice.
+ */
+public class ClusterPeerChannel {
+    private static final Logger s_logger = LoggerFactory.getLogger(ClusterPeerChannel.class);
+
+    private final String peer;
+    private final InetSocketAddress address;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final Consumer<ClusterServicePdu> fallback;
+
+    private final BlockingQueue<ClusterServicePdu> queue = new LinkedBlockingQueue<>();
+    // sequence id -> PDUs written to the peer that it did not acknowledge yet
+    private final Map<Long, ClusterServicePdu> unacked = new ConcurrentHashMap<>();
+    private final CompletableFuture<Link> connected = new CompletableFuture<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+
+    private NioClient client;
+    private volatile Link link;
+
+    public ClusterPeerChannel(final String peer, final InetSocketAddress address, final int maxBatchSize, final int maxBatchBytes,
+                              final Consumer<ClusterServicePdu> fallback) {
+        this.peer = peer;
+        this.address = address;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Connects to the peer and starts the sender thread.
+     *
+     * @return whether the channel is connected
+     */
+    public boolean connect(final long timeoutMillis) {
+        client = new NioClient("Cluster-Peer-" + peer, address.getHostString(), address.getPort(), 1, (type, link, data) -> new PeerTask(type, link, data));
+        try {
+            client.start();
+            if (client.isStartup()) {
+                link = connected.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (final NioConnectionException e) {
+            s_logger.info("Unable to connect to the peer channel of " + peer + " at " + address + ": " + e.getMessage());
+        } catch (final Exception e) {
+            s_logger.info("No peer channel to " + peer + " at " + address + " within " + timeoutMillis + " ms");
+        }
+
+        if (link == null) {
+            close();
+            return false;
+        }
+        s_logger.info("Connected the peer channel to " + peer + " at " + address);
+        new NamedThreadFactory("Cluster-Peer-Sender-" + peer).newThread(this::sendQueued).start();
+        return true;
+    }
+
+    /**
+     * Queues a PDU for the peer.
+     *
+     * @return false when the channel is closed, the PDU has to go another way
+     */
+    public boolean offer(final ClusterServicePdu pdu) {
+        if (closed.get()) {
+            return false;
+        }
+        queue.add(pdu);
+        if (closed.get()) {
+            // lost the race with close(), which may not have seen the PDU
+            handBack();
+        }
+        return true;
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        final Link current = link;
+        if (current != null) {
+            current.close();
+        }
+        if (client != null) {
+            client.stop();
+            try {
+                client.cleanUp();
+            } catch (final IOException e) {
+                s_logger.debug("[ignored] error closing the peer channel to " + peer, e);
+            }
+        }
+        handBack();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getUnackedCount() {
+        return unacked.size();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getAckedCount() {
+        return acked.get();
+    }
+
+    void onAck(final List<Long> sequenceIds) {
+        for (final Long sequenceId : sequenceIds) {
+            if (unacked.remove(sequenceId) != null) {
+                acked.incrementAndGet();
+            }
+        }
+    }
+
+    private void handBack() {
+        final List<ClusterServicePdu> pending = new ArrayList<>();
+        for (final Long sequenceId : new ArrayList<>(unacked.keySet())) {
+            final ClusterServicePdu pdu = unacked.remove(sequenceId);
+            if (pdu != null) {
+                pending.add(pdu);
+            }
+        }
+        queue.drainTo(pending);
+        if (!pending.isEmpty()) {
+            s_logger.info("Sending " + pending.size() + " PDUs to " + peer + " over HTTP as its peer channel is closed");
+        }
+        for (final ClusterServicePdu pdu : pending) {
+            fallback.accept(pdu);
+        }
+    }
+
+    private void sendQueued() {
+        final List<ClusterServicePdu> batch = new ArrayList<>(maxBatchSize);
+        while (!closed.get()) {
+            try {
+                final ClusterServicePdu first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int bytes = ClusterPduCodec.estimateSize(first);
+                ClusterServicePdu next;
+                while (batch.size() < maxBatchSize && bytes < maxBatchBytes && (next = queue.poll()) != null) {
+                    batch.add(next);
+                    bytes += ClusterPduCodec.estimateSize(next);
+                }
+
+                for (final ClusterServicePdu pdu : batch) {
+                    unacked.put(pdu.getSequenceId(), pdu);
+                }
+                link.send(ClusterPduCodec.encodePdus(batch));
+                sent.addAndGet(batch.size());
+                batches.incrementAndGet();
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Sent " + batch.size() + " PDUs to " + peer + " in one frame");
+                }
+            } catch (final InterruptedException e) {
+                s_logger.debug("[ignored] interrupted while waiting for PDUs to " + peer);
+            } catch (final ClosedChannelException e) {
+                s_logger.info("The peer channel to " + peer + " is closed");
+                close();
+            } catch (final IOException e) {
+                s_logger.warn("Unable to encode PDUs to " + peer, e);
+                close();
+            } finally {
+                batch.clear();
+            }
+        }
+        // a batch taken while the channel closed
+        handBack();
+    }
+
+    private class PeerTask extends Task {
+        PeerTask(final Type type, final Link link, final byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(final Task task) throws TaskExecutionException {
+            switch (task.getType()) {
+                case CONNECT:
+                    connected.complete(task.getLink());
+                    break;
+                case DATA:
+                    try {
+                        final ClusterPduCodec.Frame frame = ClusterPduCodec.decode(task.getData());
+                        if (frame.isAck()) {
+                            onAck(frame.getAcks());
+                        } else {
+                            s_logger.warn("Ignoring " + frame.getPdus().size() + " PDUs sent back by " + peer + " over its peer channel");
+                        }
+                    } catch (final IOException e) {
+                        s_logger.warn("Unable to decode a frame from " + peer + ", closing its peer channel", e);
+                        close();
+                    }
+                    break;
+                case DISCONNECT:
+                    s_logger.info("The peer channel to " + peer + " disconnected");
+                    close();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
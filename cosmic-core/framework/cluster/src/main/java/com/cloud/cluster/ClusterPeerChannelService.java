@@ -0,0 +1,214 @@
+package com.cloud.cluster;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.NioConnectionException;
+import com.cloud.utils.exception.TaskExecutionException;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The peer channels of a management server: the server the other management servers connect to, over the same NIO and
+ * SSL stack as the agents, and a {@link ClusterPeerChannel} to each peer that PDUs were sent to.
+ * <p>
+ * A channel is connected in the background when the first PDU for a peer is sent; until it is up, and for a while
+ * after a peer could not be connected to, {@link #send(ClusterServicePdu)} declines the PDUs, which then go over the
+ * HTTP cluster service like before. So peers that do not have a peer channel keep working.
+ */
+public class ClusterPeerChannelService {
+    private static final Logger s_logger = LoggerFactory.getLogger(ClusterPeerChannelService.class);
+
+    // the peer channel listens next to the cluster service port
+    public static final int PORT_OFFSET = 1;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+
+    private static final int SERVER_WORKERS = 5;
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_INTERVAL_MILLIS = 30 * 1000L;
+
+    private final int port;
+    private final Function<String, InetSocketAddress> resolver;
+    private final Consumer<ClusterServicePdu> receiver;
+    private final Consumer<ClusterServicePdu> fallback;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+
+    private final Map<String, ClusterPeerChannel> channels = new ConcurrentHashMap<>();
+    // peer -> when to try to connect to it again
+    private final Map<String, Long> unreachable = new ConcurrentHashMap<>();
+    private final Set<String> connecting = ConcurrentHashMap.newKeySet();
+    private final ExecutorService connectExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Cluster-Peer-Connect"));
+    private NioServer server;
+
+    /**
+     * @param resolver the address of the peer channel of a peer, or null when the peer is unknown
+     * @param receiver takes the PDUs received from peers
+     * @param fallback takes the PDUs that could not be sent over a peer channel
+     */
+    public ClusterPeerChannelService(final int port, final Function<String, InetSocketAddress> resolver, final Consumer<ClusterServicePdu> receiver,
+                                     final Consumer<ClusterServicePdu> fallback, final int maxBatchSize, final int maxBatchBytes) {
+        this.port = port;
+        this.resolver = resolver;
+        this.receiver = receiver;
+        this.fallback = fallback;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return whether the peer channel server is listening
+     */
+    public boolean start() {
+        server = new NioServer("Cluster-Peer-Server", port, SERVER_WORKERS, (type, link, data) -> new InboundTask(type, link, data));
+        try {
+            server.start();
+        } catch (final NioConnectionException e) {
+            s_logger.warn("Unable to start the cluster peer channel on port " + port + ", PDUs are sent over HTTP only", e);
+            server = null;
+            return false;
+        }
+        s_logger.info("Cluster peer channel is listening on port " + port);
+        return true;
+    }
+
+    public void stop() {
+        connectExecutor.shutdownNow();
+        for (final ClusterPeerChannel channel : new ArrayList<>(channels.values())) {
+            channel.close();
+        }
+        channels.clear();
+        if (server != null) {
+            server.stop();
+            try {
+                server.cleanUp();
+            } catch (final IOException e) {
+                s_logger.debug("[ignored] error stopping the cluster peer channel", e);
+            }
+        }
+    }
+
+    /**
+     * Queues the PDU on the channel to its destination peer.
+     *
+     * @return false when there is no channel to the peer (yet), the PDU has to be sent over HTTP
+     */
+    public boolean send(final ClusterServicePdu pdu) {
+        final String peer = pdu.getDestPeer();
+        final ClusterPeerChannel channel = channels.get(peer);
+        if (channel != null) {
+            if (channel.offer(pdu)) {
+                return true;
+            }
+            channels.remove(peer, channel);
+        }
+        connectInBackground(peer);
+        return false;
+    }
+
+    /**
+     * Closes the channel to a peer that left the cluster, its pending PDUs go to the fallback.
+     */
+    public void closeChannel(final String peer) {
+        final ClusterPeerChannel channel = channels.remove(peer);
+        if (channel != null) {
+            channel.close();
+        }
+        unreachable.remove(peer);
+    }
+
+    public ClusterPeerChannel getChannel(final String peer) {
+        return channels.get(peer);
+    }
+
+    public Collection<ClusterPeerChannel> getChannels() {
+        return channels.values();
+    }
+
+    private void connectInBackground(final String peer) {
+        final Long retryAt = unreachable.get(peer);
+        if (retryAt != null && System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        if (!connecting.add(peer)) {
+            return;
+        }
+
+        try {
+            connectExecutor.execute(() -> {
+                try {
+                    connect(peer);
+                } finally {
+                    connecting.remove(peer);
+                }
+            });
+        } catch (final Exception e) {
+            connecting.remove(peer);
+            s_logger.debug("[ignored] not connecting to " + peer + " while stopping", e);
+        }
+    }
+
+    private void connect(final String peer) {
+        final InetSocketAddress address = resolver.apply(peer);
+        final ClusterPeerChannel channel = address == null ? null : new ClusterPeerChannel(peer, address, maxBatchSize, maxBatchBytes, fallback);
+        if (channel == null || !channel.connect(CONNECT_TIMEOUT_MILLIS)) {
+            unreachable.put(peer, System.currentTimeMillis() + RECONNECT_INTERVAL_MILLIS);
+            return;
+        }
+        unreachable.remove(peer);
+        final ClusterPeerChannel previous = channels.put(peer, channel);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private class InboundTask extends Task {
+        InboundTask(final Type type, final Link link, final byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(final Task task) throws TaskExecutionException {
+            if (task.getType() != Type.DATA) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Cluster peer channel " + task.getType() + " from " + task.getLink().getSocketAddress());
+                }
+                return;
+            }
+
+            final List<Long> received = new ArrayList<>();
+            try {
+                final ClusterPduCodec.Frame frame = ClusterPduCodec.decode(task.getData());
+                for (final ClusterServicePdu pdu : frame.getPdus()) {
+                    receiver.accept(pdu);
+                    received.add(pdu.getSequenceId());
+                }
+                if (!received.isEmpty()) {
+                    task.getLink().send(ClusterPduCodec.encodeAck(received));
+                }
+            } catch (final ClosedChannelException e) {
+                s_logger.info("Unable to acknowledge " + received.size() + " PDUs, the peer channel from " + task.getLink().getSocketAddress() + " is closed");
+            } catch (final IOException e) {
+                s_logger.warn("Unable to decode a frame from " + task.getLink().getSocketAddress() + ", closing the peer channel", e);
+                task.getLink().close();
+            }
+        }
+    }
+}
@@ -4,6 +4,9 @@ public class ClusterServicePdu {
     public final static int PDU_TYPE_MESSAGE = 0;
     public final static int PDU_TYPE_REQUEST = 1;
     public final static int PDU_TYPE_RESPONSE = 2;
+    // lock notifications between the lock masters, the json package is the lock key
+    public final static int PDU_TYPE_LOCK_WAITING = 3;
+    public final static int PDU_TYPE_LOCK_RELEASED = 4;
     private static long s_nextPduSequenceId = 1;
     private long sequenceId;
     private long ackSequenceId;
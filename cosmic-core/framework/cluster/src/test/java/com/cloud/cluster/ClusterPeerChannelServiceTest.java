@@ -0,0 +1,285 @@
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ClusterPeerChannelServiceTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(ClusterPeerChannelServiceTest.class);
+
+    private static final String DISABLED_ALGORITHMS = "jdk.tls.disabledAlgorithms";
+    private static final int ROUND_TRIP_PDU_COUNT = 20;
+    private static final int PDU_COUNT = 2000;
+    private static final int SEQUENTIAL_PDU_COUNT = 200;
+    private static final int SERVLET_PDU_COUNT = 200;
+    private static final String PAYLOAD = "[{\"com.cloud.agent.api.CheckHealthCommand\":{\"wait\":50}}]";
+
+    private static String disabledAlgorithms;
+
+    private final List<ClusterPeerChannelService> services = new ArrayList<>();
+
+    @BeforeClass
+    public static void enableTlsV1() {
+        // the NIO stack uses a TLSv1 context, which recent JDKs disable unless the deployment enables it
+        disabledAlgorithms = Security.getProperty(DISABLED_ALGORITHMS);
+        Security.setProperty(DISABLED_ALGORITHMS, "SSLv3, RC4, DES, MD5withRSA, DH keySize < 1024, EC keySize < 224, 3DES_EDE_CBC, anon, NULL");
+    }
+
+    @AfterClass
+    public static void restoreDisabledAlgorithms() {
+        if (disabledAlgorithms != null) {
+            Security.setProperty(DISABLED_ALGORITHMS, disabledAlgorithms);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (final ClusterPeerChannelService service : services) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws IOException {
+        final ClusterServicePdu request = pdu("1", "2", PAYLOAD);
+        request.setAgentId(42);
+        request.setStopOnError(true);
+        request.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        final ClusterServicePdu empty = pdu("1", "2", null);
+        final ClusterServicePdu large = pdu("1", "2", StringUtils.repeat("x", 100000));
+
+        final ClusterPduCodec.Frame frame = ClusterPduCodec.decode(ClusterPduCodec.encodePdus(Arrays.asList(request, empty, large)));
+
+        assertFalse(frame.isAck());
+        assertEquals(3, frame.getPdus().size());
+        final ClusterServicePdu decoded = frame.getPdus().get(0);
+        assertEquals(request.getSequenceId(), decoded.getSequenceId());
+        assertEquals(42, decoded.getAgentId());
+        assertTrue(decoded.isStopOnError());
+        assertEquals(ClusterServicePdu.PDU_TYPE_REQUEST, decoded.getPduType());
+        assertEquals("1", decoded.getSourcePeer());
+        assertEquals(PAYLOAD, decoded.getJsonPackage());
+        assertNull(frame.getPdus().get(1).getJsonPackage());
+        assertEquals(large.getJsonPackage(), frame.getPdus().get(2).getJsonPackage());
+
+        final ClusterPduCodec.Frame ack = ClusterPduCodec.decode(ClusterPduCodec.encodeAck(Arrays.asList(3L, 5L)));
+        assertTrue(ack.isAck());
+        assertEquals(Arrays.asList(3L, 5L), ack.getAcks());
+    }
+
+    @Test
+    public void testUnreachablePeerFallsBack() throws Exception {
+        final int port = freePort();
+        final ClusterPeerChannelService service = start(freePort(), peer -> new InetSocketAddress("127.0.0.1", port), pdu -> {
+        }, pdu -> {
+        });
+
+        assertFalse(service.send(pdu("1", "2", PAYLOAD)));
+        Thread.sleep(500);
+        assertFalse(service.send(pdu("1", "2", PAYLOAD)));
+        assertNull(service.getChannel("2"));
+    }
+
+    @Test
+    public void testTwoNodeRoundTrip() throws Exception {
+        final int portA = freePort();
+        final int portB = freePort();
+        final CountDownLatch responses = new CountDownLatch(ROUND_TRIP_PDU_COUNT);
+        final AtomicInteger fallbacks = new AtomicInteger();
+        final ClusterPeerChannelService[] nodeB = new ClusterPeerChannelService[1];
+
+        final ClusterPeerChannelService nodeA = start(portA, peer -> new InetSocketAddress("127.0.0.1", portB), response -> responses.countDown(),
+                pdu -> fallbacks.incrementAndGet());
+        nodeB[0] = start(portB, peer -> new InetSocketAddress("127.0.0.1", portA), request -> {
+            final ClusterServicePdu response = pdu(request.getDestPeer(), request.getSourcePeer(), "true");
+            response.setPduType(ClusterServicePdu.PDU_TYPE_RESPONSE);
+            response.setAckSequenceId(request.getSequenceId());
+            if (!nodeB[0].send(response)) {
+                fallbacks.incrementAndGet();
+            }
+        }, pdu -> fallbacks.incrementAndGet());
+        connect(nodeA, "B");
+        connect(nodeB[0], "A");
+
+        for (int i = 0; i < ROUND_TRIP_PDU_COUNT; i++) {
+            final ClusterServicePdu request = pdu("A", "B", PAYLOAD);
+            request.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+            assertTrue(nodeA.send(request));
+        }
+        assertTrue(responses.await(10, TimeUnit.SECONDS));
+
+        final ClusterPeerChannel channel = nodeA.getChannel("B");
+        assertEquals(0, fallbacks.get());
+        assertEquals(ROUND_TRIP_PDU_COUNT, channel.getSentCount());
+        waitFor(() -> channel.getUnackedCount() == 0);
+        assertEquals(ROUND_TRIP_PDU_COUNT, channel.getAckedCount());
+    }
+
+    /**
+     * Two management servers on loopback: one sends requests to the other, which answers every request with a
+     * response PDU over its own channel, like forwarded agent commands. Compared with delivering PDUs one HTTP request
+     * at a time from a single sender.
+     */
+    @Test
+    public void benchmarkTwoNodeLoopback() throws Exception {
+        Benchmarks.assumeEnabled();
+        final int portA = freePort();
+        final int portB = freePort();
+        final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+        final AtomicLong latencyNanos = new AtomicLong();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        final CountDownLatch responses = new CountDownLatch(PDU_COUNT);
+        final BlockingQueue<Long> arrived = new LinkedBlockingQueue<>();
+        final AtomicInteger fallbacks = new AtomicInteger();
+        final ClusterPeerChannelService[] nodeB = new ClusterPeerChannelService[1];
+
+        final ClusterPeerChannelService nodeA = start(portA, peer -> new InetSocketAddress("127.0.0.1", portB), response -> {
+            arrived.add(response.getAckSequenceId());
+            final Long start = sentAt.remove(response.getAckSequenceId());
+            if (start != null) {
+                final long latency = System.nanoTime() - start;
+                latencyNanos.addAndGet(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                responses.countDown();
+            }
+        }, pdu -> fallbacks.incrementAndGet());
+        nodeB[0] = start(portB, peer -> new InetSocketAddress("127.0.0.1", portA), request -> {
+            final ClusterServicePdu response = pdu(request.getDestPeer(), request.getSourcePeer(), "true");
+            response.setPduType(ClusterServicePdu.PDU_TYPE_RESPONSE);
+            response.setAckSequenceId(request.getSequenceId());
+            if (!nodeB[0].send(response)) {
+                fallbacks.incrementAndGet();
+            }
+        }, pdu -> fallbacks.incrementAndGet());
+        connect(nodeA, "B");
+        connect(nodeB[0], "A");
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < PDU_COUNT; i++) {
+            final ClusterServicePdu request = pdu("A", "B", PAYLOAD);
+            request.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+            sentAt.put(request.getSequenceId(), System.nanoTime());
+            assertTrue(nodeA.send(request));
+        }
+        assertTrue(responses.await(60, TimeUnit.SECONDS));
+        final long channelMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        final ClusterPeerChannel channel = nodeA.getChannel("B");
+
+        // one request at a time, for the latency of a round trip without queueing
+        arrived.clear();
+        long sequentialNanos = 0;
+        for (int i = 0; i < SEQUENTIAL_PDU_COUNT; i++) {
+            final ClusterServicePdu request = pdu("A", "B", PAYLOAD);
+            final long begin = System.nanoTime();
+            assertTrue(nodeA.send(request));
+            assertEquals(Long.valueOf(request.getSequenceId()), arrived.poll(10, TimeUnit.SECONDS));
+            sequentialNanos += System.nanoTime() - begin;
+        }
+
+        final long servletMillis = Math.max(1, deliverOverServlet());
+
+        s_logger.info(PDU_COUNT + " request/response round trips over the peer channel took " + channelMillis + " ms (" + PDU_COUNT * 1000L / channelMillis
+                + "/s), average latency " + TimeUnit.NANOSECONDS.toMicros(latencyNanos.get() / PDU_COUNT) + " us, max " + TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get())
+                + " ms, " + channel.getSentCount() + " requests in " + channel.getBatchCount() + " frames; one at a time " + TimeUnit.NANOSECONDS.toMicros(sequentialNanos
+                / SEQUENTIAL_PDU_COUNT) + " us per round trip; " + SERVLET_PDU_COUNT + " one way PDUs over the servlet took "
+                + servletMillis + " ms (" + SERVLET_PDU_COUNT * 1000L / servletMillis + "/s)");
+        assertEquals(0, fallbacks.get());
+        assertEquals(PDU_COUNT + SEQUENTIAL_PDU_COUNT, channel.getSentCount());
+        waitFor(() -> channel.getUnackedCount() == 0);
+        assertEquals(PDU_COUNT + SEQUENTIAL_PDU_COUNT, channel.getAckedCount());
+    }
+
+    private long deliverOverServlet() throws Exception {
+        final int port = freePort();
+        final ClusterManager manager = mock(ClusterManager.class);
+        final CountDownLatch delivered = new CountDownLatch(SERVLET_PDU_COUNT);
+        doAnswer(invocation -> {
+            delivered.countDown();
+            return null;
+        }).when(manager).OnReceiveClusterServicePdu(any(ClusterServicePdu.class));
+        final ClusterServiceServletContainer container = new ClusterServiceServletContainer();
+        container.start(new ClusterServiceServletHttpHandler(manager), port);
+        try {
+            final ClusterService service = new ClusterServiceServletImpl("http://127.0.0.1:" + port + "/clusterservice");
+            final long start = System.nanoTime();
+            for (int i = 0; i < SERVLET_PDU_COUNT; i++) {
+                assertEquals("true", service.execute(pdu("A", "B", PAYLOAD)));
+            }
+            assertTrue(delivered.await(10, TimeUnit.SECONDS));
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            container.stop();
+        }
+    }
+
+    private ClusterPeerChannelService start(final int port, final Function<String, InetSocketAddress> resolver,
+                                            final Consumer<ClusterServicePdu> receiver, final Consumer<ClusterServicePdu> fallback) {
+        final ClusterPeerChannelService service = new ClusterPeerChannelService(port, resolver, receiver, fallback, ClusterPeerChannelService.DEFAULT_MAX_BATCH_SIZE,
+                ClusterPeerChannelService.DEFAULT_MAX_BATCH_BYTES);
+        services.add(service);
+        assertTrue(service.start());
+        return service;
+    }
+
+    private static void connect(final ClusterPeerChannelService service, final String peer) throws InterruptedException {
+        // the first PDU to a peer goes over HTTP and connects the channel in the background
+        assertFalse(service.send(pdu("self", peer, null)));
+        waitFor(() -> service.getChannel(peer) != null);
+        assertNotNull(service.getChannel(peer));
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static ClusterServicePdu pdu(final String source, final String dest, final String json) {
+        final ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setSourcePeer(source);
+        pdu.setDestPeer(dest);
+        pdu.setJsonPackage(json);
+        return pdu;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
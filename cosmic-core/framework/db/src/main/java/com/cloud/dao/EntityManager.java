@@ -1,6 +1,7 @@
 package com.cloud.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -40,6 +41,16 @@ public interface EntityManager {
      */
     <T> T findByUuidIncludingRemoved(Class<T> entityType, String uuid);
 
+    /**
+     * Finds the entities with any of the uuid strings, including those removed entries, in as few queries as possible
+     *
+     * @param <T>        entity class
+     * @param entityType type of entity you're looking for.
+     * @param uuids      the unique ids
+     * @return the entities found, in no particular order
+     */
+    <T> List<? extends T> listByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids);
+
     /**
      * Lists all entities.  Use this method at your own risk.
      *
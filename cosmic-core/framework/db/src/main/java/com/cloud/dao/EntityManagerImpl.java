@@ -9,12 +9,16 @@ import com.cloud.utils.db.SearchCriteria;
 
 import javax.naming.ConfigurationException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import net.sf.ehcache.Cache;
 
 public class EntityManagerImpl extends ManagerBase implements EntityManager {
+    private static final int UUID_BATCH_SIZE = 500;
+
     String _name;
     Cache _cache;
 
@@ -38,6 +42,20 @@ public class EntityManagerImpl extends ManagerBase implements EntityManager {
         return dao.findByUuidIncludingRemoved(uuid);
     }
 
+    @Override
+    public <T> List<? extends T> listByUuidsIncludingRemoved(final Class<T> entityType, final Collection<String> uuids) {
+        final GenericDao<T, ? extends Serializable> dao = (GenericDao<T, ? extends Serializable>) GenericDaoBase.getDao(entityType);
+        final List<T> entities = new ArrayList<>(uuids.size());
+        final List<String> remaining = new ArrayList<>(uuids);
+        // bounded IN lists, so the statement stays well below the limits of the database
+        for (int i = 0; i < remaining.size(); i += UUID_BATCH_SIZE) {
+            final SearchCriteria<T> sc = dao.createSearchCriteria();
+            sc.addAnd("uuid", SearchCriteria.Op.IN, remaining.subList(i, Math.min(i + UUID_BATCH_SIZE, remaining.size())).toArray());
+            entities.addAll(dao.searchIncludingRemoved(sc, null, null, false));
+        }
+        return entities;
+    }
+
     @Override
     public <T> List<? extends T> list(final Class<T> entityType) {
         final GenericDao<? extends T, ? extends Serializable> dao = GenericDaoBase.getDao(entityType);
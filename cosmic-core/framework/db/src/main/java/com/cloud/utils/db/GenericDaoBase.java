@@ -151,11 +151,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 s_daoMaps.put(interfaceClass.getCanonicalName(), this);
             }
         }
-        logDetectedDaos();
+        s_logger.debug("Detected DAO {} for class {}", this, _entityBeanType.getCanonicalName());
 
         _table = DbUtil.getTableName(_entityBeanType);
 
-        final SqlGenerator generator = new SqlGenerator(_entityBeanType);
+        final SqlGenerator generator = SqlGenerator.forEntity(_entityBeanType);
         _partialSelectSql = generator.buildSelectSql(false);
         _count = generator.buildCountSql();
         _distinctIdSql = generator.buildDistinctIdSql();
@@ -178,7 +178,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         _removeSql = generator.buildRemoveSql();
         _deleteSqls = generator.buildDeleteSqls();
         _removed = generator.getRemovedAttribute();
-        _tgs = generator.getTableGenerators();
+        _tgs = new HashMap<>(generator.getTableGenerators());
         _ecAttributes = generator.getElementCollectionAttributes();
 
         TableGenerator tg = this.getClass().getAnnotation(TableGenerator.class);
@@ -228,10 +228,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         setRunLevel(ComponentLifecycle.RUN_LEVEL_SYSTEM);
     }
 
-    private void logDetectedDaos() {
-        s_daoMaps.forEach((k, v) -> s_logger.debug("Detected DAO {} for class {}", v, k));
-    }
-
     @DB()
     protected String buildSelectByIdSql(final StringBuilder sql) {
         if (_idField == null) {
@@ -4,9 +4,10 @@ import static java.lang.String.format;
 
 import com.cloud.utils.Profiler;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,11 +30,12 @@ import org.slf4j.LoggerFactory;
 //
 public class GlobalLock {
     protected final static Logger s_logger = LoggerFactory.getLogger(GlobalLock.class);
-    private static final Map<String, GlobalLock> s_lockMap = new HashMap<>();
+    // lock names to their lock, without a monitor over all of them, so interning one lock does not hold up the others
+    private static final Map<String, GlobalLock> s_lockMap = new ConcurrentHashMap<>();
     private final String name;
     private int lockCount = 0;
     private Thread ownerThread = null;
-    private int referenceCount = 0;
+    private final AtomicInteger referenceCount = new AtomicInteger();
     private long holdingStartTick = 0;
 
     private GlobalLock(final String name) {
@@ -41,31 +43,17 @@ public class GlobalLock {
     }
 
     public static GlobalLock getInternLock(final String name) {
-        synchronized (s_lockMap) {
-            if (s_lockMap.containsKey(name)) {
-                final GlobalLock lock = s_lockMap.get(name);
-                lock.addRef();
-                return lock;
-            } else {
-                final GlobalLock lock = new GlobalLock(name);
-                lock.addRef();
-                s_lockMap.put(name, lock);
-                return lock;
-            }
-        }
+        // the reference is taken within the compute, so a lock that is handed out is never removed from the map
+        return s_lockMap.compute(name, (key, lock) -> {
+            final GlobalLock internLock = lock != null ? lock : new GlobalLock(key);
+            internLock.addRef();
+            return internLock;
+        });
     }
 
     private static void releaseInternLock(final String name) {
-        synchronized (s_lockMap) {
-            final GlobalLock lock = s_lockMap.get(name);
-            if (lock != null) {
-                if (lock.referenceCount == 0) {
-                    s_lockMap.remove(name);
-                }
-            } else {
-                s_logger.warn("Releasing " + name + ", but it is already released.");
-            }
-        }
+        // removed only when no reference was taken in the meantime
+        s_lockMap.computeIfPresent(name, (key, lock) -> lock.referenceCount.get() == 0 ? null : lock);
     }
 
     public static <T> T executeWithLock(final String operationId, final int lockAcquisitionTimeout, final Callable<T> operation) throws Exception {
@@ -96,30 +84,17 @@ public class GlobalLock {
     }
 
     public int addRef() {
-        synchronized (this) {
-            referenceCount++;
-            return referenceCount;
-        }
+        return referenceCount.incrementAndGet();
     }
 
     public int releaseRef() {
-        final int refCount;
-
-        boolean needToRemove = false;
-        synchronized (this) {
-            referenceCount--;
-            refCount = referenceCount;
+        final int refCount = referenceCount.decrementAndGet();
 
-            if (referenceCount < 0) {
-                s_logger.warn("Unmatched Global lock " + name + " reference usage detected, check your code!");
-            }
-
-            if (referenceCount == 0) {
-                needToRemove = true;
-            }
+        if (refCount < 0) {
+            s_logger.warn("Unmatched Global lock " + name + " reference usage detected, check your code!");
         }
 
-        if (needToRemove) {
+        if (refCount == 0) {
             releaseInternLock(name);
         }
 
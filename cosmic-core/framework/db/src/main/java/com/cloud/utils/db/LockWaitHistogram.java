@@ -0,0 +1,31 @@
+package com.cloud.utils.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long the acquired locks were waited for, in buckets of increasing wait time.
+ */
+class LockWaitHistogram {
+    private static final long[] UPPER_BOUNDS_MILLIS = {1, 10, 100, 1000, 5000, 30000};
+    private static final String[] LABELS = {"<1ms", "<10ms", "<100ms", "<1s", "<5s", "<30s", ">=30s"};
+
+    private final AtomicLongArray counts = new AtomicLongArray(LABELS.length);
+
+    void record(final long waitMillis) {
+        int bucket = 0;
+        while (bucket < UPPER_BOUNDS_MILLIS.length && waitMillis >= UPPER_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    Map<String, Long> toMap() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < LABELS.length; i++) {
+            map.put(LABELS[i], counts.get(i));
+        }
+        return map;
+    }
+}
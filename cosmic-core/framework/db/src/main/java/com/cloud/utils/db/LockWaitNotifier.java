@@ -0,0 +1,21 @@
+package com.cloud.utils.db;
+
+/**
+ * Carries the lock notifications of {@link Merovingian2} between the management servers of a cluster, so a thread
+ * waiting for a lock held by another management server is woken up as soon as it is released there.
+ * <p>
+ * Notifications are only a hint: the op_lock table stays the only source of truth for who holds a lock, and a waiter
+ * that misses a notification still finds the lock released on its next check of the table.
+ */
+public interface LockWaitNotifier {
+
+    /**
+     * Asks the management server holding the lock to tell this one when it releases it.
+     */
+    void waitingFor(long ownerMsId, String key);
+
+    /**
+     * Tells a management server waiting for the lock that it was released.
+     */
+    void released(long waiterMsId, String key);
+}
@@ -10,12 +10,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,12 +41,19 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final String CLEANUP_MGMT_LOCKS_SQL = "DELETE FROM op_lock WHERE op_lock.mac = ?";
     private static final String SELECT_MGMT_LOCKS_SQL = SELECT_SQL + " WHERE mac=?";
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
+    private static final String SELECT_CLEANUP_THREAD_LOCKS_SQL = "SELECT op_lock.key FROM op_lock WHERE mac=? AND ip=? AND thread=?";
     private static final String CLEANUP_THREAD_LOCKS_SQL = "DELETE FROM op_lock WHERE mac=? AND ip=? AND thread=?";
+    // a waiter looks in the op_lock table at least this often, in case a release notification got lost
+    private static final long RECHECK_INTERVAL_MILLIS = 5000;
     private static Merovingian2 s_instance = null;
+    private static volatile LockWaitNotifier s_notifier = null;
     private static final ThreadLocal<Count> s_tls = new ThreadLocal<>();
     private final long _msId;
     TimeZone _gmtTimeZone = TimeZone.getTimeZone("GMT");
     private ConnectionConcierge _concierge = null;
+    private final Map<String, WaitQueue> _waitQueues = new ConcurrentHashMap<>();
+    private final LockWaitHistogram _waitHistogram = new LockWaitHistogram();
+    private final AtomicLong _timeouts = new AtomicLong();
 
     private Merovingian2(final long msId) {
         super(MerovingianMBean.class, false);
@@ -84,6 +98,13 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return s_instance;
     }
 
+    /**
+     * Sets how the lock notifications reach the other management servers, null when running without a cluster.
+     */
+    public static void setNotifier(final LockWaitNotifier notifier) {
+        s_notifier = notifier;
+    }
+
     public boolean acquire(final String key, final int timeInSeconds) {
         final Thread th = Thread.currentThread();
         final String threadName = th.getName();
@@ -92,28 +113,47 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        final long startTime = InaccurateClock.getTime();
-
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            final int count = owns(key);
+        final long startTime = System.nanoTime();
+        final long deadline = startTime + TimeUnit.SECONDS.toNanos(timeInSeconds);
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
+        final WaitQueue queue = enterQueue(key);
+        boolean acquired = false;
+        try {
+            while (true) {
+                final long generation = queue.getGeneration();
+                final Map<String, String> owner = isLocked(key);
+                final int count = ownedCount(owner, threadId);
+
+                if (count >= 1) {
+                    acquired = increment(key, threadName, threadId);
+                    return acquired;
+                } else if (count == 0 && doAcquire(key, threadName, threadId)) {
+                    acquired = true;
                     return true;
                 }
-            }
-            try {
+
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                if (owner == null) {
+                    // taken since we looked, find out by whom
+                    continue;
+                }
+                askOwner(queue, Long.parseLong(owner.get("mgmt")), generation);
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                    s_logger.trace("Waiting for the release of lck-" + key);
                 }
-                Thread.sleep(5000);
-            } catch (final InterruptedException e) {
-                s_logger.debug("[ignored] interupted while aquiring " + key);
+                queue.await(generation, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, RECHECK_INTERVAL_MILLIS));
+            }
+        } finally {
+            leaveQueue(queue, acquired);
+            if (acquired) {
+                _waitHistogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
             }
         }
-        final String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime) / 1000) + "seconds";
+        _timeouts.incrementAndGet();
+        final String msg = "Timed out on acquiring lock " + key + " .  Waited for " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime) + "seconds";
         final Exception e = new CloudRuntimeException(msg);
         s_logger.warn(msg, e);
         return false;
@@ -122,7 +162,10 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     public int owns(final String key) {
         final Thread th = Thread.currentThread();
         final int threadId = System.identityHashCode(th);
-        final Map<String, String> owner = isLocked(key);
+        return ownedCount(isLocked(key), threadId);
+    }
+
+    protected int ownedCount(final Map<String, String> owner, final int threadId) {
         if (owner == null) {
             return 0;
         }
@@ -132,6 +175,103 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return -1;
     }
 
+    /**
+     * Called when another management server waits for a lock, it is told as soon as this server releases the lock.
+     */
+    public void onRemoteWaiter(final String key, final long waiterMsId) {
+        final WaitQueue queue = _waitQueues.get(key);
+        if (queue != null) {
+            synchronized (queue) {
+                if (!queue.retired && queue.held) {
+                    queue.remoteWaiters.add(waiterMsId);
+                    return;
+                }
+            }
+        }
+        // not held here (anymore), let it look again
+        notifyRemoteWaiters(key, Collections.singleton(waiterMsId));
+    }
+
+    /**
+     * Called when another management server released a lock this server waits for.
+     */
+    public void onRemoteRelease(final String key) {
+        final WaitQueue queue = _waitQueues.get(key);
+        if (queue != null) {
+            queue.wake();
+        }
+    }
+
+    private WaitQueue enterQueue(final String key) {
+        while (true) {
+            final WaitQueue queue = _waitQueues.computeIfAbsent(key, WaitQueue::new);
+            synchronized (queue) {
+                if (!queue.retired) {
+                    queue.waiters++;
+                    return queue;
+                }
+            }
+        }
+    }
+
+    private void leaveQueue(final WaitQueue queue, final boolean acquired) {
+        synchronized (queue) {
+            queue.waiters--;
+            if (acquired) {
+                queue.held = true;
+            }
+            retireIfIdle(queue);
+        }
+    }
+
+    // called holding the monitor of the queue
+    private void retireIfIdle(final WaitQueue queue) {
+        if (queue.waiters == 0 && !queue.held && queue.remoteWaiters.isEmpty()) {
+            queue.retired = true;
+            _waitQueues.remove(queue.key, queue);
+        }
+    }
+
+    private void askOwner(final WaitQueue queue, final long ownerMsId, final long generation) {
+        final LockWaitNotifier notifier = s_notifier;
+        // a release on this server wakes the queue by itself
+        if (notifier == null || ownerMsId == _msId || !queue.shouldAsk(ownerMsId, generation)) {
+            return;
+        }
+        try {
+            notifier.waitingFor(ownerMsId, queue.key);
+        } catch (final RuntimeException e) {
+            s_logger.debug("[ignored] unable to ask " + ownerMsId + " to notify the release of lck-" + queue.key, e);
+        }
+    }
+
+    private void lockReleased(final String key) {
+        final WaitQueue queue = _waitQueues.get(key);
+        if (queue == null) {
+            return;
+        }
+        final Set<Long> remoteWaiters;
+        synchronized (queue) {
+            remoteWaiters = queue.release();
+            retireIfIdle(queue);
+        }
+        notifyRemoteWaiters(key, remoteWaiters);
+    }
+
+    private void notifyRemoteWaiters(final String key, final Set<Long> waiterMsIds) {
+        final LockWaitNotifier notifier = s_notifier;
+        if (notifier == null) {
+            return;
+        }
+        for (final Long waiterMsId : waiterMsIds) {
+            try {
+                notifier.released(waiterMsId, key);
+            } catch (final RuntimeException e) {
+                s_logger.debug("[ignored] unable to notify " + waiterMsId + " of the release of lck-" + key, e);
+            }
+        }
+    }
+
     protected boolean increment(final String key, final String threadName, final int threadId) {
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL)) {
             pstmt.setString(1, key);
@@ -244,8 +384,11 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     rel_sql_pstmt.setString(1, key);
                     rel_sql_pstmt.setLong(2, _msId);
                     final int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+                    if (result == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                        lockReleased(key);
                     }
                     decrCount();
                 } catch (final Exception e) {
@@ -314,6 +457,9 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(RELEASE_LOCK_SQL)) {
             pstmt.setString(1, key);
             final int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                lockReleased(key);
+            }
             return rows > 0;
         } catch (final Exception e) {
             s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " + e.getMessage());
@@ -330,6 +476,9 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     pstmt.setLong(1, msId);
                     final int rows = pstmt.executeUpdate();
                     s_logger.info("Released " + rows + " locks for " + msId);
+                    if (rows > 0) {
+                        wakeAfterCleanup(msId);
+                    }
                 } catch (final Exception e) {
                     s_logger.error("cleanupForServer:Exception:" + e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:" + e.getMessage(), e);
@@ -341,6 +490,39 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
+    private void wakeAfterCleanup(final long msId) {
+        for (final WaitQueue queue : _waitQueues.values()) {
+            if (msId == _msId) {
+                lockReleased(queue.key);
+            } else {
+                queue.wake();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> getWaitTimeHistogram() {
+        return _waitHistogram.toMap();
+    }
+
+    @Override
+    public long getAcquireTimeouts() {
+        return _timeouts.get();
+    }
+
+    @Override
+    public Map<String, Integer> getWaitingThreads() {
+        final Map<String, Integer> waiting = new HashMap<>();
+        for (final WaitQueue queue : _waitQueues.values()) {
+            synchronized (queue) {
+                if (queue.waiters > 0) {
+                    waiting.put(queue.key, queue.waiters);
+                }
+            }
+        }
+        return waiting;
+    }
+
     public List<Map<String, String>> getLocksAcquiredBy(final long msId, final String threadName) {
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(SELECT_THREAD_LOCKS_SQL)) {
             pstmt.setLong(1, msId);
@@ -369,11 +551,29 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         final Thread th = Thread.currentThread();
         final String threadName = th.getName();
         final int threadId = System.identityHashCode(th);
+        final List<String> keys = new ArrayList<>();
+        try (PreparedStatement pstmt = _concierge.conn().prepareStatement(SELECT_CLEANUP_THREAD_LOCKS_SQL)) {
+            pstmt.setLong(1, _msId);
+            pstmt.setString(2, threadName);
+            pstmt.setInt(3, threadId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(rs.getString(1));
+                }
+            }
+        } catch (final Exception e) {
+            s_logger.error("cleanupThread:Exception:" + e.getMessage());
+            throw new CloudRuntimeException("cleanupThread:Exception:" + e.getMessage(), e);
+        }
         try (PreparedStatement pstmt = _concierge.conn().prepareStatement(CLEANUP_THREAD_LOCKS_SQL)) {
             pstmt.setLong(1, _msId);
             pstmt.setString(2, threadName);
             pstmt.setInt(3, threadId);
             final int rows = pstmt.executeUpdate();
+            // Wake the local and remote waiters the same way a regular release does, or they sleep until their timeout
+            for (final String key : keys) {
+                lockReleased(key);
+            }
             assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
                     " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
         } catch (final Exception e) {
@@ -385,4 +585,64 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * The threads of this server waiting for a lock, and the servers to notify when this server releases it. A release
+     * wakes up one waiter, which then tries to take the lock in the op_lock table.
+     */
+    private static class WaitQueue {
+        private final String key;
+        private final Set<Long> remoteWaiters = new HashSet<>();
+        private int waiters = 0;
+        private boolean held = false;
+        private boolean retired = false;
+        // bumped on every release, so a waiter does not sleep through a release that came in before it started waiting
+        private long generation = 0;
+        private long askedOwner = 0;
+        private long askedGeneration = -1;
+
+        WaitQueue(final String key) {
+            this.key = key;
+        }
+
+        synchronized long getGeneration() {
+            return generation;
+        }
+
+        synchronized boolean shouldAsk(final long ownerMsId, final long generation) {
+            if (askedOwner == ownerMsId && askedGeneration == generation) {
+                return false;
+            }
+            askedOwner = ownerMsId;
+            askedGeneration = generation;
+            return true;
+        }
+
+        synchronized void await(final long generation, final long timeoutMillis) {
+            if (this.generation != generation) {
+                return;
+            }
+            try {
+                wait(timeoutMillis);
+            } catch (final InterruptedException e) {
+                s_logger.debug("[ignored] interupted while waiting for lck-" + key);
+            }
+        }
+
+        synchronized void wake() {
+            generation++;
+            notify();
+        }
+
+        synchronized Set<Long> release() {
+            held = false;
+            wake();
+            if (remoteWaiters.isEmpty()) {
+                return Collections.emptySet();
+            }
+            final Set<Long> released = new HashSet<>(remoteWaiters);
+            remoteWaiters.clear();
+            return released;
+        }
+    }
 }
@@ -12,4 +12,16 @@ public interface MerovingianMBean {
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
 
     void cleanupForServer(long msId);
+
+    /**
+     * @return the number of locks acquired per bucket of time waited for them
+     */
+    Map<String, Long> getWaitTimeHistogram();
+
+    long getAcquireTimeouts();
+
+    /**
+     * @return the number of threads of this server waiting per lock
+     */
+    Map<String, Integer> getWaitingThreads();
 }
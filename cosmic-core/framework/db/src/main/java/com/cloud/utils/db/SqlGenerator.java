@@ -28,8 +28,12 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SqlGenerator {
+    // the attributes of an entity class only depend on the class, so they are read once for all the DAOs of the entity
+    private static final Map<Class<?>, SqlGenerator> s_generators = new ConcurrentHashMap<>();
+
     Class<?> _clazz;
     ArrayList<Attribute> _attributes;
     ArrayList<Field> _embeddeds;
@@ -53,6 +57,13 @@ public class SqlGenerator {
         findEcAttributes();
     }
 
+    /**
+     * @return the generator of the entity class, shared with the other users of the class
+     */
+    public static SqlGenerator forEntity(final Class<?> clazz) {
+        return s_generators.computeIfAbsent(clazz, SqlGenerator::new);
+    }
+
     public static StringBuilder buildMysqlUpdateSql(final String joins, final Collection<Ternary<Attribute, Boolean, Object>> setters) {
         if (setters.size() == 0) {
             return null;
@@ -59,4 +59,59 @@ public class Merovingian2Test extends TestCase {
         result = _lockMaster.release("first" + 1234);
         Assert.assertTrue(result);
     }
+
+    @Test
+    public void testWaiterIsWokenOnRelease() throws Exception {
+        final String key = "third" + 1234;
+        Assert.assertTrue(_lockMaster.acquire(key, 5));
+
+        final long[] waited = new long[1];
+        final Thread waiter = new Thread(() -> {
+            final long start = System.currentTimeMillis();
+            if (_lockMaster.acquire(key, 30)) {
+                waited[0] = System.currentTimeMillis() - start;
+                _lockMaster.release(key);
+            }
+        });
+        waiter.start();
+        Thread.sleep(500);
+
+        s_logger.info("Testing the waiter gets the lock right after its release");
+        Assert.assertTrue(_lockMaster.release(key));
+        waiter.join(10000);
+        Assert.assertTrue(waited[0] > 0 && waited[0] < 2000);
+    }
+
+    @Test
+    public void testWaiterIsWokenOnThreadCleanup() throws Exception {
+        final String key = "fourth" + 1234;
+        final Thread holder = new Thread(() -> {
+            _lockMaster.acquire(key, 5);
+            try {
+                Thread.sleep(1000);
+                _lockMaster.cleanupThread();
+            } catch (final InterruptedException e) {
+                s_logger.info("Holder interrupted", e);
+            } catch (final AssertionError e) {
+                s_logger.info("Lock left behind by the holder cleaned up");
+            }
+        });
+
+        final long[] waited = new long[1];
+        final Thread waiter = new Thread(() -> {
+            final long start = System.currentTimeMillis();
+            if (_lockMaster.acquire(key, 30)) {
+                waited[0] = System.currentTimeMillis() - start;
+                _lockMaster.release(key);
+            }
+        });
+        holder.start();
+        Thread.sleep(200);
+        waiter.start();
+        holder.join(10000);
+        waiter.join(10000);
+
+        s_logger.info("Testing the waiter gets the lock right after the cleanup of its holder");
+        Assert.assertTrue(waited[0] > 0 && waited[0] < 2000);
+    }
 }
@@ -0,0 +1,117 @@
+package com.cloud.spring.lifecycle;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+import javax.management.StandardMBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the time every component took to configure and to start, over all the contexts of the management server, so
+ * the components that slow the boot down can be found.
+ */
+public class BootTimings implements BootTimingsMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(BootTimings.class);
+    private static final BootTimings s_instance = new BootTimings();
+
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+    private final AtomicLong configureMs = new AtomicLong();
+    private final AtomicLong startMs = new AtomicLong();
+    private volatile boolean registered;
+
+    BootTimings() {
+    }
+
+    public static BootTimings getInstance() {
+        return s_instance;
+    }
+
+    public void configured(final String component, final long ms) {
+        timings.computeIfAbsent(component, Timing::new).configureMs = ms;
+    }
+
+    public void started(final String component, final long ms) {
+        timings.computeIfAbsent(component, Timing::new).startMs = ms;
+    }
+
+    /**
+     * Adds the wall clock time of a configure phase, over all the run levels of a context.
+     */
+    public void configurePhase(final long ms) {
+        configureMs.addAndGet(ms);
+    }
+
+    public void startPhase(final long ms) {
+        startMs.addAndGet(ms);
+    }
+
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            JmxUtil.registerMBean("Lifecycle", "BootTimings", new StandardMBean(this, BootTimingsMBean.class));
+            registered = true;
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register MBean: BootTimings", e);
+        }
+    }
+
+    @Override
+    public int getComponentCount() {
+        return timings.size();
+    }
+
+    @Override
+    public long getConfigureMs() {
+        return configureMs.get();
+    }
+
+    @Override
+    public long getStartMs() {
+        return startMs.get();
+    }
+
+    @Override
+    public String[] getComponentTimings() {
+        return slowest(Integer.MAX_VALUE).toArray(new String[0]);
+    }
+
+    /**
+     * @return up to count components that took the longest to configure and start together, slowest first
+     */
+    public List<String> slowest(final int count) {
+        final List<Timing> sorted = new ArrayList<>(timings.values());
+        sorted.sort((a, b) -> Long.compare(b.total(), a.total()));
+        final List<String> result = new ArrayList<>();
+        for (final Timing timing : sorted.subList(0, Math.min(count, sorted.size()))) {
+            result.add(timing.toString());
+        }
+        return result;
+    }
+
+    private static final class Timing {
+        private final String component;
+        private volatile long configureMs;
+        private volatile long startMs;
+
+        private Timing(final String component) {
+            this.component = component;
+        }
+
+        private long total() {
+            return configureMs + startMs;
+        }
+
+        @Override
+        public String toString() {
+            return component + ": configure " + configureMs + " ms, start " + startMs + " ms";
+        }
+    }
+}
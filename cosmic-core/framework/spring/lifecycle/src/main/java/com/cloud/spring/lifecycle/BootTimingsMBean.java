@@ -0,0 +1,17 @@
+package com.cloud.spring.lifecycle;
+
+/**
+ * Allows JMX access to the time the components took to configure and start
+ */
+public interface BootTimingsMBean {
+    int getComponentCount();
+
+    long getConfigureMs();
+
+    long getStartMs();
+
+    /**
+     * @return the configure and start times of the components, slowest first
+     */
+    String[] getComponentTimings();
+}
@@ -11,19 +11,34 @@ import javax.management.MBeanRegistrationException;
 import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.naming.ConfigurationException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 
-public class CloudStackExtendedLifeCycle extends AbstractBeanCollector {
+/**
+ * Configures and starts the components of a context run level by run level. Within a run level the components run on
+ * parallelism threads, a component after the beans it was injected with that are in the same run level.
+ */
+public class CloudStackExtendedLifeCycle extends AbstractBeanCollector implements BeanFactoryAware {
 
     private static final Logger log = LoggerFactory.getLogger(CloudStackExtendedLifeCycle.class);
+    private static final int SLOWEST_REPORTED = 10;
 
     Map<Integer, Set<ComponentLifecycle>> sorted = new TreeMap<>();
+    Map<ComponentLifecycle, String> beanNames = new IdentityHashMap<>();
+    ConfigurableBeanFactory beanFactory;
+    int parallelism = Runtime.getRuntime().availableProcessors();
 
     public CloudStackExtendedLifeCycle() {
         super();
@@ -39,6 +54,31 @@ public class CloudStackExtendedLifeCycle extends AbstractBeanCollector {
         super.start();
     }
 
+    @Override
+    public void setBeanFactory(final BeanFactory beanFactory) throws BeansException {
+        if (beanFactory instanceof ConfigurableBeanFactory) {
+            this.beanFactory = (ConfigurableBeanFactory) beanFactory;
+        }
+    }
+
+    @Override
+    protected void doPostProcessAfterInitialization(final Object bean, final Class<?> typeClass, final String beanName) throws BeansException {
+        super.doPostProcessAfterInitialization(bean, typeClass, beanName);
+        if (bean instanceof ComponentLifecycle) {
+            synchronized (beanNames) {
+                beanNames.put((ComponentLifecycle) bean, beanName);
+            }
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     private void sortBeans() {
         for (final ComponentLifecycle lifecycle : getBeans(ComponentLifecycle.class)) {
             Set<ComponentLifecycle> set = sorted.get(lifecycle.getRunLevel());
@@ -62,20 +102,62 @@ public class CloudStackExtendedLifeCycle extends AbstractBeanCollector {
 
     private void configure() {
         log.info("Configuring CloudStack Components");
-
-        with(new WithComponentLifeCycle() {
-            @Override
-            public void with(final ComponentLifecycle lifecycle) {
-                try {
-                    lifecycle.configure(lifecycle.getName(), lifecycle.getConfigParams());
-                } catch (final ConfigurationException e) {
-                    log.error("Failed to configure {}", lifecycle.getName(), e);
-                    throw new CloudRuntimeException(e);
-                }
+        final long start = System.currentTimeMillis();
+
+        inParallel("configure", lifecycle -> {
+            final long configureStart = System.currentTimeMillis();
+            try {
+                lifecycle.configure(lifecycle.getName(), lifecycle.getConfigParams());
+            } catch (final ConfigurationException e) {
+                log.error("Failed to configure {}", lifecycle.getName(), e);
+                throw new CloudRuntimeException(e);
             }
+            BootTimings.getInstance().configured(lifecycle.getName(), System.currentTimeMillis() - configureStart);
         });
 
-        log.info("Done Configuring CloudStack Components");
+        final long elapsed = System.currentTimeMillis() - start;
+        BootTimings.getInstance().configurePhase(elapsed);
+        log.info("Done Configuring CloudStack Components in " + elapsed + " ms");
+    }
+
+    /**
+     * Runs the phase for the components run level by run level, the components of a run level in parallel.
+     */
+    protected void inParallel(final String phase, final Consumer<ComponentLifecycle> action) {
+        final ComponentPhaseRunner<ComponentLifecycle> runner = new ComponentPhaseRunner<>(phase, parallelism);
+        for (final Set<ComponentLifecycle> lifecycles : sorted.values()) {
+            runner.run(lifecycles, dependenciesOf(lifecycles), action);
+        }
+    }
+
+    /**
+     * @return the components of the run level each component was injected with
+     */
+    private Map<ComponentLifecycle, Set<ComponentLifecycle>> dependenciesOf(final Set<ComponentLifecycle> lifecycles) {
+        final Map<ComponentLifecycle, Set<ComponentLifecycle>> dependencies = new IdentityHashMap<>();
+        if (beanFactory == null) {
+            return dependencies;
+        }
+        final Map<String, ComponentLifecycle> byName = new HashMap<>();
+        synchronized (beanNames) {
+            for (final ComponentLifecycle lifecycle : lifecycles) {
+                final String beanName = beanNames.get(lifecycle);
+                if (beanName != null) {
+                    byName.put(beanName, lifecycle);
+                }
+            }
+        }
+        for (final Map.Entry<String, ComponentLifecycle> entry : byName.entrySet()) {
+            final Set<ComponentLifecycle> dependsOn = new HashSet<>();
+            for (final String dependency : beanFactory.getDependenciesForBean(entry.getKey())) {
+                final ComponentLifecycle other = byName.get(dependency);
+                if (other != null && other != entry.getValue()) {
+                    dependsOn.add(other);
+                }
+            }
+            dependencies.put(entry.getValue(), dependsOn);
+        }
+        return dependencies;
     }
 
     protected void with(final WithComponentLifeCycle with) {
@@ -100,31 +182,35 @@ public class CloudStackExtendedLifeCycle extends AbstractBeanCollector {
 
     public void startBeans() {
         log.info("Starting CloudStack Components");
+        final long start = System.currentTimeMillis();
 
-        with(new WithComponentLifeCycle() {
-            @Override
-            public void with(final ComponentLifecycle lifecycle) {
-                lifecycle.start();
-
-                if (lifecycle instanceof ManagementBean) {
-                    final ManagementBean mbean = (ManagementBean) lifecycle;
-                    try {
-                        JmxUtil.registerMBean(mbean);
-                    } catch (final MalformedObjectNameException e) {
-                        log.warn("Unable to register MBean: " + mbean.getName(), e);
-                    } catch (final InstanceAlreadyExistsException e) {
-                        log.warn("Unable to register MBean: " + mbean.getName(), e);
-                    } catch (final MBeanRegistrationException e) {
-                        log.warn("Unable to register MBean: " + mbean.getName(), e);
-                    } catch (final NotCompliantMBeanException e) {
-                        log.warn("Unable to register MBean: " + mbean.getName(), e);
-                    }
-                    log.info("Registered MBean: " + mbean.getName());
+        inParallel("start", lifecycle -> {
+            final long componentStart = System.currentTimeMillis();
+            lifecycle.start();
+            BootTimings.getInstance().started(lifecycle.getName(), System.currentTimeMillis() - componentStart);
+
+            if (lifecycle instanceof ManagementBean) {
+                final ManagementBean mbean = (ManagementBean) lifecycle;
+                try {
+                    JmxUtil.registerMBean(mbean);
+                } catch (final MalformedObjectNameException e) {
+                    log.warn("Unable to register MBean: " + mbean.getName(), e);
+                } catch (final InstanceAlreadyExistsException e) {
+                    log.warn("Unable to register MBean: " + mbean.getName(), e);
+                } catch (final MBeanRegistrationException e) {
+                    log.warn("Unable to register MBean: " + mbean.getName(), e);
+                } catch (final NotCompliantMBeanException e) {
+                    log.warn("Unable to register MBean: " + mbean.getName(), e);
                 }
+                log.info("Registered MBean: " + mbean.getName());
             }
         });
 
-        log.info("Done Starting CloudStack Components");
+        final long elapsed = System.currentTimeMillis() - start;
+        final BootTimings timings = BootTimings.getInstance();
+        timings.startPhase(elapsed);
+        timings.register();
+        log.info("Done Starting CloudStack Components in " + elapsed + " ms, slowest components so far: " + timings.slowest(SLOWEST_REPORTED));
     }
 
     public void stopBeans() {
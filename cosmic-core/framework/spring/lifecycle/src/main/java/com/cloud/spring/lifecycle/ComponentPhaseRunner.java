@@ -0,0 +1,240 @@
+package com.cloud.spring.lifecycle;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs one phase, configure or start, for the components of a run level on a number of threads.
+ * <p>
+ * A component only runs once the components it depends on ran. Components that depend on each other, directly or
+ * through others, run one after the other on the same thread, in no particular order, as they did before.
+ */
+public class ComponentPhaseRunner<T> {
+    private static final Logger s_logger = LoggerFactory.getLogger(ComponentPhaseRunner.class);
+
+    private final String phase;
+    private final int parallelism;
+
+    public ComponentPhaseRunner(final String phase, final int parallelism) {
+        this.phase = phase;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param dependencies the components each component depends on, others than the given components are ignored
+     * @throws CloudRuntimeException with the failure of the first component that failed, after the running ones finished
+     */
+    public void run(final Collection<T> components, final Map<T, Set<T>> dependencies, final Consumer<T> action) {
+        if (components.isEmpty()) {
+            return;
+        }
+        final List<Group<T>> groups = group(components, dependencies);
+        if (parallelism <= 1 || groups.size() == 1) {
+            for (final Group<T> group : groups) {
+                group.members.forEach(action);
+            }
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, groups.size()), new NamedThreadFactory("Lifecycle-" + phase));
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final Object lock = new Object();
+        final AtomicInteger remaining = new AtomicInteger(groups.size());
+        final Throwable[] failure = new Throwable[1];
+        try {
+            // taken before any runs, the groups that become ready later are submitted by the group they waited for
+            final List<Group<T>> ready = new ArrayList<>();
+            for (final Group<T> group : groups) {
+                if (group.waitingFor.get() == 0) {
+                    ready.add(group);
+                }
+            }
+            for (final Group<T> group : ready) {
+                submit(executor, group, action, classLoader, lock, remaining, failure);
+            }
+            synchronized (lock) {
+                while (remaining.get() > 0 && failure[0] == null) {
+                    lock.wait();
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while running " + phase + " of the components");
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.HOURS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        } else if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new CloudRuntimeException("Failed to " + phase + " the components", failure[0]);
+        }
+    }
+
+    private void submit(final ExecutorService executor, final Group<T> group, final Consumer<T> action, final ClassLoader classLoader, final Object lock,
+                        final AtomicInteger remaining, final Throwable[] failure) {
+        executor.submit(() -> {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            try {
+                for (final T member : group.members) {
+                    synchronized (lock) {
+                        if (failure[0] != null) {
+                            return;
+                        }
+                    }
+                    action.accept(member);
+                }
+                for (final Group<T> dependent : group.dependents) {
+                    if (dependent.waitingFor.decrementAndGet() == 0) {
+                        submit(executor, dependent, action, classLoader, lock, remaining, failure);
+                    }
+                }
+            } catch (final Throwable t) {
+                // errors too, the executor would keep them in a future nobody looks at and the phase would never end
+                s_logger.error("Failed to " + phase + " " + group.members, t);
+                synchronized (lock) {
+                    if (failure[0] == null) {
+                        failure[0] = t;
+                    }
+                }
+            } finally {
+                synchronized (lock) {
+                    remaining.decrementAndGet();
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Groups the components that depend on each other (the strongly connected components of the dependency graph), and
+     * links the groups by their dependencies.
+     */
+    static <T> List<Group<T>> group(final Collection<T> components, final Map<T, Set<T>> dependencies) {
+        final Tarjan<T> tarjan = new Tarjan<>(components, dependencies);
+        for (final T component : components) {
+            if (!tarjan.index.containsKey(component)) {
+                tarjan.visit(component);
+            }
+        }
+
+        final Map<T, Group<T>> groupOf = new HashMap<>();
+        for (final Group<T> group : tarjan.groups) {
+            for (final T member : group.members) {
+                groupOf.put(member, group);
+            }
+        }
+        for (final Group<T> group : tarjan.groups) {
+            final Set<Group<T>> dependsOn = new HashSet<>();
+            for (final T member : group.members) {
+                for (final T dependency : dependencies.getOrDefault(member, Collections.emptySet())) {
+                    final Group<T> other = groupOf.get(dependency);
+                    if (other != null && other != group && dependsOn.add(other)) {
+                        other.dependents.add(group);
+                    }
+                }
+            }
+            group.waitingFor.set(dependsOn.size());
+        }
+        return tarjan.groups;
+    }
+
+    static final class Group<T> {
+        final List<T> members = new ArrayList<>();
+        final List<Group<T>> dependents = new ArrayList<>();
+        final AtomicInteger waitingFor = new AtomicInteger();
+    }
+
+    private static final class Tarjan<T> {
+        private final Collection<T> components;
+        private final Map<T, Set<T>> dependencies;
+        private final Map<T, Integer> index = new HashMap<>();
+        private final Map<T, Integer> lowLink = new HashMap<>();
+        private final Deque<T> stack = new ArrayDeque<>();
+        private final Map<T, Boolean> onStack = new HashMap<>();
+        private final List<Group<T>> groups = new ArrayList<>();
+        private int next;
+
+        private Tarjan(final Collection<T> components, final Map<T, Set<T>> dependencies) {
+            this.components = components;
+            this.dependencies = dependencies;
+        }
+
+        // iterative, the dependency chains between the beans can be long
+        private void visit(final T root) {
+            final Deque<Map.Entry<T, Iterator<T>>> path = new ArrayDeque<>();
+            enter(root, path);
+            while (!path.isEmpty()) {
+                final Map.Entry<T, Iterator<T>> top = path.peek();
+                final T component = top.getKey();
+                if (top.getValue().hasNext()) {
+                    final T dependency = top.getValue().next();
+                    if (!index.containsKey(dependency)) {
+                        enter(dependency, path);
+                    } else if (onStack.containsKey(dependency)) {
+                        lowLink.put(component, Math.min(lowLink.get(component), index.get(dependency)));
+                    }
+                    continue;
+                }
+                path.pop();
+                if (!path.isEmpty()) {
+                    final T parent = path.peek().getKey();
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(component)));
+                }
+                if (lowLink.get(component).equals(index.get(component))) {
+                    final Group<T> group = new Group<>();
+                    T member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        group.members.add(member);
+                    } while (member != component);
+                    groups.add(group);
+                }
+            }
+        }
+
+        private void enter(final T component, final Deque<Map.Entry<T, Iterator<T>>> path) {
+            index.put(component, next);
+            lowLink.put(component, next);
+            next++;
+            stack.push(component);
+            onStack.put(component, Boolean.TRUE);
+
+            final List<T> known = new ArrayList<>();
+            for (final T dependency : dependencies.getOrDefault(component, Collections.emptySet())) {
+                if (components.contains(dependency)) {
+                    known.add(dependency);
+                }
+            }
+            path.push(new AbstractMap.SimpleImmutableEntry<>(component, known.iterator()));
+        }
+    }
+}
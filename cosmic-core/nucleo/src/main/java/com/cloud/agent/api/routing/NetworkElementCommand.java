@@ -17,6 +17,7 @@ public abstract class NetworkElementCommand extends Command {
     public static final String VPC_PRIVATE_GATEWAY = "vpc.gateway.private";
     public static final String FIREWALL_EGRESS_DEFAULT = "firewall.egress.default";
     public static final String ROUTER_MONITORING_ENABLE = "router.monitor.enable";
+    public static final String ROUTER_FULL_SYNC = "router.full.sync";
     HashMap<String, String> accessDetails = new HashMap<>(0);
     private String routerAccessIp;
 
@@ -2,6 +2,8 @@ package com.cloud.agent.resource.virtualnetwork;
 
 public abstract class ConfigItem {
     private String info;
+    private String fingerprintKey;
+    private String fingerprint;
 
     public String getInfo() {
         return info;
@@ -11,5 +13,24 @@ public abstract class ConfigItem {
         this.info = info;
     }
 
+    /**
+     * @return the config type and entry this item belongs to, or null when the item has to be applied every time
+     */
+    public String getFingerprintKey() {
+        return fingerprintKey;
+    }
+
+    /**
+     * @return the fingerprint of the content of the entry
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(final String fingerprintKey, final String fingerprint) {
+        this.fingerprintKey = fingerprintKey;
+        this.fingerprint = fingerprint;
+    }
+
     public abstract String getAggregateCommand();
 }
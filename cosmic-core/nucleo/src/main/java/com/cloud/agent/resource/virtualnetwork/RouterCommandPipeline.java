@@ -0,0 +1,234 @@
+package com.cloud.agent.resource.virtualnetwork;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the commands for one router one at a time, in the order they arrived.
+ * <p>
+ * A command that replaces a config entry of the router completely makes the commands for the same entry that are
+ * still waiting superfluous: they are dropped, and answered with the outcome of the later command. The number of
+ * waiting commands is bounded. A command that finds the pipeline full waits for room and fails when there is none in
+ * time, so a router that does not keep up does not tie up all the agent worker threads.
+ */
+public class RouterCommandPipeline {
+    private static final Logger s_logger = LoggerFactory.getLogger(RouterCommandPipeline.class);
+
+    private final String routerName;
+    private final int maxDepth;
+    private final long admitTimeoutMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final LinkedList<Entry> waiting = new LinkedList<>();
+    private boolean running;
+
+    private long executed;
+    private long coalesced;
+    private long rejected;
+    private long totalWaitMs;
+    private long maxWaitMs;
+    private long totalRunMs;
+    private long maxRunMs;
+    private int maxDepthSeen;
+
+    public RouterCommandPipeline(final String routerName, final int maxDepth, final long admitTimeoutMs) {
+        this.routerName = routerName;
+        this.maxDepth = maxDepth;
+        this.admitTimeoutMs = admitTimeoutMs;
+    }
+
+    /**
+     * Runs the command once the commands that arrived before it are done.
+     *
+     * @param coalescingKey the config entry the command replaces completely, or null when it can not be dropped in
+     *                      favour of a later command
+     * @param runner        executes the command on the router
+     */
+    public Answer execute(final NetworkElementCommand cmd, final String coalescingKey, final Function<NetworkElementCommand, Answer> runner) {
+        final long submitted = System.currentTimeMillis();
+        final Entry entry = new Entry(coalescingKey);
+
+        lock.lock();
+        try {
+            final Entry superseded = findWaiting(coalescingKey);
+            if (superseded != null) {
+                // takes the place of the earlier command at the end of the queue, the depth stays the same
+                waiting.remove(superseded);
+                superseded.supersededBy = entry;
+                coalesced++;
+                changed.signalAll();
+            } else if (!awaitRoom()) {
+                rejected++;
+                s_logger.warn("Rejecting " + cmd.getClass().getSimpleName() + ", no room in the queue within " + admitTimeoutMs + "ms. " + this);
+                return new Answer(cmd, false, "Router " + routerName + " is busy, " + waiting.size() + " commands are waiting for it");
+            }
+            waiting.add(entry);
+            maxDepthSeen = Math.max(maxDepthSeen, waiting.size());
+
+            while (true) {
+                if (entry.supersededBy != null) {
+                    final Entry last = entry.last();
+                    if (last.answer != null) {
+                        return new Answer(cmd, last.answer.getResult(), "Superseded by a later " + cmd.getClass().getSimpleName() + ": " + last.answer.getDetails());
+                    }
+                } else if (!running && waiting.getFirst() == entry) {
+                    break;
+                }
+                changed.awaitUninterruptibly();
+            }
+            waiting.removeFirst();
+            running = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        final long started = System.currentTimeMillis();
+        Answer answer = null;
+        try {
+            answer = runner.apply(cmd);
+            return answer;
+        } finally {
+            final long finished = System.currentTimeMillis();
+            lock.lock();
+            try {
+                entry.answer = answer != null ? answer : new Answer(cmd, false, "Failed to execute " + cmd.getClass().getSimpleName());
+                running = false;
+                executed++;
+                totalWaitMs += started - submitted;
+                maxWaitMs = Math.max(maxWaitMs, started - submitted);
+                totalRunMs += finished - started;
+                maxRunMs = Math.max(maxRunMs, finished - started);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Entry findWaiting(final String coalescingKey) {
+        if (coalescingKey == null) {
+            return null;
+        }
+        for (final Entry entry : waiting) {
+            if (coalescingKey.equals(entry.coalescingKey)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private boolean awaitRoom() {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(admitTimeoutMs);
+        try {
+            while (waiting.size() >= maxDepth) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public String getRouterName() {
+        return routerName;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting.size() + (running ? 1 : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getExecuted() {
+        lock.lock();
+        try {
+            return executed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWaitMs() {
+        lock.lock();
+        try {
+            return maxWaitMs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxRunMs() {
+        lock.lock();
+        try {
+            return maxRunMs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "Router " + routerName + ": " + executed + " commands executed, " + coalesced + " coalesced, " + rejected + " rejected, " + (waiting.size() + (running ? 1 : 0)) +
+                    " queued (max " + maxDepthSeen + "), wait avg " + (executed == 0 ? 0 : totalWaitMs / executed) + "ms max " + maxWaitMs + "ms, run avg " +
+                    (executed == 0 ? 0 : totalRunMs / executed) + "ms max " + maxRunMs + "ms";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        private final String coalescingKey;
+        private Entry supersededBy;
+        private Answer answer;
+
+        private Entry(final String coalescingKey) {
+            this.coalescingKey = coalescingKey;
+        }
+
+        private Entry last() {
+            Entry last = this;
+            while (last.supersededBy != null) {
+                last = last.supersededBy;
+            }
+            return last;
+        }
+    }
+}
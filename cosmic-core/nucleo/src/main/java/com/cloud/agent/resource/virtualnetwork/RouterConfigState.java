@@ -0,0 +1,102 @@
+package com.cloud.agent.resource.virtualnetwork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, per router, the fingerprint of the last config that was applied successfully for every config type and
+ * entry, so config that did not change does not have to be pushed to the router again.
+ * <p>
+ * The state only covers what went through this resource. It is dropped when the router is started, since the router
+ * may have been recreated, and when it migrates, since another host will configure it in the meantime.
+ */
+public class RouterConfigState {
+    private final Map<String, Map<String, String>> appliedConfig = new ConcurrentHashMap<>();
+
+    /**
+     * @return the items that are not known to be applied to the router with the same content
+     */
+    public List<ConfigItem> filterApplied(final String routerName, final List<ConfigItem> items) {
+        return filterApplied(routerName, items, new HashMap<>());
+    }
+
+    /**
+     * Filters items that will be applied in the same batch as earlier ones.
+     *
+     * @param pending the fingerprints of the entries queued earlier in the batch, updated with the ones of the
+     *                returned items
+     */
+    public List<ConfigItem> filterApplied(final String routerName, final List<ConfigItem> items, final Map<String, String> pending) {
+        final Map<String, String> applied = appliedConfig.getOrDefault(routerName, Collections.emptyMap());
+        final List<ConfigItem> result = new ArrayList<>(items.size());
+        for (final ConfigItem item : items) {
+            final String key = item.getFingerprintKey();
+            if (key == null) {
+                result.add(item);
+                continue;
+            }
+            final String current = pending.containsKey(key) ? pending.get(key) : applied.get(key);
+            if (!item.getFingerprint().equals(current)) {
+                result.add(item);
+            }
+        }
+        for (final ConfigItem item : result) {
+            if (item.getFingerprintKey() != null) {
+                pending.put(item.getFingerprintKey(), item.getFingerprint());
+            }
+        }
+        return result;
+    }
+
+    public void markApplied(final String routerName, final ConfigItem item) {
+        if (item.getFingerprintKey() != null) {
+            appliedConfig.computeIfAbsent(routerName, name -> new ConcurrentHashMap<>()).put(item.getFingerprintKey(), item.getFingerprint());
+        }
+    }
+
+    /**
+     * Forgets the content of an entry, it will be pushed again the next time.
+     */
+    public void markUnknown(final String routerName, final ConfigItem item) {
+        final Map<String, String> applied = appliedConfig.get(routerName);
+        if (applied != null && item.getFingerprintKey() != null) {
+            applied.remove(item.getFingerprintKey());
+        }
+    }
+
+    /**
+     * Records the outcome of a list of items. An entry only counts as applied when all of its items succeeded.
+     */
+    public void update(final String routerName, final List<ConfigItem> items, final List<Boolean> results) {
+        final Map<String, Boolean> entries = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            final String key = items.get(i).getFingerprintKey();
+            if (key != null) {
+                entries.merge(key, results.get(i), Boolean::logicalAnd);
+            }
+        }
+        for (final ConfigItem item : items) {
+            if (item.getFingerprintKey() == null) {
+                continue;
+            }
+            if (entries.get(item.getFingerprintKey())) {
+                markApplied(routerName, item);
+            } else {
+                markUnknown(routerName, item);
+            }
+        }
+    }
+
+    public void reset(final String routerName) {
+        appliedConfig.remove(routerName);
+    }
+
+    public int size(final String routerName) {
+        final Map<String, String> applied = appliedConfig.get(routerName);
+        return applied == null ? 0 : applied.size();
+    }
+}
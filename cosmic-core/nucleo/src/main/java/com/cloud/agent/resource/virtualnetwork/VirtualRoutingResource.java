@@ -10,27 +10,35 @@ import com.cloud.agent.api.GetDomRVersionCmd;
 import com.cloud.agent.api.GetRouterAlertsAnswer;
 import com.cloud.agent.api.routing.AggregationControlCommand;
 import com.cloud.agent.api.routing.AggregationControlCommand.Action;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
 import com.cloud.agent.api.routing.GetRouterAlertsCommand;
 import com.cloud.agent.api.routing.GroupAnswer;
 import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.SetMonitorServiceCommand;
+import com.cloud.agent.api.routing.SetNetworkACLCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
 import com.cloud.agent.resource.virtualnetwork.facade.AbstractConfigItemFacade;
 import com.cloud.utils.ExecutionResult;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.naming.ConfigurationException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,17 +50,27 @@ import org.slf4j.LoggerFactory;
  * || Param Name | Description | Values | Default ||
  * }
  **/
-public class VirtualRoutingResource {
+public class VirtualRoutingResource implements VirtualRoutingResourceMBean {
 
     private static final Logger s_logger = LoggerFactory.getLogger(VirtualRoutingResource.class);
-    protected Map<String, Lock> _vrLockMap = new HashMap<>();
+    protected final Map<String, RouterCommandPipeline> _vrPipelines = new ConcurrentHashMap<>();
     private final VirtualRouterDeployer _vrDeployer;
-    private Map<String, Queue<NetworkElementCommand>> _vrAggregateCommandsSet;
+    // router name -> the commands queued for the aggregation, by the config entry they replace
+    private final Map<String, Map<Object, NetworkElementCommand>> _vrAggregateCommandsSet = new ConcurrentHashMap<>();
     private String _name;
     private int _sleep;
     private int _retry;
     private int _port;
     private int _eachTimeout;
+    private int _queueDepth = 100;
+    private int _queueTimeout = 120;
+    private boolean _differentialConfig = true;
+    private final RouterConfigState _appliedConfig = new RouterConfigState();
+    // the commands of the pipelines of routers that are gone
+    private final AtomicLong _removedExecuted = new AtomicLong();
+    private final AtomicLong _removedCoalesced = new AtomicLong();
+    private final AtomicLong _removedRejected = new AtomicLong();
+    private ObjectName _mBean;
 
     private final String _cfgVersion = "1.0";
 
@@ -61,17 +79,113 @@ public class VirtualRoutingResource {
     }
 
     public Answer executeRequest(final NetworkElementCommand cmd) {
-        boolean aggregated = false;
         final String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
-        final Lock lock;
-        if (_vrLockMap.containsKey(routerName)) {
-            lock = _vrLockMap.get(routerName);
+        final RouterCommandPipeline pipeline = _vrPipelines.computeIfAbsent(routerName == null ? "" : routerName, name -> new RouterCommandPipeline(name, _queueDepth, _queueTimeout * 1000L));
+
+        final Answer answer = pipeline.execute(cmd, getCoalescingKey(cmd), this::executeInPipeline);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(pipeline.toString());
+        }
+        return answer;
+    }
+
+    /**
+     * @return the statistics of the commands executed for every router, to spot the routers that do not keep up
+     */
+    public Collection<RouterCommandPipeline> getRouterPipelines() {
+        return Collections.unmodifiableCollection(_vrPipelines.values());
+    }
+
+    /**
+     * Forgets the pipeline and the applied config of a router that is stopped or destroyed. A pipeline that still has
+     * commands is kept, it is removed the next time.
+     */
+    public void removeRouter(final String routerName) {
+        if (routerName == null) {
+            return;
+        }
+        _appliedConfig.reset(routerName);
+        _vrPipelines.computeIfPresent(routerName, (name, pipeline) -> {
+            if (pipeline.getQueueDepth() > 0) {
+                return pipeline;
+            }
+            _removedExecuted.addAndGet(pipeline.getExecuted());
+            _removedCoalesced.addAndGet(pipeline.getCoalesced());
+            _removedRejected.addAndGet(pipeline.getRejected());
+            _vrAggregateCommandsSet.remove(name);
+            return null;
+        });
+    }
+
+    @Override
+    public int getRouterCount() {
+        return _vrPipelines.size();
+    }
+
+    @Override
+    public int getQueuedCommands() {
+        return _vrPipelines.values().stream().mapToInt(RouterCommandPipeline::getQueueDepth).sum();
+    }
+
+    @Override
+    public long getExecutedCommands() {
+        return _removedExecuted.get() + _vrPipelines.values().stream().mapToLong(RouterCommandPipeline::getExecuted).sum();
+    }
+
+    @Override
+    public long getCoalescedCommands() {
+        return _removedCoalesced.get() + _vrPipelines.values().stream().mapToLong(RouterCommandPipeline::getCoalesced).sum();
+    }
+
+    @Override
+    public long getRejectedCommands() {
+        return _removedRejected.get() + _vrPipelines.values().stream().mapToLong(RouterCommandPipeline::getRejected).sum();
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return _vrPipelines.values().stream().mapToLong(RouterCommandPipeline::getMaxWaitMs).max().orElse(0);
+    }
+
+    @Override
+    public long getMaxRunMillis() {
+        return _vrPipelines.values().stream().mapToLong(RouterCommandPipeline::getMaxRunMs).max().orElse(0);
+    }
+
+    @Override
+    public String[] getPipelineStatistics() {
+        return _vrPipelines.values().stream().map(RouterCommandPipeline::toString).sorted().toArray(String[]::new);
+    }
+
+    /**
+     * Identifies the config entry a command replaces completely on the router, so an earlier command for the same
+     * entry that did not run yet can be dropped in favour of it.
+     *
+     * @return the entry, or null when the command has to be executed
+     */
+    private String getCoalescingKey(final NetworkElementCommand cmd) {
+        if (Boolean.parseBoolean(cmd.getAccessDetail(NetworkElementCommand.ROUTER_FULL_SYNC))) {
+            return null;
+        }
+        final String entry;
+        if (cmd instanceof SetNetworkACLCommand) {
+            // every command carries the complete ACL of one NIC
+            entry = ((SetNetworkACLCommand) cmd).getNic() == null ? null : ((SetNetworkACLCommand) cmd).getNic().getMac();
+        } else if (cmd instanceof DhcpEntryCommand) {
+            entry = ((DhcpEntryCommand) cmd).getVmMac();
+        } else if (cmd instanceof VmDataCommand) {
+            entry = ((VmDataCommand) cmd).getVmIpAddress();
+        } else if (cmd instanceof SetMonitorServiceCommand) {
+            entry = "";
         } else {
-            lock = new ReentrantLock();
-            _vrLockMap.put(routerName, lock);
+            return null;
         }
-        lock.lock();
+        return entry == null ? null : cmd.getClass().getSimpleName() + ":" + entry;
+    }
 
+    private Answer executeInPipeline(final NetworkElementCommand cmd) {
+        boolean aggregated = false;
+        final String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
         try {
             final ExecutionResult rc = _vrDeployer.prepareCommand(cmd);
             if (!rc.isSuccess()) {
@@ -81,6 +195,11 @@ public class VirtualRoutingResource {
 
             assert cmd.getRouterAccessIp() != null : "Why there is no access IP for VR?";
 
+            if (Boolean.parseBoolean(cmd.getAccessDetail(NetworkElementCommand.ROUTER_FULL_SYNC))) {
+                s_logger.debug("Full config sync requested for router " + routerName);
+                _appliedConfig.reset(routerName);
+            }
+
             if (cmd.isQuery()) {
                 return executeQueryCommand(cmd);
             }
@@ -89,8 +208,14 @@ public class VirtualRoutingResource {
                 return execute((AggregationControlCommand) cmd);
             }
 
-            if (_vrAggregateCommandsSet.containsKey(routerName)) {
-                _vrAggregateCommandsSet.get(routerName).add(cmd);
+            final Map<Object, NetworkElementCommand> aggregateCommands = _vrAggregateCommandsSet.get(routerName);
+            if (aggregateCommands != null) {
+                // a command that replaces a queued one takes its place at the end of the queue
+                final String key = getCoalescingKey(cmd);
+                if (key != null && aggregateCommands.remove(key) != null) {
+                    s_logger.debug("Command " + key + " for router " + routerName + " replaces an aggregated one");
+                }
+                aggregateCommands.put(key != null ? key : new Object(), cmd);
                 aggregated = true;
                 // Clean up would be done after command has been executed
                 //TODO: Deal with group answer as well
@@ -102,11 +227,10 @@ public class VirtualRoutingResource {
                 return Answer.createUnsupportedCommandAnswer(cmd);
             }
 
-            return applyConfig(cmd, cfg);
+            return applyConfig(cmd, filterApplied(routerName, cfg));
         } catch (final IllegalArgumentException e) {
             return new Answer(cmd, false, e.getMessage());
         } finally {
-            lock.unlock();
             if (!aggregated) {
                 final ExecutionResult rc = _vrDeployer.cleanupCommand(cmd);
                 if (!rc.isSuccess()) {
@@ -154,6 +278,7 @@ public class VirtualRoutingResource {
         }
 
         final List<ExecutionResult> results = new ArrayList<>();
+        final List<Boolean> successes = new ArrayList<>();
         final List<String> details = new ArrayList<>();
         boolean finalResult = false;
         for (final ConfigItem configItem : cfg) {
@@ -167,10 +292,13 @@ public class VirtualRoutingResource {
                 result = new ExecutionResult(false, "null execution result");
             }
             results.add(result);
+            successes.add(result.isSuccess());
             details.add(configItem.getInfo() + (result.isSuccess() ? " - success: " : " - failed: ") + result.getDetails());
             finalResult = result.isSuccess();
         }
 
+        _appliedConfig.update(cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME), cfg, successes);
+
         // Not sure why this matters, but log it anyway
         if (cmd.getAnswersCount() != results.size()) {
             s_logger.warn("Expected " + cmd.getAnswersCount() + " answers while executing " + cmd.getClass().getSimpleName() + " but received " + results.size());
@@ -250,14 +378,41 @@ public class VirtualRoutingResource {
         value = (String) params.get("router.aggregation.command.each.timeout");
         _eachTimeout = NumbersUtil.parseInt(value, 3);
 
+        value = (String) params.get("router.config.differential");
+        _differentialConfig = value == null || Boolean.parseBoolean(value);
+
+        value = (String) params.get("router.command.queue.depth");
+        _queueDepth = NumbersUtil.parseInt(value, 100);
+
+        value = (String) params.get("router.command.queue.timeout");
+        _queueTimeout = NumbersUtil.parseInt(value, 120);
+
         if (_vrDeployer == null) {
             throw new ConfigurationException("Unable to find the resource for VirtualRouterDeployer!");
         }
 
-        _vrAggregateCommandsSet = new HashMap<>();
+        if (_mBean == null) {
+            try {
+                _mBean = JmxUtil.registerMBean("VirtualRouting", "Pipelines " + name, new StandardMBean(this, VirtualRoutingResourceMBean.class));
+            } catch (final Exception e) {
+                s_logger.warn("Unable to register the router pipelines MBean", e);
+            }
+        }
+
         return true;
     }
 
+    public void stop() {
+        if (_mBean != null) {
+            try {
+                JmxUtil.unregisterMBean(_mBean);
+            } catch (final Exception e) {
+                s_logger.debug("[ignored] unable to unregister the router pipelines MBean", e);
+            }
+            _mBean = null;
+        }
+    }
+
     public boolean connect(final String ipAddress) {
         return connect(ipAddress, _port);
     }
@@ -310,6 +465,32 @@ public class VirtualRoutingResource {
         return configItemFacade.generateConfig(cmd);
     }
 
+    /**
+     * Leaves out the config entries the router already has with the same content.
+     */
+    private List<ConfigItem> filterApplied(final String routerName, final List<ConfigItem> cfg) {
+        return filterApplied(routerName, cfg, new HashMap<>());
+    }
+
+    private List<ConfigItem> filterApplied(final String routerName, final List<ConfigItem> cfg, final Map<String, String> pending) {
+        if (!_differentialConfig) {
+            return cfg;
+        }
+        final List<ConfigItem> result = _appliedConfig.filterApplied(routerName, cfg, pending);
+        if (result.size() < cfg.size() && s_logger.isDebugEnabled()) {
+            s_logger.debug("Skipping " + (cfg.size() - result.size()) + " of " + cfg.size() + " config items that are already applied to router " + routerName);
+        }
+        return result;
+    }
+
+    /**
+     * Forgets which config the router has, so everything is pushed again. To be called when the router is configured
+     * from elsewhere, e.g. after it migrated to another host.
+     */
+    public void resetAppliedConfig(final String routerName) {
+        _appliedConfig.reset(routerName);
+    }
+
     private Answer execute(final AggregationControlCommand cmd) {
         final Action action = cmd.getAction();
         final String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
@@ -319,17 +500,19 @@ public class VirtualRoutingResource {
         if (action == Action.Start) {
             assert (!_vrAggregateCommandsSet.containsKey(routerName));
 
-            final Queue<NetworkElementCommand> queue = new LinkedBlockingQueue<>();
-            _vrAggregateCommandsSet.put(routerName, queue);
+            // only used by the thread that holds the pipeline of the router
+            _vrAggregateCommandsSet.put(routerName, new LinkedHashMap<>());
             return new Answer(cmd, true, "Command aggregation started");
         } else if (action == Action.Finish) {
-            final Queue<NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
+            final Map<Object, NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
+            final List<ConfigItem> applied = new ArrayList<>();
+            final Map<String, String> pending = new HashMap<>();
             int answerCounts = 0;
             try {
                 final StringBuilder sb = new StringBuilder();
                 sb.append("#Apache CloudStack Virtual Router Config File\n");
                 sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
-                for (final NetworkElementCommand command : queue) {
+                for (final NetworkElementCommand command : queue.values()) {
                     answerCounts += command.getAnswersCount();
                     final List<ConfigItem> cfg = generateCommandCfg(command);
                     if (cfg == null) {
@@ -337,11 +520,16 @@ public class VirtualRoutingResource {
                         continue;
                     }
 
-                    for (final ConfigItem c : cfg) {
+                    for (final ConfigItem c : filterApplied(routerName, cfg, pending)) {
                         sb.append(c.getAggregateCommand());
+                        applied.add(c);
                     }
                 }
 
+                if (applied.isEmpty()) {
+                    return new Answer(cmd, true, "Command aggregation finished, router config is up to date");
+                }
+
                 // TODO replace with applyConfig with a stop on fail
                 final String cfgFileName = "VR-" + UUID.randomUUID().toString() + ".cfg";
                 final FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, sb.toString());
@@ -359,9 +547,14 @@ public class VirtualRoutingResource {
 
                 result = applyConfigToVR(cmd.getRouterAccessIp(), scriptConfigItem, timeout);
                 if (!result.isSuccess()) {
+                    // part of the config may have been applied
+                    _appliedConfig.reset(routerName);
                     return new Answer(cmd, false, result.getDetails());
                 }
 
+                for (final ConfigItem c : applied) {
+                    _appliedConfig.markApplied(routerName, c);
+                }
                 return new Answer(cmd, true, "Command aggregation finished");
             } finally {
                 queue.clear();
@@ -0,0 +1,22 @@
+package com.cloud.agent.resource.virtualnetwork;
+
+/**
+ * Allows JMX access to the statistics of the router command pipelines of {@link VirtualRoutingResource}
+ */
+public interface VirtualRoutingResourceMBean {
+    int getRouterCount();
+
+    int getQueuedCommands();
+
+    long getExecutedCommands();
+
+    long getCoalescedCommands();
+
+    long getRejectedCommands();
+
+    long getMaxWaitMillis();
+
+    long getMaxRunMillis();
+
+    String[] getPipelineStatistics();
+}
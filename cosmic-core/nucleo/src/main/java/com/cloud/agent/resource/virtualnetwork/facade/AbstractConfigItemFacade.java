@@ -31,7 +31,9 @@ import com.cloud.agent.resource.virtualnetwork.ScriptConfigItem;
 import com.cloud.agent.resource.virtualnetwork.VRScripts;
 import com.cloud.agent.resource.virtualnetwork.model.ConfigBase;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.storage.ChecksumUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
@@ -110,6 +112,14 @@ public abstract class AbstractConfigItemFacade {
         final ConfigItem updateCommand = new ScriptConfigItem(VRScripts.UPDATE_CONFIG, remoteFilename);
         cfg.add(updateCommand);
 
+        final String entryKey = getFingerprintKey(configuration);
+        if (entryKey != null) {
+            final String fingerprintKey = destinationFile + ":" + entryKey;
+            final String fingerprint = ChecksumUtils.toHexString(ChecksumUtils.getDigest(ChecksumUtils.SHA1).digest(jsonConfigCommand.getBytes(StandardCharsets.UTF_8)));
+            configFile.setFingerprint(fingerprintKey, fingerprint);
+            updateCommand.setFingerprint(fingerprintKey, fingerprint);
+        }
+
         return cfg;
     }
 
@@ -121,5 +131,15 @@ public abstract class AbstractConfigItemFacade {
         return remoteFileName;
     }
 
+    /**
+     * Identifies the entry of the config type that the configuration replaces on the router. Pushing the same content
+     * for the same entry again does not change the router, so it can be skipped.
+     *
+     * @return the entry, or null when the configuration has to be pushed every time
+     */
+    protected String getFingerprintKey(final ConfigBase configuration) {
+        return null;
+    }
+
     public abstract List<ConfigItem> generateConfig(NetworkElementCommand cmd);
 }
@@ -28,4 +28,10 @@ public class DhcpEntryConfigItem extends AbstractConfigItemFacade {
 
         return super.generateConfigItems(configuration);
     }
+
+    @Override
+    protected String getFingerprintKey(final ConfigBase configuration) {
+        // the router keeps one entry per MAC address
+        return ((VmDhcpConfig) configuration).getMacAddress();
+    }
 }
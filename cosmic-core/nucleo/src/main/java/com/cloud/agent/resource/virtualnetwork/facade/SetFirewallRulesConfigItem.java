@@ -36,4 +36,10 @@ public class SetFirewallRulesConfigItem extends AbstractConfigItemFacade {
 
         return super.generateConfigItems(configuration);
     }
+
+    @Override
+    protected String getFingerprintKey(final ConfigBase configuration) {
+        // the commands carry different subsets of the rules, so only a resend of the last one is skipped
+        return "";
+    }
 }
@@ -87,4 +87,10 @@ public class SetNetworkAclConfigItem extends AbstractConfigItemFacade {
 
         return super.generateConfigItems(configuration);
     }
+
+    @Override
+    protected String getFingerprintKey(final ConfigBase configuration) {
+        // every command carries the complete ACL of one NIC
+        return ((NetworkACL) configuration).getMacAddress();
+    }
 }
@@ -26,4 +26,9 @@ public class VmDataConfigItem extends AbstractConfigItemFacade {
 
         return super.generateConfigItems(configuration);
     }
+
+    @Override
+    protected String getFingerprintKey(final ConfigBase configuration) {
+        return ((VmData) configuration).getVmIpAddress();
+    }
 }
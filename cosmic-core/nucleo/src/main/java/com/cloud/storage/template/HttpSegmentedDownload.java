@@ -0,0 +1,354 @@
+package com.cloud.storage.template;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a file over HTTP as a number of concurrent byte ranges, each written at its own offset into a preallocated
+ * file. The progress of every segment is persisted next to the file so an interrupted download can pick up where each
+ * segment left off.
+ */
+public class HttpSegmentedDownload {
+    private static final Logger s_logger = LoggerFactory.getLogger(HttpSegmentedDownload.class);
+
+    public static final String STATE_FILE_SUFFIX = ".segments";
+
+    private static final int CHUNK_SIZE = 1024 * 1024; //1M
+    private static final long STATE_SAVE_INTERVAL = 64L * 1024 * 1024;
+    private static final int SEGMENT_ATTEMPTS = 3;
+    private static final long WORKER_STOP_TIMEOUT_SECONDS = 60;
+
+    private final HttpClient client;
+    private final String url;
+    private final File file;
+    private final File stateFile;
+    private final int segmentCount;
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private long remoteSize = -1;
+    private Segment[] segments;
+
+    public HttpSegmentedDownload(final HttpClient client, final String url, final File file, final int segmentCount) {
+        this.client = client;
+        this.url = url;
+        this.file = file;
+        this.stateFile = new File(file.getAbsolutePath() + STATE_FILE_SUFFIX);
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Asks the server for the first byte of the file to find out whether it serves ranges.
+     *
+     * @return the size of the remote file, or -1 when the server does not support range requests
+     */
+    public long probe() throws IOException {
+        final GetMethod get = new GetMethod(url);
+        get.setFollowRedirects(true);
+        get.addRequestHeader("Range", "bytes=0-0");
+        try {
+            if (client.executeMethod(get) != HttpStatus.SC_PARTIAL_CONTENT) {
+                return -1;
+            }
+            final Header contentRange = get.getResponseHeader("Content-Range");
+            if (contentRange == null) {
+                return -1;
+            }
+            // Content-Range: bytes 0-0/<total>
+            final String value = contentRange.getValue();
+            final int slash = value.lastIndexOf('/');
+            if (slash < 0) {
+                return -1;
+            }
+            remoteSize = NumbersUtil.parseLong(value.substring(slash + 1).trim(), -1);
+            return remoteSize;
+        } finally {
+            get.abort();
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * Downloads all segments that are not complete yet. Requires a successful {@link #probe()} first.
+     *
+     * @param aborted polled between chunks, stops the download when it returns true
+     * @return the number of bytes of the file that are on disk
+     */
+    public long download(final BooleanSupplier aborted) throws IOException {
+        if (remoteSize < 0) {
+            throw new IOException("Size of " + url + " is unknown, probe the server first");
+        }
+
+        segments = loadState();
+        if (segments == null) {
+            segments = split(remoteSize, segmentCount);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(remoteSize);
+            }
+            saveState(null);
+        } else {
+            s_logger.info("Resuming segmented download of " + url + " to " + file.getAbsolutePath());
+        }
+        downloadedBytes.set(0);
+        for (final Segment segment : segments) {
+            downloadedBytes.addAndGet(segment.position - segment.start);
+        }
+
+        // the workers are stopped through this flag rather than interrupted, an interrupt closes the shared channel
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final BooleanSupplier stop = () -> stopped.get() || aborted.getAsBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(segments.length, new NamedThreadFactory("SegmentedDownload"));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final FileChannel channel = raf.getChannel();
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (final Segment segment : segments) {
+                    if (!segment.isComplete()) {
+                        futures.add(executor.submit(() -> {
+                            downloadSegment(channel, segment, stop);
+                            return null;
+                        }));
+                    }
+                }
+                for (final Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while downloading " + url, e);
+                    } catch (final ExecutionException e) {
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            } finally {
+                stopped.set(true);
+                awaitWorkers(executor);
+                // a segment position only moves after its write completed, forcing the file makes those writes durable
+                if (channel.isOpen()) {
+                    saveState(channel);
+                } else {
+                    try (RandomAccessFile sync = new RandomAccessFile(file, "rw")) {
+                        saveState(sync.getChannel());
+                    }
+                }
+            }
+        }
+
+        if (isComplete()) {
+            stateFile.delete();
+        }
+        return downloadedBytes.get();
+    }
+
+    private void awaitWorkers(final ExecutorService executor) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(WORKER_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                s_logger.warn("Segments of " + url + " did not stop within " + WORKER_STOP_TIMEOUT_SECONDS + " seconds, interrupting them");
+                executor.shutdownNow();
+                executor.awaitTermination(WORKER_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (final InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isComplete() {
+        if (segments == null) {
+            return false;
+        }
+        for (final Segment segment : segments) {
+            if (!segment.isComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    public long getRemoteSize() {
+        return remoteSize;
+    }
+
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    private void downloadSegment(final FileChannel channel, final Segment segment, final BooleanSupplier aborted) throws IOException {
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= SEGMENT_ATTEMPTS && !segment.isComplete() && !aborted.getAsBoolean(); attempt++) {
+            try {
+                transferSegment(channel, segment, aborted);
+                lastError = null;
+            } catch (final IOException e) {
+                s_logger.warn("Attempt " + attempt + " to download bytes " + segment.position + "-" + segment.end + " of " + url + " failed: " + e.getMessage());
+                lastError = e;
+            }
+        }
+        if (lastError != null) {
+            throw lastError;
+        }
+    }
+
+    private void transferSegment(final FileChannel channel, final Segment segment, final BooleanSupplier aborted) throws IOException {
+        final GetMethod get = new GetMethod(url);
+        get.setFollowRedirects(true);
+        get.addRequestHeader("Range", "bytes=" + segment.position + "-" + segment.end);
+        try {
+            final int responseCode = client.executeMethod(get);
+            if (responseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new IOException("HTTP Server returned " + responseCode + " (expected 206 Partial Content)");
+            }
+
+            final InputStream in = get.getResponseBodyAsStream();
+            final byte[] block = new byte[CHUNK_SIZE];
+            long unsaved = 0;
+            while (!segment.isComplete()) {
+                if (aborted.getAsBoolean()) {
+                    get.abort();
+                    return;
+                }
+                final int bytes = in.read(block, 0, (int) Math.min(CHUNK_SIZE, segment.end - segment.position + 1));
+                if (bytes < 0) {
+                    throw new IOException("Connection closed at byte " + segment.position + ", expected data up to byte " + segment.end);
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(block, 0, bytes);
+                long position = segment.position;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                segment.position = position;
+                downloadedBytes.addAndGet(bytes);
+
+                unsaved += bytes;
+                if (unsaved >= STATE_SAVE_INTERVAL) {
+                    saveState(channel);
+                    unsaved = 0;
+                }
+            }
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    private static Segment[] split(final long size, final int count) {
+        final int segmentCount = (int) Math.max(1, Math.min(count, size));
+        final long segmentSize = size / segmentCount;
+        final Segment[] result = new Segment[segmentCount];
+        long start = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            final long end = i == segmentCount - 1 ? size - 1 : start + segmentSize - 1;
+            result[i] = new Segment(start, end, start);
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private Segment[] loadState() {
+        if (!stateFile.exists() || !file.exists() || file.length() != remoteSize) {
+            return null;
+        }
+        final Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(stateFile)) {
+            props.load(in);
+        } catch (final IOException e) {
+            s_logger.warn("Unable to read segment state " + stateFile.getAbsolutePath() + ", starting over: " + e.getMessage());
+            return null;
+        }
+        if (NumbersUtil.parseLong(props.getProperty("size"), -1) != remoteSize || !url.equals(props.getProperty("url"))) {
+            return null;
+        }
+        final int count = NumbersUtil.parseInt(props.getProperty("segments"), 0);
+        if (count <= 0) {
+            return null;
+        }
+        final Segment[] result = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            final long start = NumbersUtil.parseLong(props.getProperty("segment." + i + ".start"), -1);
+            final long end = NumbersUtil.parseLong(props.getProperty("segment." + i + ".end"), -1);
+            final long position = NumbersUtil.parseLong(props.getProperty("segment." + i + ".position"), -1);
+            if (start < 0 || end < start || position < start || position > end + 1) {
+                return null;
+            }
+            result[i] = new Segment(start, end, position);
+        }
+        return result;
+    }
+
+    /**
+     * Persists the segment positions. When a channel is given the positions are taken before forcing it, so the saved
+     * state never claims data that is not on disk yet. Without a channel only the initial state can be saved.
+     */
+    private synchronized void saveState(final FileChannel channel) throws IOException {
+        final long[] positions = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            positions[i] = segments[i].position;
+        }
+        if (channel != null) {
+            channel.force(false);
+        }
+
+        final Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("size", Long.toString(remoteSize));
+        props.setProperty("segments", Integer.toString(segments.length));
+        for (int i = 0; i < segments.length; i++) {
+            props.setProperty("segment." + i + ".start", Long.toString(segments[i].start));
+            props.setProperty("segment." + i + ".end", Long.toString(segments[i].end));
+            props.setProperty("segment." + i + ".position", Long.toString(positions[i]));
+        }
+        final File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private volatile long position;
+
+        Segment(final long start, final long end, final long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        boolean isComplete() {
+            return position > end;
+        }
+    }
+}
@@ -7,13 +7,16 @@ import com.cloud.utils.Pair;
 import com.cloud.utils.UriUtils;
 import com.cloud.utils.imagestore.ImageStoreUtil;
 import com.cloud.utils.net.Proxy;
+import com.cloud.utils.storage.ChecksumUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.MessageDigest;
 import java.util.Date;
 
 import org.apache.commons.httpclient.Credentials;
@@ -39,6 +42,16 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private static final MultiThreadedHttpConnectionManager s_httpClientManager = new MultiThreadedHttpConnectionManager();
 
     private static final int CHUNK_SIZE = 1024 * 1024; //1M
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_SEGMENTED_ATTEMPTS = 3;
+
+    static {
+        // segmented downloads open several connections to the same mirror
+        s_httpClientManager.getParams().setDefaultMaxConnectionsPerHost(MAX_SEGMENTS);
+        s_httpClientManager.getParams().setMaxTotalConnections(4 * MAX_SEGMENTS);
+    }
+
     private final HttpClient client;
     private final HttpMethodRetryHandler myretryhandler;
     public TemplateDownloader.Status status = TemplateDownloader.Status.NOT_STARTED;
@@ -56,6 +69,11 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private String toDir;
     private final long maxTemplateSizeInBytes;
     private ResourceType resourceType = ResourceType.TEMPLATE;
+    private String checksumAlgorithm = ChecksumUtils.MD5;
+    private String checksum;
+    private int segments = 1;
+    private int segmentedAttempts = 0;
+    private volatile HttpSegmentedDownload segmentedDownload;
 
     public HttpTemplateDownloader(final StorageLayer storageLayer, final String downloadUrl, final String toDir, final DownloadCompleteCallback callback,
                                   final long maxTemplateSizeInBytes, final String user, final String password, final Proxy proxy, final ResourceType resourceType) {
@@ -160,6 +178,17 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
             final Date start = new Date();
 
+            if (segments > 1 && (localFileSize == 0 || new File(toFile + HttpSegmentedDownload.STATE_FILE_SUFFIX).exists())) {
+                final HttpSegmentedDownload segmented = new HttpSegmentedDownload(client, downloadUrl, file, segments);
+                final long size = segmented.probe();
+                if (size >= segments * MIN_SEGMENT_SIZE) {
+                    return downloadInSegments(segmented, file, start);
+                }
+                if (size < 0) {
+                    s_logger.info("HTTP Server does not support range requests for " + downloadUrl + ", downloading as a single stream");
+                }
+            }
+
             int responseCode = 0;
 
             if (localFileSize > 0) {
@@ -219,9 +248,18 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             final RandomAccessFile out = new RandomAccessFile(file, "rw");
             out.seek(localFileSize);
 
+            // digest the bytes as they stream past, so the finished file does not need to be read back for its checksum
+            final MessageDigest digest = ChecksumUtils.getDigest(checksumAlgorithm);
+            if (localFileSize > 0) {
+                ChecksumUtils.update(digest, file, localFileSize);
+            }
+            checksum = null;
+
             s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " , max size=" + maxTemplateSizeInBytes);
 
             final byte[] block = new byte[CHUNK_SIZE];
+            final byte[] header = new byte[ImageStoreUtil.FORMAT_PROBE_HEADER_SIZE];
+            int headerLength = 0;
             long offset = 0;
             boolean done = false;
             boolean verifiedFormat = false;
@@ -229,18 +267,17 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             while (!done && status != Status.ABORTED && offset <= remoteSize) {
                 if ((bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
                     out.write(block, 0, bytes);
+                    digest.update(block, 0, bytes);
+                    if (localFileSize == 0 && headerLength < header.length) {
+                        final int headerBytes = Math.min(bytes, header.length - headerLength);
+                        System.arraycopy(block, 0, header, headerLength, headerBytes);
+                        headerLength += headerBytes;
+                    }
                     offset += bytes;
                     out.seek(offset);
                     totalBytes += bytes;
                     if (!verifiedFormat && (offset >= 1048576 || offset >= remoteSize)) { //let's check format after we get 1MB or full file
-                        String uripath = null;
-                        try {
-                            final URI str = new URI(getDownloadUrl());
-                            uripath = str.getPath();
-                        } catch (final URISyntaxException e) {
-                            s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
-                        }
-                        final String unsupportedFormat = ImageStoreUtil.checkTemplateFormat(file.getAbsolutePath(), uripath);
+                        final String unsupportedFormat = checkFormat(file, header, headerLength);
                         if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
                             try {
                                 request.abort();
@@ -267,6 +304,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             if (totalBytes >= remoteSize) {
                 status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
                 downloaded = "(download complete remote=" + remoteSize + "bytes)";
+                checksum = ChecksumUtils.toHexString(digest.digest());
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
             downloadTime += finish.getTime() - start.getTime();
@@ -283,6 +321,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         } finally {
             if (status == Status.UNRECOVERABLE_ERROR && file.exists() && !file.isDirectory()) {
                 file.delete();
+                new File(toFile + HttpSegmentedDownload.STATE_FILE_SUFFIX).delete();
             }
             request.releaseConnection();
             if (callback != null) {
@@ -292,6 +331,76 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    /**
+     * Downloads the file as concurrent byte ranges. A failed segment leaves the persisted progress in place and reports a
+     * recoverable error, so the next attempt only fetches what is missing.
+     */
+    private long downloadInSegments(final HttpSegmentedDownload segmented, final File file, final Date start) throws IOException {
+        remoteSize = segmented.getRemoteSize();
+        if (remoteSize > maxTemplateSizeInBytes) {
+            s_logger.info("Remote size is too large: " + remoteSize + " , max=" + maxTemplateSizeInBytes);
+            status = Status.UNRECOVERABLE_ERROR;
+            errorString = "Download file size is too large";
+            return 0;
+        }
+
+        s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " in " + segments + " segments, remoteSize=" + remoteSize + " , max size=" +
+                maxTemplateSizeInBytes);
+        status = TemplateDownloader.Status.IN_PROGRESS;
+        segmentedDownload = segmented;
+        checksum = null;
+        try {
+            segmented.download(() -> status == Status.ABORTED);
+        } catch (final IOException e) {
+            if (++segmentedAttempts >= MAX_SEGMENTED_ATTEMPTS) {
+                throw e;
+            }
+            s_logger.warn("Segmented download of " + getDownloadUrl() + " failed, keeping progress for a retry: " + e.getMessage());
+            status = Status.RECOVERABLE_ERROR;
+            errorString = e.getMessage();
+            return 0;
+        } finally {
+            totalBytes = segmented.getDownloadedBytes();
+            segmentedDownload = null;
+        }
+        downloadTime += new Date().getTime() - start.getTime();
+        if (status == Status.ABORTED || !segmented.isComplete()) {
+            errorString = "Downloaded " + totalBytes + " bytes (incomplete download)";
+            return totalBytes;
+        }
+
+        final byte[] header = new byte[ImageStoreUtil.FORMAT_PROBE_HEADER_SIZE];
+        final int headerLength;
+        try (InputStream in = new FileInputStream(file)) {
+            headerLength = Math.max(0, in.read(header));
+        }
+        final String unsupportedFormat = checkFormat(file, header, headerLength);
+        if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
+            status = Status.UNRECOVERABLE_ERROR;
+            errorString = "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
+            return 0;
+        }
+
+        status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
+        errorString = "Downloaded " + totalBytes + " bytes (download complete remote=" + remoteSize + "bytes)";
+        return totalBytes;
+    }
+
+    private String checkFormat(final File file, final byte[] header, final int headerLength) {
+        String uripath = null;
+        try {
+            final URI str = new URI(getDownloadUrl());
+            uripath = str.getPath();
+        } catch (final URISyntaxException e) {
+            s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
+        }
+        final String unsupportedFormat = ImageStoreUtil.probeTemplateFormat(header, headerLength, uripath);
+        if (unsupportedFormat != null) {
+            return unsupportedFormat;
+        }
+        return ImageStoreUtil.checkTemplateFormat(file.getAbsolutePath(), uripath);
+    }
+
     public String getDownloadUrl() {
         return downloadUrl;
     }
@@ -329,7 +438,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             return 0;
         }
 
-        return (int) (100.0 * totalBytes / remoteSize);
+        return (int) (100.0 * getDownloadedBytes() / remoteSize);
     }
 
     @Override
@@ -349,6 +458,10 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
     @Override
     public long getDownloadedBytes() {
+        final HttpSegmentedDownload segmented = segmentedDownload;
+        if (segmented != null) {
+            return segmented.getDownloadedBytes();
+        }
         return totalBytes;
     }
 
@@ -403,4 +516,31 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     public ResourceType getResourceType() {
         return resourceType;
     }
+
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(final String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @param segments the number of concurrent range requests to use for servers that support them, 1 downloads as a
+     *                 single stream which also allows computing the checksum on the fly
+     */
+    public void setSegments(final int segments) {
+        this.segments = Math.max(1, Math.min(segments, MAX_SEGMENTS));
+    }
+
+    /**
+     * @return the checksum computed while downloading, or null when the download did not complete in a single pass
+     */
+    public String getChecksum() {
+        return checksum;
+    }
 }
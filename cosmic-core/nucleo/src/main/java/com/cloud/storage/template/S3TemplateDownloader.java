@@ -16,13 +16,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 
-import com.amazonaws.event.ProgressEvent;
-import com.amazonaws.event.ProgressEventType;
-import com.amazonaws.event.ProgressListener;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.StorageClass;
-import com.amazonaws.services.s3.transfer.Upload;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.URIException;
@@ -208,36 +205,27 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
             putObjectRequest.withStorageClass(StorageClass.ReducedRedundancy);
         }
 
-        final Upload upload = S3Utils.putObject(s3TO, putObjectRequest);
-
-        upload.addProgressListener(new ProgressListener() {
-            @Override
-            public void progressChanged(final ProgressEvent progressEvent) {
-
+        status = Status.IN_PROGRESS;
+        try {
+            // The template is read from the stream a part at a time, and the parts are sent to S3 in parallel.
+            S3Utils.uploadObject(s3TO, putObjectRequest, bytesTransferred -> {
                 // Record the amount of bytes transferred.
-                totalBytes += progressEvent.getBytesTransferred();
+                addTransferredBytes(bytesTransferred);
 
                 LOGGER.trace("Template download from " + downloadUrl + " to S3 bucket " + s3TO.getBucketName() + " transferred  " + totalBytes + " in " + ((new Date().getTime()
                         - start.getTime()) / 1000) + " seconds");
-
-                if (progressEvent.getEventType() == ProgressEventType.TRANSFER_STARTED_EVENT) {
-                    status = Status.IN_PROGRESS;
-                } else if (progressEvent.getEventType() == ProgressEventType.TRANSFER_COMPLETED_EVENT) {
-                    status = Status.DOWNLOAD_FINISHED;
-                } else if (progressEvent.getEventType() == ProgressEventType.TRANSFER_CANCELED_EVENT) {
-                    status = Status.ABORTED;
-                } else if (progressEvent.getEventType() == ProgressEventType.TRANSFER_FAILED_EVENT) {
-                    status = Status.UNRECOVERABLE_ERROR;
-                }
+            });
+            if (status == Status.IN_PROGRESS) {
+                status = Status.DOWNLOAD_FINISHED;
             }
-        });
+        } catch (final IOException | AmazonClientException e) {
+            errorString = "Failed to upload " + downloadUrl + " to S3 bucket " + s3TO.getBucketName() + ": " + e.getMessage();
+            LOGGER.warn(errorString);
 
-        try {
-            // Wait for the upload to complete.
-            upload.waitForCompletion();
-        } catch (final InterruptedException e) {
-            // Interruption while waiting for the upload to complete.
-            LOGGER.warn("Interruption occurred while waiting for upload of " + downloadUrl + " to complete");
+            // Keep the status of a download that was stopped.
+            if (status != Status.ABORTED) {
+                status = Status.UNRECOVERABLE_ERROR;
+            }
         }
 
         downloadTime = new Date().getTime() - start.getTime();
@@ -261,6 +249,10 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
         return totalBytes;
     }
 
+    private synchronized void addTransferredBytes(final long bytesTransferred) {
+        totalBytes += bytesTransferred;
+    }
+
     @Override
     public boolean stopDownload() {
         switch (status) {
@@ -0,0 +1,228 @@
+package com.cloud.agent.resource.virtualnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RouterCommandPipelineTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(RouterCommandPipelineTest.class);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static NetworkElementCommand command(final String vmIp) {
+        return new VmDataCommand(vmIp, "vm", false);
+    }
+
+    /**
+     * Occupies the pipeline with a command that runs until the returned latch is released.
+     */
+    private CountDownLatch block(final RouterCommandPipeline pipeline) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> pipeline.execute(command("10.0.0.1"), null, cmd -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Answer(cmd);
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static void awaitDepth(final RouterCommandPipeline pipeline, final int depth) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getQueueDepth() != depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(depth, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void testCommandsRunOneAtATimeInOrder() throws Exception {
+        final RouterCommandPipeline pipeline = new RouterCommandPipeline("r-1-VM", 100, 10000);
+        final CountDownLatch release = block(pipeline);
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger running = new AtomicInteger();
+        final List<Future<Answer>> answers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            answers.add(executor.submit(() -> pipeline.execute(command("10.0.1." + n), null, cmd -> {
+                assertEquals(1, running.incrementAndGet());
+                order.add(n);
+                running.decrementAndGet();
+                return new Answer(cmd);
+            })));
+            // the commands are queued in the order they are submitted
+            awaitDepth(pipeline, i + 2);
+        }
+        release.countDown();
+
+        for (final Future<Answer> answer : answers) {
+            assertTrue(answer.get(10, TimeUnit.SECONDS).getResult());
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+        assertEquals(11, pipeline.getExecuted());
+    }
+
+    @Test
+    public void testWaitingCommandIsSupersededByLaterOne() throws Exception {
+        final RouterCommandPipeline pipeline = new RouterCommandPipeline("r-1-VM", 100, 10000);
+        final CountDownLatch release = block(pipeline);
+
+        final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        final Future<Answer> first = executor.submit(() -> pipeline.execute(command("10.0.1.1"), "VmDataCommand:10.0.1.1", cmd -> {
+            executed.add("first");
+            return new Answer(cmd);
+        }));
+        awaitDepth(pipeline, 2);
+        final Future<Answer> other = executor.submit(() -> pipeline.execute(command("10.0.1.2"), "VmDataCommand:10.0.1.2", cmd -> {
+            executed.add("other");
+            return new Answer(cmd);
+        }));
+        awaitDepth(pipeline, 3);
+        final Future<Answer> last = executor.submit(() -> pipeline.execute(command("10.0.1.1"), "VmDataCommand:10.0.1.1", cmd -> {
+            executed.add("last");
+            return new Answer(cmd, false, "router said no");
+        }));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getCoalesced() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        // the superseded command gets the outcome of the one that replaced it
+        final Answer firstAnswer = first.get(10, TimeUnit.SECONDS);
+        assertFalse(firstAnswer.getResult());
+        assertTrue(firstAnswer.getDetails().contains("router said no"));
+        assertTrue(other.get(10, TimeUnit.SECONDS).getResult());
+        assertFalse(last.get(10, TimeUnit.SECONDS).getResult());
+
+        assertEquals(Arrays.asList("other", "last"), executed);
+        assertEquals(1, pipeline.getCoalesced());
+        assertEquals(3, pipeline.getExecuted());
+    }
+
+    @Test
+    public void testFullQueueRejectsCommands() throws Exception {
+        final RouterCommandPipeline pipeline = new RouterCommandPipeline("r-1-VM", 2, 100);
+        final CountDownLatch release = block(pipeline);
+
+        final List<Future<Answer>> queued = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final int n = i;
+            queued.add(executor.submit(() -> pipeline.execute(command("10.0.1." + n), "VmDataCommand:10.0.1." + n, Answer::new)));
+            awaitDepth(pipeline, i + 2);
+        }
+
+        final Answer rejected = pipeline.execute(command("10.0.1.3"), null, Answer::new);
+        assertFalse(rejected.getResult());
+        assertEquals(1, pipeline.getRejected());
+
+        // a command that replaces a waiting one does not need room
+        final Future<Answer> coalesced = executor.submit(() -> pipeline.execute(command("10.0.1.1"), "VmDataCommand:10.0.1.1", Answer::new));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getCoalesced() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, pipeline.getCoalesced());
+        release.countDown();
+        for (final Future<Answer> answer : queued) {
+            assertTrue(answer.get(10, TimeUnit.SECONDS).getResult());
+        }
+        assertTrue(coalesced.get(10, TimeUnit.SECONDS).getResult());
+        assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void testFailingCommandDoesNotBlockPipeline() {
+        final RouterCommandPipeline pipeline = new RouterCommandPipeline("r-1-VM", 100, 10000);
+        try {
+            pipeline.execute(command("10.0.1.1"), null, cmd -> {
+                throw new IllegalStateException("ssh failed");
+            });
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        assertTrue(pipeline.execute(command("10.0.1.1"), null, Answer::new).getResult());
+        assertEquals(2, pipeline.getExecuted());
+        assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    /**
+     * Sends bursts of VM data updates for a few VMs to a router that needs some time for every command, from many
+     * worker threads, and compares the number of commands that reach the router with and without coalescing.
+     */
+    @Test
+    public void benchmarkBurstOfUpdates() throws Exception {
+        Benchmarks.assumeEnabled();
+        final int threads = 16;
+        final int updates = 400;
+        final int vms = 4;
+
+        final int withCoalescing = runBurst(threads, updates, vms, true);
+        final int withoutCoalescing = runBurst(threads, updates, vms, false);
+
+        assertEquals(updates, withoutCoalescing);
+        assertTrue(withCoalescing < withoutCoalescing);
+    }
+
+    private int runBurst(final int threads, final int updates, final int vms, final boolean coalesce) throws Exception {
+        final RouterCommandPipeline pipeline = new RouterCommandPipeline("r-1-VM", threads, 60000);
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final AtomicInteger pushed = new AtomicInteger();
+        final long start = System.nanoTime();
+        try {
+            final List<Future<Answer>> answers = new ArrayList<>();
+            for (int i = 0; i < updates; i++) {
+                final String vmIp = "10.0.1." + i % vms;
+                answers.add(workers.submit(() -> pipeline.execute(command(vmIp), coalesce ? "VmDataCommand:" + vmIp : null, cmd -> {
+                    pushed.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new Answer(cmd);
+                })));
+            }
+            for (final Future<Answer> answer : answers) {
+                assertTrue(answer.get(60, TimeUnit.SECONDS).getResult());
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        s_logger.info((coalesce ? "With" : "Without") + " coalescing " + updates + " updates took " + (System.nanoTime() - start) / 1000000 + " ms: " + pipeline);
+        return pushed.get();
+    }
+}
@@ -0,0 +1,231 @@
+package com.cloud.agent.resource.virtualnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.routing.AggregationControlCommand;
+import com.cloud.agent.api.routing.AggregationControlCommand.Action;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
+import com.cloud.utils.ExecutionResult;
+import com.cloud.utils.testcase.Benchmarks;
+
+import javax.naming.ConfigurationException;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RouterConfigStateTest implements VirtualRouterDeployer {
+    private static final Logger s_logger = LoggerFactory.getLogger(RouterConfigStateTest.class);
+
+    private static final String ROUTER_NAME = "r-4-VM";
+    private static final String ROUTER_IP = "169.254.3.4";
+    private static final int VM_COUNT = 5000;
+
+    private VirtualRoutingResource resource;
+    private long bytesSent;
+    private int filesSent;
+    private int scriptsRun;
+    private boolean failScripts;
+    private String lastFile;
+
+    @Before
+    public void setup() throws ConfigurationException {
+        resource = new VirtualRoutingResource(this);
+        resource.configure("VRResource", new HashMap<>());
+    }
+
+    @After
+    public void tearDown() {
+        resource.stop();
+    }
+
+    @Test
+    public void testUnchangedEntryIsNotPushedAgain() {
+        assertTrue(resource.executeRequest(dhcpEntry(1, "vm-1")).getResult());
+        assertEquals(1, filesSent);
+
+        final Answer answer = resource.executeRequest(dhcpEntry(1, "vm-1"));
+        assertTrue(answer.getResult());
+        assertEquals(1, filesSent);
+
+        assertTrue(resource.executeRequest(dhcpEntry(1, "renamed-vm-1")).getResult());
+        assertEquals(2, filesSent);
+    }
+
+    @Test
+    public void testFailedEntryIsPushedAgain() {
+        failScripts = true;
+        assertFalse(resource.executeRequest(dhcpEntry(1, "vm-1")).getResult());
+
+        failScripts = false;
+        assertTrue(resource.executeRequest(dhcpEntry(1, "vm-1")).getResult());
+        assertEquals(2, filesSent);
+    }
+
+    @Test
+    public void testLaterChangeInBatchIsNotLost() {
+        resource.executeRequest(dhcpEntry(1, "vm-1"));
+
+        // changes the entry twice within one batch: the last change reaches the router
+        resource.executeRequest(aggregation(Action.Start, false));
+        resource.executeRequest(dhcpEntry(1, "renamed-vm-1"));
+        resource.executeRequest(dhcpEntry(1, "other-vm-1"));
+        final int before = filesSent;
+        assertTrue(resource.executeRequest(aggregation(Action.Finish, false)).getResult());
+        assertEquals(before + 1, filesSent);
+        assertEquals(1, countOccurrences(lastFile, "dhcpentry"));
+        assertEquals(0, countOccurrences(lastFile, "renamed-vm-1"));
+    }
+
+    @Test
+    public void testEntryChangedBackInBatchIsNotPushed() {
+        resource.executeRequest(dhcpEntry(1, "vm-1"));
+
+        // the earlier change is replaced by the later one, which the router already has
+        resource.executeRequest(aggregation(Action.Start, false));
+        resource.executeRequest(dhcpEntry(1, "renamed-vm-1"));
+        resource.executeRequest(dhcpEntry(1, "vm-1"));
+        final int before = filesSent;
+        assertTrue(resource.executeRequest(aggregation(Action.Finish, false)).getResult());
+        assertEquals(before, filesSent);
+    }
+
+    @Test
+    public void testStoppedRouterIsForgotten() {
+        assertTrue(resource.executeRequest(dhcpEntry(1, "vm-1")).getResult());
+        assertEquals(1, resource.getRouterCount());
+        assertEquals(1, resource.getExecutedCommands());
+
+        resource.removeRouter(ROUTER_NAME);
+
+        assertEquals(0, resource.getRouterCount());
+        assertEquals(1, resource.getExecutedCommands());
+        // the router is started again from scratch, so it gets the entry again
+        assertTrue(resource.executeRequest(dhcpEntry(1, "vm-1")).getResult());
+        assertEquals(2, filesSent);
+        assertEquals(1, resource.getPipelineStatistics().length);
+    }
+
+    /**
+     * Reprograms a router of a network with 5000 VMs, each with a DHCP entry and VM data, three times: the first push,
+     * a push where one VM changed, and a full resync.
+     */
+    @Test
+    public void benchmarkReprogramLargeNetwork() {
+        Benchmarks.assumeEnabled();
+        final long first = reprogram(null, false);
+        final long firstBytes = bytesSent;
+        final int firstScripts = scriptsRun;
+
+        bytesSent = 0;
+        scriptsRun = 0;
+        final long second = reprogram("changed-vm", false);
+        final long secondBytes = bytesSent;
+        final String secondFile = lastFile;
+
+        bytesSent = 0;
+        final long full = reprogram("changed-vm", true);
+        final long fullBytes = bytesSent;
+
+        s_logger.info("Reprogramming a router with " + VM_COUNT + " VMs: first push " + first + " ms / " + firstBytes + " bytes, one VM changed " + second + " ms / "
+                + secondBytes + " bytes, full resync " + full + " ms / " + fullBytes + " bytes");
+
+        assertEquals(1, firstScripts);
+        assertTrue(secondBytes * 100 < firstBytes);
+        assertEquals(1, countOccurrences(secondFile, "dhcpentry"));
+        assertEquals(1, countOccurrences(secondFile, "vmdata"));
+        assertTrue(fullBytes >= firstBytes);
+    }
+
+    private long reprogram(final String changedVmName, final boolean fullSync) {
+        final long start = System.nanoTime();
+        assertTrue(resource.executeRequest(aggregation(Action.Start, fullSync)).getResult());
+        for (int i = 0; i < VM_COUNT; i++) {
+            final String vmName = i == 0 && changedVmName != null ? changedVmName : "vm-" + i;
+            resource.executeRequest(dhcpEntry(i, vmName));
+            resource.executeRequest(vmData(i, vmName));
+        }
+        assertTrue(resource.executeRequest(aggregation(Action.Finish, false)).getResult());
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private NetworkElementCommand aggregation(final Action action, final boolean fullSync) {
+        final AggregationControlCommand cmd = new AggregationControlCommand(action, ROUTER_NAME, ROUTER_IP, "10.1.1.1");
+        if (fullSync) {
+            cmd.setAccessDetail(NetworkElementCommand.ROUTER_FULL_SYNC, "true");
+        }
+        return cmd;
+    }
+
+    private NetworkElementCommand dhcpEntry(final int vm, final String vmName) {
+        final DhcpEntryCommand cmd = new DhcpEntryCommand(mac(vm), ip(vm), vmName, null, "10.1.0.1", "10.1.0.1", null, false);
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, ROUTER_NAME);
+        return cmd;
+    }
+
+    private NetworkElementCommand vmData(final int vm, final String vmName) {
+        final VmDataCommand cmd = new VmDataCommand(ip(vm), vmName, false);
+        cmd.addVmData("userdata", "user-data", "");
+        cmd.addVmData("metadata", "local-hostname", vmName);
+        cmd.addVmData("metadata", "instance-id", "i-2-" + vm + "-VM");
+        cmd.addVmData("metadata", "vm-id", Integer.toString(vm));
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, ROUTER_NAME);
+        return cmd;
+    }
+
+    private static String mac(final int vm) {
+        return String.format("06:00:00:00:%02x:%02x", vm / 256, vm % 256);
+    }
+
+    private static String ip(final int vm) {
+        return "10.1." + (vm / 250 + 1) + "." + (vm % 250 + 2);
+    }
+
+    private static int countOccurrences(final String text, final String word) {
+        int count = 0;
+        int index = text.indexOf(word);
+        while (index >= 0) {
+            count++;
+            index = text.indexOf(word, index + word.length());
+        }
+        return count;
+    }
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args) {
+        return executeInVR(routerIp, script, args, 60);
+    }
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args, final int timeout) {
+        scriptsRun++;
+        return new ExecutionResult(!failScripts, null);
+    }
+
+    @Override
+    public ExecutionResult createFileInVR(final String routerIp, final String path, final String filename, final String content) {
+        filesSent++;
+        bytesSent += content.length();
+        lastFile = content;
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult prepareCommand(final NetworkElementCommand cmd) {
+        cmd.setRouterAccessIp(ROUTER_IP);
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult cleanupCommand(final NetworkElementCommand cmd) {
+        return new ExecutionResult(true, null);
+    }
+}
@@ -54,6 +54,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -367,6 +368,11 @@ public class VirtualRoutingResourceTest implements VirtualRouterDeployer {
         }
     }
 
+    @After
+    public void tearDown() {
+        _resource.stop();
+    }
+
     private void verifyFile(final NetworkElementCommand cmd, final String path, final String filename, final String content) {
         if (cmd instanceof AggregationControlCommand) {
             verifyFile(cmd, path, filename, content);
@@ -0,0 +1,175 @@
+package com.cloud.storage.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpSegmentedDownloadTest {
+
+    private final byte[] content = new byte[3 * 1024 * 1024 + 17];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private HttpClient client;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        new Random(42).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ranged/", exchange -> serve(exchange, true));
+        server.createContext("/plain/", exchange -> serve(exchange, false));
+        server.createContext("/failing/", exchange -> {
+            // the first segment always fails, the probe of the first byte does not
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range.startsWith("bytes=0-") && !range.equals("bytes=0-0")) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            } else {
+                serve(exchange, true);
+            }
+        });
+        server.start();
+
+        final MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+        manager.getParams().setDefaultMaxConnectionsPerHost(8);
+        client = new HttpClient(manager);
+        file = File.createTempFile("segmented", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        file.delete();
+        new File(file.getAbsolutePath() + HttpSegmentedDownload.STATE_FILE_SUFFIX).delete();
+    }
+
+    @Test
+    public void downloadInSegments() throws IOException {
+        final HttpSegmentedDownload download = new HttpSegmentedDownload(client, url("/ranged/template.qcow2"), file, 4);
+
+        assertEquals(content.length, download.probe());
+        assertEquals(content.length, download.download(() -> false));
+
+        assertTrue(download.isComplete());
+        assertFalse(download.getStateFile().exists());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        // the probe plus one request per segment
+        assertEquals(5, ranges.size());
+    }
+
+    @Test
+    public void probeWithoutRangeSupport() throws IOException {
+        final HttpSegmentedDownload download = new HttpSegmentedDownload(client, url("/plain/template.qcow2"), file, 4);
+
+        assertEquals(-1, download.probe());
+    }
+
+    @Test
+    public void resumeFromPersistedState() throws IOException {
+        final int half = content.length / 2;
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content, 0, half);
+            out.write(new byte[content.length - half]);
+        }
+        final String url = url("/ranged/template.qcow2");
+        final Properties state = new Properties();
+        state.setProperty("url", url);
+        state.setProperty("size", Integer.toString(content.length));
+        state.setProperty("segments", "2");
+        state.setProperty("segment.0.start", "0");
+        state.setProperty("segment.0.end", Integer.toString(half - 1));
+        state.setProperty("segment.0.position", Integer.toString(half));
+        state.setProperty("segment.1.start", Integer.toString(half));
+        state.setProperty("segment.1.end", Integer.toString(content.length - 1));
+        state.setProperty("segment.1.position", Integer.toString(half));
+        try (OutputStream out = new FileOutputStream(file.getAbsolutePath() + HttpSegmentedDownload.STATE_FILE_SUFFIX)) {
+            state.store(out, null);
+        }
+
+        final HttpSegmentedDownload download = new HttpSegmentedDownload(client, url, file, 4);
+        download.probe();
+        download.download(() -> false);
+
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(2, ranges.size());
+        assertEquals("bytes=" + half + "-" + (content.length - 1), ranges.get(1));
+    }
+
+    @Test
+    public void failedDownloadPersistsWrittenPositions() throws IOException {
+        final HttpSegmentedDownload download = new HttpSegmentedDownload(client, url("/failing/template.qcow2"), file, 4);
+        download.probe();
+        try {
+            download.download(() -> false);
+            fail("The first segment cannot be downloaded");
+        } catch (final IOException e) {
+            // expected
+        }
+
+        assertFalse(download.isComplete());
+        final Properties state = new Properties();
+        try (InputStream in = new FileInputStream(download.getStateFile())) {
+            state.load(in);
+        }
+        final byte[] written = Files.readAllBytes(file.toPath());
+        assertEquals(4, Integer.parseInt(state.getProperty("segments")));
+        assertEquals(0, Integer.parseInt(state.getProperty("segment.0.position")));
+        for (int i = 1; i < 4; i++) {
+            final int start = Integer.parseInt(state.getProperty("segment." + i + ".start"));
+            final int position = Integer.parseInt(state.getProperty("segment." + i + ".position"));
+            assertArrayEquals(Arrays.copyOfRange(content, start, position), Arrays.copyOfRange(written, start, position));
+        }
+    }
+
+    private String url(final String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void serve(final HttpExchange exchange, final boolean supportRanges) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        int end = content.length - 1;
+        if (supportRanges && range != null) {
+            ranges.add(range);
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            if (bounds.length > 1) {
+                end = Integer.parseInt(bounds[1]);
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, start, end - start + 1);
+        } catch (final IOException e) {
+            // the client hung up after the bytes it wanted
+        }
+    }
+}
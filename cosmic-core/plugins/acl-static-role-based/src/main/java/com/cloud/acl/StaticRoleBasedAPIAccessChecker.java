@@ -4,6 +4,8 @@ import com.cloud.api.APICommand;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
+import com.cloud.user.AuthorizationContext;
+import com.cloud.user.AuthorizationContextCache;
 import com.cloud.user.User;
 import com.cloud.utils.PropertiesUtil;
 import com.cloud.utils.component.AdapterBase;
@@ -34,6 +36,8 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
     List<PluggableService> _services;
     @Inject
     AccountService _accountService;
+    @Inject
+    AuthorizationContextCache _authorizationContextCache;
 
     protected StaticRoleBasedAPIAccessChecker() {
         super();
@@ -45,12 +49,17 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
 
     @Override
     public boolean checkAccess(final User user, final String commandName) throws PermissionDeniedException {
-        final Account account = _accountService.getAccount(user.getAccountId());
-        if (account == null) {
-            throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+        final RoleType roleType;
+        final AuthorizationContext context = _authorizationContextCache.getByUserId(user.getId());
+        if (context != null && context.getAccount() != null) {
+            roleType = context.getRoleType();
+        } else {
+            final Account account = _accountService.getAccount(user.getAccountId());
+            if (account == null) {
+                throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+            }
+            roleType = _accountService.getRoleType(account);
         }
-
-        final RoleType roleType = _accountService.getRoleType(account);
         final boolean isAllowed =
                 commandsPropertiesOverrides.contains(commandName) ? commandsPropertiesRoleBasedApisMap.get(roleType).contains(commandName) : annotationRoleBasedApisMap.get(
                         roleType).contains(commandName);
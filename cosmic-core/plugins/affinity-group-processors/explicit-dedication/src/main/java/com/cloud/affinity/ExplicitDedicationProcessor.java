@@ -32,8 +32,12 @@ import com.cloud.vm.dao.VMInstanceDao;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -224,111 +228,85 @@ public class ExplicitDedicationProcessor extends AffinityProcessorBase implement
     }
 
     private ExcludeList updateAvoidList(final List<DedicatedResourceVO> dedicatedResources, final ExcludeList avoidList, final DataCenter dc) {
+        // the pods, clusters, hosts and dedicated resources of the zone are read once, instead of for every resource
+        final ZoneResources zone = new ZoneResources(dc.getId());
         final ExcludeList includeList = new ExcludeList();
         for (final DedicatedResourceVO dr : dedicatedResources) {
             if (dr.getHostId() != null) {
                 includeList.addHost(dr.getHostId());
-                final HostVO dedicatedHost = _hostDao.findById(dr.getHostId());
-                includeList.addCluster(dedicatedHost.getClusterId());
-                includeList.addPod(dedicatedHost.getPodId());
+                final HostVO dedicatedHost = zone.hosts.get(dr.getHostId());
+                if (dedicatedHost != null) {
+                    includeList.addCluster(dedicatedHost.getClusterId());
+                    includeList.addPod(dedicatedHost.getPodId());
+                }
             }
 
             if (dr.getClusterId() != null) {
                 includeList.addCluster(dr.getClusterId());
                 //add all hosts inside this in includeList
-                final List<HostVO> hostList = _hostDao.findByClusterId(dr.getClusterId());
-                for (final HostVO host : hostList) {
-                    final DedicatedResourceVO dHost = _dedicatedDao.findByHostId(host.getId());
-                    if (dHost != null && !dedicatedResources.contains(dHost)) {
-                        avoidList.addHost(host.getId());
-                    } else {
-                        includeList.addHost(host.getId());
-                    }
+                for (final HostVO host : zone.getHostsOfCluster(dr.getClusterId())) {
+                    includeOrAvoidHost(host, zone, dedicatedResources, includeList, avoidList);
+                }
+                final ClusterVO dedicatedCluster = zone.clusters.get(dr.getClusterId());
+                if (dedicatedCluster != null) {
+                    includeList.addPod(dedicatedCluster.getPodId());
                 }
-                final ClusterVO dedicatedCluster = _clusterDao.findById(dr.getClusterId());
-                includeList.addPod(dedicatedCluster.getPodId());
             }
 
             if (dr.getPodId() != null) {
                 includeList.addPod(dr.getPodId());
                 //add all cluster under this pod in includeList
-                final List<ClusterVO> clusterList = _clusterDao.listByPodId(dr.getPodId());
-                for (final ClusterVO cluster : clusterList) {
-                    final DedicatedResourceVO dCluster = _dedicatedDao.findByClusterId(cluster.getId());
-                    if (dCluster != null && !dedicatedResources.contains(dCluster)) {
-                        avoidList.addCluster(cluster.getId());
-                    } else {
-                        includeList.addCluster(cluster.getId());
-                    }
+                for (final ClusterVO cluster : zone.getClustersOfPod(dr.getPodId())) {
+                    includeOrAvoidCluster(cluster, zone, dedicatedResources, includeList, avoidList);
                 }
                 //add all hosts inside this pod in includeList
-                final List<HostVO> hostList = _hostDao.findByPodId(dr.getPodId());
-                for (final HostVO host : hostList) {
-                    final DedicatedResourceVO dHost = _dedicatedDao.findByHostId(host.getId());
-                    if (dHost != null && !dedicatedResources.contains(dHost)) {
-                        avoidList.addHost(host.getId());
-                    } else {
-                        includeList.addHost(host.getId());
-                    }
+                for (final HostVO host : zone.getHostsOfPod(dr.getPodId())) {
+                    includeOrAvoidHost(host, zone, dedicatedResources, includeList, avoidList);
                 }
             }
 
-            if (dr.getDataCenterId() != null) {
+            if (dr.getDataCenterId() != null && dr.getDataCenterId() == dc.getId()) {
                 includeList.addDataCenter(dr.getDataCenterId());
                 //add all Pod under this data center in includeList
-                final List<HostPodVO> podList = _podDao.listByDataCenterId(dr.getDataCenterId());
-                for (final HostPodVO pod : podList) {
-                    final DedicatedResourceVO dPod = _dedicatedDao.findByPodId(pod.getId());
+                for (final HostPodVO pod : zone.pods) {
+                    final DedicatedResourceVO dPod = zone.dedicatedPods.get(pod.getId());
                     if (dPod != null && !dedicatedResources.contains(dPod)) {
                         avoidList.addPod(pod.getId());
                     } else {
                         includeList.addPod(pod.getId());
                     }
                 }
-                final List<ClusterVO> clusterList = _clusterDao.listClustersByDcId(dr.getDataCenterId());
-                for (final ClusterVO cluster : clusterList) {
-                    final DedicatedResourceVO dCluster = _dedicatedDao.findByClusterId(cluster.getId());
-                    if (dCluster != null && !dedicatedResources.contains(dCluster)) {
-                        avoidList.addCluster(cluster.getId());
-                    } else {
-                        includeList.addCluster(cluster.getId());
-                    }
+                for (final ClusterVO cluster : zone.clusters.values()) {
+                    includeOrAvoidCluster(cluster, zone, dedicatedResources, includeList, avoidList);
                 }
                 //add all hosts inside this in includeList
-                final List<HostVO> hostList = _hostDao.listByDataCenterId(dr.getDataCenterId());
-                for (final HostVO host : hostList) {
-                    final DedicatedResourceVO dHost = _dedicatedDao.findByHostId(host.getId());
-                    if (dHost != null && !dedicatedResources.contains(dHost)) {
-                        avoidList.addHost(host.getId());
-                    } else {
-                        includeList.addHost(host.getId());
-                    }
+                for (final HostVO host : zone.hosts.values()) {
+                    includeOrAvoidHost(host, zone, dedicatedResources, includeList, avoidList);
                 }
+            } else if (dr.getDataCenterId() != null) {
+                includeList.addDataCenter(dr.getDataCenterId());
             }
         }
         //Update avoid list using includeList.
         //add resources in avoid list which are not in include list.
 
-        final List<HostPodVO> pods = _podDao.listByDataCenterId(dc.getId());
-        final List<ClusterVO> clusters = _clusterDao.listClustersByDcId(dc.getId());
-        final List<HostVO> hosts = _hostDao.listByDataCenterId(dc.getId());
         final Set<Long> podsInIncludeList = includeList.getPodsToAvoid();
         final Set<Long> clustersInIncludeList = includeList.getClustersToAvoid();
         final Set<Long> hostsInIncludeList = includeList.getHostsToAvoid();
 
-        for (final HostPodVO pod : pods) {
+        for (final HostPodVO pod : zone.pods) {
             if (podsInIncludeList != null && !podsInIncludeList.contains(pod.getId())) {
                 avoidList.addPod(pod.getId());
             }
         }
 
-        for (final ClusterVO cluster : clusters) {
+        for (final ClusterVO cluster : zone.clusters.values()) {
             if (clustersInIncludeList != null && !clustersInIncludeList.contains(cluster.getId())) {
                 avoidList.addCluster(cluster.getId());
             }
         }
 
-        for (final HostVO host : hosts) {
+        for (final HostVO host : zone.hosts.values()) {
             if (hostsInIncludeList != null && !hostsInIncludeList.contains(host.getId())) {
                 avoidList.addHost(host.getId());
             }
@@ -336,6 +314,26 @@ public class ExplicitDedicationProcessor extends AffinityProcessorBase implement
         return avoidList;
     }
 
+    private void includeOrAvoidHost(final HostVO host, final ZoneResources zone, final List<DedicatedResourceVO> dedicatedResources, final ExcludeList includeList,
+                                    final ExcludeList avoidList) {
+        final DedicatedResourceVO dHost = zone.dedicatedHosts.get(host.getId());
+        if (dHost != null && !dedicatedResources.contains(dHost)) {
+            avoidList.addHost(host.getId());
+        } else {
+            includeList.addHost(host.getId());
+        }
+    }
+
+    private void includeOrAvoidCluster(final ClusterVO cluster, final ZoneResources zone, final List<DedicatedResourceVO> dedicatedResources, final ExcludeList includeList,
+                                       final ExcludeList avoidList) {
+        final DedicatedResourceVO dCluster = zone.dedicatedClusters.get(cluster.getId());
+        if (dCluster != null && !dedicatedResources.contains(dCluster)) {
+            avoidList.addCluster(cluster.getId());
+        } else {
+            includeList.addCluster(cluster.getId());
+        }
+    }
+
     @Override
     public boolean isAdminControlledGroup() {
         return true;
@@ -413,4 +411,49 @@ public class ExplicitDedicationProcessor extends AffinityProcessorBase implement
         final List<DedicatedResourceVO> dr = _dedicatedDao.listByDomainId(domainId);
         return dr;
     }
+
+    /**
+     * The pods, clusters and hosts of a zone, and the ones of them that are dedicated, by id
+     */
+    private class ZoneResources {
+        final List<HostPodVO> pods;
+        final Map<Long, ClusterVO> clusters = new LinkedHashMap<>();
+        final Map<Long, HostVO> hosts = new LinkedHashMap<>();
+        final Map<Long, DedicatedResourceVO> dedicatedPods = new HashMap<>();
+        final Map<Long, DedicatedResourceVO> dedicatedClusters = new HashMap<>();
+        final Map<Long, DedicatedResourceVO> dedicatedHosts = new HashMap<>();
+
+        ZoneResources(final long zoneId) {
+            pods = _podDao.listByDataCenterId(zoneId);
+            for (final ClusterVO cluster : _clusterDao.listClustersByDcId(zoneId)) {
+                clusters.put(cluster.getId(), cluster);
+            }
+            for (final HostVO host : _hostDao.listByDataCenterId(zoneId)) {
+                hosts.put(host.getId(), host);
+            }
+            for (final DedicatedResourceVO dedicatedResource : _dedicatedDao.listAll()) {
+                if (dedicatedResource.getPodId() != null) {
+                    dedicatedPods.put(dedicatedResource.getPodId(), dedicatedResource);
+                }
+                if (dedicatedResource.getClusterId() != null) {
+                    dedicatedClusters.put(dedicatedResource.getClusterId(), dedicatedResource);
+                }
+                if (dedicatedResource.getHostId() != null) {
+                    dedicatedHosts.put(dedicatedResource.getHostId(), dedicatedResource);
+                }
+            }
+        }
+
+        List<ClusterVO> getClustersOfPod(final long podId) {
+            return clusters.values().stream().filter(cluster -> cluster.getPodId() == podId).collect(Collectors.toList());
+        }
+
+        List<HostVO> getHostsOfCluster(final long clusterId) {
+            return hosts.values().stream().filter(host -> host.getClusterId() != null && host.getClusterId() == clusterId).collect(Collectors.toList());
+        }
+
+        List<HostVO> getHostsOfPod(final long podId) {
+            return hosts.values().stream().filter(host -> host.getPodId() != null && host.getPodId() == podId).collect(Collectors.toList());
+        }
+    }
 }
@@ -12,7 +12,7 @@ import com.cloud.exception.AffinityConflictException;
 import com.cloud.framework.config.dao.ConfigurationDao;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.NumbersUtil;
-import com.cloud.vm.VMInstanceVO;
+import com.cloud.utils.db.SearchCriteria;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachineProfile;
 import com.cloud.vm.dao.UserVmDao;
@@ -20,6 +20,8 @@ import com.cloud.vm.dao.VMInstanceDao;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -41,48 +43,36 @@ public class HostAntiAffinityProcessor extends AffinityProcessorBase implements
     protected ConfigurationDao _configDao;
     @Inject
     protected VMReservationDao _reservationDao;
-    private int _vmCapacityReleaseInterval;
+
+    private int _vmCapacityReleaseInterval = 3600;
 
     @Override
     public void process(final VirtualMachineProfile vmProfile, final DeploymentPlan plan, final ExcludeList avoid) throws AffinityConflictException {
         final VirtualMachine vm = vmProfile.getVirtualMachine();
-        final List<AffinityGroupVMMapVO> vmGroupMappings = _affinityGroupVMMapDao.findByVmIdType(vm.getId(), getType());
-
-        for (final AffinityGroupVMMapVO vmGroupMapping : vmGroupMappings) {
-            if (vmGroupMapping != null) {
-                final AffinityGroupVO group = _affinityGroupDao.findById(vmGroupMapping.getAffinityGroupId());
-
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Processing affinity group " + group.getName() + " for VM Id: " + vm.getId());
-                }
+        final List<Long> affinityGroupIds = getAffinityGroupIds(vm);
+        if (affinityGroupIds.isEmpty()) {
+            return;
+        }
 
-                final List<Long> groupVMIds = _affinityGroupVMMapDao.listVmIdsByAffinityGroup(group.getId());
-                groupVMIds.remove(vm.getId());
-
-                for (final Long groupVMId : groupVMIds) {
-                    final VMInstanceVO groupVM = _vmInstanceDao.findById(groupVMId);
-                    if (groupVM != null && !groupVM.isRemoved()) {
-                        if (groupVM.getHostId() != null) {
-                            avoid.addHost(groupVM.getHostId());
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Added host " + groupVM.getHostId() + " to avoid set, since VM " + groupVM.getId() + " is present on the host");
-                            }
-                        } else if (VirtualMachine.State.Stopped.equals(groupVM.getState()) && groupVM.getLastHostId() != null) {
-                            final long secondsSinceLastUpdate = (DateUtil.currentGMTTime().getTime() - groupVM.getUpdateTime().getTime()) / 1000;
-                            if (secondsSinceLastUpdate < _vmCapacityReleaseInterval) {
-                                avoid.addHost(groupVM.getLastHostId());
-                                if (s_logger.isDebugEnabled()) {
-                                    s_logger.debug("Added host " + groupVM.getLastHostId() + " to avoid set, since VM " + groupVM.getId() +
-                                            " is present on the host, in Stopped state but has reserved capacity");
-                                }
-                            }
-                        }
-                    }
-                }
+        // the hosts the vms of the groups are on now, whichever management server placed them there, and the last hosts
+        // of the stopped vms that still have capacity reserved there
+        for (final Long hostId : listOccupiedHostIds(affinityGroupIds, vm.getId())) {
+            avoid.addHost(hostId);
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Added host " + hostId + " to avoid set, since VMs of affinity groups " + affinityGroupIds + " are present on the host or have reserved " +
+                        "capacity on it");
             }
         }
     }
 
+    /**
+     * Like the capacity manager, a stopped vm keeps its capacity on its last host for capacity.skipcounting.hours
+     */
+    private List<Long> listOccupiedHostIds(final List<Long> affinityGroupIds, final long vmId) {
+        final Date stoppedSince = new Date(DateUtil.currentGMTTime().getTime() - _vmCapacityReleaseInterval * 1000L);
+        return _vmInstanceDao.listHostIdsOfAffinityGroups(affinityGroupIds, vmId, stoppedSince);
+    }
+
     @Override
     public boolean check(final VirtualMachineProfile vmProfile, final DeployDestination plannedDestination) throws AffinityConflictException {
 
@@ -92,29 +82,55 @@ public class HostAntiAffinityProcessor extends AffinityProcessorBase implements
         final long plannedHostId = plannedDestination.getHost().getId();
 
         final VirtualMachine vm = vmProfile.getVirtualMachine();
+        final List<Long> affinityGroupIds = getAffinityGroupIds(vm);
+        if (affinityGroupIds.isEmpty()) {
+            return true;
+        }
 
-        final List<AffinityGroupVMMapVO> vmGroupMappings = _affinityGroupVMMapDao.findByVmIdType(vm.getId(), getType());
+        // a vm of the group may have been started or migrated to the host since the avoid set was made
+        if (listOccupiedHostIds(affinityGroupIds, vm.getId()).contains(plannedHostId)) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Planned destination for VM " + vm.getId() + " conflicts with an existing VM of affinity groups " + affinityGroupIds + " on the same host " +
+                        plannedHostId);
+            }
+            return false;
+        }
 
-        for (final AffinityGroupVMMapVO vmGroupMapping : vmGroupMappings) {
+        for (final Long affinityGroupId : affinityGroupIds) {
             // if more than 1 VM's are present in the group then check for
             // conflict due to parallel deployment
-            final List<Long> groupVMIds = _affinityGroupVMMapDao.listVmIdsByAffinityGroup(vmGroupMapping.getAffinityGroupId());
+            final List<Long> groupVMIds = _affinityGroupVMMapDao.listVmIdsByAffinityGroup(affinityGroupId);
             groupVMIds.remove(vm.getId());
+            if (groupVMIds.isEmpty()) {
+                continue;
+            }
 
-            for (final Long groupVMId : groupVMIds) {
-                final VMReservationVO vmReservation = _reservationDao.findByVmId(groupVMId);
-                if (vmReservation != null && vmReservation.getHostId() != null && vmReservation.getHostId().equals(plannedHostId)) {
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("Planned destination for VM " + vm.getId() + " conflicts with an existing VM " + vmReservation.getVmId() +
-                                " reserved on the same host " + plannedHostId);
-                    }
-                    return false;
+            // the reservations of the other VMs of the group on the planned host, read at once
+            final SearchCriteria<VMReservationVO> sc = _reservationDao.createSearchCriteria();
+            sc.addAnd("vmId", SearchCriteria.Op.IN, groupVMIds.toArray());
+            sc.addAnd("hostId", SearchCriteria.Op.EQ, plannedHostId);
+            final List<VMReservationVO> vmReservations = _reservationDao.search(sc, null);
+            if (!vmReservations.isEmpty()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Planned destination for VM " + vm.getId() + " conflicts with an existing VM " + vmReservations.get(0).getVmId() +
+                            " reserved on the same host " + plannedHostId);
                 }
+                return false;
             }
         }
         return true;
     }
 
+    private List<Long> getAffinityGroupIds(final VirtualMachine vm) {
+        final List<Long> affinityGroupIds = new ArrayList<>();
+        for (final AffinityGroupVMMapVO vmGroupMapping : _affinityGroupVMMapDao.findByVmIdType(vm.getId(), getType())) {
+            if (vmGroupMapping != null) {
+                affinityGroupIds.add(vmGroupMapping.getAffinityGroupId());
+            }
+        }
+        return affinityGroupIds;
+    }
+
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         super.configure(name, params);
@@ -23,6 +23,9 @@ import com.cloud.user.AccountService;
 import com.cloud.user.DomainService;
 import com.cloud.user.User;
 import com.cloud.user.UserAccount;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.db.TransactionCallback;
+import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.InvalidParameterValueException;
 
 import javax.inject.Inject;
@@ -30,9 +33,14 @@ import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.StringUtils;
 import org.bouncycastle.util.encoders.Base64;
@@ -46,6 +54,8 @@ public class LdapImportUsersCmd extends BaseListCmd {
     public static final Logger s_logger = LoggerFactory.getLogger(LdapImportUsersCmd.class.getName());
 
     private static final String s_name = "ldapuserresponse";
+    // the users provisioned in one transaction
+    private static final int IMPORT_BATCH_SIZE = 100;
 
     @Parameter(name = ApiConstants.TIMEZONE,
             type = CommandType.STRING,
@@ -75,6 +85,8 @@ public class LdapImportUsersCmd extends BaseListCmd {
     private String groupName;
 
     private Domain _domain;
+    private final Map<String, Domain> _domainsByName = new HashMap<>();
+    private Domain _rootDomain;
 
     @Parameter(name = ApiConstants.ACCOUNT, type = CommandType.STRING, description = "Creates the user under the specified account. If no account is specified, the username will" +
             " be used as the account name.")
@@ -98,35 +110,81 @@ public class LdapImportUsersCmd extends BaseListCmd {
     public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException,
             ResourceAllocationException, NetworkRuleConflictException {
 
-        List<LdapUser> users;
+        final List<LdapUserResponse> addedUsers = new ArrayList<>();
+        // the users are imported a page at a time, as the directory returns them
+        final Consumer<List<LdapUser>> importPage = page -> addedUsers.addAll(createLdapUserResponse(importUsers(page)));
         try {
             if (StringUtils.isNotBlank(groupName)) {
 
-                users = _ldapManager.getUsersInGroup(groupName);
+                _ldapManager.getUsersInGroup(groupName, importPage);
             } else {
-                users = _ldapManager.getUsers();
+                _ldapManager.getUsers(importPage);
             }
         } catch (final NoLdapUserMatchingQueryException ex) {
-            users = new ArrayList<>();
             s_logger.info("No Ldap user matching query. " + " ::: " + ex.getMessage());
         }
 
-        final List<LdapUser> addedUsers = new ArrayList<>();
-        for (final LdapUser user : users) {
-            final Domain domain = getDomain(user);
-            try {
-                createCloudstackUserAccount(user, getAccountName(user), domain);
-                addedUsers.add(user);
-            } catch (final InvalidParameterValueException ex) {
-                s_logger.error("Failed to create user with username: " + user.getUsername() + " ::: " + ex.getMessage());
-            }
-        }
         final ListResponse<LdapUserResponse> response = new ListResponse<>();
-        response.setResponses(createLdapUserResponse(addedUsers));
+        response.setResponses(addedUsers);
         response.setResponseName(getCommandName());
         setResponseObject(response);
     }
 
+    private List<LdapUser> importUsers(final List<LdapUser> users) {
+        final Map<Long, Domain> domains = new HashMap<>();
+        final Map<Long, List<LdapUser>> usersByDomain = new LinkedHashMap<>();
+        for (final LdapUser user : users) {
+            final Domain domain = getDomain(user);
+            domains.put(domain.getId(), domain);
+            usersByDomain.computeIfAbsent(domain.getId(), id -> new ArrayList<>()).add(user);
+        }
+
+        final List<LdapUser> addedUsers = new ArrayList<>();
+        for (final Map.Entry<Long, List<LdapUser>> entry : usersByDomain.entrySet()) {
+            addedUsers.addAll(importUsers(domains.get(entry.getKey()), entry.getValue()));
+        }
+        return addedUsers;
+    }
+
+    private List<LdapUser> importUsers(final Domain domain, final List<LdapUser> users) {
+        // the accounts and users that exist already, in one query each instead of two per user
+        final Set<String> usernames = new HashSet<>();
+        final Set<String> accountNames = new HashSet<>();
+        for (final LdapUser user : users) {
+            usernames.add(user.getUsername());
+            accountNames.add(getAccountName(user));
+        }
+        final Map<String, UserAccount> existingUsers = new HashMap<>();
+        for (final UserAccount csuser : _accountService.getActiveUserAccounts(usernames, domain.getId())) {
+            existingUsers.put(csuser.getUsername(), csuser);
+        }
+        final Set<String> existingAccounts = new HashSet<>();
+        for (final Account account : _accountService.getActiveAccountsByName(accountNames, domain.getId())) {
+            existingAccounts.add(account.getAccountName());
+        }
+
+        final List<LdapUser> addedUsers = new ArrayList<>();
+        for (int from = 0; from < users.size(); from += IMPORT_BATCH_SIZE) {
+            final List<LdapUser> batch = users.subList(from, Math.min(from + IMPORT_BATCH_SIZE, users.size()));
+            addedUsers.addAll(Transaction.execute(new TransactionCallback<List<LdapUser>>() {
+                @Override
+                public List<LdapUser> doInTransaction(final TransactionStatus status) {
+                    final List<LdapUser> created = new ArrayList<>();
+                    for (final LdapUser user : batch) {
+                        try {
+                            createCloudstackUserAccount(user, getAccountName(user), domain, existingUsers.get(user.getUsername()), existingAccounts);
+                            created.add(user);
+                        } catch (final InvalidParameterValueException ex) {
+                            s_logger.error("Failed to create user with username: " + user.getUsername() + " ::: " + ex.getMessage());
+                        }
+                    }
+                    return created;
+                }
+            }));
+        }
+        return addedUsers;
+    }
+
     private Domain getDomain(final LdapUser user) {
         Domain domain;
         if (_domain != null) {
@@ -146,21 +204,24 @@ public class LdapImportUsersCmd extends BaseListCmd {
             }
             if (domain == null) {
                 // could not get a domain using domainId / LDAP group / OU of LDAP user. using ROOT domain for this user
-                domain = _domainService.getDomain(Domain.ROOT_DOMAIN);
+                if (_rootDomain == null) {
+                    _rootDomain = _domainService.getDomain(Domain.ROOT_DOMAIN);
+                }
+                domain = _rootDomain;
             }
         }
         return domain;
     }
 
-    private void createCloudstackUserAccount(final LdapUser user, final String accountName, final Domain domain) {
-        final Account account = _accountService.getActiveAccountByName(accountName, domain.getId());
-        if (account == null) {
+    private void createCloudstackUserAccount(final LdapUser user, final String accountName, final Domain domain, final UserAccount csuser, final Set<String> existingAccounts) {
+        if (!existingAccounts.contains(accountName)) {
             s_logger.debug("No account exists with name: " + accountName + " creating the account and an user with name: " + user.getUsername() + " in the account");
             _accountService.createUserAccount(user.getUsername(), generatePassword(), user.getFirstname(), user.getLastname(), user.getEmail(), timezone, accountName, accountType,
                     domain.getId(), domain.getNetworkDomain(), details, UUID.randomUUID().toString(), UUID.randomUUID().toString(), User.Source.LDAP);
+            // the next users of the account are added to it
+            existingAccounts.add(accountName);
         } else {
             //            check if the user exists. if yes, call update
-            final UserAccount csuser = _accountService.getActiveUserAccount(user.getUsername(), domain.getId());
             if (csuser == null) {
                 s_logger.debug("No user exists with name: " + user.getUsername() + " creating a user in the account: " + accountName);
                 _accountService.createUser(user.getUsername(), generatePassword(), user.getFirstname(), user.getLastname(), user.getEmail(), timezone, accountName, domain.getId(),
@@ -196,10 +257,11 @@ public class LdapImportUsersCmd extends BaseListCmd {
             //removing all the special characters and trimming its length to 190 to make the domain valid.
             final String domainName = StringUtils.substring(name.replaceAll("\\W", ""), 0, 190);
             if (StringUtils.isNotBlank(domainName)) {
-                domain = _domainService.getDomainByName(domainName, Domain.ROOT_DOMAIN);
-                if (domain == null) {
-                    domain = _domainService.createDomain(domainName, Domain.ROOT_DOMAIN, domainName, UUID.randomUUID().toString());
-                }
+                // most users of an import share a few OUs, look each of them up once
+                domain = _domainsByName.computeIfAbsent(domainName, key -> {
+                    final Domain existing = _domainService.getDomainByName(key, Domain.ROOT_DOMAIN);
+                    return existing != null ? existing : _domainService.createDomain(key, Domain.ROOT_DOMAIN, key, UUID.randomUUID().toString());
+                });
             }
         }
         return domain;
@@ -1,12 +1,12 @@
 package com.cloud.ldap;
 
-import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
-import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapContext;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -19,26 +19,24 @@ public class ADLdapUserManagerImpl extends OpenLdapUserManagerImpl implements Ld
 
     @Override
     public List<LdapUser> getUsersInGroup(final String groupName, final LdapContext context) throws NamingException {
+        final List<LdapUser> users = new ArrayList<>();
+        getUsersInGroup(groupName, context, users::addAll);
+        return users;
+    }
+
+    @Override
+    public void getUsersInGroup(final String groupName, final LdapContext context, final Consumer<List<LdapUser>> pages) throws NamingException {
         if (StringUtils.isBlank(groupName)) {
             throw new IllegalArgumentException("ldap group name cannot be blank");
         }
 
-        final String basedn = _ldapConfiguration.getBaseDn();
-        if (StringUtils.isBlank(basedn)) {
-            throw new IllegalArgumentException("ldap basedn is not configured");
+        try {
+            searchUsers(generateADGroupSearchFilter(groupName), context, false, pages);
+        } catch (final IOException e) {
+            final NamingException namingException = new NamingException("Failed to page through the members of " + groupName);
+            namingException.setRootCause(e);
+            throw namingException;
         }
-
-        final SearchControls searchControls = new SearchControls();
-        searchControls.setSearchScope(_ldapConfiguration.getScope());
-        searchControls.setReturningAttributes(_ldapConfiguration.getReturnAttributes());
-
-        final NamingEnumeration<SearchResult> results = context.search(basedn, generateADGroupSearchFilter(groupName), searchControls);
-        final List<LdapUser> users = new ArrayList<>();
-        while (results.hasMoreElements()) {
-            final SearchResult result = results.nextElement();
-            users.add(createUser(result));
-        }
-        return users;
     }
 
     private String generateADGroupSearchFilter(final String groupName) {
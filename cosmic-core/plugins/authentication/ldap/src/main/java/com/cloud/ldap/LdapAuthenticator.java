@@ -66,6 +66,9 @@ public class LdapAuthenticator extends AdapterBase implements UserAuthenticator
                             } else {
                                 enableUserInCloudStack(user);
                             }
+                        } else {
+                            // the user may have moved in the directory since it was looked up
+                            _ldapManager.invalidateUser(username);
                         }
                     } else {
                         // disable user in cloudstack
@@ -81,6 +84,9 @@ public class LdapAuthenticator extends AdapterBase implements UserAuthenticator
                         final LdapUser ldapUser = _ldapManager.getUser(username);
                         if (!ldapUser.isDisabled()) {
                             result = _ldapManager.canAuthenticate(ldapUser.getPrincipal(), password);
+                            if (!result) {
+                                _ldapManager.invalidateUser(username);
+                            }
                         } else {
                             s_logger.debug("user with principal " + ldapUser.getPrincipal() + " is disabled in ldap");
                         }
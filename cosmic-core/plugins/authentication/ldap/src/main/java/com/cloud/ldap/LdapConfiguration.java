@@ -24,6 +24,18 @@ public class LdapConfiguration implements Configurable {
     private static final ConfigKey<Boolean> ldapEnableNestedGroups = new ConfigKey<>(Boolean.class, "ldap.nested.groups.enable", "Advanced", "true",
             "if true, nested groups will also be queried", true, ConfigKey.Scope.Global, null);
 
+    private static final ConfigKey<Integer> ldapUserCacheTtl = new ConfigKey<>(Integer.class, "ldap.user.cache.ttl", "Advanced", "60",
+            "Seconds the ldap users looked up at login are kept, 0 to look them up on every login", false, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Integer> ldapUserCacheSize = new ConfigKey<>(Integer.class, "ldap.user.cache.size", "Advanced", "10000",
+            "Maximum number of ldap users looked up at login that are kept", false, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Integer> ldapBindContextPoolSize = new ConfigKey<>(Integer.class, "ldap.bind.context.pool.size", "Advanced", "8",
+            "Maximum number of idle bind contexts kept for the ldap searches", false, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Integer> ldapBindContextMaxAge = new ConfigKey<>(Integer.class, "ldap.bind.context.max.age", "Advanced", "300",
+            "Seconds after which a pooled bind context is closed and bound again", false, ConfigKey.Scope.Global, null);
+
     private final static int scope = SearchControls.SUBTREE_SCOPE;
 
     @Inject
@@ -172,6 +184,22 @@ public class LdapConfiguration implements Configurable {
         return ldapEnableNestedGroups.value();
     }
 
+    public int getUserCacheTtl() {
+        return ldapUserCacheTtl.value();
+    }
+
+    public int getUserCacheSize() {
+        return ldapUserCacheSize.value();
+    }
+
+    public int getBindContextPoolSize() {
+        return ldapBindContextPoolSize.value();
+    }
+
+    public int getBindContextMaxAge() {
+        return ldapBindContextMaxAge.value();
+    }
+
     @Override
     public String getConfigComponentName() {
         return LdapConfiguration.class.getSimpleName();
@@ -179,6 +207,7 @@ public class LdapConfiguration implements Configurable {
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[]{ldapReadTimeout, ldapPageSize, ldapProvider, ldapEnableNestedGroups};
+        return new ConfigKey<?>[]{ldapReadTimeout, ldapPageSize, ldapProvider, ldapEnableNestedGroups, ldapUserCacheTtl, ldapUserCacheSize, ldapBindContextPoolSize,
+                ldapBindContextMaxAge};
     }
 }
@@ -0,0 +1,173 @@
+package com.cloud.ldap;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.management.StandardMBean;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the bind contexts of the searches open between searches, instead of binding to the directory for each of them.
+ * <p>
+ * At most ldap.bind.context.pool.size contexts are kept idle, and a context is closed once it is older than
+ * ldap.bind.context.max.age seconds. A context that failed is closed rather than used again.
+ */
+public class LdapContextPool implements LdapContextPoolMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(LdapContextPool.class.getName());
+
+    @Inject
+    private LdapContextFactory _ldapContextFactory;
+    @Inject
+    private LdapConfiguration _ldapConfiguration;
+
+    private final Deque<PooledContext> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    // bumped when the ldap servers change, the contexts bound before are not used again
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public LdapContextPool() {
+    }
+
+    public LdapContextPool(final LdapContextFactory ldapContextFactory, final LdapConfiguration ldapConfiguration) {
+        _ldapContextFactory = ldapContextFactory;
+        _ldapConfiguration = ldapConfiguration;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            JmxUtil.registerMBean("Ldap", "LdapContextPool", new StandardMBean(this, LdapContextPoolMBean.class));
+        } catch (final Exception e) {
+            s_logger.error("Failed to register MBean", e);
+        }
+    }
+
+    /**
+     * Runs the callback with a bind context of the pool, and gives the context back to the pool when the callback is
+     * done with it.
+     */
+    public <T> T execute(final Callback<T> callback) throws NamingException, IOException {
+        final PooledContext pooled = borrow();
+        boolean healthy = false;
+        try {
+            final T result = callback.doWithContext(pooled.context);
+            healthy = true;
+            return result;
+        } catch (final NamingException e) {
+            healthy = LdapUtils.isUserNotFound(e);
+            throw e;
+        } finally {
+            release(pooled, healthy);
+        }
+    }
+
+    private PooledContext borrow() throws NamingException, IOException {
+        PooledContext pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (isUsable(pooled)) {
+                reused.incrementAndGet();
+                return pooled;
+            }
+            close(pooled);
+        }
+        final long bindGeneration = generation.get();
+        final LdapContext context = _ldapContextFactory.createBindContext();
+        created.incrementAndGet();
+        return new PooledContext(context, bindGeneration);
+    }
+
+    private void release(final PooledContext pooled, final boolean healthy) {
+        if (!healthy || !isUsable(pooled)) {
+            close(pooled);
+            return;
+        }
+        try {
+            // the paged searches leave their controls on the context
+            pooled.context.setRequestControls(null);
+        } catch (final NamingException e) {
+            close(pooled);
+            return;
+        }
+        if (idleCount.incrementAndGet() > _ldapConfiguration.getBindContextPoolSize()) {
+            idleCount.decrementAndGet();
+            close(pooled);
+            return;
+        }
+        // the most recently used contexts are used first, so the others age out when the load drops
+        idle.offerFirst(pooled);
+    }
+
+    private boolean isUsable(final PooledContext pooled) {
+        return pooled.generation == generation.get() && System.currentTimeMillis() - pooled.createdAt < _ldapConfiguration.getBindContextMaxAge() * 1000L;
+    }
+
+    private void close(final PooledContext pooled) {
+        discarded.incrementAndGet();
+        try {
+            pooled.context.close();
+        } catch (final NamingException e) {
+            s_logger.debug("Failed to close ldap context: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void clear() {
+        generation.incrementAndGet();
+        PooledContext pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            close(pooled);
+        }
+    }
+
+    @Override
+    public long getCreated() {
+        return created.get();
+    }
+
+    @Override
+    public long getReused() {
+        return reused.get();
+    }
+
+    @Override
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    @Override
+    public int getIdle() {
+        return Math.max(idleCount.get(), 0);
+    }
+
+    public interface Callback<T> {
+        T doWithContext(LdapContext context) throws NamingException, IOException;
+    }
+
+    private static final class PooledContext {
+        private final LdapContext context;
+        private final long generation;
+        private final long createdAt;
+
+        private PooledContext(final LdapContext context, final long generation) {
+            this.context = context;
+            this.generation = generation;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.cloud.ldap;
+
+/**
+ * Allows JMX access to the statistics of the {@link LdapContextPool}
+ */
+public interface LdapContextPoolMBean {
+    long getCreated();
+
+    long getReused();
+
+    long getDiscarded();
+
+    int getIdle();
+
+    void clear();
+}
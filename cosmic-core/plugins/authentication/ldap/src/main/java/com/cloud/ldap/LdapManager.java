@@ -9,6 +9,7 @@ import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.exception.InvalidParameterValueException;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface LdapManager extends PluggableService {
 
@@ -26,10 +27,25 @@ public interface LdapManager extends PluggableService {
 
     LdapUser getUser(String username, String type, String name) throws NoLdapUserMatchingQueryException;
 
+    /**
+     * Forgets the ldap lookups of the user, so they are done again at its next login.
+     */
+    void invalidateUser(String username);
+
     List<LdapUser> getUsers() throws NoLdapUserMatchingQueryException;
 
     List<LdapUser> getUsersInGroup(String groupName) throws NoLdapUserMatchingQueryException;
 
+    /**
+     * Hands the users to the consumer a page at a time, as the directory returns them.
+     */
+    void getUsers(Consumer<List<LdapUser>> pages) throws NoLdapUserMatchingQueryException;
+
+    /**
+     * Hands the users of the group to the consumer a page at a time.
+     */
+    void getUsersInGroup(String groupName, Consumer<List<LdapUser>> pages) throws NoLdapUserMatchingQueryException;
+
     boolean isLdapEnabled();
 
     Pair<List<? extends LdapConfigurationVO>, Integer> listConfigurations(LdapListConfigurationCmd cmd);
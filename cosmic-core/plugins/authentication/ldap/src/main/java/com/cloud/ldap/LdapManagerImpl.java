@@ -26,6 +26,7 @@ import javax.naming.ldap.LdapContext;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
@@ -46,6 +47,10 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
     private LdapContextFactory _ldapContextFactory;
     @Inject
     private LdapConfiguration _ldapConfiguration;
+    @Inject
+    private LdapContextPool _ldapContextPool;
+    @Inject
+    private LdapUserCache _ldapUserCache;
 
     public LdapManagerImpl() {
         super();
@@ -58,6 +63,8 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
         _ldapContextFactory = ldapContextFactory;
         _ldapUserManagerFactory = ldapUserManagerFactory;
         _ldapConfiguration = ldapConfiguration;
+        _ldapContextPool = new LdapContextPool(ldapContextFactory, ldapConfiguration);
+        _ldapUserCache = new LdapUserCache(ldapConfiguration);
     }
 
     @Override
@@ -70,6 +77,7 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
                 context = _ldapContextFactory.createBindContext(providerUrl);
                 configuration = new LdapConfigurationVO(hostname, port);
                 _ldapConfigurationDao.persist(configuration);
+                ldapServersChanged();
                 s_logger.info("Added new ldap server with hostname: " + hostname);
                 return new LdapConfigurationResponse(hostname, port);
             } catch (NamingException | IOException e) {
@@ -123,6 +131,7 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
             throw new InvalidParameterValueException("Cannot find configuration with hostname " + hostname);
         } else {
             _ldapConfigurationDao.remove(configuration.getId());
+            ldapServersChanged();
             s_logger.info("Removed ldap server with hostname: " + hostname);
             return new LdapConfigurationResponse(configuration.getHostname(), configuration.getPort());
         }
@@ -130,35 +139,33 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
 
     @Override
     public LdapUser getUser(final String username) throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
         try {
-            context = _ldapContextFactory.createBindContext();
-
             final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUser(escapedUsername, context);
+            final LdapUserManager ldapUserManager = _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider());
+            return _ldapUserCache.get(username, null, null, () -> _ldapContextPool.execute(context -> ldapUserManager.getUser(escapedUsername, context)));
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ", e);
             throw new NoLdapUserMatchingQueryException("No Ldap User found for username: " + username);
-        } finally {
-            closeContext(context);
         }
     }
 
     @Override
     public LdapUser getUser(final String username, final String type, final String name) throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
         try {
-            context = _ldapContextFactory.createBindContext();
             final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUser(escapedUsername, type, name, context);
+            final LdapUserManager ldapUserManager = _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider());
+            return _ldapUserCache.get(username, type, name, () -> _ldapContextPool.execute(context -> ldapUserManager.getUser(escapedUsername, type, name, context)));
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ", e);
             throw new NoLdapUserMatchingQueryException("No Ldap User found for username: " + username + "name: " + name + "of type: " + type);
-        } finally {
-            closeContext(context);
         }
     }
 
+    @Override
+    public void invalidateUser(final String username) {
+        _ldapUserCache.invalidate(username);
+    }
+
     @Override
     public List<LdapUser> getUsers() throws NoLdapUserMatchingQueryException {
         LdapContext context = null;
@@ -187,6 +194,34 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
         }
     }
 
+    @Override
+    public void getUsers(final Consumer<List<LdapUser>> pages) throws NoLdapUserMatchingQueryException {
+        LdapContext context = null;
+        try {
+            context = _ldapContextFactory.createBindContext();
+            _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUsers(context, pages);
+        } catch (NamingException | IOException e) {
+            s_logger.debug("ldap Exception: ", e);
+            throw new NoLdapUserMatchingQueryException("*");
+        } finally {
+            closeContext(context);
+        }
+    }
+
+    @Override
+    public void getUsersInGroup(final String groupName, final Consumer<List<LdapUser>> pages) throws NoLdapUserMatchingQueryException {
+        LdapContext context = null;
+        try {
+            context = _ldapContextFactory.createBindContext();
+            _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUsersInGroup(groupName, context, pages);
+        } catch (NamingException | IOException e) {
+            s_logger.debug("ldap NamingException: ", e);
+            throw new NoLdapUserMatchingQueryException("groupName=" + groupName);
+        } finally {
+            closeContext(context);
+        }
+    }
+
     @Override
     public boolean isLdapEnabled() {
         return listConfigurations(new LdapListConfigurationCmd(this)).second() > 0;
@@ -233,6 +268,11 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
         return _ldapTrustMapDao.findByDomainId(domainId);
     }
 
+    private void ldapServersChanged() {
+        _ldapContextPool.clear();
+        _ldapUserCache.invalidateAll();
+    }
+
     private void closeContext(final LdapContext context) {
         try {
             if (context != null) {
@@ -0,0 +1,198 @@
+package com.cloud.ldap;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.management.StandardMBean;
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the ldap users looked up at login, by username and the group or OU the domain is linked to, so a login only
+ * binds as the user to verify the password.
+ * <p>
+ * Users that are not found are kept as well, failures to reach the directory are not. Entries expire after
+ * ldap.user.cache.ttl seconds, so changes made in the directory are seen after at most that long. The number of
+ * entries is bounded by ldap.user.cache.size; when it is reached, the expired entries are dropped, or all of them when
+ * there are none.
+ */
+public class LdapUserCache implements LdapUserCacheMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(LdapUserCache.class.getName());
+
+    @Inject
+    private LdapConfiguration _ldapConfiguration;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // bumped on every invalidation, so a user looked up while it was invalidated is not kept
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public LdapUserCache() {
+    }
+
+    public LdapUserCache(final LdapConfiguration ldapConfiguration) {
+        _ldapConfiguration = ldapConfiguration;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            JmxUtil.registerMBean("Ldap", "LdapUserCache", new StandardMBean(this, LdapUserCacheMBean.class));
+        } catch (final Exception e) {
+            s_logger.error("Failed to register MBean", e);
+        }
+    }
+
+    /**
+     * @param type the type of the trust mapping of the domain, null when the domain is not linked to ldap
+     * @param name the group or OU of the trust mapping
+     * @throws NamingException when the user is not found, or the loader failed
+     */
+    public LdapUser get(final String username, final String type, final String name, final Loader loader) throws NamingException, IOException {
+        final Key key = new Key(username, type, name);
+        final Entry entry = entries.get(key);
+        if (isValid(entry)) {
+            if (entry.user == null) {
+                negativeHits.incrementAndGet();
+                throw new NamingException("No user found for username " + username);
+            }
+            hits.incrementAndGet();
+            return entry.user;
+        }
+        misses.incrementAndGet();
+
+        final long loadedGeneration = generation.get();
+        try {
+            final LdapUser user = loader.load();
+            put(key, new Entry(user), loadedGeneration);
+            return user;
+        } catch (final NamingException e) {
+            if (LdapUtils.isUserNotFound(e)) {
+                put(key, new Entry(null), loadedGeneration);
+            }
+            throw e;
+        }
+    }
+
+    private boolean isValid(final Entry entry) {
+        return entry != null && System.currentTimeMillis() - entry.loadedAt < _ldapConfiguration.getUserCacheTtl() * 1000L;
+    }
+
+    private void put(final Key key, final Entry entry, final long loadedGeneration) {
+        final int maxSize = _ldapConfiguration.getUserCacheSize();
+        if (entries.size() >= maxSize) {
+            entries.values().removeIf(e -> !isValid(e));
+            if (entries.size() >= maxSize) {
+                entries.clear();
+            }
+        }
+        entries.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            entries.remove(key, entry);
+        }
+    }
+
+    public void invalidate(final String username) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        entries.keySet().removeIf(key -> key.username.equals(username));
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long found = hits.get() + negativeHits.get();
+        final long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    public interface Loader {
+        LdapUser load() throws NamingException, IOException;
+    }
+
+    private static final class Key {
+        private final String username;
+        private final String type;
+        private final String name;
+
+        private Key(final String username, final String type, final String name) {
+            this.username = username;
+            this.type = type;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return username.equals(other.username) && (type == null ? other.type == null : type.equals(other.type)) &&
+                    (name == null ? other.name == null : name.equals(other.name));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = username.hashCode();
+            result = 31 * result + (type != null ? type.hashCode() : 0);
+            result = 31 * result + (name != null ? name.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        // null when the user was not found
+        private final LdapUser user;
+        private final long loadedAt;
+
+        private Entry(final LdapUser user) {
+            this.user = user;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
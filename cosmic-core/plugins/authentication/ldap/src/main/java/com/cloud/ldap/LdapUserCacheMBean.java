@@ -0,0 +1,20 @@
+package com.cloud.ldap;
+
+/**
+ * Allows JMX access to the statistics of the {@link LdapUserCache}
+ */
+public interface LdapUserCacheMBean {
+    long getHits();
+
+    long getNegativeHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getInvalidations();
+
+    int getSize();
+
+    void invalidateAll();
+}
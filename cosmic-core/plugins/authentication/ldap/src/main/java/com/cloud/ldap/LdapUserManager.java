@@ -4,6 +4,7 @@ import javax.naming.NamingException;
 import javax.naming.ldap.LdapContext;
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface LdapUserManager {
 
@@ -17,6 +18,16 @@ public interface LdapUserManager {
 
     public List<LdapUser> getUsersInGroup(String groupName, LdapContext context) throws NamingException;
 
+    /**
+     * Hands the users to the consumer a page at a time, as the directory returns them, without holding all of them.
+     */
+    public void getUsers(final LdapContext context, final Consumer<List<LdapUser>> pages) throws NamingException, IOException;
+
+    /**
+     * Hands the users of the group to the consumer a page at a time, without holding all of them.
+     */
+    public void getUsersInGroup(String groupName, LdapContext context, Consumer<List<LdapUser>> pages) throws NamingException;
+
     public List<LdapUser> searchUsers(final LdapContext context) throws NamingException, IOException;
 
     public List<LdapUser> searchUsers(final String username, final LdapContext context) throws NamingException, IOException;
@@ -42,4 +42,12 @@ public final class LdapUtils {
         }
         return null;
     }
+
+    /**
+     * @return whether the search ran and found no single user, as opposed to a failure to reach or use the directory,
+     * which are reported by the subclasses of {@link NamingException}
+     */
+    public static boolean isUserNotFound(final NamingException e) {
+        return e.getClass() == NamingException.class;
+    }
 }
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -175,6 +176,21 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
 
     @Override
     public List<LdapUser> getUsersInGroup(final String groupName, final LdapContext context) throws NamingException {
+        final List<LdapUser> users = new ArrayList<>();
+        getUsersInGroup(groupName, context, users::addAll);
+
+        Collections.sort(users);
+
+        return users;
+    }
+
+    @Override
+    public void getUsers(final LdapContext context, final Consumer<List<LdapUser>> pages) throws NamingException, IOException {
+        searchUsers(generateSearchFilter(null), context, true, pages);
+    }
+
+    @Override
+    public void getUsersInGroup(final String groupName, final LdapContext context, final Consumer<List<LdapUser>> pages) throws NamingException {
         final String attributeName = _ldapConfiguration.getGroupUniqueMemeberAttribute();
         final SearchControls controls = new SearchControls();
         controls.setSearchScope(_ldapConfiguration.getScope());
@@ -182,12 +198,13 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
 
         final NamingEnumeration<SearchResult> result = context.search(_ldapConfiguration.getBaseDn(), generateGroupSearchFilter(groupName), controls);
 
-        final List<LdapUser> users = new ArrayList<>();
         //Expecting only one result which has all the users
         if (result.hasMoreElements()) {
             final Attribute attribute = result.nextElement().getAttributes().get(attributeName);
             final NamingEnumeration<?> values = attribute.getAll();
 
+            final int pageSize = _ldapConfiguration.getLdapPageSize();
+            List<LdapUser> users = new ArrayList<>(pageSize);
             while (values.hasMoreElements()) {
                 final String userdn = String.valueOf(values.nextElement());
                 try {
@@ -195,12 +212,15 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
                 } catch (final NamingException e) {
                     s_logger.info("Userdn: " + userdn + " Not Found:: Exception message: " + e.getMessage());
                 }
+                if (users.size() >= pageSize) {
+                    pages.accept(users);
+                    users = new ArrayList<>(pageSize);
+                }
+            }
+            if (!users.isEmpty()) {
+                pages.accept(users);
             }
         }
-
-        Collections.sort(users);
-
-        return users;
     }
 
     private String generateGroupSearchFilter(final String groupName) {
@@ -245,7 +265,17 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
 
     @Override
     public List<LdapUser> searchUsers(final String username, final LdapContext context) throws NamingException, IOException {
+        final List<LdapUser> users = new ArrayList<>();
+        searchUsers(generateSearchFilter(username), context, true, users::addAll);
+        return users;
+    }
 
+    /**
+     * Searches the users below the base dn with the filter, a page of the configured page size at a time, and hands each
+     * page to the consumer before the next is requested.
+     */
+    protected void searchUsers(final String filter, final LdapContext context, final boolean skipDisabled, final Consumer<List<LdapUser>> pages)
+            throws NamingException, IOException {
         final SearchControls searchControls = new SearchControls();
 
         searchControls.setSearchScope(_ldapConfiguration.getScope());
@@ -258,16 +288,20 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
         byte[] cookie = null;
         final int pageSize = _ldapConfiguration.getLdapPageSize();
         context.setRequestControls(new Control[]{new PagedResultsControl(pageSize, Control.NONCRITICAL)});
-        final List<LdapUser> users = new ArrayList<>();
         NamingEnumeration<SearchResult> results;
         do {
-            results = context.search(basedn, generateSearchFilter(username), searchControls);
+            final List<LdapUser> users = new ArrayList<>(pageSize);
+            results = context.search(basedn, filter, searchControls);
             while (results.hasMoreElements()) {
                 final SearchResult result = results.nextElement();
-                if (!isUserDisabled(result)) {
+                if (!skipDisabled || !isUserDisabled(result)) {
                     users.add(createUser(result));
                 }
             }
+            if (!users.isEmpty()) {
+                pages.accept(users);
+            }
+            cookie = null;
             final Control[] contextControls = context.getResponseControls();
             if (contextControls != null) {
                 for (final Control control : contextControls) {
@@ -281,7 +315,5 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
             }
             context.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.CRITICAL)});
         } while (cookie != null);
-
-        return users;
     }
 }
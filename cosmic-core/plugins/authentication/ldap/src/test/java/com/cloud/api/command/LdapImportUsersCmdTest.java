@@ -0,0 +1,276 @@
+package com.cloud.api.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyShort;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloud.api.response.LdapUserResponse;
+import com.cloud.api.response.ListResponse;
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainVO;
+import com.cloud.ldap.LdapConfiguration;
+import com.cloud.ldap.LdapContextFactory;
+import com.cloud.ldap.LdapManagerImpl;
+import com.cloud.ldap.LdapUserManager;
+import com.cloud.ldap.LdapUserManagerFactory;
+import com.cloud.ldap.OpenLdapUserManagerImpl;
+import com.cloud.ldap.dao.LdapConfigurationDao;
+import com.cloud.user.AccountService;
+import com.cloud.user.AccountVO;
+import com.cloud.user.DomainService;
+import com.cloud.user.User;
+import com.cloud.user.UserAccount;
+import com.cloud.utils.exception.InvalidParameterValueException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LdapImportUsersCmdTest {
+    private static final int PAGE_SIZE = 100;
+
+    private InMemoryDirectory directory;
+    private AccountService accountService;
+    private DomainService domainService;
+    private LdapImportUsersCmd cmd;
+    private int lookups;
+    private final Set<String> createdAccounts = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new InMemoryDirectory();
+        for (int i = 0; i < 250; i++) {
+            directory.add("user" + i);
+        }
+
+        final LdapConfiguration configuration = mock(LdapConfiguration.class);
+        when(configuration.getBaseDn()).thenReturn("dc=cosmic,dc=org");
+        when(configuration.getScope()).thenReturn(SearchControls.SUBTREE_SCOPE);
+        when(configuration.getLdapPageSize()).thenReturn(PAGE_SIZE);
+        when(configuration.getUserObject()).thenReturn("inetOrgPerson");
+        when(configuration.getUsernameAttribute()).thenReturn("uid");
+        when(configuration.getEmailAttribute()).thenReturn("mail");
+        when(configuration.getFirstnameAttribute()).thenReturn("givenname");
+        when(configuration.getLastnameAttribute()).thenReturn("sn");
+        when(configuration.getCommonNameAttribute()).thenReturn("cn");
+        when(configuration.getLdapProvider()).thenReturn(LdapUserManager.Provider.OPENLDAP);
+
+        final LdapContextFactory contextFactory = mock(LdapContextFactory.class);
+        when(contextFactory.createBindContext()).thenAnswer(invocation -> directory.createContext());
+        final LdapUserManagerFactory userManagerFactory = mock(LdapUserManagerFactory.class);
+        when(userManagerFactory.getInstance(LdapUserManager.Provider.OPENLDAP)).thenReturn(new OpenLdapUserManagerImpl(configuration));
+        final LdapManagerImpl ldapManager = new LdapManagerImpl(mock(LdapConfigurationDao.class), contextFactory, userManagerFactory, configuration);
+
+        domainService = mock(DomainService.class);
+        final Domain domain = new DomainVO("engineering", 1L, 1L, "engineering", "domain-uuid");
+        when(domainService.getDomainByName("engineering", Domain.ROOT_DOMAIN)).thenReturn(domain);
+
+        accountService = mock(AccountService.class);
+        // user0 to user9 were imported before
+        doAnswer(invocation -> {
+            lookups++;
+            final List<UserAccount> existing = new ArrayList<>();
+            for (final String username : (Collection<String>) invocation.getArguments()[0]) {
+                if (username.length() == "user0".length()) {
+                    final UserAccount user = mock(UserAccount.class);
+                    when(user.getId()).thenReturn(Long.valueOf(username.substring(4)));
+                    when(user.getUsername()).thenReturn(username);
+                    existing.add(user);
+                }
+            }
+            return existing;
+        }).when(accountService).getActiveUserAccounts(any(Collection.class), anyLong());
+        doAnswer(invocation -> {
+            lookups++;
+            final List<AccountVO> existing = new ArrayList<>();
+            for (final String accountName : (Collection<String>) invocation.getArguments()[0]) {
+                if (accountName.length() == "user0".length() || createdAccounts.contains(accountName)) {
+                    existing.add(new AccountVO(accountName, 1L, null, (short) 0, accountName));
+                }
+            }
+            return existing;
+        }).when(accountService).getActiveAccountsByName(any(Collection.class), anyLong());
+        doAnswer(invocation -> {
+            createdAccounts.add((String) invocation.getArguments()[6]);
+            return null;
+        }).when(accountService).createUserAccount(anyString(), anyString(),
+                anyString(), anyString(), anyString(), any(String.class), anyString(), anyShort(), anyLong(), anyString(), any(Map.class), anyString(), anyString(),
+                eq(User.Source.LDAP));
+
+        cmd = new LdapImportUsersCmd(ldapManager, domainService, accountService);
+        set("accountType", (short) 0);
+    }
+
+    private void set(final String name, final Object value) throws Exception {
+        final Field field = LdapImportUsersCmd.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(cmd, value);
+    }
+
+    private List<LdapUserResponse> responses() {
+        return ((ListResponse<LdapUserResponse>) cmd.getResponseObject()).getResponses();
+    }
+
+    @Test
+    public void testUsersAreImportedAPageAtATime() throws Exception {
+        cmd.execute();
+
+        assertEquals(250, responses().size());
+        // three pages, each compared with the existing accounts and users in two queries
+        assertEquals(3, directory.searches);
+        assertEquals(6, lookups);
+        verify(accountService, times(240)).createUserAccount(anyString(), anyString(), anyString(), anyString(), anyString(), any(String.class), anyString(),
+                anyShort(), anyLong(), anyString(), any(Map.class), anyString(), anyString(), eq(User.Source.LDAP));
+        verify(accountService, times(10)).updateUser(anyLong(), anyString(), anyString(), anyString(), any(String.class), any(String.class), any(String.class),
+                any(String.class), any(String.class));
+        verify(accountService, never()).getActiveUserAccount(anyString(), anyLong());
+        verify(domainService, times(1)).getDomainByName("engineering", Domain.ROOT_DOMAIN);
+    }
+
+    @Test
+    public void testSharedAccountIsCreatedOnce() throws Exception {
+        set("accountName", "engineers");
+
+        cmd.execute();
+
+        assertEquals(250, responses().size());
+        verify(accountService, times(1)).createUserAccount(anyString(), anyString(), anyString(), anyString(), anyString(), any(String.class), eq("engineers"),
+                anyShort(), anyLong(), anyString(), any(Map.class), anyString(), anyString(), eq(User.Source.LDAP));
+        verify(accountService, times(240)).createUser(anyString(), anyString(), anyString(), anyString(), anyString(), any(String.class), eq("engineers"), anyLong(),
+                anyString(), eq(User.Source.LDAP));
+    }
+
+    @Test
+    public void testFailedUserDoesNotStopTheImport() throws Exception {
+        doAnswer(invocation -> {
+            throw new InvalidParameterValueException("The user user42 already exists in domain 1");
+        }).when(accountService).createUserAccount(eq("user42"), anyString(), anyString(), anyString(), anyString(), any(String.class), anyString(), anyShort(),
+                anyLong(), anyString(), any(Map.class), anyString(), anyString(), eq(User.Source.LDAP));
+
+        cmd.execute();
+
+        assertEquals(249, responses().size());
+    }
+
+    @Test
+    public void testNoUsersToImport() throws Exception {
+        directory = new InMemoryDirectory();
+
+        cmd.execute();
+
+        assertTrue(responses().isEmpty());
+        assertEquals(1, directory.searches);
+        assertEquals(0, lookups);
+    }
+
+    /**
+     * Stands in for the directory server: serves the users below dc=cosmic,dc=org in pages of the size asked for with a
+     * {@link PagedResultsControl}, and hands out the cookie of the next page in a {@link PagedResultsResponseControl}.
+     */
+    private static class InMemoryDirectory {
+        private final List<SearchResult> entries = new ArrayList<>();
+        int searches;
+
+        void add(final String uid) {
+            final BasicAttributes attributes = new BasicAttributes(true);
+            attributes.put("uid", uid);
+            attributes.put("cn", uid);
+            attributes.put("mail", uid + "@cosmic.org");
+            attributes.put("givenname", uid);
+            attributes.put("sn", "Tester");
+            final SearchResult entry = new SearchResult("cn=" + uid, null, attributes);
+            entry.setNameInNamespace("cn=" + uid + ",ou=engineering,dc=cosmic,dc=org");
+            entries.add(entry);
+        }
+
+        LdapContext createContext() throws Exception {
+            final LdapContext context = mock(LdapContext.class);
+            final int[] page = new int[2];
+            doAnswer(invocation -> {
+                // SEQUENCE { INTEGER size, OCTET STRING cookie }, the cookie is the offset of the page
+                final byte[] value = ((Control[]) invocation.getArguments()[0])[0].getEncodedValue();
+                page[0] = value[3] == 1 ? value[4] & 0xff : (value[4] & 0xff) << 8 | value[5] & 0xff;
+                final int cookieLength = value[value.length - 5] == 4 ? 4 : 0;
+                page[1] = cookieLength == 0 ? 0 : (value[value.length - 4] & 0xff) << 24 | (value[value.length - 3] & 0xff) << 16 | (value[value.length - 2] & 0xff) << 8 |
+                        value[value.length - 1] & 0xff;
+                return null;
+            }).when(context).setRequestControls(any(Control[].class));
+            doAnswer(invocation -> {
+                searches++;
+                final int from = page[1];
+                final int to = Math.min(from + page[0], entries.size());
+                page[1] = to;
+                return enumeration(entries.subList(from, to));
+            }).when(context).search(anyString(), anyString(), any(SearchControls.class));
+            doAnswer(invocation -> new Control[]{responseControl(page[1] < entries.size() ? page[1] : -1)}).when(context).getResponseControls();
+            doReturn(null).when(context).getRequestControls();
+            return context;
+        }
+
+        private static PagedResultsResponseControl responseControl(final int next) throws Exception {
+            final byte[] value;
+            if (next < 0) {
+                value = new byte[]{0x30, 0x05, 0x02, 0x01, 0x00, 0x04, 0x00};
+            } else {
+                value = new byte[]{0x30, 0x09, 0x02, 0x01, 0x00, 0x04, 0x04, (byte) (next >>> 24), (byte) (next >>> 16), (byte) (next >>> 8), (byte) next};
+            }
+            return new PagedResultsResponseControl(PagedResultsControl.OID, false, value);
+        }
+
+        private static NamingEnumeration<SearchResult> enumeration(final List<SearchResult> results) {
+            final Iterator<SearchResult> iterator = new ArrayList<>(results).iterator();
+            return new NamingEnumeration<SearchResult>() {
+                @Override
+                public SearchResult next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public boolean hasMore() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public boolean hasMoreElements() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public SearchResult nextElement() {
+                    return iterator.next();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.cloud.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloud.ldap.dao.LdapConfigurationDao;
+import com.cloud.utils.testcase.Benchmarks;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LdapManagerImplTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(LdapManagerImplTest.class);
+
+    private LdapConfiguration configuration;
+    private LdapContextFactory contextFactory;
+    private LdapUserManager userManager;
+    private LdapUserManagerFactory userManagerFactory;
+    private LdapManagerImpl ldapManager;
+    private final AtomicInteger binds = new AtomicInteger();
+    private final AtomicInteger searches = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = mock(LdapConfiguration.class);
+        when(configuration.getLdapProvider()).thenReturn(LdapUserManager.Provider.OPENLDAP);
+        when(configuration.getUserCacheTtl()).thenReturn(60);
+        when(configuration.getUserCacheSize()).thenReturn(1000);
+        when(configuration.getBindContextPoolSize()).thenReturn(4);
+        when(configuration.getBindContextMaxAge()).thenReturn(300);
+
+        contextFactory = mock(LdapContextFactory.class);
+        when(contextFactory.createBindContext()).thenAnswer(invocation -> {
+            binds.incrementAndGet();
+            return mock(LdapContext.class);
+        });
+
+        userManager = mock(LdapUserManager.class);
+        doAnswer(invocation -> {
+            searches.incrementAndGet();
+            final String username = (String) invocation.getArguments()[0];
+            if (username.startsWith("unknown")) {
+                throw new NamingException("No user found for username " + username);
+            }
+            return new LdapUser(username, username + "@cosmic.org", "Test", "User", "cn=" + username + ",ou=engineering,dc=cosmic,dc=org", "engineering", false);
+        }).when(userManager).getUser(anyString(), any(LdapContext.class));
+        doAnswer(invocation -> {
+            searches.incrementAndGet();
+            final String username = (String) invocation.getArguments()[0];
+            return new LdapUser(username, null, "Test", "User", "cn=" + username + "," + invocation.getArguments()[2], "engineering", false);
+        }).when(userManager).getUser(anyString(), anyString(), anyString(), any(LdapContext.class));
+
+        userManagerFactory = mock(LdapUserManagerFactory.class);
+        when(userManagerFactory.getInstance(LdapUserManager.Provider.OPENLDAP)).thenReturn(userManager);
+        ldapManager = new LdapManagerImpl(mock(LdapConfigurationDao.class), contextFactory, userManagerFactory, configuration);
+    }
+
+    @Test
+    public void testUserIsLookedUpOnce() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertEquals("cn=rmurphy,ou=engineering,dc=cosmic,dc=org", ldapManager.getUser("rmurphy").getPrincipal());
+        }
+
+        assertEquals(1, searches.get());
+        assertEquals(1, binds.get());
+    }
+
+    @Test
+    public void testUserIsCachedByTrustMapping() throws Exception {
+        ldapManager.getUser("rmurphy");
+        ldapManager.getUser("rmurphy", "OU", "ou=engineering,dc=cosmic,dc=org");
+        ldapManager.getUser("rmurphy", "OU", "ou=engineering,dc=cosmic,dc=org");
+        ldapManager.getUser("rmurphy", "GROUP", "cn=admins,dc=cosmic,dc=org");
+
+        assertEquals(3, searches.get());
+    }
+
+    @Test
+    public void testUnknownUserIsCached() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                ldapManager.getUser("unknown");
+                fail("An unknown user is found");
+            } catch (final NoLdapUserMatchingQueryException e) {
+                // expected
+            }
+        }
+
+        assertEquals(1, searches.get());
+        // the search ran, its context is fine
+        assertEquals(1, binds.get());
+    }
+
+    @Test
+    public void testDirectoryFailureIsNotCached() throws Exception {
+        doAnswer(invocation -> {
+            searches.incrementAndGet();
+            throw new CommunicationException("Connection reset");
+        }).when(userManager).getUser(eq("rmurphy"), any(LdapContext.class));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                ldapManager.getUser("rmurphy");
+                fail("The failure of the directory is not reported");
+            } catch (final NoLdapUserMatchingQueryException e) {
+                // expected
+            }
+        }
+
+        assertEquals(2, searches.get());
+        // the failed contexts are closed rather than used again
+        assertEquals(2, binds.get());
+    }
+
+    @Test
+    public void testInvalidatedUserIsLookedUpAgain() throws Exception {
+        ldapManager.getUser("rmurphy");
+        ldapManager.getUser("rmurphy", "OU", "ou=engineering,dc=cosmic,dc=org");
+
+        ldapManager.invalidateUser("rmurphy");
+        ldapManager.getUser("rmurphy");
+        ldapManager.getUser("rmurphy", "OU", "ou=engineering,dc=cosmic,dc=org");
+
+        assertEquals(4, searches.get());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        when(configuration.getUserCacheTtl()).thenReturn(0);
+
+        ldapManager.getUser("rmurphy");
+        ldapManager.getUser("rmurphy");
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    public void testBindContextIsReusedUntilItIsTooOld() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            ldapManager.getUser("user" + i);
+        }
+        assertEquals(1, binds.get());
+
+        when(configuration.getBindContextMaxAge()).thenReturn(0);
+        for (int i = 10; i < 20; i++) {
+            ldapManager.getUser("user" + i);
+        }
+        assertEquals(11, binds.get());
+    }
+
+    /**
+     * Looks up the users of 1000 logins of 50 users the way logins did before, binding and searching for every login,
+     * and cached, against a directory that takes 1 ms to bind and 1 ms to search.
+     */
+    @Test
+    public void benchmarkLoginLookups() throws Exception {
+        Benchmarks.assumeEnabled();
+        doAnswer(invocation -> {
+            binds.incrementAndGet();
+            Thread.sleep(1);
+            return mock(LdapContext.class);
+        }).when(contextFactory).createBindContext();
+        doAnswer(invocation -> {
+            searches.incrementAndGet();
+            Thread.sleep(1);
+            final String username = (String) invocation.getArguments()[0];
+            return new LdapUser(username, null, "Test", "User", "cn=" + username + ",dc=cosmic,dc=org", "engineering", false);
+        }).when(userManager).getUser(anyString(), any(LdapContext.class));
+
+        final int logins = 1000;
+        final int users = 50;
+
+        when(configuration.getUserCacheTtl()).thenReturn(0);
+        when(configuration.getBindContextPoolSize()).thenReturn(0);
+        final long uncachedStart = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            ldapManager.getUser("user" + i % users);
+        }
+        final long uncachedMs = (System.nanoTime() - uncachedStart) / 1000000;
+        assertEquals(logins, binds.get());
+        binds.set(0);
+        searches.set(0);
+
+        when(configuration.getUserCacheTtl()).thenReturn(60);
+        when(configuration.getBindContextPoolSize()).thenReturn(4);
+        ldapManager = new LdapManagerImpl(mock(LdapConfigurationDao.class), contextFactory, userManagerFactory, configuration);
+        final long cachedStart = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            ldapManager.getUser("user" + i % users);
+        }
+        final long cachedMs = (System.nanoTime() - cachedStart) / 1000000;
+
+        s_logger.info("Looking up the users of " + logins + " logins took " + uncachedMs + " ms binding and searching every time and " + cachedMs + " ms cached");
+        assertEquals(users, searches.get());
+        assertEquals(1, binds.get());
+        verify(userManager, times(logins + users)).getUser(anyString(), any(LdapContext.class));
+    }
+}
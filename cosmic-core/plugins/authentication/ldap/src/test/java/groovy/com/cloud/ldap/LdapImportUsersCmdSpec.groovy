@@ -33,11 +33,13 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         def domainService = Mock(DomainService)
         def accountService = Mock(AccountService)
+        accountService.getActiveUserAccounts(_, _) >> []
+        accountService.getActiveAccountsByName(_, _) >> []
 
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
         users.add(new LdapUser("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsers() >> users
+        ldapManager.getUsers(_) >> { args -> args[0].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         LdapUserResponse response2 = new LdapUserResponse("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> [response1, response2]
@@ -61,11 +63,13 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         def domainService = Mock(DomainService)
         def accountService = Mock(AccountService)
+        accountService.getActiveUserAccounts(_, _) >> []
+        accountService.getActiveAccountsByName(_, _) >> []
 
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
         users.add(new LdapUser("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsersInGroup("TestGroup") >> users
+        ldapManager.getUsersInGroup("TestGroup", _) >> { args -> args[1].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         LdapUserResponse response2 = new LdapUserResponse("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> [response1, response2]
@@ -90,11 +94,13 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         def domainService = Mock(DomainService)
         def accountService = Mock(AccountService)
+        accountService.getActiveUserAccounts(_, _) >> []
+        accountService.getActiveAccountsByName(_, _) >> []
 
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
         users.add(new LdapUser("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsersInGroup("TestGroup") >> users
+        ldapManager.getUsersInGroup("TestGroup", _) >> { args -> args[1].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         LdapUserResponse response2 = new LdapUserResponse("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> [response1, response2]
@@ -119,11 +125,13 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         def domainService = Mock(DomainService)
         def accountService = Mock(AccountService)
+        accountService.getActiveUserAccounts(_, _) >> []
+        accountService.getActiveAccountsByName(_, _) >> []
 
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
         users.add(new LdapUser("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsers() >> users
+        ldapManager.getUsers(_) >> { args -> args[0].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         LdapUserResponse response2 = new LdapUserResponse("bob", "bob@test.com", "Robert", "Young", "cn=bob,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> [response1, response2]
@@ -187,7 +195,7 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsers() >> users
+        ldapManager.getUsers(_) >> { args -> args[0].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> response1
 
@@ -195,7 +203,8 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         1 * domainService.getDomain(1L) >> new DomainVO("DOMAIN", 1L, 1L, "DOMAIN", UUID.randomUUID().toString()); ;
 
         def accountService = Mock(AccountService)
-        1 * accountService.getActiveAccountByName('ACCOUNT', 0) >> Mock(AccountVO)
+        1 * accountService.getActiveAccountsByName(['ACCOUNT'] as Set, 0) >> [Mock(AccountVO) { getAccountName() >> 'ACCOUNT' }]
+        1 * accountService.getActiveUserAccounts(['rmurphy'] as Set, 0) >> []
 
         1 * accountService.createUser('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 0, _, User.Source.LDAP) >> Mock(UserVO)
         0 * accountService.createUserAccount('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 2, 0, 'DOMAIN', null, _, _, User.Source.LDAP)
@@ -217,7 +226,7 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsers() >> users
+        ldapManager.getUsers(_) >> { args -> args[0].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> response1
 
@@ -225,8 +234,8 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         1 * domainService.getDomain(1L) >> new DomainVO("DOMAIN", 1L, 1L, "DOMAIN", UUID.randomUUID().toString()); ;
 
         def accountService = Mock(AccountService)
-        1 * accountService.getActiveAccountByName('ACCOUNT', 0) >> Mock(AccountVO)
-        1 * accountService.getActiveUserAccount('rmurphy', 0) >> Mock(UserAccountVO)
+        1 * accountService.getActiveAccountsByName(['ACCOUNT'] as Set, 0) >> [Mock(AccountVO) { getAccountName() >> 'ACCOUNT' }]
+        1 * accountService.getActiveUserAccounts(['rmurphy'] as Set, 0) >> [Mock(UserAccountVO) { getUsername() >> 'rmurphy' }]
         0 * accountService.createUser('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 0, _) >> Mock(UserVO)
         0 * accountService.createUserAccount('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 2, 0, 'DOMAIN', null, _, _)
         1 * accountService.updateUser(_, 'Ryan', 'Murphy', 'rmurphy@test.com', null, null, null, null, null);
@@ -246,7 +255,7 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         def ldapManager = Mock(LdapManager)
         List<LdapUser> users = new ArrayList()
         users.add(new LdapUser("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering", false))
-        ldapManager.getUsers() >> users
+        ldapManager.getUsers(_) >> { args -> args[0].accept(users) }
         LdapUserResponse response1 = new LdapUserResponse("rmurphy", "rmurphy@test.com", "Ryan", "Murphy", "cn=rmurphy,ou=engineering,dc=cloudstack,dc=org", "engineering")
         ldapManager.createLdapUserResponse(_) >>> response1
 
@@ -254,7 +263,8 @@ class LdapImportUsersCmdSpec extends spock.lang.Specification {
         1 * domainService.getDomain(1L) >> new DomainVO("DOMAIN", 1L, 1L, "DOMAIN", UUID.randomUUID().toString()); ;
 
         def accountService = Mock(AccountService)
-        1 * accountService.getActiveAccountByName('ACCOUNT', 0) >> null
+        1 * accountService.getActiveAccountsByName(['ACCOUNT'] as Set, 0) >> []
+        1 * accountService.getActiveUserAccounts(['rmurphy'] as Set, 0) >> []
         0 * accountService.createUser('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 0, _, User.Source.LDAP)
         1 * accountService.createUserAccount('rmurphy', _, 'Ryan', 'Murphy', 'rmurphy@test.com', null, 'ACCOUNT', 2, 0, 'DOMAIN', null, _, _, User.Source.LDAP)
         0 * accountService.updateUser(_, 'Ryan', 'Murphy', 'rmurphy@test.com', null, null, null, null, null);
@@ -0,0 +1,285 @@
+package com.cloud.mom.rabbitmq;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes events to the broker on a few threads of its own, so a slow or flow-controlled broker does not hold up
+ * the threads that raise the events.
+ * <p>
+ * Events wait in a bounded queue. Every publisher thread keeps one channel in confirm mode, publishes the events in
+ * batches and waits for the broker to confirm a batch as a whole. A batch that is not confirmed is published again,
+ * so an event may reach the broker twice. While the broker is unreachable the events go to the {@link EventSpill},
+ * when there is one, and are published from there once it is back. Events that fit neither are dropped.
+ */
+public class EventPublisher {
+    private static final Logger s_logger = LoggerFactory.getLogger(EventPublisher.class);
+
+    private final PublishChannel.Factory channelFactory;
+    private final BlockingQueue<PendingEvent> queue;
+    private final EventSpill spill;
+    private final int threads;
+    private final int batchSize;
+    private final long confirmTimeoutMs;
+    private final long retryIntervalMs;
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lastLagMs = new AtomicLong();
+    private final AtomicLong maxLagMs = new AtomicLong();
+
+    /**
+     * @param spill where to keep the events while the broker is unreachable, null to keep them in the queue
+     */
+    public EventPublisher(final PublishChannel.Factory channelFactory, final int queueSize, final int threads, final int batchSize, final long confirmTimeoutMs,
+                          final long retryIntervalMs, final EventSpill spill) {
+        this.channelFactory = channelFactory;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.retryIntervalMs = retryIntervalMs;
+        this.spill = spill;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("EventPublisher"));
+        for (int i = 0; i < threads; i++) {
+            executor.submit(this::publishLoop);
+        }
+    }
+
+    /**
+     * Publishes what is queued within the timeout, and spills what is left.
+     */
+    public synchronized void stop(final long timeoutMs) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+                executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<PendingEvent> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (final PendingEvent event : left) {
+            spillOrDrop(event);
+        }
+        if (spill != null) {
+            spill.close();
+        }
+        s_logger.info("Stopped publishing events: " + this);
+    }
+
+    /**
+     * Queues an event to be published.
+     *
+     * @return false when the event was dropped since there is no room for it
+     */
+    public boolean publish(final String routingKey, final byte[] body) {
+        final PendingEvent event = new PendingEvent(routingKey, body);
+        enqueued.incrementAndGet();
+        if (queue.offer(event)) {
+            return true;
+        }
+        return spillOrDrop(event);
+    }
+
+    private boolean spillOrDrop(final PendingEvent event) {
+        if (spill != null && spill.append(event)) {
+            spilled.incrementAndGet();
+            return true;
+        }
+        if (dropped.incrementAndGet() % 1000 == 1) {
+            s_logger.warn("Dropping events, there is no room to keep them until they are published: " + this);
+        }
+        return false;
+    }
+
+    private void publishLoop() {
+        final List<PendingEvent> batch = new ArrayList<>(batchSize);
+        PublishChannel channel = null;
+        // whether the batch was read from the spill, which keeps it until it is acknowledged
+        boolean replayed = false;
+        while (running || !batch.isEmpty() || !queue.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    replayed = spill != null && spill.drainTo(batch, batchSize) > 0;
+                    if (!replayed && !fillBatch(batch)) {
+                        continue;
+                    }
+                }
+                if (channel == null) {
+                    channel = channelFactory.create();
+                }
+                for (final PendingEvent event : batch) {
+                    channel.publish(event.getRoutingKey(), event.getBody());
+                }
+                channel.waitForConfirms(confirmTimeoutMs);
+
+                final long lag = System.currentTimeMillis() - batch.get(0).getCreated();
+                lastLagMs.set(lag);
+                maxLagMs.accumulateAndGet(lag, Math::max);
+                confirmed.addAndGet(batch.size());
+                batches.incrementAndGet();
+                acknowledge(batch, replayed);
+                batch.clear();
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final IOException | TimeoutException | RuntimeException e) {
+                s_logger.warn("Failed to publish " + batch.size() + " events to the message broker due to " + e.getMessage() + ", retrying in " + retryIntervalMs + "ms");
+                retried.addAndGet(batch.size());
+                closeQuietly(channel);
+                channel = null;
+                if (spill != null) {
+                    // to disk with the batch, the queue keeps taking new events while the broker is away
+                    for (final PendingEvent event : batch) {
+                        spillOrDrop(event);
+                    }
+                    acknowledge(batch, replayed);
+                    batch.clear();
+                }
+                if (!running) {
+                    break;
+                }
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (final InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        for (final PendingEvent event : batch) {
+            spillOrDrop(event);
+        }
+        acknowledge(batch, replayed);
+        closeQuietly(channel);
+    }
+
+    private void acknowledge(final List<PendingEvent> batch, final boolean replayed) {
+        if (replayed) {
+            spill.acknowledge(batch.size());
+        }
+    }
+
+    /**
+     * @return false when there was nothing to publish for a while
+     */
+    private boolean fillBatch(final List<PendingEvent> batch) throws InterruptedException {
+        final PendingEvent first = queue.poll(500, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        return true;
+    }
+
+    private static void closeQuietly(final PublishChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (final IOException | RuntimeException e) {
+            s_logger.debug("Failed to close publish channel due to " + e.getMessage());
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getConfirmed() {
+        return confirmed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the time the oldest event of the last confirmed batch took to be confirmed
+     */
+    public long getLastLagMs() {
+        return lastLagMs.get();
+    }
+
+    public long getMaxLagMs() {
+        return maxLagMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return enqueued.get() + " events published, " + confirmed.get() + " confirmed in " + batches.get() + " batches, " + queue.size() + " queued, " + retried.get() +
+                " retried, " + spilled.get() + " spilled" + (spill != null ? " (" + spill.getBytes() + " bytes on disk)" : "") + ", " + dropped.get() + " dropped, lag " +
+                lastLagMs.get() + "ms max " + maxLagMs.get() + "ms";
+    }
+
+    static final class PendingEvent {
+        private final String routingKey;
+        private final byte[] body;
+        private final long created;
+
+        PendingEvent(final String routingKey, final byte[] body) {
+            this.routingKey = routingKey;
+            this.body = body;
+            this.created = System.currentTimeMillis();
+        }
+
+        String getRoutingKey() {
+            return routingKey;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        long getCreated() {
+            return created;
+        }
+    }
+}
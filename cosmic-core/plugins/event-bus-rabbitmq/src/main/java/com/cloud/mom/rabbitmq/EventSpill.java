@@ -0,0 +1,250 @@
+package com.cloud.mom.rabbitmq;
+
+import com.cloud.mom.rabbitmq.EventPublisher.PendingEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the events that could not be handed to the broker on disk, to be published when it is reachable again.
+ * <p>
+ * The events are appended to segment files of about {@link #SEGMENT_BYTES}, which are replayed oldest first. A
+ * segment is deleted once every event read from it is acknowledged, so a crash while replaying publishes its events
+ * again rather than losing them. Closing the spill while replaying writes the events not handed out yet back to the
+ * segment. Segments left behind by a previous run are replayed as well. The total size is bounded, events that do not
+ * fit are refused.
+ */
+public class EventSpill {
+    private static final Logger s_logger = LoggerFactory.getLogger(EventSpill.class);
+
+    static final long SEGMENT_BYTES = 1024 * 1024;
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".spill";
+
+    private final File directory;
+    private final long maxBytes;
+
+    // segments that are complete, oldest first
+    private final Deque<File> segments = new ArrayDeque<>();
+    // events read from a segment that are not handed out yet
+    private final Deque<PendingEvent> replay = new ArrayDeque<>();
+    // the segment being replayed, and the number of its events handed out and not acknowledged yet
+    private File replaying;
+    private int unacknowledged;
+    private Writer writer;
+    private long writerBytes;
+    private long totalBytes;
+    private long sequence;
+
+    public EventSpill(final File directory, final long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spill directory " + directory);
+        }
+
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+            for (final File file : files) {
+                segments.add(file);
+                totalBytes += file.length();
+                sequence = Math.max(sequence, sequenceOf(file) + 1);
+            }
+        }
+        if (!segments.isEmpty()) {
+            s_logger.info("Found " + totalBytes + " bytes of events spilled to " + directory + " to publish");
+        }
+    }
+
+    private static long sequenceOf(final File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String toLine(final PendingEvent event) {
+        return event.getRoutingKey() + "\t" + Base64.getEncoder().encodeToString(event.getBody()) + "\n";
+    }
+
+    /**
+     * @return false when the event does not fit or can not be written
+     */
+    public synchronized boolean append(final PendingEvent event) {
+        final String line = toLine(event);
+        final long bytes = line.length();
+        if (totalBytes + bytes > maxBytes) {
+            return false;
+        }
+        try {
+            if (writer == null) {
+                writer = new OutputStreamWriter(new FileOutputStream(new File(directory, PREFIX + sequence++ + SUFFIX)), StandardCharsets.UTF_8);
+                writerBytes = 0;
+            }
+            writer.write(line);
+            writer.flush();
+        } catch (final IOException e) {
+            s_logger.warn("Failed to spill event " + event.getRoutingKey() + " to " + directory + " due to " + e.getMessage());
+            return false;
+        }
+        writerBytes += bytes;
+        totalBytes += bytes;
+        if (writerBytes >= SEGMENT_BYTES) {
+            completeSegment();
+        }
+        return true;
+    }
+
+    /**
+     * Moves up to max of the oldest spilled events to the batch. The events have to be {@link #acknowledge(int)
+     * acknowledged} once they are published or spilled again, the next segment is only read after that.
+     *
+     * @return the number of events moved
+     */
+    public synchronized int drainTo(final List<PendingEvent> batch, final int max) {
+        if (replay.isEmpty()) {
+            if (unacknowledged > 0) {
+                return 0;
+            }
+            deleteReplayedSegment();
+            readNextSegment();
+        }
+        int count = 0;
+        while (count < max && !replay.isEmpty()) {
+            batch.add(replay.poll());
+            count++;
+        }
+        unacknowledged += count;
+        return count;
+    }
+
+    /**
+     * Tells the spill that count of the events handed out by {@link #drainTo(List, int)} are published or spilled
+     * again, and need not be kept any longer.
+     */
+    public synchronized void acknowledge(final int count) {
+        unacknowledged = Math.max(0, unacknowledged - count);
+    }
+
+    public synchronized boolean isEmpty() {
+        return replaying == null && segments.isEmpty() && writerBytes == 0;
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized void close() {
+        completeSegment();
+        if (replaying == null) {
+            return;
+        }
+        if (replay.isEmpty() && unacknowledged == 0) {
+            deleteReplayedSegment();
+            return;
+        }
+        if (unacknowledged == 0) {
+            rewriteReplayedSegment();
+        }
+        // what is left is replayed first when the spill is used again, events still unacknowledged may be published twice
+        segments.addFirst(replaying);
+        replaying = null;
+        replay.clear();
+        unacknowledged = 0;
+    }
+
+    private void completeSegment() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (final IOException e) {
+            s_logger.warn("Failed to close spill segment in " + directory + " due to " + e.getMessage());
+        }
+        segments.add(new File(directory, PREFIX + (sequence - 1) + SUFFIX));
+        writer = null;
+        writerBytes = 0;
+    }
+
+    private void readNextSegment() {
+        if (segments.isEmpty()) {
+            completeSegment();
+        }
+        final File segment = segments.poll();
+        if (segment == null) {
+            return;
+        }
+        replaying = segment;
+        try (BufferedReader reader = Files.newBufferedReader(segment.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                replay.add(new PendingEvent(line.substring(0, tab), Base64.getDecoder().decode(line.substring(tab + 1))));
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            s_logger.warn("Failed to read spilled events from " + segment + " due to " + e.getMessage());
+        }
+    }
+
+    private void deleteReplayedSegment() {
+        if (replaying == null) {
+            return;
+        }
+        totalBytes -= replaying.length();
+        if (!replaying.delete()) {
+            s_logger.warn("Failed to delete spill segment " + replaying);
+        }
+        replaying = null;
+    }
+
+    /**
+     * Replaces the segment being replayed by the events in it that are not handed out yet. The segment is kept as it
+     * is when that fails.
+     */
+    private void rewriteReplayedSegment() {
+        final File rest = new File(directory, replaying.getName() + ".tmp");
+        long bytes = 0;
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(rest), StandardCharsets.UTF_8)) {
+            for (final PendingEvent event : replay) {
+                final String line = toLine(event);
+                out.write(line);
+                bytes += line.length();
+            }
+        } catch (final IOException e) {
+            s_logger.warn("Failed to write the events left to replay to " + rest + " due to " + e.getMessage());
+            rest.delete();
+            return;
+        }
+        final long replaced = replaying.length();
+        try {
+            Files.move(rest.toPath(), replaying.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            s_logger.warn("Failed to replace spill segment " + replaying + " due to " + e.getMessage());
+            rest.delete();
+            return;
+        }
+        totalBytes += bytes - replaced;
+    }
+}
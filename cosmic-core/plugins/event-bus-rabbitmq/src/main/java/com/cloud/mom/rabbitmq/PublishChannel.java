@@ -0,0 +1,25 @@
+package com.cloud.mom.rabbitmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The part of an AMQP channel in confirm mode that the {@link EventPublisher} uses, so the publisher can run against
+ * an in-process stand-in of the broker.
+ */
+public interface PublishChannel extends Closeable {
+
+    void publish(String routingKey, byte[] body) throws IOException;
+
+    /**
+     * Waits until the broker confirmed all the messages published on the channel so far.
+     *
+     * @throws IOException when the broker did not accept one of the messages
+     */
+    void waitForConfirms(long timeoutMs) throws IOException, TimeoutException, InterruptedException;
+
+    interface Factory {
+        PublishChannel create() throws IOException;
+    }
+}
@@ -11,6 +11,7 @@ import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 import javax.naming.ConfigurationException;
+import java.io.File;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.security.KeyManagementException;
@@ -55,6 +56,13 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
     private static String amqpQueueName = "";
 
     private static Integer retryInterval;
+    // publishing of the events, see EventPublisher
+    private static int publishQueueSize = 10000;
+    private static int publishThreads = 2;
+    private static int publishBatchSize = 100;
+    private static int publishConfirmTimeout = 30000;
+    private static String spillDirectory;
+    private static long spillSize = 256;
     // hashmap to book keep the registered subscribers
     private static ConcurrentHashMap<String, Ternary<String, Channel, EventSubscriber>> s_subscribers;
     // connection to AMQP server,
@@ -62,6 +70,7 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
     private static DisconnectHandler disconnectHandler;
     private static BlockedConnectionHandler blockedConnectionHandler;
     private ExecutorService executorService;
+    private EventPublisher publisher;
 
     public static void setServer(final String amqpHost) {
         RabbitMQEventBus.amqpHost = amqpHost;
@@ -107,30 +116,87 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
         RabbitMQEventBus.useSsl = useSsl;
     }
 
-    // publish event on to the exchange created on AMQP server
+    public static void setPublishQueueSize(final Integer publishQueueSize) {
+        RabbitMQEventBus.publishQueueSize = publishQueueSize;
+    }
+
+    public static void setPublishThreads(final Integer publishThreads) {
+        RabbitMQEventBus.publishThreads = publishThreads;
+    }
+
+    public static void setPublishBatchSize(final Integer publishBatchSize) {
+        RabbitMQEventBus.publishBatchSize = publishBatchSize;
+    }
+
+    public static void setPublishConfirmTimeout(final Integer publishConfirmTimeout) {
+        RabbitMQEventBus.publishConfirmTimeout = publishConfirmTimeout;
+    }
+
+    public static void setSpillDirectory(final String spillDirectory) {
+        RabbitMQEventBus.spillDirectory = spillDirectory;
+    }
+
+    // in MB
+    public static void setSpillSize(final Long spillSize) {
+        RabbitMQEventBus.spillSize = spillSize;
+    }
+
+    // queue the event to be published on to the exchange created on AMQP server
     @Override
     public void publish(final Event event) throws EventBusException {
+        final String routingKey = amqpQueueName.isEmpty() ? createRoutingKey(event) : amqpQueueName;
+
+        if (!publisher.publish(routingKey, event.getDescription().getBytes())) {
+            throw new EventBusException("Failed to publish event to message broker as there is no room to queue it");
+        }
+    }
 
-        String routingKey = createRoutingKey(event);
-        final String eventDescription = event.getDescription();
+    public EventPublisher getPublisher() {
+        return publisher;
+    }
 
+    /**
+     * Creates a channel in confirm mode to publish the events on, with the exchange and the queue in place.
+     */
+    private PublishChannel createPublishChannel() throws IOException {
+        final Channel channel;
         try {
-            final Connection connection = getConnection();
-            final Channel channel = createChannel(connection);
+            channel = createChannel(getConnection());
+        } catch (final TimeoutException | NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IOException("Failed to connect to AMQP server due to " + e.getMessage(), e);
+        }
+        try {
+            channel.confirmSelect();
             createExchange(channel, amqpExchangeName);
             if (!amqpQueueName.isEmpty()) {
                 createQueue(channel, amqpQueueName);
                 bindQueue(channel, amqpQueueName, amqpExchangeName);
-                routingKey = amqpQueueName;
             }
-            publishEventToExchange(channel, amqpExchangeName, routingKey, eventDescription);
-            channel.close();
-        } catch (final AlreadyClosedException e) {
-            closeConnection();
-            throw new EventBusException("Failed to publish event to message broker as connection to AMQP broker in lost");
-        } catch (final Exception e) {
-            throw new EventBusException("Failed to publish event to message broker due to " + e.getMessage());
+        } catch (final IOException e) {
+            channel.abort();
+            throw e;
         }
+
+        return new PublishChannel() {
+            @Override
+            public void publish(final String routingKey, final byte[] body) throws IOException {
+                publishEventToExchange(channel, amqpExchangeName, routingKey, body);
+            }
+
+            @Override
+            public void waitForConfirms(final long timeoutMs) throws IOException, TimeoutException, InterruptedException {
+                channel.waitForConfirmsOrDie(timeoutMs);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    channel.close();
+                } catch (final TimeoutException | AlreadyClosedException e) {
+                    channel.abort();
+                }
+            }
+        };
     }
 
     /**
@@ -323,8 +389,7 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
         }
     }
 
-    private void publishEventToExchange(final Channel channel, final String exchangeName, final String routingKey, final String eventDescription) throws IOException {
-        final byte[] messageBodyBytes = eventDescription.getBytes();
+    private void publishEventToExchange(final Channel channel, final String exchangeName, final String routingKey, final byte[] messageBodyBytes) throws IOException {
         try {
             channel.basicPublish(exchangeName, routingKey, MessageProperties.PERSISTENT_TEXT_PLAIN, messageBodyBytes);
         } catch (final IOException e) {
@@ -438,6 +503,16 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
             throw new ConfigurationException("Invalid port number/retry interval");
         }
 
+        EventSpill spill = null;
+        if (spillDirectory != null && !spillDirectory.isEmpty()) {
+            try {
+                spill = new EventSpill(new File(spillDirectory), spillSize * 1024 * 1024);
+            } catch (final IOException e) {
+                throw new ConfigurationException("Unable to use " + spillDirectory + " to spill events to: " + e.getMessage());
+            }
+        }
+        publisher = new EventPublisher(this::createPublishChannel, publishQueueSize, publishThreads, publishBatchSize, publishConfirmTimeout, retryInterval, spill);
+
         s_subscribers = new ConcurrentHashMap<>();
         executorService = Executors.newCachedThreadPool();
         disconnectHandler = new DisconnectHandler();
@@ -450,12 +525,15 @@ public class RabbitMQEventBus extends ManagerBase implements EventBus {
     public boolean start() {
         final ReconnectionTask reconnect = new ReconnectionTask(); // initiate connection to AMQP server
         executorService.submit(reconnect);
+        publisher.start();
         return true;
     }
 
     @Override
     public synchronized boolean stop() {
-        if (s_connection.isOpen()) {
+        publisher.stop(publishConfirmTimeout);
+
+        if (s_connection != null && s_connection.isOpen()) {
             for (final String subscriberId : s_subscribers.keySet()) {
                 final Ternary<String, Channel, EventSubscriber> subscriberDetails = s_subscribers.get(subscriberId);
                 final Channel channel = subscriberDetails.second();
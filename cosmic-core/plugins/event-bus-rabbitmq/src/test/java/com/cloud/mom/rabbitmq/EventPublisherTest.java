@@ -0,0 +1,304 @@
+package com.cloud.mom.rabbitmq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloud.mom.rabbitmq.EventPublisher.PendingEvent;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class EventPublisherTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(EventPublisherTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final InProcessBroker broker = new InProcessBroker();
+    private EventPublisher publisher;
+
+    @After
+    public void tearDown() {
+        if (publisher != null) {
+            publisher.stop(1000);
+        }
+    }
+
+    private static byte[] body(final int i) {
+        return ("{\"event\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void awaitDelivered(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (broker.deliveredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, broker.deliveredCount());
+    }
+
+    @Test
+    public void testEventsArePublishedInConfirmedBatches() throws Exception {
+        broker.confirmDelayMs = 20;
+        publisher = new EventPublisher(broker, 1000, 2, 50, 1000, 100, null);
+        publisher.start();
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(publisher.publish("key", body(i)));
+        }
+
+        awaitDelivered(500);
+        assertEquals(500, publisher.getConfirmed());
+        // the channels live on, and far fewer confirms than events are waited for
+        assertTrue(broker.channelsCreated.get() <= 2);
+        assertTrue(broker.confirmWaits.get() < 100);
+        assertEquals(0, publisher.getDropped());
+    }
+
+    @Test
+    public void testFullQueueDropsEvents() throws Exception {
+        broker.down = true;
+        publisher = new EventPublisher(broker, 10, 1, 5, 1000, 60000, null);
+        publisher.start();
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (publisher.publish("key", body(i))) {
+                accepted++;
+            }
+        }
+
+        // the queue and the batch of the publisher thread
+        assertTrue(accepted <= 15);
+        assertEquals(100 - accepted, publisher.getDropped());
+    }
+
+    @Test
+    public void testEventsAreSpilledWhileBrokerIsDown() throws Exception {
+        broker.down = true;
+        publisher = new EventPublisher(broker, 10, 1, 5, 1000, 50, new EventSpill(folder.newFolder("spill"), 1024 * 1024));
+        publisher.start();
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(publisher.publish("key", body(i)));
+        }
+        assertTrue(publisher.getSpilled() > 0);
+        assertEquals(0, publisher.getDropped());
+
+        broker.down = false;
+        awaitDelivered(200);
+        assertEquals(200, broker.distinctBodies().size());
+    }
+
+    @Test
+    public void testNackedBatchIsPublishedAgain() throws Exception {
+        broker.nacks.set(2);
+        publisher = new EventPublisher(broker, 1000, 1, 10, 1000, 10, null);
+        publisher.start();
+
+        for (int i = 0; i < 30; i++) {
+            assertTrue(publisher.publish("key", body(i)));
+        }
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (broker.distinctBodies().size() < 30 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(30, broker.distinctBodies().size());
+        assertTrue(publisher.getRetried() > 0);
+    }
+
+    @Test
+    public void testSpilledEventsSurviveRestart() throws Exception {
+        final File directory = folder.newFolder("restart");
+        final EventSpill spill = new EventSpill(directory, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spill.append(new PendingEvent("key-" + i, body(i))));
+        }
+        spill.close();
+
+        final EventSpill reopened = new EventSpill(directory, 1024 * 1024);
+        assertFalse(reopened.isEmpty());
+        final List<PendingEvent> events = new ArrayList<>();
+        int drained;
+        while ((drained = reopened.drainTo(events, 3)) > 0) {
+            reopened.acknowledge(drained);
+        }
+        assertEquals(10, events.size());
+        assertEquals("key-0", events.get(0).getRoutingKey());
+        assertEquals("{\"event\":9}", new String(events.get(9).getBody(), StandardCharsets.UTF_8));
+        assertTrue(reopened.isEmpty());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSpillClosedWhileReplayingKeepsTheRest() throws Exception {
+        final File directory = folder.newFolder("close");
+        final EventSpill spill = new EventSpill(directory, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spill.append(new PendingEvent("key-" + i, body(i))));
+        }
+        final List<PendingEvent> published = new ArrayList<>();
+        assertEquals(4, spill.drainTo(published, 4));
+        spill.acknowledge(4);
+        spill.close();
+
+        final EventSpill reopened = new EventSpill(directory, 1024 * 1024);
+        final List<PendingEvent> events = new ArrayList<>();
+        int drained;
+        while ((drained = reopened.drainTo(events, 3)) > 0) {
+            reopened.acknowledge(drained);
+        }
+        assertEquals(6, events.size());
+        assertEquals("key-4", events.get(0).getRoutingKey());
+        assertEquals("key-9", events.get(5).getRoutingKey());
+        assertEquals(0, reopened.getBytes());
+    }
+
+    @Test
+    public void testUnacknowledgedEventsAreReplayedAgain() throws Exception {
+        final File directory = folder.newFolder("crash");
+        final EventSpill spill = new EventSpill(directory, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spill.append(new PendingEvent("key-" + i, body(i))));
+        }
+        final List<PendingEvent> inFlight = new ArrayList<>();
+        assertEquals(10, spill.drainTo(inFlight, 20));
+        assertEquals(0, spill.drainTo(inFlight, 20));
+        spill.close();
+
+        final EventSpill reopened = new EventSpill(directory, 1024 * 1024);
+        final List<PendingEvent> events = new ArrayList<>();
+        reopened.drainTo(events, 20);
+        assertEquals(10, events.size());
+        assertEquals("key-0", events.get(0).getRoutingKey());
+    }
+
+    @Test
+    public void testSpillIsBounded() throws Exception {
+        final EventSpill spill = new EventSpill(folder.newFolder("bounded"), 100);
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (spill.append(new PendingEvent("key", body(i)))) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 0 && accepted < 10);
+        assertTrue(spill.getBytes() <= 100);
+    }
+
+    /**
+     * Publishes events from a caller thread to a broker that takes 5ms to confirm, once queued and once the way the
+     * events were published before: a channel and a confirm per event on the caller thread.
+     */
+    @Test
+    public void benchmarkCallerLatencyWithSlowBroker() throws Exception {
+        Benchmarks.assumeEnabled();
+        broker.confirmDelayMs = 5;
+        final int events = 200;
+
+        final long syncStart = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            final PublishChannel channel = broker.create();
+            channel.publish("key", body(i));
+            channel.waitForConfirms(1000);
+            channel.close();
+        }
+        final long syncMs = (System.nanoTime() - syncStart) / 1000000;
+        broker.reset();
+
+        publisher = new EventPublisher(broker, 10000, 2, 100, 1000, 100, null);
+        publisher.start();
+        final long asyncStart = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            assertTrue(publisher.publish("key", body(i)));
+        }
+        final long asyncMs = (System.nanoTime() - asyncStart) / 1000000;
+        awaitDelivered(events);
+
+        s_logger.info("Publishing " + events + " events took the callers " + syncMs + " ms synchronously and " + asyncMs + " ms queued, " + publisher);
+        assertTrue(asyncMs < syncMs);
+    }
+
+    /**
+     * Stands in for the AMQP broker: keeps the messages confirmed on its channels, and can be down, slow to confirm
+     * and refuse batches.
+     */
+    private static class InProcessBroker implements PublishChannel.Factory {
+        volatile boolean down;
+        volatile long confirmDelayMs;
+        final AtomicInteger nacks = new AtomicInteger();
+        final AtomicInteger channelsCreated = new AtomicInteger();
+        final AtomicInteger confirmWaits = new AtomicInteger();
+        private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public PublishChannel create() throws IOException {
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+            channelsCreated.incrementAndGet();
+            return new PublishChannel() {
+                private final List<String> unconfirmed = new ArrayList<>();
+
+                @Override
+                public void publish(final String routingKey, final byte[] body) throws IOException {
+                    if (down) {
+                        throw new IOException("Connection reset");
+                    }
+                    unconfirmed.add(new String(body, StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void waitForConfirms(final long timeoutMs) throws IOException, TimeoutException, InterruptedException {
+                    confirmWaits.incrementAndGet();
+                    if (confirmDelayMs > 0) {
+                        Thread.sleep(confirmDelayMs);
+                    }
+                    if (nacks.getAndDecrement() > 0) {
+                        unconfirmed.clear();
+                        throw new IOException("nack-ed");
+                    }
+                    delivered.addAll(unconfirmed);
+                    unconfirmed.clear();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        int deliveredCount() {
+            return delivered.size();
+        }
+
+        Set<String> distinctBodies() {
+            synchronized (delivered) {
+                return new HashSet<>(delivered);
+            }
+        }
+
+        void reset() {
+            delivered.clear();
+            channelsCreated.set(0);
+            confirmWaits.set(0);
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.cloud.hypervisor.kvm.resource;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,10 +23,16 @@ public class KvmHaChecker extends KvmHaBase implements Callable<Boolean> {
     private final List<NfsStoragePool> pools;
     private final String hostIp;
     private final long heartbeatTimeoutSeconds = 360;
+    private final KvmHaHeartbeat heartbeat;
 
     public KvmHaChecker(final List<NfsStoragePool> pools, final String hostIp) {
+        this(pools, hostIp, new KvmHaHeartbeat());
+    }
+
+    KvmHaChecker(final List<NfsStoragePool> pools, final String hostIp, final KvmHaHeartbeat heartbeat) {
         this.pools = pools;
         this.hostIp = hostIp;
+        this.heartbeat = heartbeat;
     }
 
     @Override
@@ -27,36 +40,67 @@ public class KvmHaChecker extends KvmHaBase implements Callable<Boolean> {
         return checkingHb();
     }
 
+    /**
+     * Reads the heartbeat of the host on all pools in parallel. The host is alive when any of them has a recent
+     * heartbeat; a pool that cannot be read in time does not declare it dead.
+     */
     private Boolean checkingHb() {
-        final List<Boolean> results = new ArrayList<>();
-        for (final NfsStoragePool pool : pools) {
-
-            final Script cmd = new Script(heartBeatPath, heartbeatTimeoutSeconds, logger);
-            cmd.add("-i", pool.innetPoolIp);
-            cmd.add("-p", pool.innerPoolMountSourcePath);
-            cmd.add("-m", pool.innerMountDestPath);
-            cmd.add("-h", hostIp);
-            cmd.add("-r");
-            cmd.add("-t", String.valueOf(heartBeatUpdateFreq / 1000));
-            final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
-            final String result = cmd.execute(parser);
-            logger.debug("pool: " + pool.innetPoolIp);
-            logger.debug("return: " + result);
-            logger.debug("parser: " + parser.getLine());
-            if (result == null && parser.getLine().contains("> DEAD <")) {
-                logger.debug("read heartbeat failed: " + result);
-                results.add(false);
-            } else {
-                results.add(true);
+        if (pools.isEmpty()) {
+            return false;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(pools.size(), new NamedThreadFactory("KvmHaChecker"));
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (final NfsStoragePool pool : pools) {
+                results.add(executor.submit(() -> checkPool(pool)));
             }
+
+            final long deadline = System.currentTimeMillis() + heartbeatTimeoutSeconds * 1000;
+            boolean alive = false;
+            for (final Future<Boolean> result : results) {
+                try {
+                    alive |= result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException e) {
+                    logger.warn("Timed out reading heartbeat of " + hostIp + " after " + heartbeatTimeoutSeconds + " seconds");
+                    alive = true;
+                } catch (final InterruptedException | ExecutionException e) {
+                    logger.warn("Failed to read heartbeat of " + hostIp + ": " + e);
+                    alive = true;
+                }
+            }
+            return alive;
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        for (final Boolean r : results) {
-            if (r) {
-                return true;
+    private boolean checkPool(final NfsStoragePool pool) {
+        logger.debug("pool: " + pool.innetPoolIp);
+        if (heartbeat.isNfsMounted(pool.innerMountDestPath)) {
+            final boolean alive = heartbeat.isAlive(getHbFile(pool.innerMountDestPath, hostIp), heartBeatUpdateFreq / 1000);
+            if (!alive) {
+                logger.debug("read heartbeat failed: heartbeat of " + hostIp + " on " + pool.innetPoolIp + " is too old");
             }
+            return alive;
         }
 
-        return false;
+        // the script remounts the pool before reading the heartbeat
+        final Script cmd = new Script(heartBeatPath, heartbeatTimeoutSeconds, logger);
+        cmd.add("-i", pool.innetPoolIp);
+        cmd.add("-p", pool.innerPoolMountSourcePath);
+        cmd.add("-m", pool.innerMountDestPath);
+        cmd.add("-h", hostIp);
+        cmd.add("-r");
+        cmd.add("-t", String.valueOf(heartBeatUpdateFreq / 1000));
+        final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
+        final String result = cmd.execute(parser);
+        logger.debug("return: " + result);
+        logger.debug("parser: " + parser.getLine());
+        if (result == null && parser.getLine().contains("> DEAD <")) {
+            logger.debug("read heartbeat failed: " + result);
+            return false;
+        }
+        return true;
     }
 }
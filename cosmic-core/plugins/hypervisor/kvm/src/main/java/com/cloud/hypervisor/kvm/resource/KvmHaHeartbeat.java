@@ -0,0 +1,163 @@
+package com.cloud.hypervisor.kvm.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes and reads the storage heartbeat files in process, instead of forking kvmheartbeat.sh for every pool on every
+ * interval.
+ * <p>
+ * The file format is the one of the script: the epoch seconds of the last write followed by a newline, in
+ * KVMHA/hb-&lt;host ip&gt; on the pool. Hosts running the script and hosts running this class can fence each other.
+ */
+public class KvmHaHeartbeat implements KvmHaHeartbeatMBean {
+    private static final Logger logger = LoggerFactory.getLogger(KvmHaHeartbeat.class);
+
+    private static final String PROC_MOUNTS = "/proc/mounts";
+
+    private final File mountsFile;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong totalWriteLatency = new AtomicLong();
+    private final AtomicLong maxWriteLatency = new AtomicLong();
+    private volatile long lastWriteLatency;
+
+    public KvmHaHeartbeat() {
+        this(new File(PROC_MOUNTS));
+    }
+
+    KvmHaHeartbeat(final File mountsFile) {
+        this.mountsFile = mountsFile;
+    }
+
+    /**
+     * Checks whether an NFS file system is mounted on the mount point, the same way the script does before touching the
+     * heartbeat file. When it is not, the caller has to fall back to the script so it gets remounted.
+     */
+    public boolean isNfsMounted(final String mountPoint) {
+        final List<String> mounts;
+        try {
+            mounts = Files.readAllLines(mountsFile.toPath(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            logger.warn("Unable to read " + mountsFile.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+        for (final String mount : mounts) {
+            // <source> <mount point> <type> <options> <dump> <pass>
+            final String[] fields = mount.split(" ");
+            if (fields.length > 2 && fields[2].startsWith("nfs") && fields[1].equals(trimTrailingSeparator(mountPoint))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the current time to the heartbeat file and forces it to the storage.
+     */
+    public void write(final String hbFile) throws IOException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final File file = new File(hbFile);
+            final File folder = file.getParentFile();
+            if (folder != null && !folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+                throw new IOException("Failed to create " + folder.getAbsolutePath());
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap((System.currentTimeMillis() / 1000 + "\n").getBytes(StandardCharsets.US_ASCII));
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            success = true;
+        } finally {
+            recordWrite(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Reads the heartbeat file of a host.
+     *
+     * @param intervalSeconds the age after which a heartbeat is considered missed
+     * @return false only when the file holds a timestamp older than the interval. Like the script, a heartbeat that
+     * cannot be read does not declare the host dead.
+     */
+    public boolean isAlive(final String hbFile, final long intervalSeconds) {
+        final String content;
+        try {
+            content = new String(Files.readAllBytes(new File(hbFile).toPath()), StandardCharsets.US_ASCII).trim();
+        } catch (final IOException e) {
+            logger.warn("Unable to read heartbeat " + hbFile + ": " + e.getMessage());
+            return true;
+        }
+        final long heartbeat;
+        try {
+            heartbeat = Long.parseLong(content);
+        } catch (final NumberFormatException e) {
+            logger.warn("Heartbeat " + hbFile + " holds no timestamp: " + content);
+            return true;
+        }
+        return System.currentTimeMillis() / 1000 - heartbeat <= intervalSeconds;
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    @Override
+    public long getFailedWriteCount() {
+        return failedWrites.get();
+    }
+
+    @Override
+    public long getLastWriteLatencyMillis() {
+        return lastWriteLatency / 1000000;
+    }
+
+    @Override
+    public long getMaxWriteLatencyMillis() {
+        return maxWriteLatency.get() / 1000000;
+    }
+
+    @Override
+    public long getAverageWriteLatencyMillis() {
+        final long count = writes.get();
+        return count == 0 ? 0 : totalWriteLatency.get() / count / 1000000;
+    }
+
+    private void recordWrite(final long nanos, final boolean success) {
+        writes.incrementAndGet();
+        if (!success) {
+            failedWrites.incrementAndGet();
+        }
+        lastWriteLatency = nanos;
+        totalWriteLatency.addAndGet(nanos);
+        long max = maxWriteLatency.get();
+        while (nanos > max && !maxWriteLatency.compareAndSet(max, nanos)) {
+            max = maxWriteLatency.get();
+        }
+    }
+
+    private static String trimTrailingSeparator(final String path) {
+        if (path.length() > 1 && path.endsWith(File.separator)) {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,16 @@
+package com.cloud.hypervisor.kvm.resource;
+
+/**
+ * Allows JMX access to the statistics of the storage heartbeat writes of {@link KvmHaHeartbeat}
+ */
+public interface KvmHaHeartbeatMBean {
+    long getWriteCount();
+
+    long getFailedWriteCount();
+
+    long getLastWriteLatencyMillis();
+
+    long getMaxWriteLatencyMillis();
+
+    long getAverageWriteLatencyMillis();
+}
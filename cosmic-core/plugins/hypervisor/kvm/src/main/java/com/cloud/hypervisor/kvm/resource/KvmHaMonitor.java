@@ -1,14 +1,26 @@
 package com.cloud.hypervisor.kvm.resource;
 
 import com.cloud.managed.context.ManagedContextRunnable;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.script.Script;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.libvirt.Connect;
 import org.libvirt.LibvirtException;
@@ -22,6 +34,11 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
     private final Map<String, NfsStoragePool> storagePool = new ConcurrentHashMap<>();
 
     private final String hostPrivateIp;
+    private final KvmHaHeartbeat heartbeat = new KvmHaHeartbeat();
+    private final ExecutorService heartbeatExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("KvmHaHeartbeat"));
+    private ObjectName heartbeatMBean;
+    private volatile Thread runner;
+    private volatile boolean stopped = false;
 
     public KvmHaMonitor(final NfsStoragePool pool, final String host, final String scriptPath) {
         if (pool != null) {
@@ -29,6 +46,11 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
         }
         hostPrivateIp = host;
         configureHeartBeatPath(scriptPath);
+        try {
+            heartbeatMBean = JmxUtil.registerMBean("KvmHa", "Heartbeat", new StandardMBean(heartbeat, KvmHaHeartbeatMBean.class));
+        } catch (final Exception e) {
+            logger.warn("Unable to register the heartbeat MBean", e);
+        }
     }
 
     private static synchronized void configureHeartBeatPath(final String scriptPath) {
@@ -57,9 +79,67 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
         }
     }
 
+    public KvmHaHeartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Writes the heartbeat of this host to the pool, retrying a few times. The write happens in process, the script is
+     * only used when the pool has to be remounted first.
+     *
+     * @return null on success, otherwise the last error
+     */
+    private String writeHeartbeat(final NfsStoragePool pool) {
+        String result = null;
+        for (int i = 0; i < 5; i++) {
+            if (heartbeat.isNfsMounted(pool.innerMountDestPath)) {
+                try {
+                    heartbeat.write(getHbFile(pool.innerMountDestPath, hostPrivateIp));
+                    result = null;
+                } catch (final IOException e) {
+                    result = e.toString();
+                }
+            } else {
+                final Script cmd = new Script(heartBeatPath, heartBeatUpdateTimeout, logger);
+                cmd.add("-i", pool.innetPoolIp);
+                cmd.add("-p", pool.innerPoolMountSourcePath);
+                cmd.add("-m", pool.innerMountDestPath);
+                cmd.add("-h", hostPrivateIp);
+                result = cmd.execute();
+            }
+            if (result != null) {
+                logger.warn("write heartbeat failed: " + result + ", retry: " + i);
+            } else {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops writing heartbeats: ends the monitor loop, shuts down the heartbeat writers and unregisters the MBean.
+     */
+    public void stop() {
+        stopped = true;
+        final Thread thread = runner;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        heartbeatExecutor.shutdownNow();
+        if (heartbeatMBean != null) {
+            try {
+                JmxUtil.unregisterMBean(heartbeatMBean);
+            } catch (final Exception e) {
+                logger.debug("[ignored] unable to unregister the heartbeat MBean", e);
+            }
+            heartbeatMBean = null;
+        }
+    }
+
     @Override
     public void run() {
-        while (true) {
+        runner = Thread.currentThread();
+        while (!stopped) {
             final Thread monitorThread = new Thread(new Monitor());
             monitorThread.start();
             try {
@@ -67,6 +147,9 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
             } catch (final InterruptedException e) {
                 logger.debug("[ignored] interupted joining monitor.");
             }
+            if (stopped) {
+                break;
+            }
 
             try {
                 Thread.sleep(heartBeatUpdateFreq);
@@ -80,8 +163,12 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
 
         @Override
         protected void runInContext() {
+            if (stopped) {
+                return;
+            }
             synchronized (storagePool) {
                 final Set<String> removedPools = new HashSet<>();
+                final Map<String, Future<String>> heartbeats = new HashMap<>();
                 for (final String uuid : storagePool.keySet()) {
                     final NfsStoragePool primaryStoragePool = storagePool.get(uuid);
 
@@ -115,19 +202,21 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
                         }
                     }
 
-                    String result = null;
-                    for (int i = 0; i < 5; i++) {
-                        final Script cmd = new Script(heartBeatPath, heartBeatUpdateTimeout, logger);
-                        cmd.add("-i", primaryStoragePool.innetPoolIp);
-                        cmd.add("-p", primaryStoragePool.innerPoolMountSourcePath);
-                        cmd.add("-m", primaryStoragePool.innerMountDestPath);
-                        cmd.add("-h", hostPrivateIp);
-                        result = cmd.execute();
-                        if (result != null) {
-                            logger.warn("write heartbeat failed: " + result + ", retry: " + i);
-                        } else {
-                            break;
-                        }
+                    heartbeats.put(uuid, heartbeatExecutor.submit(() -> writeHeartbeat(primaryStoragePool)));
+                }
+
+                // the pools are written in parallel, so they all share the same deadline
+                final long deadline = System.currentTimeMillis() + heartBeatUpdateTimeout;
+                for (final Map.Entry<String, Future<String>> pending : heartbeats.entrySet()) {
+                    final NfsStoragePool primaryStoragePool = storagePool.get(pending.getKey());
+                    String result;
+                    try {
+                        result = pending.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } catch (final TimeoutException e) {
+                        pending.getValue().cancel(true);
+                        result = "timed out after " + heartBeatUpdateTimeout + " ms";
+                    } catch (final InterruptedException | ExecutionException e) {
+                        result = e.toString();
                     }
 
                     if (result != null) {
@@ -137,9 +226,12 @@ public class KvmHaMonitor extends KvmHaBase implements Runnable {
                         cmd.add("-p", primaryStoragePool.innerPoolMountSourcePath);
                         cmd.add("-m", primaryStoragePool.innerMountDestPath);
                         cmd.add("-c");
-                        result = cmd.execute();
+                        cmd.execute();
                     }
                 }
+                logger.debug("Heartbeat write latency: last " + heartbeat.getLastWriteLatencyMillis() + " ms, average "
+                        + heartbeat.getAverageWriteLatencyMillis() + " ms, max " + heartbeat.getMaxWriteLatencyMillis() + " ms, "
+                        + heartbeat.getFailedWriteCount() + " of " + heartbeat.getWriteCount() + " writes failed");
 
                 if (!removedPools.isEmpty()) {
                     for (final String uuid : removedPools) {
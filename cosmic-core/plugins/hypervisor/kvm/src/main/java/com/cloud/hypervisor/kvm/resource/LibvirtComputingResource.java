@@ -194,6 +194,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     private final LibvirtComputingResourceProperties libvirtComputingResourceProperties = new LibvirtComputingResourceProperties();
     private final Map<String, String> pifs = new HashMap<>();
     private final Map<String, VmStats> vmStats = new ConcurrentHashMap<>();
+    private final LibvirtDomainTopologyCache domainTopologyCache = new LibvirtDomainTopologyCache();
     private final LibvirtUtilitiesHelper libvirtUtilitiesHelper = new LibvirtUtilitiesHelper();
     private long hypervisorLibvirtVersion;
     private long hypervisorQemuVersion;
@@ -388,6 +389,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (final InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                invalidateDomainTopology(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (final VifDriver vifDriver : getAllVifDrivers()) {
@@ -627,6 +629,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTo.getType()).plug(nicTo, "Default - VirtIO capable OS (64-bit)", "").toString());
+        invalidateDomainTopology(vmName);
     }
 
     public String networkUsage(final String privateIpAddress, final String option, final String vif) {
@@ -1342,6 +1345,12 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     @Override
     public boolean stop() {
+        if (monitor != null) {
+            monitor.stop();
+        }
+        if (virtRouterResource != null) {
+            virtRouterResource.stop();
+        }
         try {
             final Connect conn = LibvirtConnection.getConnection();
             conn.close();
@@ -2159,6 +2168,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            invalidateDomainTopology(vmName);
         } catch (final LibvirtException e) {
             if (attach) {
                 logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -2495,6 +2505,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     }
 
     protected String stopVm(final Connect conn, final String vmName, final boolean force) {
+        invalidateDomainTopology(vmName);
         Domain dm = null;
         try {
             dm = conn.domainLookupByName(vmName);
@@ -2584,6 +2595,44 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
+    /**
+     * Returns the interfaces and disks of a domain, parsing its XML only when the cached copy is stale.
+     */
+    private LibvirtDomainTopologyCache.DomainTopology getDomainTopology(final Connect conn, final Domain dm, final String vmName) throws LibvirtException {
+        final int domainId = dm.getID();
+        LibvirtDomainTopologyCache.DomainTopology topology = domainTopologyCache.get(vmName, domainId);
+        if (topology == null) {
+            topology = new LibvirtDomainTopologyCache.DomainTopology(domainId, getInterfaces(conn, vmName), getDisks(conn, vmName));
+            // an empty result usually means the domain xml could not be read, so try again next time
+            if (!topology.getInterfaces().isEmpty() || !topology.getDisks().isEmpty()) {
+                domainTopologyCache.put(vmName, topology);
+            }
+        }
+        return topology;
+    }
+
+    public void invalidateDomainTopology(final String vmName) {
+        domainTopologyCache.invalidate(vmName);
+    }
+
+    /**
+     * Makes the next configuration of the router push everything, for when the router was configured from another host.
+     */
+    public void resetAppliedRouterConfig(final String vmName) {
+        if (virtRouterResource != null) {
+            virtRouterResource.resetAppliedConfig(vmName);
+        }
+    }
+
+    /**
+     * Forgets the command pipeline and the applied config of a router that stopped on this host.
+     */
+    public void removeRouter(final String vmName) {
+        if (virtRouterResource != null) {
+            virtRouterResource.removeRouter(vmName);
+        }
+    }
+
     public List<VmDiskStatsEntry> getVmDiskStat(final Connect conn, final String vmName) throws LibvirtException {
         Domain dm = null;
         try {
@@ -2591,7 +2640,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
             final List<VmDiskStatsEntry> stats = new ArrayList<>();
 
-            final List<DiskDef> disks = getDisks(conn, vmName);
+            final List<DiskDef> disks = getDomainTopology(conn, dm, vmName).getDisks();
 
             for (final DiskDef disk : disks) {
                 if (disk.getDeviceType() != DeviceType.DISK) {
@@ -2619,7 +2668,34 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
+    /**
+     * Collects the stats of a number of VMs in one pass, sharing the host information between them. VMs that cannot be
+     * queried are left out of the result.
+     */
+    public Map<String, VmStatsEntry> getVmStats(final Connect conn, final List<String> vmNames) throws LibvirtException {
+        final int hostCpus = conn.nodeInfo().cpus;
+        final Map<String, VmStatsEntry> stats = new HashMap<>();
+        for (final String vmName : vmNames) {
+            try {
+                final VmStatsEntry statEntry = getVmStat(conn, vmName, hostCpus);
+                if (statEntry != null) {
+                    stats.put(vmName, statEntry);
+                }
+            } catch (final LibvirtException e) {
+                logger.warn("Can't get vm stats: " + e.toString() + ", continue");
+            }
+        }
+        return stats;
+    }
+
     public VmStatsEntry getVmStat(final Connect conn, final String vmName) throws LibvirtException {
+        return getVmStat(conn, vmName, 0);
+    }
+
+    /**
+     * @param hostCpus the number of cpus of the host, or 0 to look it up when needed
+     */
+    private VmStatsEntry getVmStat(final Connect conn, final String vmName, final int hostCpus) throws LibvirtException {
         Domain dm = null;
         try {
             dm = getDomain(conn, vmName);
@@ -2641,8 +2717,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 elapsedTime = now.getTimeInMillis() - oldStats.timestamp.getTimeInMillis();
                 double utilization = (info.cpuTime - oldStats.usedTime) / ((double) elapsedTime * 1000000);
 
-                final NodeInfo node = conn.nodeInfo();
-                utilization = utilization / node.cpus;
+                utilization = utilization / (hostCpus > 0 ? hostCpus : conn.nodeInfo().cpus);
                 if (utilization > 0) {
                     stats.setCPUUtilization(utilization * 100);
                 }
@@ -2650,7 +2725,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
       /* get network stats */
 
-            final List<InterfaceDef> vifs = getInterfaces(conn, vmName);
+            final LibvirtDomainTopologyCache.DomainTopology topology = getDomainTopology(conn, dm, vmName);
+            final List<InterfaceDef> vifs = topology.getInterfaces();
             long rx = 0;
             long tx = 0;
             for (final InterfaceDef vif : vifs) {
@@ -2671,7 +2747,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
 
       /* get disk stats */
-            final List<DiskDef> disks = getDisks(conn, vmName);
+            final List<DiskDef> disks = topology.getDisks();
             long ioRd = 0;
             long ioWr = 0;
             long bytesRd = 0;
@@ -0,0 +1,94 @@
+package com.cloud.hypervisor.kvm.resource;
+
+import com.cloud.hypervisor.kvm.resource.LibvirtVmDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVmDef.InterfaceDef;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the interfaces and disks of every domain, so the stats rounds do not have to fetch and parse the domain XML of
+ * every VM over and over again.
+ * <p>
+ * An entry is only valid for the libvirt domain id it was read from. The id changes every time a domain is started, so
+ * restarts and migrations invalidate the entry by themselves. Device changes made through this agent invalidate the
+ * entry explicitly, and entries expire after a while to pick up changes made behind our back.
+ */
+public class LibvirtDomainTopologyCache {
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<String, DomainTopology> topologies = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+
+    public LibvirtDomainTopologyCache() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    public LibvirtDomainTopologyCache(final long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the cached topology of the domain, or null when it is unknown, belongs to another incarnation of the domain
+     * or has expired
+     */
+    public DomainTopology get(final String vmName, final int domainId) {
+        final DomainTopology topology = topologies.get(vmName);
+        if (topology == null) {
+            return null;
+        }
+        if (topology.getDomainId() != domainId || System.currentTimeMillis() - topology.getLoadedAt() > ttlMillis) {
+            topologies.remove(vmName, topology);
+            return null;
+        }
+        return topology;
+    }
+
+    public void put(final String vmName, final DomainTopology topology) {
+        topologies.put(vmName, topology);
+    }
+
+    public void invalidate(final String vmName) {
+        topologies.remove(vmName);
+    }
+
+    public void invalidateAll() {
+        topologies.clear();
+    }
+
+    public int size() {
+        return topologies.size();
+    }
+
+    public static class DomainTopology {
+        private final int domainId;
+        private final long loadedAt;
+        private final List<InterfaceDef> interfaces;
+        private final List<DiskDef> disks;
+
+        public DomainTopology(final int domainId, final List<InterfaceDef> interfaces, final List<DiskDef> disks) {
+            this.domainId = domainId;
+            this.loadedAt = System.currentTimeMillis();
+            this.interfaces = Collections.unmodifiableList(interfaces);
+            this.disks = Collections.unmodifiableList(disks);
+        }
+
+        public int getDomainId() {
+            return domainId;
+        }
+
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+        public List<InterfaceDef> getInterfaces() {
+            return interfaces;
+        }
+
+        public List<DiskDef> getDisks() {
+            return disks;
+        }
+    }
+}
@@ -25,24 +25,11 @@ public final class LibvirtGetVmStatsCommandWrapper
     @Override
     public Answer execute(final GetVmStatsCommand command, final LibvirtComputingResource libvirtComputingResource) {
         final List<String> vmNames = command.getVmNames();
-        try {
-            final HashMap<String, VmStatsEntry> vmStatsNameMap = new HashMap<>();
-            for (final String vmName : vmNames) {
-
-                final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
+        final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
 
-                final Connect conn = libvirtUtilitiesHelper.getConnectionByVmName(vmName);
-                try {
-                    final VmStatsEntry statEntry = libvirtComputingResource.getVmStat(conn, vmName);
-                    if (statEntry == null) {
-                        continue;
-                    }
-
-                    vmStatsNameMap.put(vmName, statEntry);
-                } catch (final LibvirtException e) {
-                    s_logger.warn("Can't get vm stats: " + e.toString() + ", continue");
-                }
-            }
+        try {
+            final Connect conn = libvirtUtilitiesHelper.getConnection();
+            final HashMap<String, VmStatsEntry> vmStatsNameMap = new HashMap<>(libvirtComputingResource.getVmStats(conn, vmNames));
             return new GetVmStatsAnswer(command, vmStatsNameMap);
         } catch (final LibvirtException e) {
             s_logger.debug("Can't get vm stats: " + e.toString());
@@ -142,6 +142,8 @@ public final class LibvirtMigrateCommandWrapper
             s_logger.debug("Timed out while migrating domain: " + e.getMessage());
             result = e.getMessage();
         } finally {
+            libvirtComputingResource.invalidateDomainTopology(vmName);
+            libvirtComputingResource.resetAppliedRouterConfig(vmName);
             try {
                 if (dm != null) {
                     if (dm.isPersistent() == 1) {
@@ -47,6 +47,7 @@ public final class LibvirtPlugNicCommandWrapper
             final VifDriver vifDriver = libvirtComputingResource.getVifDriver(nic.getType());
             final InterfaceDef interfaceDef = vifDriver.plug(nic, "Default - VirtIO capable OS (64-bit)", "");
             vm.attachDevice(interfaceDef.toString());
+            libvirtComputingResource.invalidateDomainTopology(vmName);
 
             return new PlugNicAnswer(command, true, "success");
         } catch (final LibvirtException e) {
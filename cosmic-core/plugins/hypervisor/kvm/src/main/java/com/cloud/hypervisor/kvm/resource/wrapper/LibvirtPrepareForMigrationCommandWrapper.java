@@ -35,6 +35,7 @@ public final class LibvirtPrepareForMigrationCommandWrapper
         }
 
         final NicTO[] nics = vm.getNics();
+        libvirtComputingResource.resetAppliedRouterConfig(vm.getName());
 
         boolean skipDisconnect = false;
 
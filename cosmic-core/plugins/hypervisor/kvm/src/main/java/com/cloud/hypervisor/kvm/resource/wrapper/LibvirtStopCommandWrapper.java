@@ -61,6 +61,7 @@ public final class LibvirtStopCommandWrapper extends CommandWrapper<StopCommand,
                         vifDriver.unplug(iface);
                     }
                 }
+                libvirtComputingResource.removeRouter(vmName);
             }
 
             return new StopAnswer(command, result, true);
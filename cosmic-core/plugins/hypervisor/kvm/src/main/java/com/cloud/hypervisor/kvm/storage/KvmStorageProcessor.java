@@ -1,6 +1,6 @@
 package com.cloud.hypervisor.kvm.storage;
 
-import static com.cloud.utils.storage.S3.S3Utils.putFile;
+import static com.cloud.utils.storage.S3.S3Utils.uploadFile;
 
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.storage.PrimaryStorageDownloadAnswer;
@@ -805,6 +805,7 @@ public class KvmStorageProcessor implements StorageProcessor {
                 logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            resource.invalidateDomainTopology(vmName);
         } catch (final LibvirtException e) {
             if (attach) {
                 logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -1188,10 +1189,10 @@ public class KvmStorageProcessor implements StorageProcessor {
     }
 
     protected String copyToS3(final File srcFile, final S3TO destStore, final String destPath)
-            throws InterruptedException {
+            throws IOException {
         final String key = destPath + S3Utils.SEPARATOR + srcFile.getName();
 
-        putFile(destStore, srcFile, destStore.getBucketName(), key).waitForCompletion();
+        uploadFile(destStore, srcFile, destStore.getBucketName(), key);
 
         return key;
     }
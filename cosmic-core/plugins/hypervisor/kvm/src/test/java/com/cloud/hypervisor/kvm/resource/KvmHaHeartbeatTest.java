@@ -0,0 +1,138 @@
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloud.hypervisor.kvm.resource.KvmHaBase.NfsStoragePool;
+import com.cloud.hypervisor.kvm.resource.KvmHaBase.PoolType;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KvmHaHeartbeatTest {
+
+    private File mountPoint;
+    private File mounts;
+    private KvmHaHeartbeat heartbeat;
+
+    @Before
+    public void setup() throws IOException {
+        mountPoint = Files.createTempDirectory("kvmha").toFile();
+        mounts = File.createTempFile("mounts", ".tmp");
+        Files.write(mounts.toPath(), Arrays.asList(
+                "proc /proc proc rw,nosuid,nodev,noexec,relatime 0 0",
+                "10.1.1.1:/export/primary " + mountPoint.getAbsolutePath() + " nfs4 rw,sync,relatime 0 0"), StandardCharsets.UTF_8);
+        heartbeat = new KvmHaHeartbeat(mounts);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(mountPoint);
+        mounts.delete();
+    }
+
+    @Test
+    public void testIsNfsMounted() {
+        assertTrue(heartbeat.isNfsMounted(mountPoint.getAbsolutePath()));
+        assertTrue(heartbeat.isNfsMounted(mountPoint.getAbsolutePath() + File.separator));
+        assertFalse(heartbeat.isNfsMounted("/proc"));
+        assertFalse(heartbeat.isNfsMounted("/mnt/elsewhere"));
+    }
+
+    @Test
+    public void testWriteUsesScriptFormat() throws IOException {
+        final String hbFile = mountPoint.getAbsolutePath() + "/KVMHA/hb-10.2.2.2";
+        final long before = System.currentTimeMillis() / 1000;
+        heartbeat.write(hbFile);
+
+        final String content = new String(Files.readAllBytes(new File(hbFile).toPath()), StandardCharsets.US_ASCII);
+        assertTrue(content.endsWith("\n"));
+        assertTrue(Long.parseLong(content.trim()) >= before);
+        assertTrue(heartbeat.isAlive(hbFile, 60));
+        assertEquals(1, heartbeat.getWriteCount());
+        assertEquals(0, heartbeat.getFailedWriteCount());
+    }
+
+    @Test
+    public void testStaleHeartbeatIsDead() throws IOException {
+        final File hbFile = new File(mountPoint, "hb-10.2.2.2");
+        Files.write(hbFile.toPath(), ((System.currentTimeMillis() / 1000 - 120) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        assertFalse(heartbeat.isAlive(hbFile.getAbsolutePath(), 60));
+        assertTrue(heartbeat.isAlive(hbFile.getAbsolutePath(), 180));
+    }
+
+    @Test
+    public void testUnreadableHeartbeatIsAlive() throws IOException {
+        final File hbFile = new File(mountPoint, "hb-10.2.2.2");
+        assertTrue(heartbeat.isAlive(hbFile.getAbsolutePath(), 60));
+
+        Files.write(hbFile.toPath(), "garbage".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(heartbeat.isAlive(hbFile.getAbsolutePath(), 60));
+    }
+
+    @Test
+    public void testFailedWriteIsCounted() {
+        final File blocker = new File(mountPoint, "KVMHA");
+        try {
+            assertTrue(blocker.createNewFile());
+            heartbeat.write(new File(blocker, "hb-10.2.2.2").getAbsolutePath());
+        } catch (final IOException e) {
+            // expected, the heartbeat folder is a file
+        }
+        assertEquals(1, heartbeat.getWriteCount());
+        assertEquals(1, heartbeat.getFailedWriteCount());
+    }
+
+    @Test
+    public void testCheckerReadsAllPools() throws Exception {
+        final File otherMountPoint = Files.createTempDirectory("kvmha").toFile();
+        try {
+            Files.write(mounts.toPath(), Arrays.asList(
+                    "10.1.1.1:/export/primary " + mountPoint.getAbsolutePath() + " nfs rw 0 0",
+                    "10.1.1.2:/export/primary " + otherMountPoint.getAbsolutePath() + " nfs rw 0 0"), StandardCharsets.UTF_8);
+            final NfsStoragePool pool = new NfsStoragePool("a", "10.1.1.1", "/export/primary", mountPoint.getAbsolutePath(), PoolType.PrimaryStorage);
+            final NfsStoragePool otherPool = new NfsStoragePool("b", "10.1.1.2", "/export/primary", otherMountPoint.getAbsolutePath(), PoolType.PrimaryStorage);
+            final String stale = (System.currentTimeMillis() / 1000 - 600) + "\n";
+
+            final KvmHaChecker checker = new KvmHaChecker(Arrays.asList(pool, otherPool), "10.2.2.2", heartbeat);
+            FileUtils.writeStringToFile(new File(mountPoint, "KVMHA/hb-10.2.2.2"), stale, StandardCharsets.US_ASCII);
+            FileUtils.writeStringToFile(new File(otherMountPoint, "KVMHA/hb-10.2.2.2"), stale, StandardCharsets.US_ASCII);
+            assertFalse(checker.call());
+
+            // one pool with a recent heartbeat is enough
+            heartbeat.write(new File(otherMountPoint, "KVMHA/hb-10.2.2.2").getAbsolutePath());
+            assertTrue(checker.call());
+        } finally {
+            FileUtils.deleteDirectory(otherMountPoint);
+        }
+    }
+
+    @Test
+    public void testStopEndsTheMonitorAndUnregistersItsStatistics() throws Exception {
+        final ObjectName name = new ObjectName("com.cloud:type=KvmHa, name=Heartbeat");
+        final KvmHaMonitor monitor = new KvmHaMonitor(null, "10.1.1.2", "/bin/true");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "WriteCount"));
+
+        final Thread thread = new Thread(monitor);
+        thread.start();
+        Thread.sleep(200);
+        monitor.stop();
+        thread.join(10000);
+
+        assertFalse(thread.isAlive());
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
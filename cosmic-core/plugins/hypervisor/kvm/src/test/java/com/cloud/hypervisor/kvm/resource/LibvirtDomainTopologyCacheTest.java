@@ -0,0 +1,139 @@
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.hypervisor.kvm.resource.LibvirtDomainTopologyCache.DomainTopology;
+import com.cloud.hypervisor.kvm.resource.LibvirtVmDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVmDef.InterfaceDef;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.DomainBlockStats;
+import org.libvirt.DomainInfo;
+import org.libvirt.DomainInterfaceStats;
+import org.libvirt.LibvirtException;
+import org.libvirt.NodeInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LibvirtDomainTopologyCacheTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(LibvirtDomainTopologyCacheTest.class);
+
+    private static final int VM_COUNT = 150;
+    private static final int ROUNDS = 10;
+
+    private static final String DOMAIN_XML = "<domain type='kvm' id='%d'>" +
+            "<name>%s</name>" +
+            "<devices>" +
+            "<disk type='file' device='disk'>" +
+            "<driver name='qemu' type='qcow2' cache='none'/>" +
+            "<source file='/mnt/4d2c1526-865d-4fc9-a1ac-dbd1801a22d0/8d3b4b4e-3a4e-4b8a-a0ab-5e1f1b9a3c11'/>" +
+            "<target dev='vda' bus='virtio'/>" +
+            "</disk>" +
+            "<interface type='bridge'>" +
+            "<mac address='06:c5:94:00:05:65'/>" +
+            "<source bridge='cloudbr1'/>" +
+            "<target dev='vnet%d'/>" +
+            "<model type='virtio'/>" +
+            "</interface>" +
+            "</devices>" +
+            "</domain>";
+
+    @Test
+    public void testEntryIsBoundToDomainId() {
+        final LibvirtDomainTopologyCache cache = new LibvirtDomainTopologyCache();
+        cache.put("i-2-3-VM", new DomainTopology(7, Collections.<InterfaceDef>emptyList(), Collections.<DiskDef>emptyList()));
+
+        assertNotNull(cache.get("i-2-3-VM", 7));
+        // the domain was restarted, so it got another id
+        assertNull(cache.get("i-2-3-VM", 8));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntryExpires() throws InterruptedException {
+        final LibvirtDomainTopologyCache cache = new LibvirtDomainTopologyCache(1);
+        cache.put("i-2-3-VM", new DomainTopology(7, Collections.<InterfaceDef>emptyList(), Collections.<DiskDef>emptyList()));
+        Thread.sleep(5);
+
+        assertNull(cache.get("i-2-3-VM", 7));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final LibvirtDomainTopologyCache cache = new LibvirtDomainTopologyCache();
+        cache.put("i-2-3-VM", new DomainTopology(7, Collections.<InterfaceDef>emptyList(), Collections.<DiskDef>emptyList()));
+        cache.invalidate("i-2-3-VM");
+
+        assertNull(cache.get("i-2-3-VM", 7));
+    }
+
+    /**
+     * Runs a number of stats rounds for a host full of VMs against a fake libvirt connection and reports how often the
+     * domain XML had to be fetched.
+     */
+    @Test
+    public void benchmarkStatsRounds() throws LibvirtException {
+        Benchmarks.assumeEnabled();
+        final AtomicInteger xmlFetches = new AtomicInteger();
+        final Connect conn = mock(Connect.class);
+        final NodeInfo nodeInfo = new NodeInfo();
+        nodeInfo.cpus = 32;
+        when(conn.nodeInfo()).thenReturn(nodeInfo);
+
+        final List<String> vmNames = new ArrayList<>();
+        for (int i = 0; i < VM_COUNT; i++) {
+            final String vmName = "i-2-" + i + "-VM";
+            vmNames.add(vmName);
+            final Domain domain = fakeDomain(i, vmName, xmlFetches);
+            when(conn.domainLookupByName(vmName)).thenReturn(domain);
+        }
+
+        final LibvirtComputingResource resource = new LibvirtComputingResource();
+        long elapsed = 0;
+        Map<String, VmStatsEntry> stats = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            stats = resource.getVmStats(conn, vmNames);
+            elapsed += System.nanoTime() - start;
+        }
+
+        s_logger.info(ROUNDS + " stats rounds of " + VM_COUNT + " VMs took " + elapsed / 1000000 + " ms, with " + xmlFetches.get() + " domain XML fetches");
+        assertEquals(VM_COUNT, stats.size());
+        // interfaces and disks are read once per domain, not once per round
+        assertEquals(2 * VM_COUNT, xmlFetches.get());
+        verify(conn, times(ROUNDS)).nodeInfo();
+    }
+
+    private Domain fakeDomain(final int id, final String vmName, final AtomicInteger xmlFetches) throws LibvirtException {
+        final Domain domain = mock(Domain.class);
+        final DomainInfo info = new DomainInfo();
+        info.nrVirtCpu = 2;
+        when(domain.getID()).thenReturn(id);
+        when(domain.getInfo()).thenReturn(info);
+        when(domain.getXMLDesc(anyInt())).thenAnswer(invocation -> {
+            xmlFetches.incrementAndGet();
+            return String.format(DOMAIN_XML, id, vmName, id);
+        });
+        when(domain.interfaceStats(anyString())).thenReturn(new DomainInterfaceStats());
+        when(domain.blockStats(anyString())).thenReturn(new DomainBlockStats());
+        return domain;
+    }
+}
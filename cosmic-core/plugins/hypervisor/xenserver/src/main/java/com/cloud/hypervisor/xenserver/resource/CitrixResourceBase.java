@@ -72,8 +72,7 @@ import com.cloud.storage.to.VolumeObjectTO;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -81,14 +80,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -130,11 +126,6 @@ import org.apache.commons.io.FileUtils;
 import org.apache.xmlrpc.XmlRpcException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * CitrixResourceBase encapsulates the calls to the XenServer Xapi process to perform the required functionalities for
@@ -153,6 +144,7 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     // static min values for guests on xenserver
     private static final long mem_128m = 134217728L;
     private static final Logger s_logger = LoggerFactory.getLogger(CitrixResourceBase.class);
+    private static final long RRD_UPDATES_TTL_MILLIS = 20000;
 
     static {
         s_powerStatesTable = new HashMap<>();
@@ -173,6 +165,8 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     protected String _cluster;
     // Guest and Host Performance Statistics
     protected String _consolidationFunction = "AVERAGE";
+    private final Object _rrdUpdatesLock = new Object();
+    private RrdUpdates _rrdUpdates;
     protected long _dcId;
     protected String _guestNetworkName;
     protected int _heartbeatInterval = 60;
@@ -199,6 +193,8 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     protected String _configDriveSRName = "ConfigDriveISOs";
     protected XenServerUtilitiesHelper xenServerUtilitiesHelper = new XenServerUtilitiesHelper();
     protected int _wait;
+    // wait for async tasks on the event stream of the pool instead of polling each of them
+    protected boolean _taskEvents = true;
     protected StorageSubsystemCommandHandler storageHandler;
     // Hypervisor specific params with generic value, may need to be overridden
     // for specific versions
@@ -482,12 +478,28 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
     public void waitForTask(final Connection c, final Task task, final long pollInterval, final long timeout)
             throws XenAPIException, XmlRpcException, TimeoutException {
-        final long beginTime = System.currentTimeMillis();
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Task " + task.getNameLabel(c) + " (" + task.getUuid(c) + ") sent to " + c.getSessionReference()
                     + " is pending completion with a " + timeout
                     + "ms timeout");
         }
+        final boolean completed;
+        if (_taskEvents && _host.getPool() != null) {
+            completed = XenServerTaskWatcher.getInstance(_host.getPool()).waitForTask(c, task, pollInterval, timeout);
+        } else {
+            completed = pollForTask(c, task, pollInterval, timeout);
+        }
+        if (!completed) {
+            final String msg = "Async " + timeout / 1000 + " seconds timeout for task " + task.toString();
+            s_logger.warn(msg);
+            task.cancel(c);
+            task.destroy(c);
+            throw new TimeoutException(msg);
+        }
+    }
+
+    private boolean pollForTask(final Connection c, final Task task, final long pollInterval, final long timeout) throws XenAPIException, XmlRpcException {
+        final long beginTime = System.currentTimeMillis();
         while (task.getStatus(c) == Types.TaskStatusType.PENDING) {
             try {
                 if (s_logger.isTraceEnabled()) {
@@ -498,13 +510,10 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             } catch (final InterruptedException e) {
             }
             if (System.currentTimeMillis() - beginTime > timeout) {
-                final String msg = "Async " + timeout / 1000 + " seconds timeout for task " + task.toString();
-                s_logger.warn(msg);
-                task.cancel(c);
-                task.destroy(c);
-                throw new TimeoutException(msg);
+                return false;
             }
         }
+        return true;
     }
 
     public void checkForSuccess(final Connection c, final Task task) throws XenAPIException, XmlRpcException {
@@ -861,6 +870,9 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
         _maxNics = NumbersUtil.parseInt((String) params.get("xenserver.nics.max"), 7);
 
+        value = (String) params.get("xenserver.task.events");
+        _taskEvents = value == null || Boolean.parseBoolean(value);
+
         if (_pod == null) {
             throw new ConfigurationException("Unable to get the pod");
         }
@@ -2065,32 +2077,14 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
                                        final long hostId) {
 
         final HostStatsEntry hostStats = new HostStatsEntry(hostId, 0, 0, 0, "host", 0, 0, 0, 0);
-        final Object[] rrdData = getRRDData(conn, 1); // call rrd method with 1
-        // for host
+        final RrdUpdates rrdUpdates = getRrdUpdates(conn);
 
-        if (rrdData == null) {
+        if (rrdUpdates == null) {
             return null;
         }
 
-        final Integer numRows = (Integer) rrdData[0];
-        final Integer numColumns = (Integer) rrdData[1];
-        final Node legend = (Node) rrdData[2];
-        final Node dataNode = (Node) rrdData[3];
-
-        final NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            final String columnMetadata = getXMLNodeValue(legendChildren.item(col));
-
-            if (columnMetadata == null) {
-                continue;
-            }
-
-            final String[] columnMetadataList = columnMetadata.split(":");
+        for (int col = 0; col < rrdUpdates.getColumnCount(); col++) {
+            final String[] columnMetadataList = rrdUpdates.getLegend(col).split(":");
 
             if (columnMetadataList.length != 4) {
                 continue;
@@ -2102,149 +2096,73 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             if (type.equalsIgnoreCase("host")) {
 
                 if (param.matches("pif_eth0_rx")) {
-                    hostStats.setNetworkReadKBs(getDataAverage(dataNode, col, numRows) / 1000);
+                    hostStats.setNetworkReadKBs(rrdUpdates.getAverage(col) / 1000);
                 } else if (param.matches("pif_eth0_tx")) {
-                    hostStats.setNetworkWriteKBs(getDataAverage(dataNode, col, numRows) / 1000);
+                    hostStats.setNetworkWriteKBs(rrdUpdates.getAverage(col) / 1000);
                 } else if (param.contains("memory_total_kib")) {
-                    hostStats.setTotalMemoryKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setTotalMemoryKBs(rrdUpdates.getAverage(col));
                 } else if (param.contains("memory_free_kib")) {
-                    hostStats.setFreeMemoryKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setFreeMemoryKBs(rrdUpdates.getAverage(col));
                 } else if (param.matches("cpu_avg")) {
-                    // hostStats.setNumCpus(hostStats.getNumCpus() + 1);
-                    hostStats.setCpuUtilization(hostStats.getCpuUtilization() + getDataAverage(dataNode, col, numRows));
+                    hostStats.setCpuUtilization(hostStats.getCpuUtilization() + rrdUpdates.getAverage(col));
                 }
-
-        /*
-         * if (param.contains("loadavg")) { hostStats.setAverageLoad((hostStats.getAverageLoad() +
-         * getDataAverage(dataNode, col, numRows))); }
-         */
             }
         }
 
-        // add the host cpu utilization
-    /*
-     * if (hostStats.getNumCpus() != 0) { hostStats.setCpuUtilization(hostStats.getCpuUtilization() /
-     * hostStats.getNumCpus()); s_logger.debug("Host cpu utilization " + hostStats.getCpuUtilization()); }
-     */
-
         return hostStats;
     }
 
-    protected Object[] getRRDData(final Connection conn, final int flag) {
-
-    /*
-     * Note: 1 => called from host, hence host stats 2 => called from vm, hence vm stats
+    /**
+     * Returns the host and VM columns of the rrd_updates export of this host. Host stats and VM stats are collected
+     * shortly after each other, so one download is shared between them for a short while.
+     *
+     * @return null when the stats cannot be fetched, e.g. when the host is down
      */
-        Document doc = null;
-
-        try {
-            doc = getStatsRawXML(conn, flag == 1 ? true : false);
-        } catch (final Exception e1) {
-            s_logger.warn("Error whilst collecting raw stats from plugin: ", e1);
-            return null;
-        }
-
-        if (doc == null) { // stats are null when the host plugin call fails
-            // (host down state)
-            return null;
-        }
-
-        final NodeList firstLevelChildren = doc.getChildNodes();
-        final NodeList secondLevelChildren = firstLevelChildren.item(0).getChildNodes();
-        final Node metaNode = secondLevelChildren.item(0);
-        final Node dataNode = secondLevelChildren.item(1);
-
-        Integer numRows = 0;
-        Integer numColumns = 0;
-        Node legend = null;
-        final NodeList metaNodeChildren = metaNode.getChildNodes();
-        for (int i = 0; i < metaNodeChildren.getLength(); i++) {
-            final Node n = metaNodeChildren.item(i);
-            if (n.getNodeName().equals("rows")) {
-                numRows = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("columns")) {
-                numColumns = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("legend")) {
-                legend = n;
+    protected RrdUpdates getRrdUpdates(final Connection conn) {
+        synchronized (_rrdUpdatesLock) {
+            if (_rrdUpdates != null && System.currentTimeMillis() - _rrdUpdates.getFetchedAt() < RRD_UPDATES_TTL_MILLIS) {
+                return _rrdUpdates;
             }
-        }
 
-        return new Object[]{numRows, numColumns, legend, dataNode};
-    }
-
-    protected String getXMLNodeValue(final Node n) {
-        return n.getChildNodes().item(0).getNodeValue();
-    }
-
-    protected double getDataAverage(final Node dataNode, final int col, final int numRows) {
-        double value = 0;
-        final double dummy = 0;
-        int numRowsUsed = 0;
-        for (int row = 0; row < numRows; row++) {
-            final Node data = dataNode.getChildNodes().item(numRows - 1 - row).getChildNodes().item(col + 1);
-            final Double currentDataAsDouble = Double.valueOf(getXMLNodeValue(data));
-            if (!currentDataAsDouble.equals(Double.NaN)) {
-                numRowsUsed += 1;
-                value += currentDataAsDouble;
-            }
-        }
-
-        if (numRowsUsed == 0) {
-            if (!Double.isInfinite(value) && !Double.isNaN(value)) {
-                return value;
-            } else {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows=0");
-                return dummy;
-            }
-        } else {
-            if (!Double.isInfinite(value / numRowsUsed) && !Double.isNaN(value / numRowsUsed)) {
-                return value / numRowsUsed;
-            } else {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows>0");
-                return dummy;
+            final String urlStr = getRrdUpdatesUrl(conn);
+            try {
+                _rrdUpdates = RrdUpdates.fetch(urlStr, CitrixResourceBase::isStatsColumn);
+                return _rrdUpdates;
+            } catch (final IOException | XMLStreamException e) {
+                s_logger.warn("Problems getting stats using " + urlStr, e);
+                _rrdUpdates = null;
+                return null;
             }
         }
     }
 
-    protected Document getStatsRawXML(final Connection conn, final boolean host) {
-        final Date currentDate = new Date();
+    protected String getRrdUpdatesUrl(final Connection conn) {
+        // host=true exports the columns of the VMs as well
         String urlStr = "http://" + _host.getIp() + "/rrd_updates?";
         urlStr += "session_id=" + conn.getSessionReference();
-        urlStr += "&host=" + (host ? "true" : "false");
+        urlStr += "&host=true";
         urlStr += "&cf=" + _consolidationFunction;
         urlStr += "&interval=" + _pollingIntervalInSeconds;
-        urlStr += "&start=" + (currentDate.getTime() / 1000 - 1000 - 100);
+        urlStr += "&start=" + (System.currentTimeMillis() / 1000 - 1000 - 100);
+        return urlStr;
+    }
 
-        final URL url;
-        BufferedReader in = null;
-        try {
-            url = new URL(urlStr);
-            url.openConnection();
-            final URLConnection uc = url.openConnection();
-            in = new BufferedReader(new InputStreamReader(uc.getInputStream()));
-            final InputSource statsSource = new InputSource(in);
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(statsSource);
-        } catch (final MalformedURLException e) {
-            s_logger.warn("Malformed URL?  come on...." + urlStr);
-            return null;
-        } catch (final IOException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } catch (final SAXException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } catch (final ParserConfigurationException e) {
-            s_logger.warn("Problems getting stats using " + urlStr, e);
-            return null;
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (final IOException e) {
-                    s_logger.warn("Unable to close the buffer ", e);
-                }
-            }
+    /**
+     * @param legend the legend entry of an rrd_updates column, e.g. "AVERAGE:vm:uuid:cpu0"
+     * @return whether getHostStats or getVmStats use the column
+     */
+    static boolean isStatsColumn(final String legend) {
+        final String[] columnMetadataList = legend.split(":");
+        if (columnMetadataList.length != 4) {
+            return false;
         }
+        final String type = columnMetadataList[1];
+        final String param = columnMetadataList[3];
+        if (type.equalsIgnoreCase("host")) {
+            return param.equals("pif_eth0_rx") || param.equals("pif_eth0_tx") || param.contains("memory_total_kib")
+                    || param.contains("memory_free_kib") || param.equals("cpu_avg");
+        }
+        return type.equals("vm") && (param.contains("cpu") || param.matches("vif_\\d*_[rt]x") || param.matches("vbd_.*_(read|write)"));
     }
 
     protected HashMap<String, HostVmStateReportEntry> getHostVmStateReport(final Connection conn) {
@@ -3175,6 +3093,24 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         return _vrResource;
     }
 
+    /**
+     * Makes the next configuration of the router push everything, for when the router was configured from another host.
+     */
+    public void resetAppliedRouterConfig(final String vmName) {
+        if (_vrResource != null) {
+            _vrResource.resetAppliedConfig(vmName);
+        }
+    }
+
+    /**
+     * Forgets the command pipeline and the applied config of a router that stopped on this host.
+     */
+    public void removeRouter(final String vmName) {
+        if (_vrResource != null) {
+            _vrResource.removeRouter(vmName);
+        }
+    }
+
     public String getVMInstanceName() {
         return _instance;
     }
@@ -3297,32 +3233,14 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             vmResponseMap.put(vmUUID, new VmStatsEntry(0, 0, 0, 0, "vm"));
         }
 
-        final Object[] rrdData = getRRDData(conn, 2); // call rrddata with 2 for
-        // vm
+        final RrdUpdates rrdUpdates = getRrdUpdates(conn);
 
-        if (rrdData == null) {
+        if (rrdUpdates == null) {
             return null;
         }
 
-        final Integer numRows = (Integer) rrdData[0];
-        final Integer numColumns = (Integer) rrdData[1];
-        final Node legend = (Node) rrdData[2];
-        final Node dataNode = (Node) rrdData[3];
-
-        final NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            final String columnMetadata = getXMLNodeValue(legendChildren.item(col));
-
-            if (columnMetadata == null) {
-                continue;
-            }
-
-            final String[] columnMetadataList = columnMetadata.split(":");
+        for (int col = 0; col < rrdUpdates.getColumnCount(); col++) {
+            final String[] columnMetadataList = rrdUpdates.getLegend(col).split(":");
 
             if (columnMetadataList.length != 4) {
                 continue;
@@ -3339,18 +3257,18 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
                 if (param.contains("cpu")) {
                     vmStatsAnswer.setNumCPUs(vmStatsAnswer.getNumCPUs() + 1);
-                    vmStatsAnswer.setCPUUtilization(vmStatsAnswer.getCPUUtilization() + getDataAverage(dataNode, col, numRows));
+                    vmStatsAnswer.setCPUUtilization(vmStatsAnswer.getCPUUtilization() + rrdUpdates.getAverage(col));
                 } else if (param.matches("vif_\\d*_rx")) {
                     vmStatsAnswer.setNetworkReadKBs(
-                            vmStatsAnswer.getNetworkReadKBs() + getDataAverage(dataNode, col, numRows) / 1000);
+                            vmStatsAnswer.getNetworkReadKBs() + rrdUpdates.getAverage(col) / 1000);
                 } else if (param.matches("vif_\\d*_tx")) {
                     vmStatsAnswer.setNetworkWriteKBs(
-                            vmStatsAnswer.getNetworkWriteKBs() + getDataAverage(dataNode, col, numRows) / 1000);
+                            vmStatsAnswer.getNetworkWriteKBs() + rrdUpdates.getAverage(col) / 1000);
                 } else if (param.matches("vbd_.*_read")) {
-                    vmStatsAnswer.setDiskReadKBs(vmStatsAnswer.getDiskReadKBs() + getDataAverage(dataNode, col, numRows) / 1000);
+                    vmStatsAnswer.setDiskReadKBs(vmStatsAnswer.getDiskReadKBs() + rrdUpdates.getAverage(col) / 1000);
                 } else if (param.matches("vbd_.*_write")) {
                     vmStatsAnswer.setDiskWriteKBs(
-                            vmStatsAnswer.getDiskWriteKBs() + getDataAverage(dataNode, col, numRows) / 1000);
+                            vmStatsAnswer.getDiskWriteKBs() + rrdUpdates.getAverage(col) / 1000);
                 }
             }
         }
@@ -5139,6 +5057,9 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     @Override
     public boolean stop() {
         disconnected();
+        if (_vrResource != null) {
+            _vrResource.stop();
+        }
         return true;
     }
 
@@ -0,0 +1,185 @@
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The columns of an rrd_updates export of a XenServer host that the stats collection cares about.
+ * <p>
+ * The export is parsed as a stream, only the values of the selected columns are kept, in primitive arrays. An export
+ * of a host full of VMs runs into tens of megabytes as a DOM, most of it columns that are never looked at.
+ * <pre>
+ * &lt;xport&gt;
+ *   &lt;meta&gt;...&lt;rows&gt;2&lt;/rows&gt;&lt;columns&gt;1&lt;/columns&gt;&lt;legend&gt;&lt;entry&gt;AVERAGE:host:uuid:cpu_avg&lt;/entry&gt;&lt;/legend&gt;&lt;/meta&gt;
+ *   &lt;data&gt;&lt;row&gt;&lt;t&gt;1454000060&lt;/t&gt;&lt;v&gt;0.01&lt;/v&gt;&lt;/row&gt;&lt;row&gt;...&lt;/row&gt;&lt;/data&gt;
+ * &lt;/xport&gt;
+ * </pre>
+ */
+public class RrdUpdates {
+    private static final Logger s_logger = LoggerFactory.getLogger(RrdUpdates.class);
+
+    private static final XMLInputFactory s_xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        s_xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        s_xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final long fetchedAt;
+    private final List<String> legend;
+    private final double[][] values;
+    private final int rows;
+
+    private RrdUpdates(final List<String> legend, final double[][] values, final int rows) {
+        this.fetchedAt = System.currentTimeMillis();
+        this.legend = legend;
+        this.values = values;
+        this.rows = rows;
+    }
+
+    /**
+     * Downloads and parses an rrd_updates export.
+     *
+     * @param columnFilter decides on the legend entry of a column, e.g. "AVERAGE:vm:uuid:cpu0", whether it is kept
+     */
+    public static RrdUpdates fetch(final String url, final Predicate<String> columnFilter) throws IOException, XMLStreamException {
+        final URLConnection uc = new URL(url).openConnection();
+        try (InputStream in = new BufferedInputStream(uc.getInputStream())) {
+            return parse(in, columnFilter);
+        }
+    }
+
+    public static RrdUpdates parse(final InputStream in, final Predicate<String> columnFilter) throws XMLStreamException {
+        final XMLStreamReader reader = s_xmlInputFactory.createXMLStreamReader(in);
+        try {
+            final List<String> legend = new ArrayList<>();
+            // position in the export -> position in the kept columns, or -1
+            int[] selected = new int[0];
+            double[][] values = new double[0][];
+            int capacity = 16;
+            int row = -1;
+            int column = -1;
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case "rows":
+                        capacity = Math.max(1, parseInt(reader.getElementText(), capacity));
+                        break;
+                    case "legend":
+                        final List<Integer> mapping = new ArrayList<>();
+                        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                            final String entry = reader.getElementText().trim();
+                            if (columnFilter.test(entry)) {
+                                mapping.add(legend.size());
+                                legend.add(entry);
+                            } else {
+                                mapping.add(-1);
+                            }
+                        }
+                        selected = new int[mapping.size()];
+                        for (int i = 0; i < selected.length; i++) {
+                            selected[i] = mapping.get(i);
+                        }
+                        values = new double[legend.size()][capacity];
+                        break;
+                    case "row":
+                        row++;
+                        column = -1;
+                        if (row == capacity) {
+                            capacity *= 2;
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = Arrays.copyOf(values[i], capacity);
+                            }
+                        }
+                        break;
+                    case "v":
+                        column++;
+                        if (column < selected.length && selected[column] >= 0) {
+                            values[selected[column]][row] = parseDouble(reader.getElementText());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return new RrdUpdates(legend, values, row + 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public int getColumnCount() {
+        return legend.size();
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the legend entry of a kept column, e.g. "AVERAGE:host:uuid:memory_free_kib"
+     */
+    public String getLegend(final int column) {
+        return legend.get(column);
+    }
+
+    /**
+     * @return the average of the column over all rows, skipping the rows without a value. Returns 0 when the average
+     * is not a finite number.
+     */
+    public double getAverage(final int column) {
+        double value = 0;
+        int numRowsUsed = 0;
+        final double[] columnValues = values[column];
+        for (int row = 0; row < rows; row++) {
+            if (!Double.isNaN(columnValues[row])) {
+                numRowsUsed++;
+                value += columnValues[row];
+            }
+        }
+
+        final double average = numRowsUsed == 0 ? value : value / numRowsUsed;
+        if (Double.isInfinite(average) || Double.isNaN(average)) {
+            s_logger.warn("Found an invalid value (infinity/NaN) in column " + legend.get(column) + ", rows=" + numRowsUsed);
+            return 0;
+        }
+        return average;
+    }
+
+    private static int parseInt(final String text, final int defaultValue) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double parseDouble(final String text) {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (final NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.cloud.hypervisor.xenserver.resource;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.xensource.xenapi.Connection;
+import com.xensource.xenapi.Event;
+import com.xensource.xenapi.EventBatch;
+import com.xensource.xenapi.Task;
+import com.xensource.xenapi.Types;
+import com.xensource.xenapi.Types.XenAPIException;
+import org.apache.xmlrpc.XmlRpcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for XenAPI tasks to finish on the event stream of the pool, instead of polling the status of every task.
+ * <p>
+ * There is one watcher per pool. While anybody is waiting, a single thread follows the task events of the pool with
+ * event.from and completes the waiters of the tasks that are no longer pending, so any number of concurrent async
+ * operations cost one long-poll call instead of a status call per task per second. The thread stops when the last
+ * waiter is gone.
+ * <p>
+ * A waiter checks the status of its task itself once after subscribing and then every {@link #DEFAULT_RECHECK_MILLIS},
+ * so a missed event slows a waiter down, but never hangs it. While the event stream is failing, and on hosts that do
+ * not know event.from, waiters fall back to checking at their poll interval.
+ */
+public class XenServerTaskWatcher {
+    private static final Logger s_logger = LoggerFactory.getLogger(XenServerTaskWatcher.class);
+
+    public static final long DEFAULT_RECHECK_MILLIS = 30 * 1000L;
+
+    private static final Set<String> TASK_CLASSES = Collections.singleton("task");
+    private static final double EVENT_TIMEOUT_SECONDS = 30;
+    private static final long SLEEP_ON_ERROR_MILLIS = 1000;
+
+    private static final Map<String, XenServerTaskWatcher> s_watchers = new ConcurrentHashMap<>();
+
+    private final String poolUuid;
+    private final long recheckMillis;
+    // task reference -> completed when the task is no longer pending, or when it may be and has to be checked
+    private final Map<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+    private final NamedThreadFactory threadFactory;
+
+    private volatile Connection connection;
+    private volatile boolean streaming;
+    private volatile boolean failing;
+    private volatile boolean unsupported;
+    private boolean running;
+    private String token = "";
+
+    XenServerTaskWatcher(final String poolUuid, final long recheckMillis) {
+        this.poolUuid = poolUuid;
+        this.recheckMillis = recheckMillis;
+        this.threadFactory = new NamedThreadFactory("XenServerTaskWatcher-" + poolUuid);
+    }
+
+    public static XenServerTaskWatcher getInstance(final String poolUuid) {
+        return s_watchers.computeIfAbsent(poolUuid, uuid -> new XenServerTaskWatcher(uuid, DEFAULT_RECHECK_MILLIS));
+    }
+
+    /**
+     * Blocks until the task is no longer pending or the timeout expires. Interrupts do not end the wait, like they
+     * did not when polling; the interrupt status is restored on return.
+     *
+     * @param pollInterval the interval to check the status at while the event stream is not available
+     * @return true when the task finished, false when it is still pending after the timeout
+     */
+    public boolean waitForTask(final Connection conn, final Task task, final long pollInterval, final long timeout) throws XenAPIException, XmlRpcException {
+        final String ref = task.toWireString();
+        final long deadline = System.currentTimeMillis() + timeout;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final CompletableFuture<Void> done = new CompletableFuture<>();
+                waiters.put(ref, done);
+                startWatching(conn);
+                try {
+                    // the task may have finished before the watcher was listening
+                    if (task.getStatus(conn) != Types.TaskStatusType.PENDING) {
+                        return true;
+                    }
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    try {
+                        done.get(Math.min(remaining, failing || unsupported ? pollInterval : recheckMillis), TimeUnit.MILLISECONDS);
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    } catch (final TimeoutException | ExecutionException e) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("No completion event for task " + ref + " yet, checking its status");
+                        }
+                    }
+                } finally {
+                    waiters.remove(ref, done);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getWaiterCount() {
+        return waiters.size();
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return whether the last call for events succeeded
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    private synchronized void startWatching(final Connection conn) {
+        connection = conn;
+        if (!running && !unsupported) {
+            running = true;
+            threadFactory.newThread(this::watch).start();
+        }
+    }
+
+    private synchronized boolean keepWatching() {
+        if (waiters.isEmpty()) {
+            running = false;
+        }
+        return running;
+    }
+
+    private void watch() {
+        s_logger.debug("Watching the task events of pool " + poolUuid);
+        while (keepWatching()) {
+            final EventBatch batch;
+            try {
+                batch = Event.from(connection, TASK_CLASSES, token, EVENT_TIMEOUT_SECONDS);
+            } catch (final Types.EventsLost e) {
+                s_logger.debug("Lost task events of pool " + poolUuid + ", starting over");
+                token = "";
+                completeAll();
+                continue;
+            } catch (final Types.MessageMethodUnknown e) {
+                s_logger.info("Pool " + poolUuid + " does not support event.from, polling the status of tasks instead");
+                stopWatching();
+                break;
+            } catch (final Exception e) {
+                streaming = false;
+                s_logger.warn("Unable to get the task events of pool " + poolUuid + ": " + e.toString());
+                // the connection may have been replaced by a new session, which does not know the token
+                token = "";
+                if (!failing) {
+                    // wake up the waiters so they go on at their poll interval
+                    failing = true;
+                    completeAll();
+                }
+                sleepOnError();
+                continue;
+            }
+
+            streaming = true;
+            failing = false;
+            token = batch.token;
+            for (final Event.Record event : batch.events) {
+                final CompletableFuture<Void> done = waiters.get(event.ref);
+                if (done == null) {
+                    continue;
+                }
+                if (event.snapshot instanceof Task.Record && ((Task.Record) event.snapshot).status == Types.TaskStatusType.PENDING) {
+                    continue;
+                }
+                // finished, deleted, or an event without a snapshot: the waiter checks the status itself
+                done.complete(null);
+            }
+        }
+        streaming = false;
+        s_logger.debug("Stopped watching the task events of pool " + poolUuid);
+    }
+
+    private synchronized void stopWatching() {
+        unsupported = true;
+        streaming = false;
+        running = false;
+        completeAll();
+    }
+
+    private void completeAll() {
+        for (final CompletableFuture<Void> done : waiters.values()) {
+            done.complete(null);
+        }
+    }
+
+    private void sleepOnError() {
+        try {
+            Thread.sleep(SLEEP_ON_ERROR_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -27,6 +27,7 @@ public final class CitrixMigrateCommandWrapper extends CommandWrapper<MigrateCom
         final Connection conn = citrixResourceBase.getConnection();
         final String vmName = command.getVmName();
         final String dstHostIpAddr = command.getDestinationIp();
+        citrixResourceBase.resetAppliedRouterConfig(vmName);
 
         try {
             final Set<VM> vms = VM.getByNameLabel(conn, vmName);
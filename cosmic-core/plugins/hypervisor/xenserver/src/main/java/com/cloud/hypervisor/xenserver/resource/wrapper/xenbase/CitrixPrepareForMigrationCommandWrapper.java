@@ -37,6 +37,7 @@ public final class CitrixPrepareForMigrationCommandWrapper extends CommandWrappe
         }
 
         final NicTO[] nics = vm.getNics();
+        citrixResourceBase.resetAppliedRouterConfig(vm.getName());
         try {
             citrixResourceBase.prepareISO(conn, vm.getName(), vmDataList, configDriveLabel);
 
@@ -57,6 +57,7 @@ public final class CitrixStopCommandWrapper extends CommandWrapper<StopCommand,
             }
 
             if (vms.size() == 0) {
+                citrixResourceBase.removeRouter(vmName);
                 return new StopAnswer(command, "VM does not exist", true);
             }
             for (final VM vm : vms) {
@@ -138,6 +139,7 @@ public final class CitrixStopCommandWrapper extends CommandWrapper<StopCommand,
                                     // network might be destroyed by other host
                                 }
                             }
+                            citrixResourceBase.removeRouter(vmName);
                             return new StopAnswer(command, "Stop VM " + vmName + " Succeed", platformstring, true);
                         }
                     } catch (final Exception e) {
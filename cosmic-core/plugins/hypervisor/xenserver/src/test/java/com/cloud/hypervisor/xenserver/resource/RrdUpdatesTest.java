@@ -0,0 +1,109 @@
+package com.cloud.hypervisor.xenserver.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.VmStatsEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import com.xensource.xenapi.Connection;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class RrdUpdatesTest {
+
+    private static final String VM1 = "1b2c3d4e-5f60-4a7b-8c9d-0e1f2a3b4c5d";
+    private static final String VM2 = "6e7f8091-a2b3-4c4d-9e5f-60718293a4b5";
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private byte[] payload;
+
+    @Before
+    public void setup() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/rrd_updates.xml")) {
+            payload = IOUtils.toByteArray(in);
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/rrd_updates", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testOnlySelectedColumnsAreKept() throws Exception {
+        final RrdUpdates rrdUpdates = RrdUpdates.fetch(url(), CitrixResourceBase::isStatsColumn);
+
+        assertEquals(3, rrdUpdates.getRowCount());
+        // 6 of vm 1, 1 of vm 2 and 5 of the host out of 18
+        assertEquals(12, rrdUpdates.getColumnCount());
+        assertEquals("AVERAGE:vm:" + VM1 + ":cpu0", rrdUpdates.getLegend(0));
+        // rows without a value are skipped
+        assertEquals(0.2, rrdUpdates.getAverage(0), 0.0001);
+    }
+
+    @Test
+    public void testParseAllColumns() throws Exception {
+        final RrdUpdates rrdUpdates = RrdUpdates.parse(getClass().getResourceAsStream("/rrd_updates.xml"), legend -> true);
+
+        assertEquals(18, rrdUpdates.getColumnCount());
+        assertEquals(1073741824, rrdUpdates.getAverage(2), 0.0001);
+    }
+
+    @Test
+    public void testHostAndVmStatsShareOneFetch() {
+        final CitrixResourceBase resource = new XenServer56Resource() {
+            @Override
+            protected String getRrdUpdatesUrl(final Connection conn) {
+                return url();
+            }
+        };
+        final Connection conn = Mockito.mock(Connection.class);
+
+        final HostStatsEntry hostStats = resource.getHostStats(conn, null, "guid", 1);
+        final HashMap<String, VmStatsEntry> vmStats = resource.getVmStats(conn, null, Arrays.asList(VM1, VM2), "guid");
+
+        assertEquals(1, requests.get());
+        assertNotNull(hostStats);
+        assertEquals(0.3, hostStats.getCpuUtilization(), 0.0001);
+        assertEquals(16777216, hostStats.getTotalMemoryKBs(), 0.0001);
+        assertEquals(8388608, hostStats.getFreeMemoryKBs(), 0.0001);
+        assertEquals(20, hostStats.getNetworkReadKBs(), 0.0001);
+        assertEquals(5, hostStats.getNetworkWriteKBs(), 0.0001);
+
+        final VmStatsEntry vm1 = vmStats.get(VM1);
+        assertEquals(30, vm1.getCPUUtilization(), 0.0001);
+        assertEquals(2, vm1.getNumCPUs());
+        assertEquals(4, vm1.getNetworkReadKBs(), 0.0001);
+        assertEquals(1, vm1.getNetworkWriteKBs(), 0.0001);
+        assertEquals(3, vm1.getDiskReadKBs(), 0.0001);
+        assertEquals(6, vm1.getDiskWriteKBs(), 0.0001);
+        assertEquals(80, vmStats.get(VM2).getCPUUtilization(), 0.0001);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/rrd_updates?host=true";
+    }
+}
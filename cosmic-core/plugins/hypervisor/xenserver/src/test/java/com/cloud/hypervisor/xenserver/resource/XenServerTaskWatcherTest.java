@@ -0,0 +1,267 @@
+package com.cloud.hypervisor.xenserver.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xensource.xenapi.Connection;
+import com.xensource.xenapi.Task;
+import com.xensource.xenapi.Types;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class XenServerTaskWatcherTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(XenServerTaskWatcherTest.class);
+
+    private static final int TASK_COUNT = 20;
+
+    private XapiStandIn xapi;
+    private Connection conn;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws IOException {
+        xapi = new XapiStandIn();
+        conn = new Connection(new URL("http://127.0.0.1:" + xapi.getPort() + "/"), "OpaqueRef:session", 60, 5);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        xapi.stop();
+    }
+
+    /**
+     * Waits for a number of concurrent tasks and compares the status calls made with what polling every second would
+     * have cost.
+     */
+    @Test
+    public void testConcurrentWaitersShareOneEventStream() throws Exception {
+        final XenServerTaskWatcher watcher = new XenServerTaskWatcher("pool", 10000);
+        final List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            final Task task = Types.toTask(xapi.addTask());
+            results.add(executor.submit(() -> watcher.waitForTask(conn, task, 1000, 60000)));
+        }
+
+        final long start = System.currentTimeMillis();
+        Thread.sleep(2500);
+        xapi.finishAll();
+        for (final Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        s_logger.info(TASK_COUNT + " tasks finishing after " + elapsed + " ms took " + xapi.getCalls("task.get_status") + " status calls and " + xapi.getCalls("event.from")
+                + " event calls, polling every second would have taken about " + TASK_COUNT * elapsed / 1000 + " status calls");
+        // one check when subscribing and one when the completion event arrives
+        assertTrue(xapi.getCalls("task.get_status") <= 2 * TASK_COUNT);
+        assertTrue(elapsed < 5000);
+        assertEquals(0, watcher.getWaiterCount());
+    }
+
+    @Test
+    public void testTaskFinishedBeforeWaiting() throws Exception {
+        final Task task = Types.toTask(xapi.addTask());
+        xapi.finishAll();
+
+        assertTrue(new XenServerTaskWatcher("pool", 10000).waitForTask(conn, task, 1000, 60000));
+        assertEquals(1, xapi.getCalls("task.get_status"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final Task task = Types.toTask(xapi.addTask());
+
+        final long start = System.currentTimeMillis();
+        assertFalse(new XenServerTaskWatcher("pool", 10000).waitForTask(conn, task, 1000, 300));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testPollsWithoutEventFrom() throws Exception {
+        xapi.eventFromUnknown = true;
+        final XenServerTaskWatcher watcher = new XenServerTaskWatcher("pool", 10000);
+        final Task task = Types.toTask(xapi.addTask());
+
+        final Future<Boolean> result = executor.submit(() -> watcher.waitForTask(conn, task, 50, 60000));
+        Thread.sleep(500);
+        xapi.finishAll();
+
+        assertTrue(result.get());
+        assertFalse(watcher.isStreaming());
+        assertFalse(watcher.isRunning());
+        assertTrue(xapi.getCalls("task.get_status") > 2);
+    }
+
+    /**
+     * Answers the few XML-RPC calls the watcher makes like XAPI does: task.get_status, and event.from on the task class,
+     * which blocks until a task changes.
+     */
+    private static class XapiStandIn {
+        private static final Pattern METHOD = Pattern.compile("<methodName>([^<]*)</methodName>");
+        private static final Pattern STRING_VALUE = Pattern.compile("<value>(?:<string>)?([^<]*)(?:</string>)?</value>");
+
+        private final HttpServer server;
+        // task reference -> status and version of the last change
+        private final Map<String, String[]> tasks = new LinkedHashMap<>();
+        private final Map<String, AtomicInteger> calls = new LinkedHashMap<>();
+        private int version;
+        volatile boolean eventFromUnknown;
+
+        XapiStandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        int getPort() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        synchronized String addTask() {
+            final String ref = "OpaqueRef:task-" + tasks.size();
+            tasks.put(ref, new String[]{"pending", Integer.toString(++version)});
+            notifyAll();
+            return ref;
+        }
+
+        synchronized void finishAll() {
+            for (final String[] task : tasks.values()) {
+                task[0] = "success";
+                task[1] = Integer.toString(++version);
+            }
+            notifyAll();
+        }
+
+        synchronized int getCalls(final String method) {
+            final AtomicInteger count = calls.get(method);
+            return count == null ? 0 : count.get();
+        }
+
+        private void handle(final HttpExchange exchange) throws IOException {
+            final String request = read(exchange.getRequestBody());
+            final Matcher method = METHOD.matcher(request);
+            method.find();
+            final List<String> params = new ArrayList<>();
+            final Matcher value = STRING_VALUE.matcher(request);
+            while (value.find()) {
+                params.add(value.group(1));
+            }
+
+            final String response;
+            synchronized (this) {
+                calls.computeIfAbsent(method.group(1), m -> new AtomicInteger()).incrementAndGet();
+            }
+            switch (method.group(1)) {
+                case "task.get_status":
+                    response = success("<value>" + getStatus(params.get(1)) + "</value>");
+                    break;
+                case "event.from":
+                    response = eventFromUnknown ? failure("MESSAGE_METHOD_UNKNOWN", "event.from") : success(eventFrom(params.get(2)));
+                    break;
+                default:
+                    response = failure("MESSAGE_METHOD_UNKNOWN", method.group(1));
+                    break;
+            }
+
+            final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        private synchronized String getStatus(final String ref) {
+            return tasks.get(ref)[0];
+        }
+
+        private synchronized String eventFrom(final String token) {
+            final int since = token.isEmpty() ? 0 : Integer.parseInt(token);
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (version <= since && System.currentTimeMillis() < deadline) {
+                try {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+
+            final StringBuilder events = new StringBuilder();
+            for (final Map.Entry<String, String[]> task : tasks.entrySet()) {
+                if (Integer.parseInt(task.getValue()[1]) > since) {
+                    events.append("<value><struct>")
+                          .append(member("id", "<value>" + task.getValue()[1] + "</value>"))
+                          .append(member("class", "<value>task</value>"))
+                          .append(member("operation", "<value>mod</value>"))
+                          .append(member("ref", "<value>" + task.getKey() + "</value>"))
+                          .append(member("snapshot", "<value><struct>" + member("status", "<value>" + task.getValue()[0] + "</value>") + "</struct></value>"))
+                          .append("</struct></value>");
+                }
+            }
+            return "<value><struct>" + member("events", "<value><array><data>" + events + "</data></array></value>")
+                    + member("valid_ref_counts", "<value><struct></struct></value>")
+                    + member("token", "<value>" + version + "</value>") + "</struct></value>";
+        }
+
+        private static String success(final String value) {
+            return response(member("Status", "<value>Success</value>") + member("Value", value));
+        }
+
+        private static String failure(final String... errorDescription) {
+            final StringBuilder values = new StringBuilder();
+            for (final String error : errorDescription) {
+                values.append("<value>").append(error).append("</value>");
+            }
+            return response(member("Status", "<value>Failure</value>") + member("ErrorDescription", "<value><array><data>" + values + "</data></array></value>"));
+        }
+
+        private static String response(final String members) {
+            return "<?xml version=\"1.0\"?><methodResponse><params><param><value><struct>" + members + "</struct></value></param></params></methodResponse>";
+        }
+
+        private static String member(final String name, final String value) {
+            return "<member><name>" + name + "</name>" + value + "</member>";
+        }
+
+        private static String read(final InputStream in) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -19,4 +19,6 @@ public class NiciraConstants {
     public static final String WILDCARD_QUERY_PARAMETER = "*";
     public static final String UUID_QUERY_PARAMETER = "uuid";
     public static final String FIELDS_QUERY_PARAMETER = "fields";
+    public static final String PAGE_LENGTH_QUERY_PARAMETER = "_page_length";
+    public static final String PAGE_CURSOR_QUERY_PARAMETER = "_page_cursor";
 }
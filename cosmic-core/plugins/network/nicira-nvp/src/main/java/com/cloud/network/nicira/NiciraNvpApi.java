@@ -1,23 +1,38 @@
 package com.cloud.network.nicira;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.rest.CloudstackRESTException;
 import com.cloud.utils.rest.RESTServiceConnector;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.google.common.base.Optional;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.reflect.TypeToken;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 public class NiciraNvpApi {
-
     protected final static Map<Class, String> prefixMap;
     protected final static Map<Class, Type> listTypeMap;
     protected final static Map<String, String> defaultListParams;
@@ -31,7 +46,17 @@ public class NiciraNvpApi {
     private static final String WILDCARD_QUERY_PARAMETER = NiciraConstants.WILDCARD_QUERY_PARAMETER;
     private static final String UUID_QUERY_PARAMETER = NiciraConstants.UUID_QUERY_PARAMETER;
     private static final String FIELDS_QUERY_PARAMETER = NiciraConstants.FIELDS_QUERY_PARAMETER;
+    private static final String PAGE_LENGTH_QUERY_PARAMETER = NiciraConstants.PAGE_LENGTH_QUERY_PARAMETER;
+    private static final String PAGE_CURSOR_QUERY_PARAMETER = NiciraConstants.PAGE_CURSOR_QUERY_PARAMETER;
     private static final int DEFAULT_MAX_RETRIES = 5;
+    private static final int DEFAULT_READ_CACHE_TTL = 5;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    private static final int DEFAULT_PAGE_LENGTH = 1000;
+    private static final Set<Class> cachedTypes = new HashSet<>(Arrays.asList(LogicalSwitch.class, LogicalRouter.class));
+    private static final Type LSWITCH_PORT_LIST_TYPE = new TypeToken<NiciraNvpList<LogicalSwitchPort>>() {
+    }.getType();
+    private static final Type LROUTER_PORT_LIST_TYPE = new TypeToken<NiciraNvpList<LogicalRouterPort>>() {
+    }.getType();
 
     static {
         prefixMap = new HashMap<>();
@@ -55,11 +80,21 @@ public class NiciraNvpApi {
     }
 
     private final RESTServiceConnector restConnector;
+    private final NiciraNvpReadCache readCache;
+    // copies the cached reads, so a caller changing what it got does not change what the next caller gets
+    private final Gson cacheCopier;
+    private final ThreadPoolExecutor executor;
+    private final int pageLength;
 
     private NiciraNvpApi(final Builder builder) {
         final Map<Class<?>, JsonDeserializer<?>> classToDeserializerMap = new HashMap<>();
         classToDeserializerMap.put(NatRule.class, new NatRuleAdapter());
         classToDeserializerMap.put(RoutingConfig.class, new RoutingConfigAdapter());
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        for (final Map.Entry<Class<?>, JsonDeserializer<?>> entry : classToDeserializerMap.entrySet()) {
+            gsonBuilder.registerTypeAdapter(entry.getKey(), entry.getValue());
+        }
+        cacheCopier = gsonBuilder.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
 
         final NiciraRestClient niciraRestClient = NiciraRestClient.create()
                                                                   .client(builder.httpClient)
@@ -74,12 +109,25 @@ public class NiciraNvpApi {
                                             .classToDeserializerMap(classToDeserializerMap)
                                             .client(niciraRestClient)
                                             .build();
+        readCache = new NiciraNvpReadCache(builder.readCacheTtl);
+        executor = new ThreadPoolExecutor(builder.maxConcurrentRequests, builder.maxConcurrentRequests, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("NiciraNvpApi"));
+        // the api of a controller is idle most of the time
+        executor.allowCoreThreadTimeOut(true);
+        pageLength = builder.pageLength;
     }
 
     public static Builder create() {
         return new Builder();
     }
 
+    /**
+     * Stops the threads of the concurrent calls, the calls in flight are interrupted
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
     /**
      * POST {@link SecurityProfile}
      *
@@ -116,6 +164,8 @@ public class NiciraNvpApi {
             createdEntity = restConnector.executeCreateObject(entity, uri, Collections.<String, String>emptyMap());
         } catch (final CloudstackRESTException e) {
             throw new NiciraNvpApiException(e);
+        } finally {
+            readCache.invalidate(uri);
         }
 
         return createdEntity;
@@ -146,18 +196,92 @@ public class NiciraNvpApi {
             params.put(UUID_QUERY_PARAMETER, uuid.get());
         }
 
-        final NiciraNvpList<T> entities;
+        final Type listType = listTypeMap.get(clazz);
+        final NiciraNvpList<T> entities = cachedTypes.contains(clazz) ? retrieveCachedList(listType, uri, params) : retrieveList(listType, uri, params);
+        if (entities == null) {
+            throw new NiciraNvpApiException("Unexpected response from API");
+        }
+
+        return copyOf(entities.getResults());
+    }
+
+    private <T> NiciraNvpList<T> retrieveList(final Type listType, final String uri, final Map<String, String> params) throws NiciraNvpApiException {
         try {
-            entities = restConnector.executeRetrieveObject(listTypeMap.get(clazz), uri, params);
+            return restConnector.executeRetrieveObject(listType, uri, params);
         } catch (final CloudstackRESTException e) {
             throw new NiciraNvpApiException(e);
         }
+    }
 
-        if (entities == null) {
-            throw new NiciraNvpApiException("Unexpected response from API");
+    /**
+     * GET list of items through the read cache, every caller gets its own copy of the list and the items in it
+     */
+    private <T> NiciraNvpList<T> retrieveCachedList(final Type listType, final String uri, final Map<String, String> params) throws NiciraNvpApiException {
+        final NiciraNvpList<T> cached = readCache.get(uri, params, () -> retrieveList(listType, uri, params));
+        return cached == null ? null : cacheCopier.fromJson(cacheCopier.toJsonTree(cached, listType), listType);
+    }
+
+    private static <T> List<T> copyOf(final List<T> results) {
+        return results == null ? null : new ArrayList<>(results);
+    }
+
+    /**
+     * GET all items a page at a time, and hand each page to the consumer as it is read
+     *
+     * @param pages
+     * @throws NiciraNvpApiException
+     */
+    private <T> void findPages(final Type listType, final String uri, final Map<String, String> params, final Consumer<List<T>> pages) throws NiciraNvpApiException {
+        final Map<String, String> pageParams = new HashMap<>(params);
+        pageParams.put(PAGE_LENGTH_QUERY_PARAMETER, Integer.toString(pageLength));
+        String pageCursor;
+        do {
+            final NiciraNvpList<T> page = retrieveList(listType, uri, pageParams);
+            if (page == null) {
+                throw new NiciraNvpApiException("Unexpected response from API");
+            }
+            if (page.getResults() != null && !page.getResults().isEmpty()) {
+                pages.accept(page.getResults());
+            }
+            pageCursor = page.getPageCursor();
+            pageParams.put(PAGE_CURSOR_QUERY_PARAMETER, pageCursor);
+        } while (pageCursor != null);
+    }
+
+    /**
+     * Runs the calls concurrently, at most maxConcurrentRequests of them at a time, and waits for all of them to finish
+     *
+     * @param calls
+     * @return the results, in the order of the calls
+     * @throws NiciraNvpApiException the first failure, once all calls finished
+     */
+    private <T> List<T> executeAll(final List<Callable<T>> calls) throws NiciraNvpApiException {
+        final List<Future<T>> futures = new ArrayList<>(calls.size());
+        for (final Callable<T> call : calls) {
+            futures.add(executor.submit(call));
         }
 
-        return entities.getResults();
+        final List<T> results = new ArrayList<>(calls.size());
+        NiciraNvpApiException failure = null;
+        for (final Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new NiciraNvpApiException("Interrupted while waiting for the requests to the controller", e);
+            } catch (final ExecutionException e) {
+                results.add(null);
+                if (failure == null) {
+                    failure = e.getCause() instanceof NiciraNvpApiException ? (NiciraNvpApiException) e.getCause() : new NiciraNvpApiException(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
     }
 
     /**
@@ -208,6 +332,8 @@ public class NiciraNvpApi {
             restConnector.executeUpdateObject(item, uri, Collections.<String, String>emptyMap());
         } catch (final CloudstackRESTException e) {
             throw new NiciraNvpApiException(e);
+        } finally {
+            readCache.invalidate(uri);
         }
     }
 
@@ -243,6 +369,8 @@ public class NiciraNvpApi {
             restConnector.executeDeleteObject(uri);
         } catch (final CloudstackRESTException e) {
             throw new NiciraNvpApiException(e);
+        } finally {
+            readCache.invalidate(uri);
         }
     }
 
@@ -371,19 +499,41 @@ public class NiciraNvpApi {
         deleteWithUri(buildLogicalSwitchElementUri(logicalSwitchUuid, LPORT_PATH_SEGMENT, logicalSwitchPortUuid));
     }
 
+    /**
+     * DELETE {@link LogicalSwitchPort}s of a logical switch, concurrently
+     *
+     * @param logicalSwitchUuid
+     * @param logicalSwitchPortUuids
+     * @throws NiciraNvpApiException
+     */
+    public void deleteLogicalSwitchPorts(final String logicalSwitchUuid, final Collection<String> logicalSwitchPortUuids) throws NiciraNvpApiException {
+        final List<Callable<Void>> calls = new ArrayList<>(logicalSwitchPortUuids.size());
+        for (final String logicalSwitchPortUuid : logicalSwitchPortUuids) {
+            calls.add(() -> {
+                deleteLogicalSwitchPort(logicalSwitchUuid, logicalSwitchPortUuid);
+                return null;
+            });
+        }
+        executeAll(calls);
+    }
+
+    /**
+     * GET all {@link LogicalSwitchPort}s of a logical switch a page at a time
+     *
+     * @param logicalSwitchUuid
+     * @param pages
+     * @throws NiciraNvpApiException
+     */
+    public void findLogicalSwitchPortPages(final String logicalSwitchUuid, final Consumer<List<LogicalSwitchPort>> pages) throws NiciraNvpApiException {
+        findPages(LSWITCH_PORT_LIST_TYPE, buildLogicalSwitchElementUri(logicalSwitchUuid, LPORT_PATH_SEGMENT), defaultListParams, pages);
+    }
+
     public String findLogicalSwitchPortUuidByVifAttachmentUuid(final String logicalSwitchUuid, final String vifAttachmentUuid) throws NiciraNvpApiException {
         final String uri = buildLogicalSwitchElementUri(logicalSwitchUuid, LPORT_PATH_SEGMENT);
         final Map<String, String> params = buildBasicParametersMap(UUID_QUERY_PARAMETER);
         params.put(NiciraConstants.ATTACHMENT_VIF_UUID_QUERY_PARAMETER_NAME, vifAttachmentUuid);
 
-        final NiciraNvpList<LogicalSwitchPort> niciraList;
-        try {
-            final Type niciraListType = new TypeToken<NiciraNvpList<LogicalSwitchPort>>() {
-            }.getType();
-            niciraList = restConnector.executeRetrieveObject(niciraListType, uri, params);
-        } catch (final CloudstackRESTException e) {
-            throw new NiciraNvpApiException(e);
-        }
+        final NiciraNvpList<LogicalSwitchPort> niciraList = retrieveCachedList(LSWITCH_PORT_LIST_TYPE, uri, params);
 
         final List<LogicalSwitchPort> lspl = niciraList.getResults();
 
@@ -416,13 +566,7 @@ public class NiciraNvpApi {
         final Map<String, String> params = buildBasicParametersMap(UUID_QUERY_PARAMETER);
         params.put(UUID_QUERY_PARAMETER, logicalSwitchPortUuid);
 
-        try {
-            final Type niciraListType = new TypeToken<NiciraNvpList<LogicalSwitchPort>>() {
-            }.getType();
-            return restConnector.<NiciraNvpList<LogicalSwitchPort>>executeRetrieveObject(niciraListType, uri, params).getResults();
-        } catch (final CloudstackRESTException e) {
-            throw new NiciraNvpApiException(e);
-        }
+        return copyOf(this.<LogicalSwitchPort>retrieveCachedList(LSWITCH_PORT_LIST_TYPE, uri, params).getResults());
     }
 
     public List<LogicalRouterPort> findLogicalRouterPortsByUuid(final String logicalRouterUuid, final String logicalRouterPortUuid) throws NiciraNvpApiException {
@@ -430,13 +574,7 @@ public class NiciraNvpApi {
         final Map<String, String> params = buildBasicParametersMap(UUID_QUERY_PARAMETER);
         params.put(UUID_QUERY_PARAMETER, logicalRouterPortUuid);
 
-        try {
-            final Type niciraListType = new TypeToken<NiciraNvpList<LogicalRouterPort>>() {
-            }.getType();
-            return restConnector.<NiciraNvpList<LogicalRouterPort>>executeRetrieveObject(niciraListType, uri, params).getResults();
-        } catch (final CloudstackRESTException e) {
-            throw new NiciraNvpApiException(e);
-        }
+        return copyOf(this.<LogicalRouterPort>retrieveCachedList(LROUTER_PORT_LIST_TYPE, uri, params).getResults());
     }
 
     private static String buildLogicalRouterElementUri(final String logicalRouterUuid, final String logicalElementType) {
@@ -566,6 +704,9 @@ public class NiciraNvpApi {
         private String password;
         private CloseableHttpClient httpClient;
         private HttpClientContext httpClientContext = HttpClientContext.create();
+        private int readCacheTtl = DEFAULT_READ_CACHE_TTL;
+        private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+        private int pageLength = DEFAULT_PAGE_LENGTH;
 
         public Builder host(final String host) {
             this.host = host;
@@ -592,6 +733,27 @@ public class NiciraNvpApi {
             return this;
         }
 
+        /**
+         * @param readCacheTtl seconds the logical switches, routers and ports read are kept, 0 to read them every time
+         */
+        public Builder readCacheTtl(final int readCacheTtl) {
+            this.readCacheTtl = readCacheTtl;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentRequests the requests of the bulk calls that are in flight at the same time
+         */
+        public Builder maxConcurrentRequests(final int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder pageLength(final int pageLength) {
+            this.pageLength = pageLength;
+            return this;
+        }
+
         public NiciraNvpApi build() {
             return new NiciraNvpApi(this);
         }
@@ -5,6 +5,7 @@ import java.util.List;
 public class NiciraNvpList<T> {
     private List<T> results;
     private int resultCount;
+    private String pageCursor;
 
     public List<T> getResults() {
         return this.results;
@@ -22,6 +23,17 @@ public class NiciraNvpList<T> {
         this.resultCount = resultCount;
     }
 
+    /**
+     * @return the cursor of the next page of a paged query, null on the last page
+     */
+    public String getPageCursor() {
+        return pageCursor;
+    }
+
+    public void setPageCursor(final String pageCursor) {
+        this.pageCursor = pageCursor;
+    }
+
     public boolean isEmpty() {
         return this.resultCount == 0;
     }
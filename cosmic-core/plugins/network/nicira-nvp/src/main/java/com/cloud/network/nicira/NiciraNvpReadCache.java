@@ -0,0 +1,126 @@
+package com.cloud.network.nicira;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the logical switches, routers and ports read from the controller for a short while, so the chain of calls
+ * that implements a network does not read the same object over and over.
+ * <p>
+ * Writes go through the cache: a create, update or delete drops the cached reads of the objects above and below the
+ * uri written to, e.g. updating the attachment of a port drops the ports of its switch and the switch itself. Changes
+ * made by other clients of the controller are seen once the entries expire.
+ */
+public class NiciraNvpReadCache {
+    private static final int MAX_SIZE = 10000;
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // bumped on every invalidation, so an object read while it was written is not kept
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public NiciraNvpReadCache(final int ttlSeconds) {
+        ttlMillis = ttlSeconds * 1000L;
+    }
+
+    public <T> T get(final String uri, final Map<String, String> params, final Loader<T> loader) throws NiciraNvpApiException {
+        if (ttlMillis <= 0) {
+            return loader.load();
+        }
+
+        final String key = buildKey(uri, params);
+        final Entry entry = entries.get(key);
+        if (isValid(entry)) {
+            hits.incrementAndGet();
+            return (T) entry.value;
+        }
+        misses.incrementAndGet();
+
+        final long loadedGeneration = generation.get();
+        final T value = loader.load();
+        put(key, new Entry(uri, value), loadedGeneration);
+        return value;
+    }
+
+    private static String buildKey(final String uri, final Map<String, String> params) {
+        return uri + "?" + new TreeMap<>(params);
+    }
+
+    private boolean isValid(final Entry entry) {
+        return entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis;
+    }
+
+    private void put(final String key, final Entry entry, final long loadedGeneration) {
+        if (entries.size() >= MAX_SIZE) {
+            entries.values().removeIf(e -> !isValid(e));
+            if (entries.size() >= MAX_SIZE) {
+                entries.clear();
+            }
+        }
+        entries.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Drops the cached reads of the uri written to, of the objects it belongs to and of the objects that belong to it
+     */
+    public void invalidate(final String uri) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        entries.values().removeIf(entry -> isRelated(entry.uri, uri));
+    }
+
+    private static boolean isRelated(final String cachedUri, final String writtenUri) {
+        return isSameOrBelow(cachedUri, writtenUri) || isSameOrBelow(writtenUri, cachedUri);
+    }
+
+    private static boolean isSameOrBelow(final String uri, final String parentUri) {
+        return uri.startsWith(parentUri) && (uri.length() == parentUri.length() || uri.charAt(parentUri.length()) == '/');
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public interface Loader<T> {
+        T load() throws NiciraNvpApiException;
+    }
+
+    private static final class Entry {
+        private final String uri;
+        private final Object value;
+        private final long loadedAt;
+
+        private Entry(final String uri, final Object value) {
+            this.uri = uri;
+            this.value = value;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
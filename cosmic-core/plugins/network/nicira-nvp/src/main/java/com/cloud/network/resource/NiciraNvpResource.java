@@ -152,6 +152,9 @@ public class NiciraNvpResource implements ServerResource {
 
     @Override
     public boolean stop() {
+        if (niciraNvpApi != null) {
+            niciraNvpApi.close();
+        }
         return true;
     }
 
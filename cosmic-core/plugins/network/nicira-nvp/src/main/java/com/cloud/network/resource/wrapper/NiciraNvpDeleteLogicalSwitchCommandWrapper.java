@@ -12,13 +12,29 @@ import com.cloud.network.utils.CommandRetryUtility;
 import com.cloud.resource.CommandWrapper;
 import com.cloud.resource.ResourceWrapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 @ResourceWrapper(handles = DeleteLogicalSwitchCommand.class)
 public final class NiciraNvpDeleteLogicalSwitchCommandWrapper extends CommandWrapper<DeleteLogicalSwitchCommand, Answer, NiciraNvpResource> {
 
+    private static final Logger s_logger = LoggerFactory.getLogger(NiciraNvpDeleteLogicalSwitchCommandWrapper.class);
+
     @Override
     public Answer execute(final DeleteLogicalSwitchCommand command, final NiciraNvpResource niciraNvpResource) {
         try {
             final NiciraNvpApi niciraNvpApi = niciraNvpResource.getNiciraNvpApi();
+
+            // ports of nics whose release did not reach the controller
+            final List<String> portUuids = new ArrayList<>();
+            niciraNvpApi.findLogicalSwitchPortPages(command.getLogicalSwitchUuid(), page -> page.forEach(port -> portUuids.add(port.getUuid())));
+            if (!portUuids.isEmpty()) {
+                s_logger.debug("Deleting " + portUuids.size() + " ports left on logical switch " + command.getLogicalSwitchUuid());
+                niciraNvpApi.deleteLogicalSwitchPorts(command.getLogicalSwitchUuid(), portUuids);
+            }
             niciraNvpApi.deleteLogicalSwitch(command.getLogicalSwitchUuid());
             return new DeleteLogicalSwitchAnswer(command, true, "Logicalswitch " + command.getLogicalSwitchUuid() + " deleted");
         } catch (final NiciraNvpApiException e) {
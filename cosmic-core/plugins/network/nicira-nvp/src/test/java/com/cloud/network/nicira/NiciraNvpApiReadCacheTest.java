@@ -0,0 +1,169 @@
+package com.cloud.network.nicira;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class NiciraNvpApiReadCacheTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(NiciraNvpApiReadCacheTest.class);
+
+    private static NiciraNvpApi buildApi(final NiciraNvpControllerStandIn controller, final int readCacheTtl) {
+        return NiciraNvpApi.create()
+                           .host("localhost")
+                           .username("admin")
+                           .password("adminpassword")
+                           .httpClient(controller)
+                           .readCacheTtl(readCacheTtl)
+                           .build();
+    }
+
+    private static List<LogicalSwitchPort> buildPorts(final int count) {
+        final List<LogicalSwitchPort> ports = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ports.add(new LogicalSwitchPort("port-" + i, Collections.emptyList(), true));
+        }
+        return ports;
+    }
+
+    @Test
+    public void testLogicalSwitchIsReadOnce() throws Exception {
+        final NiciraNvpControllerStandIn controller = new NiciraNvpControllerStandIn(0);
+        final NiciraNvpApi api = buildApi(controller, 60);
+        final LogicalSwitch logicalSwitch = api.createLogicalSwitch(new LogicalSwitch());
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(api.findLogicalSwitch(logicalSwitch.getUuid()), contains(equalTo(logicalSwitch)));
+        }
+
+        assertEquals(1, controller.getRequests("GET"));
+    }
+
+    @Test
+    public void testWritesInvalidateTheReadsOfTheSwitch() throws Exception {
+        final NiciraNvpControllerStandIn controller = new NiciraNvpControllerStandIn(0);
+        final NiciraNvpApi api = buildApi(controller, 60);
+        final String logicalSwitchUuid = api.createLogicalSwitch(new LogicalSwitch()).getUuid();
+        final String portUuid = api.createLogicalSwitchPort(logicalSwitchUuid, new LogicalSwitchPort("port", Collections.emptyList(), true)).getUuid();
+
+        api.findLogicalSwitch(logicalSwitchUuid);
+        try {
+            api.findLogicalSwitchPortUuidByVifAttachmentUuid(logicalSwitchUuid, "vif");
+            fail("A port is found for a vif that is not attached");
+        } catch (final NiciraNvpApiException e) {
+            // expected
+        }
+        api.updateLogicalSwitchPortAttachment(logicalSwitchUuid, portUuid, new VifAttachment("vif"));
+
+        assertEquals(portUuid, api.findLogicalSwitchPortUuidByVifAttachmentUuid(logicalSwitchUuid, "vif"));
+        api.findLogicalSwitch(logicalSwitchUuid);
+        assertEquals(4, controller.getRequests("GET"));
+
+        api.findLogicalSwitchPortUuidByVifAttachmentUuid(logicalSwitchUuid, "vif");
+        api.findLogicalSwitch(logicalSwitchUuid);
+        assertEquals(4, controller.getRequests("GET"));
+    }
+
+    @Test
+    public void testCallersGetTheirOwnCopyOfACachedRead() throws Exception {
+        final NiciraNvpControllerStandIn controller = new NiciraNvpControllerStandIn(0);
+        final NiciraNvpApi api = buildApi(controller, 60);
+        final LogicalSwitch created = new LogicalSwitch();
+        created.setDisplayName("switch");
+        final String logicalSwitchUuid = api.createLogicalSwitch(created).getUuid();
+
+        api.findLogicalSwitch(logicalSwitchUuid).get(0).setDisplayName("changed by a caller");
+
+        assertEquals("switch", api.findLogicalSwitch(logicalSwitchUuid).get(0).getDisplayName());
+        assertEquals(1, controller.getRequests("GET"));
+    }
+
+    @Test
+    public void testPortsAreReadAPageAtATime() throws Exception {
+        final NiciraNvpControllerStandIn controller = new NiciraNvpControllerStandIn(0);
+        final NiciraNvpApi api = NiciraNvpApi.create().host("localhost").username("admin").password("adminpassword").httpClient(controller).pageLength(10).build();
+        final String logicalSwitchUuid = api.createLogicalSwitch(new LogicalSwitch()).getUuid();
+        for (final LogicalSwitchPort port : buildPorts(25)) {
+            api.createLogicalSwitchPort(logicalSwitchUuid, port);
+        }
+        controller.resetRequests();
+
+        final List<Integer> pageSizes = new ArrayList<>();
+        api.findLogicalSwitchPortPages(logicalSwitchUuid, page -> pageSizes.add(page.size()));
+
+        assertThat(pageSizes, contains(10, 10, 5));
+        assertEquals(3, controller.getRequests("GET"));
+    }
+
+    @Test
+    public void testPortsAreDeletedConcurrently() throws Exception {
+        final NiciraNvpControllerStandIn controller = new NiciraNvpControllerStandIn(20);
+        final NiciraNvpApi api = NiciraNvpApi.create().host("localhost").username("admin").password("adminpassword").httpClient(controller).maxConcurrentRequests(8).build();
+        final String logicalSwitchUuid = api.createLogicalSwitch(new LogicalSwitch()).getUuid();
+        final List<String> portUuids = new ArrayList<>();
+        for (final LogicalSwitchPort port : buildPorts(16)) {
+            portUuids.add(api.createLogicalSwitchPort(logicalSwitchUuid, port).getUuid());
+        }
+
+        final long start = System.nanoTime();
+        api.deleteLogicalSwitchPorts(logicalSwitchUuid, portUuids);
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+        api.close();
+
+        assertEquals(0, controller.getPortCount(logicalSwitchUuid));
+        assertEquals(16, controller.getRequests("DELETE"));
+        // 16 requests of 20 ms one at a time take 320 ms
+        assertTrue(elapsedMs < 16 * 20);
+    }
+
+    /**
+     * Creates the 50 ports of a switch, attaches them and looks them up by vif twice, reading every time and cached,
+     * against a controller that takes 5 ms a request.
+     */
+    @Test
+    public void benchmarkSwitchRollout() throws Exception {
+        Benchmarks.assumeEnabled();
+        final int portCount = 50;
+
+        final NiciraNvpControllerStandIn uncachedController = new NiciraNvpControllerStandIn(5);
+        final long uncachedMs = rollOut(buildApi(uncachedController, 0), portCount);
+
+        final NiciraNvpControllerStandIn cachedController = new NiciraNvpControllerStandIn(5);
+        final long cachedMs = rollOut(buildApi(cachedController, 60), portCount);
+
+        s_logger.info("Rolling out a switch of " + portCount + " ports took " + uncachedMs + " ms reading every time and " + cachedMs + " ms cached");
+        assertEquals(4 * portCount, uncachedController.getRequests("GET"));
+        assertEquals(portCount + 1, cachedController.getRequests("GET"));
+        assertEquals(uncachedController.getRequests("POST"), cachedController.getRequests("POST"));
+    }
+
+    private static long rollOut(final NiciraNvpApi api, final int portCount) throws NiciraNvpApiException {
+        final long start = System.nanoTime();
+        final String logicalSwitchUuid = api.createLogicalSwitch(new LogicalSwitch()).getUuid();
+        final List<String> portUuids = new ArrayList<>();
+        for (final LogicalSwitchPort port : buildPorts(portCount)) {
+            final String portUuid = api.createLogicalSwitchPort(logicalSwitchUuid, port).getUuid();
+            api.updateLogicalSwitchPortAttachment(logicalSwitchUuid, portUuid, new VifAttachment("vif-" + portUuid));
+            portUuids.add(portUuid);
+        }
+        for (int i = 0; i < 2; i++) {
+            for (final String portUuid : portUuids) {
+                assertEquals(portUuid, api.findLogicalSwitchPortUuidByVifAttachmentUuid(logicalSwitchUuid, "vif-" + portUuid));
+                api.findLogicalSwitch(logicalSwitchUuid);
+            }
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
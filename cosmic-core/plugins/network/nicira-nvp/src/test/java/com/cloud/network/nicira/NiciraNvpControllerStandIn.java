@@ -0,0 +1,180 @@
+package com.cloud.network.nicira;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Stands in for the HTTP api of a controller: keeps logical switches and their ports in memory, and answers the
+ * requests for them after the configured latency.
+ */
+class NiciraNvpControllerStandIn extends CloseableHttpClient {
+    private static final String LPORT_URI = NiciraConstants.SWITCH_URI_PREFIX + "/([^/]+)" + NiciraConstants.LPORT_PATH_SEGMENT;
+
+    private final long latencyMillis;
+    private final Map<String, JsonObject> switches = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, JsonObject>> ports = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    NiciraNvpControllerStandIn(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    int getRequests(final String method) {
+        final AtomicInteger count = requests.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    void resetRequests() {
+        requests.clear();
+    }
+
+    int getPortCount(final String logicalSwitchUuid) {
+        return ports.get(logicalSwitchUuid).size();
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(final HttpHost target, final HttpRequest request, final HttpContext context) throws IOException {
+        final String method = request.getRequestLine().getMethod();
+        requests.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (final InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        final URI uri = ((HttpUriRequest) request).getURI();
+        final String path = uri.getPath();
+        final Map<String, String> params = new HashMap<>();
+        for (final NameValuePair pair : URLEncodedUtils.parse(uri, StandardCharsets.UTF_8.name())) {
+            params.put(pair.getName(), pair.getValue());
+        }
+        JsonObject body = null;
+        if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+            body = new JsonParser().parse(EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity())).getAsJsonObject();
+        }
+
+        final String[] segments = path.split("/");
+        if (path.equals(NiciraConstants.SWITCH_URI_PREFIX)) {
+            if ("POST".equals(method)) {
+                final JsonObject logicalSwitch = create(body);
+                switches.put(logicalSwitch.get("uuid").getAsString(), logicalSwitch);
+                ports.put(logicalSwitch.get("uuid").getAsString(), new ConcurrentSkipListMap<>());
+                return respond(HttpStatus.SC_CREATED, logicalSwitch);
+            }
+            return respond(HttpStatus.SC_OK, list(new ArrayList<>(switches.values()), params));
+        } else if (path.matches(NiciraConstants.SWITCH_URI_PREFIX + "/[^/]+") && "DELETE".equals(method)) {
+            switches.remove(segments[3]);
+            ports.remove(segments[3]);
+            return respond(HttpStatus.SC_NO_CONTENT, null);
+        } else if (path.matches(LPORT_URI)) {
+            final Map<String, JsonObject> switchPorts = ports.get(segments[3]);
+            if ("POST".equals(method)) {
+                final JsonObject port = create(body);
+                switchPorts.put(port.get("uuid").getAsString(), port);
+                return respond(HttpStatus.SC_CREATED, port);
+            }
+            final List<JsonObject> matching = new ArrayList<>();
+            for (final JsonObject port : switchPorts.values()) {
+                final String vifUuid = params.get(NiciraConstants.ATTACHMENT_VIF_UUID_QUERY_PARAMETER_NAME);
+                if (vifUuid == null || port.has("vif_uuid") && vifUuid.equals(port.get("vif_uuid").getAsString())) {
+                    matching.add(port);
+                }
+            }
+            return respond(HttpStatus.SC_OK, list(matching, params));
+        } else if (path.matches(LPORT_URI + "/[^/]+")) {
+            ports.get(segments[3]).remove(segments[5]);
+            return respond(HttpStatus.SC_NO_CONTENT, null);
+        } else if (path.matches(LPORT_URI + "/[^/]+" + NiciraConstants.ATTACHMENT_PATH_SEGMENT)) {
+            ports.get(segments[3]).get(segments[5]).add("vif_uuid", body.get("vif_uuid"));
+            return respond(HttpStatus.SC_OK, null);
+        }
+        return respond(HttpStatus.SC_NOT_FOUND, null);
+    }
+
+    private static JsonObject create(final JsonObject body) {
+        body.addProperty("uuid", UUID.randomUUID().toString());
+        return body;
+    }
+
+    private static JsonObject list(final List<JsonObject> objects, final Map<String, String> params) {
+        final String uuid = params.get(NiciraConstants.UUID_QUERY_PARAMETER);
+        if (uuid != null) {
+            objects.removeIf(object -> !uuid.equals(object.get("uuid").getAsString()));
+        }
+        final int from = params.containsKey(NiciraConstants.PAGE_CURSOR_QUERY_PARAMETER) ? Integer.parseInt(params.get(NiciraConstants.PAGE_CURSOR_QUERY_PARAMETER)) : 0;
+        final int to = params.containsKey(NiciraConstants.PAGE_LENGTH_QUERY_PARAMETER) ?
+                Math.min(objects.size(), from + Integer.parseInt(params.get(NiciraConstants.PAGE_LENGTH_QUERY_PARAMETER))) : objects.size();
+
+        final JsonArray results = new JsonArray();
+        objects.subList(from, to).forEach(results::add);
+        final JsonObject list = new JsonObject();
+        list.add("results", results);
+        list.addProperty("result_count", objects.size());
+        if (to < objects.size()) {
+            list.addProperty("page_cursor", Integer.toString(to));
+        }
+        return list;
+    }
+
+    private static CloseableHttpResponse respond(final int status, final JsonObject body) {
+        final StandInResponse response = new StandInResponse(status);
+        if (body != null) {
+            response.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public HttpParams getParams() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static class StandInResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        StandInResponse(final int status) {
+            super(HttpVersion.HTTP_1_1, status, null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -3,7 +3,11 @@ package com.cloud.network.resource;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.when;
 
 import com.cloud.agent.api.Answer;
@@ -17,14 +21,18 @@ import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.UpdateLogicalSwitchPortCommand;
 import com.cloud.network.nicira.LogicalRouterPort;
 import com.cloud.network.nicira.LogicalSwitch;
+import com.cloud.network.nicira.LogicalSwitchPort;
 import com.cloud.network.nicira.NiciraNvpApi;
 import com.cloud.network.nicira.NiciraNvpApiException;
 import com.cloud.network.nicira.VifAttachment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
@@ -116,6 +124,31 @@ public class NiciraNvpRequestWrapperTest {
         assertTrue(answer.getResult());
     }
 
+    @Test
+    public void testDeleteLogicalSwitchCommandWrapperDeletesThePortsLeft() throws NiciraNvpApiException {
+        final NiciraNvpApi niciraNvpApi = Mockito.mock(NiciraNvpApi.class);
+
+        final String logicalSwitchUuid = "d2e05a9e-7120-4487-a5fc-414ab36d9345";
+        final LogicalSwitchPort logicalSwitchPort = new LogicalSwitchPort();
+        logicalSwitchPort.setUuid("a0b1c2d3-7120-4487-a5fc-414ab36d9345");
+
+        final DeleteLogicalSwitchCommand command = new DeleteLogicalSwitchCommand(logicalSwitchUuid);
+
+        when(niciraNvpResource.getNiciraNvpApi()).thenReturn(niciraNvpApi);
+        doAnswer(invocation -> {
+            ((Consumer<List<LogicalSwitchPort>>) invocation.getArguments()[1]).accept(Collections.singletonList(logicalSwitchPort));
+            return null;
+        }).when(niciraNvpApi).findLogicalSwitchPortPages(eq(logicalSwitchUuid), any(Consumer.class));
+
+        final NiciraNvpRequestWrapper wrapper = NiciraNvpRequestWrapper.getInstance();
+        final Answer answer = wrapper.execute(command, niciraNvpResource);
+
+        assertTrue(answer.getResult());
+        final InOrder inOrder = inOrder(niciraNvpApi);
+        inOrder.verify(niciraNvpApi).deleteLogicalSwitchPorts(logicalSwitchUuid, Collections.singletonList(logicalSwitchPort.getUuid()));
+        inOrder.verify(niciraNvpApi).deleteLogicalSwitch(logicalSwitchUuid);
+    }
+
     @Test
     public void testConfigurePublicIpsOnLogicalRouterCommand() {
         final NiciraNvpApi niciraNvpApi = Mockito.mock(NiciraNvpApi.class);
@@ -0,0 +1,158 @@
+package com.cloud.api;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Computes the signature of a signed API request: the HMAC-SHA1 of the parameters sorted by name, without the
+ * signature, url encoded and lowercased, e.g. "apikey=abc&command=listzones".
+ * <p>
+ * The canonical request is written to the Mac a buffer at a time as the parameters are encoded, so signing a large
+ * request, like a deployVirtualMachine with userdata, does not build any strings. The encoding is the one of
+ * {@link java.net.URLEncoder} in UTF-8 with the spaces encoded as %20, which is what the clients sign. The Mac and the
+ * buffer are kept per thread.
+ */
+public final class ApiRequestSigner {
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    private static final ThreadLocal<Signer> signers = ThreadLocal.withInitial(Signer::new);
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private ApiRequestSigner() {
+    }
+
+    /**
+     * @param requestParameters the parameters of the request as name/value pairs in the form String/String[]
+     * @return the base64 encoded signature
+     */
+    public static String sign(final String secretKey, final Map<String, Object[]> requestParameters) throws InvalidKeyException {
+        final String[] parameterNames = requestParameters.keySet().toArray(new String[requestParameters.size()]);
+        Arrays.sort(parameterNames);
+        return signers.get().sign(secretKey, parameterNames, requestParameters);
+    }
+
+    private static final class Signer {
+        private final Mac mac;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        private Signer() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new CloudRuntimeException("Unable to sign api requests", e);
+            }
+        }
+
+        private String sign(final String secretKey, final String[] parameterNames, final Map<String, Object[]> requestParameters) throws InvalidKeyException {
+            mac.init(new SecretKeySpec(secretKey.getBytes(), ALGORITHM));
+            position = 0;
+
+            boolean first = true;
+            for (final String parameterName : parameterNames) {
+                if (ApiConstants.SIGNATURE.equalsIgnoreCase(parameterName)) {
+                    continue;
+                }
+                if (!first) {
+                    write('&');
+                }
+                first = false;
+                writeName(parameterName);
+                write('=');
+                writeEncodedValue(((String[]) requestParameters.get(parameterName))[0]);
+            }
+            mac.update(buffer, 0, position);
+
+            return Base64.encodeBase64String(mac.doFinal());
+        }
+
+        private void writeName(final String name) {
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                if (c >= 0x80) {
+                    // names are plain ascii, anything else is signed the way it always was
+                    for (final byte b : name.substring(i).toLowerCase().getBytes()) {
+                        write(b);
+                    }
+                    return;
+                }
+                write(toLowerCase(c));
+            }
+        }
+
+        private void writeEncodedValue(final String value) {
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    if (UNRESERVED[c]) {
+                        write(toLowerCase(c));
+                    } else {
+                        writeEscaped(c);
+                    }
+                } else if (c < 0x800) {
+                    writeEscaped(0xc0 | c >> 6);
+                    writeEscaped(0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    writeEscaped(0xf0 | codePoint >> 18);
+                    writeEscaped(0x80 | codePoint >> 12 & 0x3f);
+                    writeEscaped(0x80 | codePoint >> 6 & 0x3f);
+                    writeEscaped(0x80 | codePoint & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    // an unpaired surrogate is not valid UTF-16, the encoder replaces it
+                    writeEscaped('?');
+                } else {
+                    writeEscaped(0xe0 | c >> 12);
+                    writeEscaped(0x80 | c >> 6 & 0x3f);
+                    writeEscaped(0x80 | c & 0x3f);
+                }
+            }
+        }
+
+        private void writeEscaped(final int b) {
+            write('%');
+            write(HEX_DIGITS[b >> 4 & 0xf]);
+            write(HEX_DIGITS[b & 0xf]);
+        }
+
+        private static int toLowerCase(final char c) {
+            return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+        }
+
+        private void write(final int b) {
+            if (position == buffer.length) {
+                mac.update(buffer, 0, position);
+                position = 0;
+            }
+            buffer[position++] = (byte) b;
+        }
+    }
+}
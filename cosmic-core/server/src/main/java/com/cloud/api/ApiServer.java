@@ -63,6 +63,8 @@ import com.cloud.framework.messagebus.MessageHandler;
 import com.cloud.managed.context.ManagedContextRunnable;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
+import com.cloud.user.AuthorizationContext;
+import com.cloud.user.AuthorizationContextCache;
 import com.cloud.user.DomainManager;
 import com.cloud.user.User;
 import com.cloud.user.UserAccount;
@@ -82,8 +84,6 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 import com.cloud.utils.exception.InvalidParameterValueException;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 import javax.servlet.http.HttpServletResponse;
@@ -97,14 +97,12 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -185,6 +183,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Inject
     private AccountManager _accountMgr;
     @Inject
+    private AuthorizationContextCache _authorizationContextCache;
+    @Inject
     private DomainManager _domainMgr;
     @Inject
     private DomainDao _domainDao;
@@ -676,7 +676,6 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             String apiKey = null;
             final String secretKey;
             String signature = null;
-            String unsignedRequest = null;
 
             final String[] command = (String[]) requestParameters.get(ApiConstants.COMMAND);
             if (command == null) {
@@ -688,7 +687,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             // if userId not null, that mean that user is logged in
             if (userId != null) {
-                final User user = ApiDBUtils.findUserById(userId);
+                final AuthorizationContext context = _authorizationContextCache.getByUserId(userId);
+                final User user = context != null ? context.getUser() : null;
 
                 try {
                     checkCommandAvailable(user, commandName);
@@ -708,39 +708,22 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 }
             }
 
-            // - build a request string with sorted params, make sure it's all lowercase
-            // - sign the request, verify the signature is the same
-            final List<String> parameterNames = new ArrayList<>();
-
-            for (final Object paramNameObj : requestParameters.keySet()) {
-                parameterNames.add((String) paramNameObj); // put the name in a list that we'll sort later
-            }
-
-            Collections.sort(parameterNames);
-
             String signatureVersion = null;
             String expires = null;
 
-            for (final String paramName : parameterNames) {
+            for (final Map.Entry<String, Object[]> parameter : requestParameters.entrySet()) {
                 // parameters come as name/value pairs in the form String/String[]
-                final String paramValue = ((String[]) requestParameters.get(paramName))[0];
+                final String paramName = parameter.getKey();
+                final String paramValue = ((String[]) parameter.getValue())[0];
 
                 if (ApiConstants.SIGNATURE.equalsIgnoreCase(paramName)) {
                     signature = paramValue;
-                } else {
-                    if (ApiConstants.API_KEY.equalsIgnoreCase(paramName)) {
-                        apiKey = paramValue;
-                    } else if (ApiConstants.SIGNATURE_VERSION.equalsIgnoreCase(paramName)) {
-                        signatureVersion = paramValue;
-                    } else if (ApiConstants.EXPIRES.equalsIgnoreCase(paramName)) {
-                        expires = paramValue;
-                    }
-
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, HttpUtils.UTF_8).replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, HttpUtils.UTF_8).replaceAll("\\+", "%20");
-                    }
+                } else if (ApiConstants.API_KEY.equalsIgnoreCase(paramName)) {
+                    apiKey = paramValue;
+                } else if (ApiConstants.SIGNATURE_VERSION.equalsIgnoreCase(paramName)) {
+                    signatureVersion = paramValue;
+                } else if (ApiConstants.EXPIRES.equalsIgnoreCase(paramName)) {
+                    expires = paramValue;
                 }
             }
 
@@ -777,14 +760,14 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             txn.close();
             final User user;
             // verify there is a user with this api key
-            final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
-            if (userAcctPair == null) {
+            final AuthorizationContext context = _authorizationContextCache.getByApiKey(apiKey);
+            if (context == null) {
                 s_logger.debug("apiKey does not map to a valid user -- ignoring request, apiKey: " + apiKey);
                 return false;
             }
 
-            user = userAcctPair.first();
-            final Account account = userAcctPair.second();
+            user = context.getUser();
+            final Account account = context.getAccount();
 
             if (user.getState() != Account.State.enabled || !account.getState().equals(Account.State.enabled)) {
                 s_logger.info("disabled or locked user accessing the api, userid = " + user.getId() + "; name = " + user.getUsername() + "; state: " + user.getState() +
@@ -804,21 +787,14 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             // verify secret key exists
-            secretKey = user.getSecretKey();
+            secretKey = context.getSecretKey();
             if (secretKey == null) {
                 s_logger.info("User does not have a secret key associated with the account -- ignoring request, username: " + user.getUsername());
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
-
-            final Mac mac = Mac.getInstance("HmacSHA1");
-            final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            mac.init(keySpec);
-            mac.update(unsignedRequest.getBytes());
-
-            final byte[] encryptedBytes = mac.doFinal();
-            final String computedSignature = Base64.encodeBase64String(encryptedBytes);
+            // sign the request with sorted params, lowercased, and verify the signature is the same
+            final String computedSignature = ApiRequestSigner.sign(secretKey, requestParameters);
             final boolean equalSig = ConstantTimeComparator.compareStrings(signature, computedSignature);
 
             if (!equalSig) {
@@ -0,0 +1,185 @@
+package com.cloud.api.dispatch;
+
+import com.cloud.acl.RoleType;
+import com.cloud.acl.SecurityChecker.AccessType;
+import com.cloud.api.ACL;
+import com.cloud.api.BaseCmd;
+import com.cloud.api.BaseCmd.CommandType;
+import com.cloud.api.EntityReference;
+import com.cloud.api.Parameter;
+import com.cloud.utils.ReflectUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parameters of a command class, read once from the {@link Parameter} and {@link ACL} annotations of its fields,
+ * with the accessors to set and get the fields.
+ */
+public final class ParamBinder {
+    private static final Map<Class<?>, ParamBinder> s_binders = new ConcurrentHashMap<>();
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final List<Binding> bindings;
+
+    private ParamBinder(final Class<?> cmdClass) {
+        final List<Binding> bindings = new ArrayList<>();
+        for (final Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+            final Parameter parameter = field.getAnnotation(Parameter.class);
+            if (parameter != null && parameter.expose()) {
+                bindings.add(new Binding(field, parameter));
+            }
+        }
+        this.bindings = Collections.unmodifiableList(bindings);
+    }
+
+    public static ParamBinder forCommand(final Class<? extends BaseCmd> cmdClass) {
+        return s_binders.computeIfAbsent(cmdClass, ParamBinder::new);
+    }
+
+    /**
+     * @return the parameters of the command, in the order of {@link BaseCmd#getParamFields()}
+     */
+    public List<Binding> getBindings() {
+        return bindings;
+    }
+
+    public static final class Binding {
+        private final Field field;
+        private final Parameter parameter;
+        private final String name;
+        private final CommandType type;
+        private final CommandType collectionType;
+        private final boolean required;
+        private final boolean pre3x;
+        private final int[] authorizedAccountTypes;
+        private final List<Class<?>> entities;
+        private final AccessType accessType;
+        private final MethodHandle setter;
+        private final MethodHandle getter;
+
+        private Binding(final Field field, final Parameter parameter) {
+            this.field = field;
+            this.parameter = parameter;
+            this.name = parameter.name();
+            this.type = parameter.type();
+            this.collectionType = parameter.collectionType();
+            this.required = parameter.required();
+            this.pre3x = parameter.since().isEmpty();
+            this.authorizedAccountTypes = Arrays.stream(parameter.authorized()).mapToInt(RoleType::getValue).toArray();
+
+            final EntityReference reference = parameter.entityType().length > 0 ? parameter.entityType()[0].getAnnotation(EntityReference.class) : null;
+            this.entities = reference != null ? Collections.unmodifiableList(Arrays.<Class<?>>asList(reference.value())) : null;
+            final ACL acl = field.getAnnotation(ACL.class);
+            this.accessType = acl != null ? acl.accessType() : null;
+
+            try {
+                field.setAccessible(true);
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                this.setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            } catch (final IllegalAccessException e) {
+                throw new CloudRuntimeException("Field " + field.getName() + " of " + field.getDeclaringClass().getName() + " is not accessible", e);
+            }
+        }
+
+        public boolean isAuthorized(final short accountType) {
+            if (authorizedAccountTypes.length == 0) {
+                return true;
+            }
+            for (final int authorized : authorizedAccountTypes) {
+                if (authorized == accountType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @throws IllegalArgumentException when the value does not fit the field
+         */
+        public void set(final Object cmd, final Object value) {
+            try {
+                setter.invokeExact(cmd, value);
+            } catch (final ClassCastException | NullPointerException e) {
+                throw new IllegalArgumentException("Can not set " + field.getName() + " to " + value, e);
+            } catch (final RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable t) {
+                throw new CloudRuntimeException("Failed to set " + field.getName(), t);
+            }
+        }
+
+        public Object get(final Object cmd) {
+            try {
+                return (Object) getter.invokeExact(cmd);
+            } catch (final RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable t) {
+                throw new CloudRuntimeException("Failed to get " + field.getName(), t);
+            }
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Parameter getParameter() {
+            return parameter;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public CommandType getType() {
+            return type;
+        }
+
+        public CommandType getCollectionType() {
+            return collectionType;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+
+        /**
+         * @return whether the parameter existed before 3.x, and takes internal ids as well as uuids
+         */
+        public boolean isPre3x() {
+            return pre3x;
+        }
+
+        /**
+         * @return the entity types the parameter refers to, null when it does not refer to any
+         */
+        public List<Class<?>> getEntities() {
+            return entities;
+        }
+
+        /**
+         * @return the access the caller needs on the entity the parameter refers to, null when it is not checked
+         */
+        public AccessType getAccessType() {
+            return accessType;
+        }
+
+        /**
+         * @return whether the value is one or more uuids of the entities
+         */
+        public boolean takesUuids() {
+            return entities != null && (type == CommandType.UUID || type == CommandType.LIST && collectionType == CommandType.UUID);
+        }
+    }
+}
@@ -6,12 +6,11 @@ import com.cloud.acl.ControlledEntity;
 import com.cloud.acl.InfrastructureEntity;
 import com.cloud.acl.SecurityChecker;
 import com.cloud.acl.SecurityChecker.AccessType;
-import com.cloud.api.ACL;
 import com.cloud.api.ApiErrorCode;
 import com.cloud.api.BaseAsyncCreateCmd;
 import com.cloud.api.BaseCmd;
 import com.cloud.api.BaseCmd.CommandType;
-import com.cloud.api.EntityReference;
+import com.cloud.api.Identity;
 import com.cloud.api.InternalIdentity;
 import com.cloud.api.Parameter;
 import com.cloud.api.ServerApiException;
@@ -21,11 +20,13 @@ import com.cloud.api.command.admin.usage.GetUsageRecordsCmd;
 import com.cloud.api.command.user.event.ArchiveEventsCmd;
 import com.cloud.api.command.user.event.DeleteEventsCmd;
 import com.cloud.api.command.user.event.ListEventsCmd;
+import com.cloud.api.dispatch.ParamBinder.Binding;
 import com.cloud.context.CallContext;
 import com.cloud.dao.EntityManager;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.InvalidParameterValueException;
 
@@ -38,10 +39,13 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +53,7 @@ import org.slf4j.LoggerFactory;
 public class ParamProcessWorker implements DispatchWorker {
 
     private static final Logger s_logger = LoggerFactory.getLogger(ParamProcessWorker.class.getName());
+    private static final Pattern UUID_PATTERN = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
     public final DateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd");
     public final DateFormat newInputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
@@ -77,31 +82,40 @@ public class ParamProcessWorker implements DispatchWorker {
     public void processParameters(final BaseCmd cmd, final Map params) {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<>();
 
-        final List<Field> cmdFields = cmd.getParamFields();
+        final short callerType = CallContext.current().getCallingAccount().getType();
+        final List<Binding> bindings = new ArrayList<>();
+        for (final Binding binding : ParamBinder.forCommand(cmd.getClass()).getBindings()) {
+            if (binding.isAuthorized(callerType)) {
+                bindings.add(binding);
+            } else {
+                s_logger.debug("Ignoring paremeter " + binding.getName() + " as the caller is not authorized to pass it in");
+            }
+        }
+
+        final Map<List<Class<?>>, Map<String, Pair<Class<?>, Object>>> resolvedUuids = resolveUuids(bindings, params);
 
-        for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            final Object paramObj = params.get(parameterAnnotation.name());
+        for (final Binding binding : bindings) {
+            final Object paramObj = params.get(binding.getName());
             if (paramObj == null) {
-                if (parameterAnnotation.required()) {
+                if (binding.isRequired()) {
                     throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " +
                             cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) +
-                            " due to missing parameter " + parameterAnnotation.name());
+                            " due to missing parameter " + binding.getName());
                 }
                 continue;
             }
 
             // marshall the parameter into the correct type and set the field value
             try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, cmd, paramObj, resolvedUuids);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
-                            parameterAnnotation.name());
+                            binding.getName());
                 }
                 throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unable to execute API command " +
                         cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value " + paramObj + " for parameter " +
-                        parameterAnnotation.name());
+                        binding.getName());
             } catch (final ParseException parseEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Invalid date parameter " + paramObj + " passed to command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
@@ -123,10 +137,10 @@ public class ParamProcessWorker implements DispatchWorker {
 
             //check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
-                final CommandType fieldType = parameterAnnotation.type();
+                final AccessType accessType = binding.getAccessType();
+                final List<Class<?>> entityList = binding.getEntities();
 
-                if (checkAccess != null) {
+                if (accessType != null && entityList != null) {
                     // Verify that caller can perform actions in behalf of vm
                     // owner acumulate all Controlled Entities together.
                     // parse the array of resource types and in case of map
@@ -135,63 +149,45 @@ public class ParamProcessWorker implements DispatchWorker {
                     // for maps, specify access to be checkd on key or value.
                     // Find the controlled entity DBid by uuid
 
-                    if (parameterAnnotation.entityType() != null && parameterAnnotation.entityType().length > 0
-                            && parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class) != null) {
-                        final Class<?>[] entityList = parameterAnnotation.entityType()[0].getAnnotation(EntityReference.class).value();
-
-                        // Check if the parameter type is a single
-                        // Id or list of id's/name's
-                        switch (fieldType) {
-                            case LIST:
-                                final CommandType listType = parameterAnnotation.collectionType();
-                                switch (listType) {
-                                    case LONG:
-                                    case UUID:
-                                        final List<Long> listParam = (List<Long>) field.get(cmd);
-                                        for (final Long entityId : listParam) {
-                                            for (final Class entity : entityList) {
-                                                final Object entityObj = _entityMgr.findById(entity, entityId);
-                                                if (entityObj != null) {
-                                                    entitiesToAccess.put(entityObj, checkAccess.accessType());
-                                                    break;
-                                                }
+                    // Check if the parameter type is a single
+                    // Id or list of id's/name's
+                    switch (binding.getType()) {
+                        case LIST:
+                            switch (binding.getCollectionType()) {
+                                case LONG:
+                                case UUID:
+                                    final List<Long> listParam = (List<Long>) binding.get(cmd);
+                                    for (final Long entityId : listParam) {
+                                        for (final Class entity : entityList) {
+                                            final Object entityObj = _entityMgr.findById(entity, entityId);
+                                            if (entityObj != null) {
+                                                entitiesToAccess.put(entityObj, accessType);
+                                                break;
                                             }
                                         }
-                                        break;
-                                /*
-                                 * case STRING: List<String> listParam = new
-                                 * ArrayList<String>(); listParam =
-                                 * (List)field.get(cmd); for(String entityName:
-                                 * listParam){ ControlledEntity entityObj =
-                                 * (ControlledEntity )daoClassInstance(entityId);
-                                 * entitiesToAccess.add(entityObj); } break;
-                                 */
-                                    default:
-                                        break;
-                                }
-                                break;
-                            case LONG:
-                            case UUID:
-                                for (final Class entity : entityList) {
-                                    final Object entityObj = _entityMgr.findById(entity, (Long) field.get(cmd));
-                                    if (entityObj != null) {
-                                        entitiesToAccess.put(entityObj, checkAccess.accessType());
-                                        break;
                                     }
+                                    break;
+                                default:
+                                    break;
+                            }
+                            break;
+                        case LONG:
+                        case UUID:
+                            for (final Class entity : entityList) {
+                                final Object entityObj = _entityMgr.findById(entity, (Long) binding.get(cmd));
+                                if (entityObj != null) {
+                                    entitiesToAccess.put(entityObj, accessType);
+                                    break;
                                 }
-                                break;
-                            default:
-                                break;
-                        }
+                            }
+                            break;
+                        default:
+                            break;
                     }
                 }
-            } catch (final IllegalArgumentException e) {
-                s_logger.error("Error initializing command " + cmd.getCommandName() + ", field " + field.getName() + " is not accessible.");
-                throw new CloudRuntimeException("Internal error initializing parameters for command " + cmd.getCommandName() + " [field " + field.getName() +
-                        " is not accessible]");
-            } catch (final IllegalAccessException e) {
-                s_logger.error("Error initializing command " + cmd.getCommandName() + ", field " + field.getName() + " is not accessible.");
-                throw new CloudRuntimeException("Internal error initializing parameters for command " + cmd.getCommandName() + " [field " + field.getName() +
+            } catch (final IllegalArgumentException | ClassCastException e) {
+                s_logger.error("Error initializing command " + cmd.getCommandName() + ", field " + binding.getField().getName() + " is not accessible.");
+                throw new CloudRuntimeException("Internal error initializing parameters for command " + cmd.getCommandName() + " [field " + binding.getField().getName() +
                         " is not accessible]");
             }
         }
@@ -199,132 +195,193 @@ public class ParamProcessWorker implements DispatchWorker {
         doAccessChecks(cmd, entitiesToAccess);
     }
 
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
-        try {
-            field.setAccessible(true);
-            final CommandType fieldType = annotation.type();
-            switch (fieldType) {
-                case BOOLEAN:
-                    field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
+    /**
+     * Looks up the entities of all the uuids passed to the command, with one query per entity type rather than one per
+     * uuid.
+     *
+     * @return the entity type and the entity of each uuid found, by the entity types of the parameters
+     */
+    private Map<List<Class<?>>, Map<String, Pair<Class<?>, Object>>> resolveUuids(final List<Binding> bindings, final Map params) {
+        final Map<List<Class<?>>, Set<String>> uuidsByEntities = new HashMap<>();
+        for (final Binding binding : bindings) {
+            final Object paramObj = params.get(binding.getName());
+            if (paramObj == null || !binding.takesUuids()) {
+                continue;
+            }
+            final Set<String> uuids = uuidsByEntities.computeIfAbsent(binding.getEntities(), entities -> new HashSet<>());
+            if (binding.getType() == CommandType.LIST) {
+                final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    addUuidToResolve(uuids, st.nextToken(), binding);
+                }
+            } else {
+                addUuidToResolve(uuids, paramObj.toString(), binding);
+            }
+        }
+
+        final Map<List<Class<?>>, Map<String, Pair<Class<?>, Object>>> resolved = new HashMap<>();
+        for (final Map.Entry<List<Class<?>>, Set<String>> entry : uuidsByEntities.entrySet()) {
+            final Set<String> remaining = entry.getValue();
+            final Map<String, Pair<Class<?>, Object>> found = new HashMap<>();
+            // For backward compatibility, we search within removed entities and let service layer deal
+            // with removed ones, return empty response or error
+            for (final Class<?> entity : entry.getKey()) {
+                if (remaining.isEmpty()) {
                     break;
-                case DATE:
-                    // This piece of code is for maintaining backward compatibility
-                    // and support both the date formats(Bug 9724)
-                    if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
-                            cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof GetUsageRecordsCmd) {
-                        final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
-                        if (isObjInNewDateFormat) {
-                            final DateFormat newFormat = newInputFormat;
-                            synchronized (newFormat) {
-                                field.set(cmdObj, newFormat.parse(paramObj.toString()));
-                            }
-                        } else {
-                            final DateFormat format = inputFormat;
-                            synchronized (format) {
-                                Date date = format.parse(paramObj.toString());
-                                if (field.getName().equals("startDate")) {
-                                    date = messageDate(date, 0, 0, 0);
-                                } else if (field.getName().equals("endDate")) {
-                                    date = messageDate(date, 23, 59, 59);
-                                }
-                                field.set(cmdObj, date);
-                            }
+                }
+                for (final Object objVO : _entityMgr.listByUuidsIncludingRemoved(entity, remaining)) {
+                    final String uuid = ((Identity) objVO).getUuid();
+                    if (remaining.remove(uuid)) {
+                        found.put(uuid, new Pair<>(entity, objVO));
+                    }
+                }
+            }
+            resolved.put(entry.getKey(), found);
+        }
+        return resolved;
+    }
+
+    private void addUuidToResolve(final Set<String> uuids, final String uuid, final Binding binding) {
+        if (uuid.isEmpty() || uuid.equals("-1")) {
+            return;
+        }
+        // pre 3.x apis take internal ids as well, those are not looked up
+        if (UUID_PATTERN.matcher(uuid).matches() || binding.isPre3x() && !isLong(uuid)) {
+            uuids.add(uuid);
+        }
+    }
+
+    private static boolean isLong(final String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void setFieldValue(final Binding binding, final BaseCmd cmdObj, final Object paramObj, final Map<List<Class<?>>, Map<String, Pair<Class<?>, Object>>> resolvedUuids)
+            throws IllegalArgumentException, ParseException {
+        final Field field = binding.getField();
+        final Parameter annotation = binding.getParameter();
+        final CommandType fieldType = binding.getType();
+        switch (fieldType) {
+            case BOOLEAN:
+                binding.set(cmdObj, Boolean.valueOf(paramObj.toString()));
+                break;
+            case DATE:
+                // This piece of code is for maintaining backward compatibility
+                // and support both the date formats(Bug 9724)
+                if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
+                        cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof GetUsageRecordsCmd) {
+                    final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
+                    if (isObjInNewDateFormat) {
+                        final DateFormat newFormat = newInputFormat;
+                        synchronized (newFormat) {
+                            binding.set(cmdObj, newFormat.parse(paramObj.toString()));
                         }
                     } else {
                         final DateFormat format = inputFormat;
                         synchronized (format) {
-                            format.setLenient(false);
-                            field.set(cmdObj, format.parse(paramObj.toString()));
+                            Date date = format.parse(paramObj.toString());
+                            if (field.getName().equals("startDate")) {
+                                date = messageDate(date, 0, 0, 0);
+                            } else if (field.getName().equals("endDate")) {
+                                date = messageDate(date, 23, 59, 59);
+                            }
+                            binding.set(cmdObj, date);
                         }
                     }
-                    break;
-                case FLOAT:
-                    // Assuming that the parameters have been checked for required before now,
-                    // we ignore blank or null values and defer to the command to set a default
-                    // value for optional parameters ...
-                    if (paramObj != null && isNotBlank(paramObj.toString())) {
-                        field.set(cmdObj, Float.valueOf(paramObj.toString()));
-                    }
-                    break;
-                case DOUBLE:
-                    // Assuming that the parameters have been checked for required before now,
-                    // we ignore blank or null values and defer to the command to set a default
-                    // value for optional parameters ...
-                    if (paramObj != null && isNotBlank(paramObj.toString())) {
-                        field.set(cmdObj, Double.valueOf(paramObj.toString()));
+                } else {
+                    final DateFormat format = inputFormat;
+                    synchronized (format) {
+                        format.setLenient(false);
+                        binding.set(cmdObj, format.parse(paramObj.toString()));
                     }
-                    break;
-                case INTEGER:
-                    // Assuming that the parameters have been checked for required before now,
-                    // we ignore blank or null values and defer to the command to set a default
-                    // value for optional parameters ...
-                    if (paramObj != null && isNotBlank(paramObj.toString())) {
-                        field.set(cmdObj, Integer.valueOf(paramObj.toString()));
-                    }
-                    break;
-                case LIST:
-                    final List listParam = new ArrayList();
-                    final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
-                    while (st.hasMoreTokens()) {
-                        final String token = st.nextToken();
-                        final CommandType listType = annotation.collectionType();
-                        switch (listType) {
-                            case INTEGER:
-                                listParam.add(Integer.valueOf(token));
-                                break;
-                            case UUID:
-                                if (token.isEmpty()) {
-                                    break;
-                                }
-                                final Long internalId = translateUuidToInternalId(token, annotation);
-                                listParam.add(internalId);
+                }
+                break;
+            case FLOAT:
+                // Assuming that the parameters have been checked for required before now,
+                // we ignore blank or null values and defer to the command to set a default
+                // value for optional parameters ...
+                if (paramObj != null && isNotBlank(paramObj.toString())) {
+                    binding.set(cmdObj, Float.valueOf(paramObj.toString()));
+                }
+                break;
+            case DOUBLE:
+                // Assuming that the parameters have been checked for required before now,
+                // we ignore blank or null values and defer to the command to set a default
+                // value for optional parameters ...
+                if (paramObj != null && isNotBlank(paramObj.toString())) {
+                    binding.set(cmdObj, Double.valueOf(paramObj.toString()));
+                }
+                break;
+            case INTEGER:
+                // Assuming that the parameters have been checked for required before now,
+                // we ignore blank or null values and defer to the command to set a default
+                // value for optional parameters ...
+                if (paramObj != null && isNotBlank(paramObj.toString())) {
+                    binding.set(cmdObj, Integer.valueOf(paramObj.toString()));
+                }
+                break;
+            case LIST:
+                final List listParam = new ArrayList();
+                final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    final String token = st.nextToken();
+                    final CommandType listType = binding.getCollectionType();
+                    switch (listType) {
+                        case INTEGER:
+                            listParam.add(Integer.valueOf(token));
+                            break;
+                        case UUID:
+                            if (token.isEmpty()) {
                                 break;
-                            case LONG: {
-                                listParam.add(Long.valueOf(token));
                             }
+                            final Long internalId = translateUuidToInternalId(token, binding, resolvedUuids);
+                            listParam.add(internalId);
                             break;
-                            case SHORT:
-                                listParam.add(Short.valueOf(token));
-                                break;
-                            case STRING:
-                                listParam.add(token);
-                                break;
+                        case LONG: {
+                            listParam.add(Long.valueOf(token));
                         }
+                        break;
+                        case SHORT:
+                            listParam.add(Short.valueOf(token));
+                            break;
+                        case STRING:
+                            listParam.add(token);
+                            break;
                     }
-                    field.set(cmdObj, listParam);
-                    break;
-                case UUID:
-                    final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
-                    field.set(cmdObj, internalId);
-                    break;
-                case LONG:
-                    field.set(cmdObj, Long.valueOf(paramObj.toString()));
-                    break;
-                case SHORT:
-                    field.set(cmdObj, Short.valueOf(paramObj.toString()));
-                    break;
-                case STRING:
-                    if ((paramObj != null)) {
-                        if (paramObj.toString().length() > annotation.length()) {
-                            s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                            throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                        } else {
-                            field.set(cmdObj, paramObj.toString());
-                        }
+                }
+                binding.set(cmdObj, listParam);
+                break;
+            case UUID:
+                final Long internalId = translateUuidToInternalId(paramObj.toString(), binding, resolvedUuids);
+                binding.set(cmdObj, internalId);
+                break;
+            case LONG:
+                binding.set(cmdObj, Long.valueOf(paramObj.toString()));
+                break;
+            case SHORT:
+                binding.set(cmdObj, Short.valueOf(paramObj.toString()));
+                break;
+            case STRING:
+                if ((paramObj != null)) {
+                    if (paramObj.toString().length() > annotation.length()) {
+                        s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
+                        throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
+                    } else {
+                        binding.set(cmdObj, paramObj.toString());
                     }
-                    break;
-                case TZDATE:
-                    field.set(cmdObj, DateUtil.parseTZDateString(paramObj.toString()));
-                    break;
-                case MAP:
-                default:
-                    field.set(cmdObj, paramObj);
-                    break;
-            }
-        } catch (final IllegalAccessException ex) {
-            s_logger.error("Error initializing command " + cmdObj.getCommandName() + ", field " + field.getName() + " is not accessible.");
-            throw new CloudRuntimeException("Internal error initializing parameters for command " + cmdObj.getCommandName() + " [field " + field.getName() +
-                    " is not accessible]");
+                }
+                break;
+            case TZDATE:
+                binding.set(cmdObj, DateUtil.parseTZDateString(paramObj.toString()));
+                break;
+            case MAP:
+            default:
+                binding.set(cmdObj, paramObj);
+                break;
         }
     }
 
@@ -367,7 +424,7 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
-    private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
+    private Long translateUuidToInternalId(final String uuid, final Binding binding, final Map<List<Class<?>>, Map<String, Pair<Class<?>, Object>>> resolvedUuids) {
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
             // APITODO: Find and get rid of all hardcoded params in API Cmds and service layer
@@ -375,9 +432,9 @@ public class ParamProcessWorker implements DispatchWorker {
         }
         Long internalId = null;
         // If annotation's empty, the cmd existed before 3.x try conversion to long
-        final boolean isPre3x = annotation.since().isEmpty();
+        final boolean isPre3x = binding.isPre3x();
         // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        final boolean isUuid = UUID_PATTERN.matcher(uuid).matches();
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid) {
             return null;
@@ -385,7 +442,10 @@ public class ParamProcessWorker implements DispatchWorker {
 
         // There may be multiple entities defined on the @EntityReference of a Response.class
         // UUID CommandType would expect only one entityType, so use the first entityType
-        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        final List<Class<?>> entities = binding.getEntities();
+        if (entities == null) {
+            throw new InvalidParameterValueException("Invalid parameter " + binding.getName() + " value=" + uuid + " due to incorrect parameter annotation for the field in api cmd class.");
+        }
 
         // Allow both uuid and internal id for pre3x apis
         if (isPre3x && !isUuid) {
@@ -403,33 +463,25 @@ public class ParamProcessWorker implements DispatchWorker {
             }
         }
 
-        // Go through each entity which is an interface to a VO class and get a VO object
-        // Try to getId() for the object using reflection, break on first non-null value
-        for (final Class<?> entity : entities) {
-            // For backward compatibility, we search within removed entities and let service layer deal
-            // with removed ones, return empty response or error
-            final Object objVO = _entityMgr.findByUuidIncludingRemoved(entity, uuid);
-            if (objVO == null) {
-                continue;
-            }
-            // Invoke the getId method, get the internal long ID
-            // If that fails hide exceptions as the uuid may not exist                                         s
+        // The entities of the uuids were looked up for all the parameters at once, take the first entity type that has it
+        final Map<String, Pair<Class<?>, Object>> found = resolvedUuids.get(entities);
+        final Pair<Class<?>, Object> entityVO = found != null ? found.get(uuid) : null;
+        if (entityVO != null) {
+            // If that fails hide exceptions as the uuid may not exist
             try {
-                internalId = ((InternalIdentity) objVO).getId();
+                internalId = ((InternalIdentity) entityVO.second()).getId();
             } catch (final IllegalArgumentException e) {
             } catch (final NullPointerException e) {
             }
-            // Return on first non-null Id for the uuid entity
             if (internalId != null) {
-                CallContext.current().putContextParameter(entity, uuid);
-                break;
+                CallContext.current().putContextParameter(entityVO.first(), uuid);
             }
         }
         if (internalId == null) {
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Object entity uuid = " + uuid + " does not exist in the database.");
             }
-            throw new InvalidParameterValueException("Invalid parameter " + annotation.name() + " value=" + uuid +
+            throw new InvalidParameterValueException("Invalid parameter " + binding.getName() + " value=" + uuid +
                     " due to incorrect long value format, or entity does not exist or due to incorrect parameter annotation for the field in api cmd class.");
         }
         return internalId;
@@ -149,6 +149,22 @@ public enum Config {
             "86400",
             "time interval between cache replacement threads (in seconds).",
             null),
+    StorageCacheReplacementCapacity(
+            "Storage",
+            ManagementServer.class,
+            Integer.class,
+            "storage.cache.replacement.capacity",
+            "0",
+            "capacity of a cache storage (in GB) to keep below 90% by replacing objects, 0 to only replace unused data.",
+            null),
+    StoragePoolCapacityViewRefreshInterval(
+            "Storage",
+            ManagementServer.class,
+            Integer.class,
+            "storage.pool.capacity.view.refresh.interval",
+            "120",
+            "time interval between reloads of the allocated capacity of the storage pools of a zone by the storage pool allocators (in seconds).",
+            null),
     MaxUploadVolumeSize("Storage", ManagementServer.class, Integer.class, "storage.max.volume.upload.size", "500", "The maximum size for a uploaded volume(in GB).", null),
     TotalRetries(
             "Storage",
@@ -1608,6 +1624,11 @@ public enum Config {
     ApiLimitInterval("Advanced", ManagementServer.class, Integer.class, "api.throttling.interval", "1", "Time interval (in seconds) to reset API count", null),
     ApiLimitMax("Advanced", ManagementServer.class, Integer.class, "api.throttling.max", "25", "Max allowed number of APIs within fixed interval", null),
     ApiLimitCacheSize("Advanced", ManagementServer.class, Integer.class, "api.throttling.cachesize", "50000", "Account based API count cache size", null),
+    ApiAuthorizationCacheSize("Advanced", ManagementServer.class, Integer.class, "api.authorization.cache.size", "10000",
+            "Max number of users, and of API keys, whose account, role and keys are cached to authorize API requests", null),
+    ApiAuthorizationCacheTtl("Advanced", ManagementServer.class, Integer.class, "api.authorization.cache.ttl", "30",
+            "Time (in seconds) the account, role and keys of a user are cached to authorize API requests. Bounds how long changes made through other management servers " +
+                    "take to apply", null),
 
     // object store
     S3EnableRRS("Advanced", ManagementServer.class, Boolean.class, "s3.rrs.enabled", "false", "enable s3 reduced redundancy storage", null),
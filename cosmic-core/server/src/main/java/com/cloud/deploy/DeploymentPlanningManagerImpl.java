@@ -64,6 +64,7 @@ import com.cloud.storage.ScopeType;
 import com.cloud.storage.Storage;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.StoragePool;
+import com.cloud.storage.StoragePoolCapacityView;
 import com.cloud.storage.StoragePoolHostVO;
 import com.cloud.storage.Volume;
 import com.cloud.storage.VolumeVO;
@@ -165,6 +166,8 @@ public class DeploymentPlanningManagerImpl extends ManagerBase implements Deploy
     @Inject
     protected StorageManager _storageMgr;
     @Inject
+    protected StoragePoolCapacityView _capacityView;
+    @Inject
     protected ClusterDetailsDao _clusterDetailsDao;
     @Inject
     protected ResourceManager _resourceMgr;
@@ -877,6 +880,12 @@ public class DeploymentPlanningManagerImpl extends ManagerBase implements Deploy
             if (hostCanAccessPool && haveEnoughSpace && checkIfHostFitsPlannerUsage(potentialHost.getId(), resourceUsageRequired)) {
                 s_logger.debug("Found a potential host " + "id: " + potentialHost.getId() + " name: " + potentialHost.getName() +
                         " and associated storage pools for this VM");
+                // count the volumes to create on their pools until they are, so concurrent deployments do not overcommit them
+                for (final Map.Entry<Volume, StoragePool> volumePool : storage.entrySet()) {
+                    if (!readyAndReusedVolumes.contains(volumePool.getKey())) {
+                        _capacityView.reserve(volumePool.getKey(), volumePool.getValue());
+                    }
+                }
                 return new Pair<>(potentialHost, storage);
             } else {
                 avoid.addHost(potentialHost.getId());
@@ -30,6 +30,7 @@ import com.cloud.managed.context.ManagedContext;
 import com.cloud.managed.context.ManagedContextRunnable;
 import com.cloud.resource.ResourceManager;
 import com.cloud.server.ManagementServer;
+import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.dao.GuestOSCategoryDao;
@@ -49,11 +50,16 @@ import com.cloud.vm.dao.VMInstanceDao;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -81,7 +87,12 @@ import org.slf4j.MDC;
  * consider it as another retry | seconds | 3600 || || time.between.cleanup | Time to wait before the cleanup thread
  * runs | seconds | 86400 || || force.ha | Force HA to happen even if the VM says no | boolean | false || ||
  * ha.retry.wait | time to wait before retrying the work item | seconds | 120 || || stop.retry.wait | time to wait
- * before retrying the stop | seconds | 120 || * }
+ * before retrying the stop | seconds | 120 || || ha.recovery.parallelism | number of vms of a failed host restarted at the same
+ * time | int | 10 || * }
+ * <p>
+ * When a host goes down, the HA work of all its vms is taken at once: the host is investigated once instead of every vm
+ * separately, every vm is still fenced off, and the vms are restarted in parallel, system vms and routers before the user
+ * vms.
  **/
 public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvailabilityManager, ClusterManagerListener {
 
@@ -146,6 +157,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     long _timeBetweenCleanups;
     boolean _forceHA;
     String _haTag = null;
+    int _recoveryParallelism;
+    ExecutorService _recoveryExecutor;
 
     protected HighAvailabilityManagerImpl() {
     }
@@ -418,14 +431,97 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
     }
 
+    /**
+     * Recovers the vms of a host in one batch, with the HA work of the other vms of the host that is up for grabs.
+     */
+    protected void recoverHost(final HaWorkVO first) {
+        final long hostId = first.getHostId();
+        final List<HaWorkVO> batch = new ArrayList<>();
+        batch.add(first);
+        batch.addAll(_haDao.takeHaWorkForHost(_serverId, hostId));
+        if (batch.size() == 1) {
+            processWork(first);
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        // when the host is down, so are all its vms
+        final boolean hostDown = investigate(hostId) == Status.Down;
+        s_logger.info("Recovering " + batch.size() + " vms of host " + hostId + (hostDown ? ", which is down" : ", the host is not known to be down so every vm is investigated"));
+
+        for (final List<HaWorkVO> tier : planRecovery(batch)) {
+            final List<Future<?>> restarts = new ArrayList<>(tier.size());
+            for (final HaWorkVO work : tier) {
+                restarts.add(_recoveryExecutor.submit(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        MDC.put("workid", " (workid: " + work.getId() + ")");
+                        try {
+                            s_logger.info("Processing work " + work);
+                            processWork(work, hostDown);
+                        } finally {
+                            MDC.remove("workid");
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> restart : restarts) {
+                try {
+                    restart.get();
+                } catch (final InterruptedException | ExecutionException e) {
+                    s_logger.warn("Unable to wait for the recovery of a vm of host " + hostId, e);
+                }
+            }
+        }
+
+        s_logger.info("Recovered " + batch.size() + " vms of host " + hostId + " in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Orders the recovery of the vms of a host: the system vms and routers first, as the user vms depend on them, then the
+     * user vms. Within each tier the largest vms go first, so they are placed while the capacity of the other hosts is
+     * least fragmented.
+     *
+     * @return the tiers of work, to be done one after the other
+     */
+    protected List<List<HaWorkVO>> planRecovery(final List<HaWorkVO> batch) {
+        final Map<Long, Integer> ramSizes = new HashMap<>();
+        final List<HaWorkVO> systemVms = new ArrayList<>();
+        final List<HaWorkVO> userVms = new ArrayList<>();
+        for (final HaWorkVO work : batch) {
+            final VMInstanceVO vm = _instanceDao.findById(work.getInstanceId());
+            final ServiceOfferingVO offering = vm == null ? null : _serviceOfferingDao.findByIdIncludingRemoved(vm.getServiceOfferingId());
+            ramSizes.put(work.getInstanceId(), offering == null || offering.getRamSize() == null ? 0 : offering.getRamSize());
+            if (work.getType().isUsedBySystem()) {
+                systemVms.add(work);
+            } else {
+                userVms.add(work);
+            }
+        }
+
+        final Comparator<HaWorkVO> largestFirst = Comparator.comparing((final HaWorkVO work) -> ramSizes.get(work.getInstanceId())).reversed();
+        final List<List<HaWorkVO>> tiers = new ArrayList<>();
+        for (final List<HaWorkVO> tier : Arrays.asList(systemVms, userVms)) {
+            if (!tier.isEmpty()) {
+                tier.sort(largestFirst);
+                tiers.add(tier);
+            }
+        }
+        return tiers;
+    }
+
     private void processWork(final HaWorkVO work) {
+        processWork(work, false);
+    }
+
+    private void processWork(final HaWorkVO work, final boolean hostDown) {
         final WorkType wt = work.getWorkType();
         try {
             final Long nextTime;
             if (wt == WorkType.Migration) {
                 nextTime = migrate(work);
             } else if (wt == WorkType.HA) {
-                nextTime = restart(work);
+                nextTime = restart(work, hostDown);
             } else if (wt == WorkType.Stop || wt == WorkType.CheckStop || wt == WorkType.ForceStop) {
                 nextTime = stopVM(work);
             } else if (wt == WorkType.Destroy) {
@@ -483,6 +579,14 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     }
 
     protected Long restart(final HaWorkVO work) {
+        return restart(work, false);
+    }
+
+    /**
+     * @param hostDown whether the host of the vm was found down already, so the vm is not investigated again, it is still
+     *                 fenced off before it is restarted
+     */
+    protected Long restart(final HaWorkVO work, final boolean hostDown) {
         List<HaWorkVO> items = _haDao.listFutureHaWorkForVm(work.getInstanceId(), work.getId());
         if (items.size() > 0) {
             final StringBuilder str = new StringBuilder("Cancelling this work item because newer ones have been scheduled.  Work Ids = [");
@@ -552,14 +656,20 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                 }
 
                 Investigator investigator = null;
-                for (final Investigator it : investigators) {
-                    investigator = it;
-                    try {
-                        alive = investigator.isVmAlive(vm, host);
-                        s_logger.info(investigator.getName() + " found " + vm + " to be alive? " + alive);
-                        break;
-                    } catch (final UnknownVM e) {
-                        s_logger.info(investigator.getName() + " could not find " + vm);
+                if (hostDown) {
+                    // the host was investigated once for all its vms, the vm is fenced off like one of unknown state, as a
+                    // host that is only unreachable may still run it
+                    s_logger.info(vm + " went down with host " + host.getId() + ", fencing it off");
+                } else {
+                    for (final Investigator it : investigators) {
+                        investigator = it;
+                        try {
+                            alive = investigator.isVmAlive(vm, host);
+                            s_logger.info(investigator.getName() + " found " + vm + " to be alive? " + alive);
+                            break;
+                        } catch (final UnknownVM e) {
+                            s_logger.info(investigator.getName() + " could not find " + vm);
+                        }
                     }
                 }
 
@@ -843,11 +953,18 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         _haTag = params.get("ha.tag");
 
+        value = params.get("ha.recovery.parallelism");
+        _recoveryParallelism = NumbersUtil.parseInt(value, 10);
+        if (_recoveryParallelism < 1) {
+            throw new ConfigurationException("ha.recovery.parallelism has to be at least 1, it is " + value);
+        }
+
         _haDao.releaseWorkItems(_serverId);
 
         _stopped = true;
 
         _executor = Executors.newScheduledThreadPool(count, new NamedThreadFactory("HA"));
+        _recoveryExecutor = Executors.newFixedThreadPool(_recoveryParallelism, new NamedThreadFactory("HA-Recovery"));
 
         return true;
     }
@@ -872,6 +989,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         wakeupWorkers();
 
         _executor.shutdown();
+        _recoveryExecutor.shutdown();
 
         return true;
     }
@@ -905,6 +1023,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     }
 
     protected class WorkerThread extends Thread {
+        // set when woken up while not waiting, so the wakeup is not lost on a worker that is still looking for work
+        private boolean _wakeupPending = false;
+
         public WorkerThread(final String name) {
             super(name);
         }
@@ -927,11 +1048,16 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             HaWorkVO work = null;
             try {
                 s_logger.trace("Checking the database for work");
+                synchronized (this) {
+                    _wakeupPending = false;
+                }
                 work = _haDao.take(_serverId);
                 if (work == null) {
                     try {
                         synchronized (this) {
-                            wait(_timeToSleep);
+                            if (!_wakeupPending) {
+                                wait(_timeToSleep);
+                            }
                         }
                         return;
                     } catch (final InterruptedException e) {
@@ -942,7 +1068,11 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
                 MDC.put("workid", " (workid: " + work.getId() + ")");
                 s_logger.info("Processing work " + work);
-                processWork(work);
+                if (work.getWorkType() == WorkType.HA && work.getHostId() != 0) {
+                    recoverHost(work);
+                } else {
+                    processWork(work);
+                }
             } finally {
                 if (work != null) {
                     MDC.remove("workId");
@@ -951,6 +1081,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
 
         public synchronized void wakup() {
+            _wakeupPending = true;
             notifyAll();
         }
     }
@@ -16,6 +16,15 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Takes all the available HA work items of the vms of a host at once.
+     *
+     * @param serverId server that is taking them.
+     * @param hostId   host the vms ran on.
+     * @return list of WorkVO or empty list.
+     */
+    List<HaWorkVO> takeHaWorkForHost(long serverId, long hostId);
+
     /**
      * Finds all the work items related to this instance.
      *
@@ -22,6 +22,7 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
     private static final Logger s_logger = LoggerFactory.getLogger(HighAvailabilityDaoImpl.class);
 
     private final SearchBuilder<HaWorkVO> TBASearch;
+    private final SearchBuilder<HaWorkVO> HostHaWorkSearch;
     private final SearchBuilder<HaWorkVO> PreviousInstanceSearch;
     private final SearchBuilder<HaWorkVO> UntakenMigrationSearch;
     private final SearchBuilder<HaWorkVO> CleanupSearch;
@@ -47,6 +48,15 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         TBASearch.and("step", TBASearch.entity().getStep(), Op.NIN);
         TBASearch.done();
 
+        HostHaWorkSearch = createSearchBuilder();
+        HostHaWorkSearch.and("server", HostHaWorkSearch.entity().getServerId(), Op.NULL);
+        HostHaWorkSearch.and("taken", HostHaWorkSearch.entity().getDateTaken(), Op.NULL);
+        HostHaWorkSearch.and("time", HostHaWorkSearch.entity().getTimeToTry(), Op.LTEQ);
+        HostHaWorkSearch.and("step", HostHaWorkSearch.entity().getStep(), Op.NIN);
+        HostHaWorkSearch.and("host", HostHaWorkSearch.entity().getHostId(), Op.EQ);
+        HostHaWorkSearch.and("type", HostHaWorkSearch.entity().getWorkType(), Op.EQ);
+        HostHaWorkSearch.done();
+
         PreviousInstanceSearch = createSearchBuilder();
         PreviousInstanceSearch.and("instance", PreviousInstanceSearch.entity().getInstanceId(), Op.EQ);
         PreviousInstanceSearch.done();
@@ -122,6 +132,28 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         return work;
     }
 
+    @Override
+    public List<HaWorkVO> takeHaWorkForHost(final long serverId, final long hostId) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        final SearchCriteria<HaWorkVO> sc = HostHaWorkSearch.create();
+        sc.setParameters("time", System.currentTimeMillis() >> 10);
+        sc.setParameters("step", Step.Done, Step.Cancelled);
+        sc.setParameters("host", hostId);
+        sc.setParameters("type", WorkType.HA);
+
+        txn.start();
+        final List<HaWorkVO> vos = lockRows(sc, null, true);
+        final Date taken = new Date();
+        for (final HaWorkVO work : vos) {
+            work.setServerId(serverId);
+            work.setDateTaken(taken);
+            update(work.getId(), work);
+        }
+        txn.commit();
+
+        return vos;
+    }
+
     @Override
     public List<HaWorkVO> findPreviousHA(final long instanceId) {
         final SearchCriteria<HaWorkVO> sc = PreviousInstanceSearch.create();
@@ -127,6 +127,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.exception.InvalidParameterValueException;
 import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -150,7 +151,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -1677,19 +1677,17 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             return null;
         }
 
-        final SortedSet<Long> availableIps = _networkModel.getAvailableIps(network, requestedIp);
+        final IpAddressPool availableIps = _networkModel.getAvailableIps(network, requestedIp);
 
         if (availableIps == null || availableIps.isEmpty()) {
             s_logger.debug("There are no free ips in the  network " + network);
             return null;
         }
 
-        final Long[] array = availableIps.toArray(new Long[availableIps.size()]);
-
         if (requestedIp != null) {
             // check that requested ip has the same cidr
             final String[] cidr = network.getCidr().split("/");
-            final boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(array[0]), Integer.parseInt(cidr[1]));
+            final boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(availableIps.first()), Integer.parseInt(cidr[1]));
             if (!isSameCidr) {
                 s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
                 return null;
@@ -1700,12 +1698,12 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             return requestedIp;
         }
 
-        return NetUtils.long2Ip(array[_rand.nextInt(array.length)]);
+        return NetUtils.long2Ip(availableIps.randomAvailable(_rand));
     }
 
     public String acquireGuestIpAddressForRouter(final Network network, final String requestedIp) {
 
-        final SortedSet<Long> availableIps = _networkModel.getAvailableIps(network, requestedIp);
+        final IpAddressPool availableIps = _networkModel.getAvailableIps(network, requestedIp);
 
         return (availableIps.isEmpty())
                 ? this.acquireGuestIpAddress(network, requestedIp)
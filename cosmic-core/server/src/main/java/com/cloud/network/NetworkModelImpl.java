@@ -76,6 +76,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.InvalidParameterValueException;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -100,8 +101,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -647,7 +646,7 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
                 s_logger.debug("Network - " + network.getId() + " has NULL CIDR.");
                 return false;
             }
-            hasFreeIps = getAvailableIps(network, null).size() > 0;
+            hasFreeIps = !getAvailableIps(network, null).isEmpty();
         }
 
         return hasFreeIps;
@@ -1801,11 +1800,10 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
     }
 
     @Override
-    public SortedSet<Long> getAvailableIps(final Network network, final String requestedIp) {
-        final String[] cidr = network.getCidr().split("/");
+    public IpAddressPool getAvailableIps(final Network network, final String requestedIp) {
+        final IpAddressPool availableIps = NetUtils.getIpAddressPoolFromCidr(network.getCidr());
+        final Long requested = requestedIp != null && NetUtils.isValidIp(requestedIp) ? NetUtils.ip2Long(requestedIp) : null;
         final List<String> ips = getUsedIpsInNetwork(network);
-        final List<String> excludedIps = getExcludedIpsInNetwork(network);
-        final SortedSet<Long> usedIps = new TreeSet<>();
 
         for (final String ip : ips) {
             if (requestedIp != null && requestedIp.equals(ip)) {
@@ -1813,25 +1811,23 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
                 return null;
             }
 
-            usedIps.add(NetUtils.ip2Long(ip));
+            availableIps.exclude(NetUtils.ip2Long(ip));
         }
 
-        for (final String ip : excludedIps) {
-            if (requestedIp != null && requestedIp.equals(ip)) {
-                s_logger.warn("Requested ip address " + requestedIp + " is in excluded IPs range " + ((NetworkVO)network).getIpExclusionList());
-                return null;
-            }
-
-            usedIps.add(NetUtils.ip2Long(ip));
+        final String ipExclusionList = ((NetworkVO) network).getIpExclusionList();
+        final boolean requestedAvailable = requested != null && availableIps.isAvailable(requested);
+        availableIps.excludeRangeList(ipExclusionList);
+        if (requestedAvailable && !availableIps.isAvailable(requested)) {
+            s_logger.warn("Requested ip address " + requestedIp + " is in excluded IPs range " + ipExclusionList);
+            return null;
         }
-        final SortedSet<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr[0], Integer.parseInt(cidr[1]), usedIps);
 
         final String gateway = network.getGateway();
-        if (gateway != null && allPossibleIps.contains(NetUtils.ip2Long(gateway))) {
-            allPossibleIps.remove(NetUtils.ip2Long(gateway));
+        if (gateway != null) {
+            availableIps.exclude(NetUtils.ip2Long(gateway));
         }
 
-        return allPossibleIps;
+        return availableIps;
     }
 
     public List<String> getExcludedIpsInNetwork(Network network) {
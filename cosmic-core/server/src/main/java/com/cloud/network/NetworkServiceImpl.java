@@ -132,6 +132,7 @@ import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.exception.InvalidParameterValueException;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicSecondaryIp;
@@ -168,7 +169,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -1018,7 +1018,8 @@ public class NetworkServiceImpl extends ManagerBase implements NetworkService {
                 }
 
                 //Check that at least one IP is available after exclusion for the router interface
-                final SortedSet<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr, NetUtils.listIp2LongList(excludedIps));
+                final IpAddressPool allPossibleIps = NetUtils.getIpAddressPoolFromCidr(cidr);
+                allPossibleIps.excludeRangeList(ipExclusionList);
                 if (allPossibleIps.isEmpty()) {
                     throw new InvalidParameterValueException("The ipExclusionList excludes all IPs in the CIDR; at least one needs to be available");
                 }
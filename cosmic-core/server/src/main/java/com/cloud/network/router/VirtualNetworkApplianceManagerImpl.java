@@ -1771,6 +1771,8 @@ public class VirtualNetworkApplianceManagerImpl extends ManagerBase implements V
             final AggregationControlCommand startCmd = new AggregationControlCommand(Action.Start, router.getInstanceName(), controlNic.getIPv4Address(), _routerControlHelper
                     .getRouterIpInNetwork(
                             guestNetworkId, router.getId()));
+            // the router may have been recreated, push its complete config
+            startCmd.setAccessDetail(NetworkElementCommand.ROUTER_FULL_SYNC, Boolean.TRUE.toString());
             cmds.addCommand(startCmd);
 
             if (reprogramGuestNtwks) {
@@ -8,6 +8,7 @@ import com.cloud.agent.api.PlugNicCommand;
 import com.cloud.agent.api.SetupGuestNetworkCommand;
 import com.cloud.agent.api.routing.AggregationControlCommand;
 import com.cloud.agent.api.routing.AggregationControlCommand.Action;
+import com.cloud.agent.api.routing.NetworkElementCommand;
 import com.cloud.agent.manager.Commands;
 import com.cloud.dao.EntityManager;
 import com.cloud.dc.DataCenter;
@@ -355,6 +356,8 @@ public class VpcVirtualNetworkApplianceManagerImpl extends VirtualNetworkApplian
                 final AggregationControlCommand startCmd = new AggregationControlCommand(Action.Start, domainRouterVO.getInstanceName(), controlNic.getIPv4Address(),
                         _routerControlHelper.getRouterIpInNetwork(
                                 guestNic.getNetworkId(), domainRouterVO.getId()));
+                // the router may have been recreated, push its complete config
+                startCmd.setAccessDetail(NetworkElementCommand.ROUTER_FULL_SYNC, Boolean.TRUE.toString());
                 cmds.addCommand(startCmd);
                 if (reprogramGuestNtwks) {
                     finalizeIpAssocForNetwork(cmds, domainRouterVO, provider, guestNic.getNetworkId(), vlanMacAddress);
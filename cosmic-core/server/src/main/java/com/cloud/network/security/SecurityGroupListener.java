@@ -63,8 +63,10 @@ public class SecurityGroupListener implements Listener {
                     s_logger.debug("Successfully programmed rule " + ruleAnswer.toString() + " into host " + agentId);
                     _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Done);
                     recordSuccess(ruleAnswer.getVmId());
+                    _securityGroupManager.handleRulesetApplied(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber());
                 } else {
                     _workDao.updateStep(ruleAnswer.getVmId(), ruleAnswer.getLogSequenceNumber(), Step.Error);
+                    _securityGroupManager.handleRulesetFailed(ruleAnswer.getVmId());
                     s_logger.debug("Failed to program rule " + ruleAnswer.toString() + " into host " + agentId + " due to " + ruleAnswer.getDetails() +
                             " and updated  jobs");
                     if (ruleAnswer.getReason() == FailureReason.CANNOT_BRIDGE_FIREWALL) {
@@ -138,6 +140,7 @@ public class SecurityGroupListener implements Listener {
         }
 
         if (cmd instanceof StartupRoutingCommand) {
+            _securityGroupManager.handleHostConnectionChanged(host.getId());
             //if (Boolean.toString(true).equals(host.getDetail("can_bridge_firewall"))) {
             try {
                 final int interval = MIN_TIME_BETWEEN_CLEANUPS + _cleanupRandom.nextInt(MIN_TIME_BETWEEN_CLEANUPS / 2);
@@ -159,6 +162,7 @@ public class SecurityGroupListener implements Listener {
 
     @Override
     public boolean processDisconnect(final long agentId, final Status state) {
+        _securityGroupManager.handleHostConnectionChanged(agentId);
         if (_workTracker != null) {
             _workTracker.processDisconnect(agentId);
         }
@@ -507,6 +507,7 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
             }
         });
 
+        handleSecurityGroupRulesChanged(securityGroup.getId());
         try {
             final ArrayList<Long> affectedVms = new ArrayList<>();
             affectedVms.addAll(_securityGroupVMMapDao.listVmIdsBySecurityGroup(securityGroup.getId()));
@@ -567,6 +568,7 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
             }
         });
 
+        handleSecurityGroupRulesChanged(securityGroupId);
         try {
             final ArrayList<Long> affectedVms = new ArrayList<>();
             affectedVms.addAll(_securityGroupVMMapDao.listVmIdsBySecurityGroup(securityGroupId));
@@ -1171,6 +1173,30 @@ public class SecurityGroupManagerImpl extends ManagerBase implements SecurityGro
         }
     }
 
+    /**
+     * Called after rules were added to or removed from a security group, before its members are scheduled.
+     */
+    protected void handleSecurityGroupRulesChanged(final long securityGroupId) {
+    }
+
+    /**
+     * Called when a host confirmed it programmed the ruleset of a vm.
+     */
+    protected void handleRulesetApplied(final long vmId, final long seqno) {
+    }
+
+    /**
+     * Called when a host failed to program the ruleset of a vm.
+     */
+    protected void handleRulesetFailed(final long vmId) {
+    }
+
+    /**
+     * Called when a host connects or disconnects, after which the rules it has are unknown.
+     */
+    protected void handleHostConnectionChanged(final long hostId) {
+    }
+
     protected List<Long> getAffectedVmsForVmStart(final VMInstanceVO vm) {
         final List<Long> affectedVms = new ArrayList<>();
         affectedVms.add(vm.getId());
@@ -5,30 +5,43 @@ import com.cloud.agent.manager.Commands;
 import com.cloud.configuration.Config;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.managed.context.ManagedContext;
+import com.cloud.network.security.SecurityGroupRulesetCache.GroupRuleset;
 import com.cloud.network.security.SecurityGroupWork.Step;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.Profiler;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.NicVO;
+import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine.State;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 /**
  * Same as the base class -- except it uses the abstracted security group work queue
  */
 public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
+    // the most work items a worker takes at a time, the groups of their vms are loaded once for all of them
+    static final int WORK_BATCH_SIZE = 50;
+
     SecurityGroupWorkQueue _workQueue = new LocalSecurityGroupWorkQueue();
     SecurityGroupWorkTracker _workTracker;
     SecurityManagerMBeanImpl _mBean;
@@ -37,9 +50,17 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
     ManagedContext _managedContext;
 
     WorkerThread[] _workers;
+    SecurityGroupRulesetCache _rulesetCache = new SecurityGroupRulesetCache();
     private final Set<Long> _disabledVms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     private boolean _schedulerDisabled = false;
 
+    private final AtomicLong _rulesetComputations = new AtomicLong();
+    private final AtomicLong _rulesetComputationNanos = new AtomicLong();
+    private final AtomicLong _maxRulesetComputationNanos = new AtomicLong();
+    private final AtomicLong _rulesetsSent = new AtomicLong();
+    private final AtomicLong _rulesetsUnchanged = new AtomicLong();
+    private final AtomicInteger _maxQueueSize = new AtomicInteger();
+
     @Override
     //@DB
     public void scheduleRulesetUpdateToHosts(final List<Long> affectedVms, final boolean updateSeqno, final Long delayMs) {
@@ -69,6 +90,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
             }
         }
         final int newJobs = _workQueue.submitWorkForVms(workItems);
+        _maxQueueSize.accumulateAndGet(_workQueue.size(), Math::max);
         _mBean.logScheduledDetails(workItems);
         p.stop();
         if (s_logger.isDebugEnabled()) {
@@ -90,6 +112,8 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         final int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
         _workTracker = new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
         _answerListener.setWorkDispatcher(_workTracker);
+        final long rulesetCacheTtl = NumbersUtil.parseLong(configs.get("network.securitygroups.ruleset.cache.ttl"), SecurityGroupRulesetCache.DEFAULT_TTL_MILLIS / 1000);
+        _rulesetCache = new SecurityGroupRulesetCache(rulesetCacheTtl * 1000, SecurityGroupRulesetCache.DEFAULT_APPLIED_TTL_MILLIS);
         return result;
     }
 
@@ -114,7 +138,9 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         s_logger.trace("Checking the work queue");
         final List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
+            workItems = _workQueue.getWork(WORK_BATCH_SIZE);
+            // the rules are loaded after the work was taken, so they hold every change the work was scheduled for
+            final Map<SecurityRuleType, Map<Long, GroupRuleset>> verified = new HashMap<>();
             for (final SecurityGroupWork work : workItems) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Processing " + work.getInstanceId());
@@ -127,7 +153,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         continue;
                     }
                     work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
+                    sendRulesetUpdates(work, verified);
                     _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
                 } catch (final Exception e) {
                     s_logger.error("Problem during SG work " + work, e);
@@ -140,6 +166,14 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
     }
 
     public void sendRulesetUpdates(final SecurityGroupWork work) {
+        sendRulesetUpdates(work, new HashMap<>());
+    }
+
+    /**
+     * @param verified the rulesets loaded from the database during this pass over the work queue, by type and group. A
+     *                 group is loaded once a pass, however many of the vms of the pass are in it.
+     */
+    void sendRulesetUpdates(final SecurityGroupWork work, final Map<SecurityRuleType, Map<Long, GroupRuleset>> verified) {
         final Long userVmId = work.getInstanceId();
         final UserVm vm = _userVMDao.findById(userVmId);
 
@@ -147,17 +181,46 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
             }
-            final Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            final Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
             final Long agentId = vm.getHostId();
             if (agentId != null) {
+                final long start = System.nanoTime();
+                final List<SecurityGroupVMMapVO> groupMaps = _securityGroupVMMapDao.listByInstanceId(userVmId);
+                List<GroupRuleset> ingressRulesets = new ArrayList<>();
+                List<GroupRuleset> egressRulesets = new ArrayList<>();
+                for (final SecurityGroupVMMapVO mapVO : groupMaps) {
+                    ingressRulesets.add(getGroupRuleset(mapVO.getSecurityGroupId(), SecurityRuleType.IngressRule, false));
+                    egressRulesets.add(getGroupRuleset(mapVO.getSecurityGroupId(), SecurityRuleType.EgressRule, false));
+                }
+                String signature = generateRulesetSignature(vm, agentId, ingressRulesets, egressRulesets);
+                if (_rulesetCache.isApplied(userVmId, agentId, signature)) {
+                    // the cached rules may miss changes made through other management servers, only skip the vm when the
+                    // rules as they are now in the database are the ones its host has
+                    ingressRulesets = new ArrayList<>();
+                    egressRulesets = new ArrayList<>();
+                    for (final SecurityGroupVMMapVO mapVO : groupMaps) {
+                        ingressRulesets.add(getVerifiedGroupRuleset(mapVO.getSecurityGroupId(), SecurityRuleType.IngressRule, verified));
+                        egressRulesets.add(getVerifiedGroupRuleset(mapVO.getSecurityGroupId(), SecurityRuleType.EgressRule, verified));
+                    }
+                    signature = generateRulesetSignature(vm, agentId, ingressRulesets, egressRulesets);
+                }
+                if (_rulesetCache.isApplied(userVmId, agentId, signature)) {
+                    _rulesetCache.markUnchanged(userVmId, work.getLogsequenceNumber());
+                    recordRulesetComputation(System.nanoTime() - start);
+                    _rulesetsUnchanged.incrementAndGet();
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("SecurityGroupManager v2: ruleset of vm " + vm.getInstanceName() + " is unchanged, not sending it again");
+                    }
+                    return;
+                }
+
+                final Map<PortAndProto, Set<String>> ingressRules = mergeGroupRulesets(ingressRulesets);
+                final Map<PortAndProto, Set<String>> egressRules = mergeGroupRulesets(egressRulesets);
                 final String privateIp = vm.getPrivateIpAddress();
                 final NicVO nic = _nicDao.findByIp4AddressAndVmId(privateIp, vm.getId());
                 List<String> nicSecIps = null;
                 if (nic != null) {
                     if (nic.getSecondaryIp()) {
                         //get secondary ips of the vm
-                        final long networkId = nic.getNetworkId();
                         nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
                     }
                 }
@@ -165,6 +228,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         generateRulesetCmd(vm.getInstanceName(), vm.getPrivateIpAddress(), vm.getPrivateMacAddress(), vm.getId(), null, work.getLogsequenceNumber(),
                                 ingressRules, egressRules, nicSecIps);
                 cmd.setMsId(_serverId);
+                recordRulesetComputation(System.nanoTime() - start);
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("SecurityGroupManager v2: sending ruleset update for vm " + vm.getInstanceName() + ":ingress num rules=" +
                             cmd.getIngressRuleSet().length + ":egress num rules=" + cmd.getEgressRuleSet().length + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" +
@@ -172,12 +236,15 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                 }
                 final Commands cmds = new Commands(cmd);
                 try {
+                    _rulesetCache.rulesetSent(userVmId, agentId, signature, work.getLogsequenceNumber());
                     _agentMgr.send(agentId, cmds, _answerListener);
+                    _rulesetsSent.incrementAndGet();
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("SecurityGroupManager v2: sent ruleset updates for " + vm.getInstanceName() + " curr queue size=" + _workQueue.size());
                     }
                 } catch (final AgentUnavailableException e) {
                     s_logger.debug("Unable to send updates for vm: " + userVmId + "(agentid=" + agentId + ")");
+                    _rulesetCache.forgetVm(userVmId);
                     _workTracker.handleException(agentId);
                 }
             }
@@ -192,6 +259,153 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         }
     }
 
+    /**
+     * @param fresh whether to load the rules from the database even when they are cached
+     * @return the rules the group contributes to the rulesets of its members, from the cache when possible
+     */
+    protected GroupRuleset getGroupRuleset(final long securityGroupId, final SecurityRuleType type, final boolean fresh) {
+        GroupRuleset ruleset = fresh ? null : _rulesetCache.get(securityGroupId, type);
+        if (ruleset != null) {
+            return ruleset;
+        }
+
+        final long generation = _rulesetCache.getGeneration();
+        final Map<PortAndProto, Set<String>> allowed = new TreeMap<>();
+        final Set<Long> allowedGroupIds = new HashSet<>();
+        // the members of a group allowed by several rules are only looked up once
+        final Map<Long, List<String>> allowedGroupCidrs = new HashMap<>();
+        for (final SecurityGroupRuleVO rule : _securityGroupRuleDao.listBySecurityGroupId(securityGroupId, type)) {
+            final PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
+            Set<String> cidrs = allowed.get(portAndProto);
+            if (cidrs == null) {
+                cidrs = new TreeSet<>(new CidrComparator());
+            }
+            final Long allowedGroupId = rule.getAllowedNetworkId();
+            if (allowedGroupId != null) {
+                allowedGroupIds.add(allowedGroupId);
+                cidrs.addAll(allowedGroupCidrs.computeIfAbsent(allowedGroupId, this::listRunningMemberCidrs));
+            } else if (rule.getAllowedSourceIpCidr() != null) {
+                cidrs.add(rule.getAllowedSourceIpCidr());
+            }
+            if (cidrs.size() > 0) {
+                allowed.put(portAndProto, cidrs);
+            }
+        }
+
+        ruleset = new GroupRuleset(securityGroupId, type, allowed, allowedGroupIds);
+        _rulesetCache.put(ruleset, generation);
+        return ruleset;
+    }
+
+    private GroupRuleset getVerifiedGroupRuleset(final long securityGroupId, final SecurityRuleType type,
+                                                 final Map<SecurityRuleType, Map<Long, GroupRuleset>> verified) {
+        return verified.computeIfAbsent(type, t -> new HashMap<>()).computeIfAbsent(securityGroupId, id -> getGroupRuleset(id, type, true));
+    }
+
+    private List<String> listRunningMemberCidrs(final long securityGroupId) {
+        final List<String> cidrs = new ArrayList<>();
+        for (final SecurityGroupVMMapVO ngmapVO : _securityGroupVMMapDao.listBySecurityGroup(securityGroupId, State.Running)) {
+            cidrs.add(ngmapVO.getGuestIpAddress() + "/32");
+        }
+        return cidrs;
+    }
+
+    /**
+     * Merges the rules of the groups of a vm. The rules of a vm in a single group are the rules of the group, which are
+     * shared as is.
+     */
+    protected Map<PortAndProto, Set<String>> mergeGroupRulesets(final List<GroupRuleset> rulesets) {
+        if (rulesets.size() == 1) {
+            return rulesets.get(0).getRules();
+        }
+        final Map<PortAndProto, Set<String>> allowed = new TreeMap<>();
+        for (final GroupRuleset ruleset : rulesets) {
+            for (final Map.Entry<PortAndProto, Set<String>> rule : ruleset.getRules().entrySet()) {
+                allowed.computeIfAbsent(rule.getKey(), portAndProto -> new TreeSet<>(new CidrComparator())).addAll(rule.getValue());
+            }
+        }
+        return allowed;
+    }
+
+    private String generateRulesetSignature(final UserVm vm, final long hostId, final List<GroupRuleset> ingressRulesets, final List<GroupRuleset> egressRulesets) {
+        final StringBuilder ruleset = new StringBuilder();
+        ruleset.append(vm.getInstanceName()).append(';').append(vm.getPrivateIpAddress()).append(';').append(vm.getPrivateMacAddress()).append(';').append(hostId);
+        for (final GroupRuleset groupRuleset : ingressRulesets) {
+            ruleset.append(";i").append(groupRuleset.getGroupId()).append('=').append(groupRuleset.getSignature());
+        }
+        for (final GroupRuleset groupRuleset : egressRulesets) {
+            ruleset.append(";e").append(groupRuleset.getGroupId()).append('=').append(groupRuleset.getSignature());
+        }
+        return DigestUtils.md5Hex(ruleset.toString());
+    }
+
+    private void recordRulesetComputation(final long nanos) {
+        _rulesetComputations.incrementAndGet();
+        _rulesetComputationNanos.addAndGet(nanos);
+        _maxRulesetComputationNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    protected List<Long> getAffectedVmsForVmStart(final VMInstanceVO vm) {
+        invalidateRulesetsAllowingGroupsOf(vm.getId());
+        return super.getAffectedVmsForVmStart(vm);
+    }
+
+    @Override
+    protected List<Long> getAffectedVmsForVmStop(final VMInstanceVO vm) {
+        invalidateRulesetsAllowingGroupsOf(vm.getId());
+        return super.getAffectedVmsForVmStop(vm);
+    }
+
+    private void invalidateRulesetsAllowingGroupsOf(final long vmId) {
+        // the vm joins or leaves the running members of its groups, and gets a fresh set of rules on its host
+        _rulesetCache.forgetVm(vmId);
+        for (final SecurityGroupVMMapVO mapVO : _securityGroupVMMapDao.listByInstanceId(vmId)) {
+            _rulesetCache.invalidateMembersOf(mapVO.getSecurityGroupId());
+        }
+    }
+
+    @Override
+    protected void handleVmMigrated(final VMInstanceVO vm) {
+        _rulesetCache.forgetVm(vm.getId());
+        super.handleVmMigrated(vm);
+    }
+
+    @Override
+    protected void handleSecurityGroupRulesChanged(final long securityGroupId) {
+        _rulesetCache.invalidateGroup(securityGroupId);
+    }
+
+    @Override
+    protected void handleRulesetApplied(final long vmId, final long seqno) {
+        _rulesetCache.rulesetApplied(vmId, seqno);
+    }
+
+    @Override
+    protected void handleRulesetFailed(final long vmId) {
+        _rulesetCache.forgetVm(vmId);
+    }
+
+    @Override
+    protected void handleHostConnectionChanged(final long hostId) {
+        _rulesetCache.forgetHost(hostId);
+    }
+
+    @Override
+    public void fullSync(final long agentId, final HashMap<String, Pair<Long, Long>> newGroupStates) {
+        // the host did not get the rulesets that were identical to the one it has, so their sequence numbers differ
+        final HashMap<String, Pair<Long, Long>> outOfSync = new HashMap<>();
+        for (final Map.Entry<String, Pair<Long, Long>> groupState : newGroupStates.entrySet()) {
+            final Long vmId = groupState.getValue().first();
+            final Long seqno = groupState.getValue().second();
+            final VmRulesetLogVO log = _rulesetLogDao.findByVmId(vmId);
+            if (log == null || seqno == null || !_rulesetCache.isInSync(vmId, seqno, log.getLogsequence())) {
+                outOfSync.put(groupState.getKey(), groupState.getValue());
+            }
+        }
+        super.fullSync(agentId, outOfSync);
+    }
+
     /*
      * Same as the superclass, except that we use the  ip address(es) returned from the join
      * made with the nics table when retrieving the SecurityGroupVmMapVO. If a vm has a single
@@ -242,6 +456,35 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return _workQueue.size();
     }
 
+    public int getMaxQueueSize() {
+        return _maxQueueSize.get();
+    }
+
+    public long getRulesetComputationCount() {
+        return _rulesetComputations.get();
+    }
+
+    public long getAverageRulesetComputationMicros() {
+        final long count = _rulesetComputations.get();
+        return count == 0 ? 0 : _rulesetComputationNanos.get() / count / 1000;
+    }
+
+    public long getMaxRulesetComputationMicros() {
+        return _maxRulesetComputationNanos.get() / 1000;
+    }
+
+    public long getRulesetsSent() {
+        return _rulesetsSent.get();
+    }
+
+    public long getRulesetsUnchanged() {
+        return _rulesetsUnchanged.get();
+    }
+
+    public SecurityGroupRulesetCache getRulesetCache() {
+        return _rulesetCache;
+    }
+
     public SecurityGroupWorkQueue getWorkQueue() {
         return _workQueue;
     }
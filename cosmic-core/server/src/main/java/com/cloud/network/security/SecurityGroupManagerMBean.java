@@ -24,6 +24,22 @@ public interface SecurityGroupManagerMBean {
 
     int getQueueSize();
 
+    int getMaxQueueSize();
+
+    long getRulesetComputationCount();
+
+    long getAverageRulesetComputationMicros();
+
+    long getMaxRulesetComputationMicros();
+
+    long getRulesetsSent();
+
+    long getRulesetsSkippedAsUnchanged();
+
+    long getGroupRulesetCacheHits();
+
+    long getGroupRulesetCacheMisses();
+
     List<Long> getVmsInQueue();
 
     void scheduleRulesetUpdateForVm(Long vmId);
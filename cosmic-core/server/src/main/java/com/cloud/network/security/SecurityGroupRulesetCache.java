@@ -0,0 +1,303 @@
+package com.cloud.network.security;
+
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Caches the rules every security group contributes to the rulesets of its members, and remembers which ruleset every
+ * vm was last programmed with.
+ * <p>
+ * The rules of a group only depend on the rules of the group and on the running members of the groups they allow, so
+ * they are computed once for all members instead of once per member. A reverse index from every allowed group to the
+ * rulesets that hold the addresses of its members lets a membership change invalidate exactly those rulesets. Entries
+ * also expire, as changes made through other management servers are not seen here.
+ * <p>
+ * The applied rulesets are kept per vm with their signature, so a vm that is scheduled but whose ruleset did not
+ * change is not sent the same ruleset again.
+ */
+public class SecurityGroupRulesetCache {
+    public static final long DEFAULT_TTL_MILLIS = 10 * 1000L;
+    public static final long DEFAULT_APPLIED_TTL_MILLIS = 10 * 60 * 1000L;
+
+    private final long ttlMillis;
+    private final long appliedTtlMillis;
+
+    private final Map<GroupKey, GroupRuleset> rulesets = new ConcurrentHashMap<>();
+    // allowed group -> the rulesets that hold the addresses of its running members
+    private final Map<Long, Set<GroupKey>> referencedBy = new ConcurrentHashMap<>();
+    // bumped on every invalidation, so a ruleset loaded while its data changed is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<Long, VmRuleset> sent = new ConcurrentHashMap<>();
+    private final Map<Long, VmRuleset> applied = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SecurityGroupRulesetCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_APPLIED_TTL_MILLIS);
+    }
+
+    public SecurityGroupRulesetCache(final long ttlMillis, final long appliedTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.appliedTtlMillis = appliedTtlMillis;
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the cached rules of the group, or null when they are unknown or expired
+     */
+    public GroupRuleset get(final long groupId, final SecurityRuleType type) {
+        final GroupKey key = new GroupKey(groupId, type);
+        final GroupRuleset ruleset = rulesets.get(key);
+        if (ruleset == null || System.currentTimeMillis() - ruleset.getLoadedAt() > ttlMillis) {
+            if (ruleset != null) {
+                rulesets.remove(key, ruleset);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ruleset;
+    }
+
+    /**
+     * Caches the rules of a group, unless anything was invalidated since they started to be loaded.
+     *
+     * @param loadedGeneration the generation before the rules were loaded
+     */
+    public void put(final GroupRuleset ruleset, final long loadedGeneration) {
+        final GroupKey key = new GroupKey(ruleset.getGroupId(), ruleset.getType());
+        for (final Long allowedGroupId : ruleset.getAllowedGroupIds()) {
+            referencedBy.computeIfAbsent(allowedGroupId, id -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        rulesets.put(key, ruleset);
+        if (generation.get() != loadedGeneration) {
+            rulesets.remove(key, ruleset);
+        }
+    }
+
+    /**
+     * The rules of the group changed.
+     */
+    public void invalidateGroup(final long groupId) {
+        generation.incrementAndGet();
+        rulesets.remove(new GroupKey(groupId, SecurityRuleType.IngressRule));
+        rulesets.remove(new GroupKey(groupId, SecurityRuleType.EgressRule));
+    }
+
+    /**
+     * The running members of the group changed, so the rulesets allowing the group are outdated.
+     */
+    public void invalidateMembersOf(final long groupId) {
+        generation.incrementAndGet();
+        final Set<GroupKey> keys = referencedBy.remove(groupId);
+        if (keys != null) {
+            for (final GroupKey key : keys) {
+                rulesets.remove(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        rulesets.clear();
+        referencedBy.clear();
+    }
+
+    /**
+     * @return whether the host of the vm confirmed it programmed a ruleset with this signature, recently enough to rely on
+     */
+    public boolean isApplied(final long vmId, final long hostId, final String signature) {
+        final VmRuleset ruleset = applied.get(vmId);
+        return ruleset != null && ruleset.getHostId() == hostId && ruleset.getSignature().equals(signature)
+                && System.currentTimeMillis() - ruleset.getAppliedAt() <= appliedTtlMillis;
+    }
+
+    /**
+     * Records that the ruleset of the log sequence number was not sent because the host already has an identical one.
+     */
+    public void markUnchanged(final long vmId, final long seqno) {
+        final VmRuleset ruleset = applied.get(vmId);
+        if (ruleset != null) {
+            ruleset.setEquivalentSeqno(seqno);
+        }
+    }
+
+    /**
+     * @return whether the sequence number the host reports for the vm and the one of its ruleset log only differ
+     * because rulesets identical to the programmed one were not sent
+     */
+    public boolean isInSync(final long vmId, final long hostSeqno, final long logSeqno) {
+        final VmRuleset ruleset = applied.get(vmId);
+        return ruleset != null && ruleset.getSeqno() == hostSeqno && ruleset.getEquivalentSeqno() == logSeqno;
+    }
+
+    public void rulesetSent(final long vmId, final long hostId, final String signature, final long seqno) {
+        sent.put(vmId, new VmRuleset(hostId, signature, seqno));
+    }
+
+    public void rulesetApplied(final long vmId, final long seqno) {
+        final VmRuleset ruleset = sent.get(vmId);
+        if (ruleset != null && ruleset.getSeqno() == seqno) {
+            sent.remove(vmId, ruleset);
+            ruleset.setAppliedAt(System.currentTimeMillis());
+            applied.put(vmId, ruleset);
+        }
+    }
+
+    public void forgetVm(final long vmId) {
+        sent.remove(vmId);
+        applied.remove(vmId);
+    }
+
+    public void forgetHost(final long hostId) {
+        sent.values().removeIf(ruleset -> ruleset.getHostId() == hostId);
+        applied.values().removeIf(ruleset -> ruleset.getHostId() == hostId);
+    }
+
+    public int size() {
+        return rulesets.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The rules one security group contributes to the ruleset of each of its members, for one direction.
+     */
+    public static class GroupRuleset {
+        private final long groupId;
+        private final SecurityRuleType type;
+        private final Map<PortAndProto, Set<String>> rules;
+        private final Set<Long> allowedGroupIds;
+        private final String signature;
+        private final long loadedAt;
+
+        public GroupRuleset(final long groupId, final SecurityRuleType type, final Map<PortAndProto, Set<String>> rules, final Set<Long> allowedGroupIds) {
+            this.groupId = groupId;
+            this.type = type;
+            this.rules = Collections.unmodifiableMap(rules);
+            this.allowedGroupIds = Collections.unmodifiableSet(allowedGroupIds);
+            this.signature = computeSignature(rules);
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        public long getGroupId() {
+            return groupId;
+        }
+
+        public SecurityRuleType getType() {
+            return type;
+        }
+
+        public Map<PortAndProto, Set<String>> getRules() {
+            return rules;
+        }
+
+        public Set<Long> getAllowedGroupIds() {
+            return allowedGroupIds;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+        private static String computeSignature(final Map<PortAndProto, Set<String>> rules) {
+            final StringBuilder ruleset = new StringBuilder();
+            for (final Map.Entry<PortAndProto, Set<String>> rule : rules.entrySet()) {
+                final PortAndProto portAndProto = rule.getKey();
+                ruleset.append(portAndProto.getProto()).append(':').append(portAndProto.getStartPort()).append('-').append(portAndProto.getEndPort())
+                       .append('=').append(rule.getValue()).append(';');
+            }
+            return DigestUtils.md5Hex(ruleset.toString());
+        }
+    }
+
+    private static class VmRuleset {
+        private final long hostId;
+        private final String signature;
+        private final long seqno;
+        private volatile long equivalentSeqno;
+        private volatile long appliedAt;
+
+        VmRuleset(final long hostId, final String signature, final long seqno) {
+            this.hostId = hostId;
+            this.signature = signature;
+            this.seqno = seqno;
+            this.equivalentSeqno = seqno;
+        }
+
+        long getHostId() {
+            return hostId;
+        }
+
+        String getSignature() {
+            return signature;
+        }
+
+        long getSeqno() {
+            return seqno;
+        }
+
+        long getEquivalentSeqno() {
+            return equivalentSeqno;
+        }
+
+        void setEquivalentSeqno(final long equivalentSeqno) {
+            this.equivalentSeqno = equivalentSeqno;
+        }
+
+        long getAppliedAt() {
+            return appliedAt;
+        }
+
+        void setAppliedAt(final long appliedAt) {
+            this.appliedAt = appliedAt;
+        }
+    }
+
+    private static class GroupKey {
+        private final long groupId;
+        private final String type;
+
+        GroupKey(final long groupId, final SecurityRuleType type) {
+            this.groupId = groupId;
+            this.type = type.getType();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            final GroupKey other = (GroupKey) o;
+            return groupId == other.groupId && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(groupId) + type.hashCode();
+        }
+    }
+}
@@ -86,6 +86,46 @@ public class SecurityManagerMBeanImpl extends StandardMBean implements SecurityG
         return this._sgMgr.getQueueSize();
     }
 
+    @Override
+    public int getMaxQueueSize() {
+        return _sgMgr.getMaxQueueSize();
+    }
+
+    @Override
+    public long getRulesetComputationCount() {
+        return _sgMgr.getRulesetComputationCount();
+    }
+
+    @Override
+    public long getAverageRulesetComputationMicros() {
+        return _sgMgr.getAverageRulesetComputationMicros();
+    }
+
+    @Override
+    public long getMaxRulesetComputationMicros() {
+        return _sgMgr.getMaxRulesetComputationMicros();
+    }
+
+    @Override
+    public long getRulesetsSent() {
+        return _sgMgr.getRulesetsSent();
+    }
+
+    @Override
+    public long getRulesetsSkippedAsUnchanged() {
+        return _sgMgr.getRulesetsUnchanged();
+    }
+
+    @Override
+    public long getGroupRulesetCacheHits() {
+        return _sgMgr.getRulesetCache().getHits();
+    }
+
+    @Override
+    public long getGroupRulesetCacheMisses() {
+        return _sgMgr.getRulesetCache().getMisses();
+    }
+
     @Override
     public List<Long> getVmsInQueue() {
         return _sgMgr.getWorkQueue().getVmsInQueue();
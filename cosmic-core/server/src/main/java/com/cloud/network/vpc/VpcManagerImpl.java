@@ -98,6 +98,7 @@ import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.exception.InvalidParameterValueException;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.DomainRouterVO;
 import com.cloud.vm.ReservationContext;
@@ -120,7 +121,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -1546,7 +1546,7 @@ public class VpcManagerImpl extends ManagerBase implements VpcManager, VpcProvis
                             " should be within the CIDR of the private network " + privateNtwk.getCidr());
         }
 
-        final SortedSet<Long> availableIps = _ntwkModel.getAvailableIps(privateNtwk, ipAddress);
+        final IpAddressPool availableIps = _ntwkModel.getAvailableIps(privateNtwk, ipAddress);
 
         if (availableIps == null || availableIps.isEmpty()) {
             throw new InvalidParameterValueException("The requested ip address " + ipAddress + " is not available in private network " + privateNtwk.getName());
@@ -1,5 +1,6 @@
 package com.cloud.servlet;
 
+import com.cloud.api.ApiRequestSigner;
 import com.cloud.dao.EntityManager;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.framework.security.keys.KeysManager;
@@ -29,12 +30,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import com.google.gson.Gson;
@@ -575,34 +572,16 @@ public class ConsoleProxyServlet extends HttpServlet {
             String apiKey = null;
             String secretKey = null;
             String signature = null;
-            String unsignedRequest = null;
 
-            // - build a request string with sorted params, make sure it's all lowercase
-            // - sign the request, verify the signature is the same
-            final List<String> parameterNames = new ArrayList<>();
-
-            for (final Object paramNameObj : requestParameters.keySet()) {
-                parameterNames.add((String) paramNameObj); // put the name in a list that we'll sort later
-            }
-
-            Collections.sort(parameterNames);
-
-            for (final String paramName : parameterNames) {
+            for (final Map.Entry<String, Object[]> parameter : requestParameters.entrySet()) {
                 // parameters come as name/value pairs in the form String/String[]
-                final String paramValue = ((String[]) requestParameters.get(paramName))[0];
+                final String paramName = parameter.getKey();
+                final String paramValue = ((String[]) parameter.getValue())[0];
 
                 if ("signature".equalsIgnoreCase(paramName)) {
                     signature = paramValue;
-                } else {
-                    if ("apikey".equalsIgnoreCase(paramName)) {
-                        apiKey = paramValue;
-                    }
-
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    }
+                } else if ("apikey".equalsIgnoreCase(paramName)) {
+                    apiKey = paramValue;
                 }
             }
 
@@ -640,14 +619,8 @@ public class ConsoleProxyServlet extends HttpServlet {
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
-
-            final Mac mac = Mac.getInstance("HmacSHA1");
-            final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            mac.init(keySpec);
-            mac.update(unsignedRequest.getBytes());
-            final byte[] encryptedBytes = mac.doFinal();
-            final String computedSignature = Base64.encodeBase64String(encryptedBytes);
+            // sign the request with sorted params, lowercased, and verify the signature is the same
+            final String computedSignature = ApiRequestSigner.sign(secretKey, requestParameters);
             final boolean equalSig = ConstantTimeComparator.compareStrings(signature, computedSignature);
             if (!equalSig) {
                 s_logger.debug("User signature: " + signature + " is not equaled to computed signature: " + computedSignature);
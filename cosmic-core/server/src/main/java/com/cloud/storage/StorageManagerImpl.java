@@ -179,6 +179,8 @@ public class StorageManagerImpl extends ManagerBase implements StorageManager, C
     @Inject
     protected AgentManager _agentMgr;
     @Inject
+    protected StoragePoolCapacityView _capacityView;
+    @Inject
     protected TemplateManager _tmpltMgr;
     @Inject
     protected AccountManager _accountMgr;
@@ -1001,9 +1003,8 @@ public class StorageManagerImpl extends ManagerBase implements StorageManager, C
             return false;
         }
 
-        // allocated space includes template of specified volume
-        final StoragePoolVO poolVO = _storagePoolDao.findById(pool.getId());
-        long allocatedSizeWithtemplate = _capacityMgr.getAllocatedPoolCapacity(poolVO, null);
+        // allocated space includes the templates on the pool and the volumes reserved on it
+        final long allocatedSizeWithtemplate = _capacityView.getAllocatedBytes(pool);
         long totalAskingSize = 0;
         for (final Volume volume : volumes) {
             // refreshing the volume from the DB to get latest hv_ss_reserve (hypervisor snapshot reserve) field
@@ -1019,31 +1020,14 @@ public class StorageManagerImpl extends ManagerBase implements StorageManager, C
                 volumeVO = _volumeDao.findById(volume.getId());
             }
 
-            if (volumeVO.getTemplateId() != null) {
-                final VMTemplateVO tmpl = _templateDao.findByIdIncludingRemoved(volumeVO.getTemplateId());
-                if (tmpl != null && tmpl.getFormat() != ImageFormat.ISO) {
-                    allocatedSizeWithtemplate = _capacityMgr.getAllocatedPoolCapacity(poolVO, tmpl);
-                }
-            }
             if (volumeVO.getState() != Volume.State.Ready) {
                 totalAskingSize = totalAskingSize + getVolumeSizeIncludingHypervisorSnapshotReserve(volumeVO, pool);
             }
         }
 
-        final long totalOverProvCapacity;
-        if (pool.getPoolType() == StoragePoolType.NetworkFilesystem || pool.getPoolType() == StoragePoolType.Filesystem) {
-            final BigDecimal overProvFactor = getStorageOverProvisioningFactor(pool.getId());
-            totalOverProvCapacity = overProvFactor.multiply(new BigDecimal(pool.getCapacityBytes())).longValue();
-            s_logger.debug("Found storage pool " + poolVO.getName() + " of type " + pool.getPoolType().toString() + " with overprovisioning factor "
-                    + overProvFactor.toString());
-            s_logger.debug("Total over provisioned capacity calculated is " + overProvFactor + " * " + pool.getCapacityBytes());
-        } else {
-            totalOverProvCapacity = pool.getCapacityBytes();
-            s_logger.debug("Found storage pool " + poolVO.getName() + " of type " + pool.getPoolType().toString());
-        }
-
-        s_logger.debug("Total capacity of the pool " + poolVO.getName() + " id: " + pool.getId() + " is " + totalOverProvCapacity);
-        final double storageAllocatedThreshold = CapacityManager.StorageAllocatedCapacityDisableThreshold.valueIn(pool.getDataCenterId());
+        final long totalOverProvCapacity = _capacityView.getTotalBytes(pool);
+        s_logger.debug("Total capacity of the pool " + pool.getName() + " id: " + pool.getId() + " of type " + pool.getPoolType() + " is " + totalOverProvCapacity);
+        final double storageAllocatedThreshold = _capacityView.getAllocatedDisableThreshold(pool);
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Checking pool: " + pool.getId() + " for volume allocation " + volumes.toString() + ", maxSize : " + totalOverProvCapacity +
                     ", totalAllocatedSize : " + allocatedSizeWithtemplate + ", askingSize : " + totalAskingSize + ", allocated disable threshold: " +
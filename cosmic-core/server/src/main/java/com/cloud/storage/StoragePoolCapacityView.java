@@ -0,0 +1,43 @@
+package com.cloud.storage;
+
+import java.util.List;
+
+/**
+ * An in-memory view of the allocated capacity and the volumes of the primary storage pools, so the storage pool
+ * allocators do not query the database for every pool they consider for every volume.
+ * <p>
+ * The view is loaded per zone, kept up to date with the volume state transitions on this management server, and
+ * reloaded periodically to pick up the changes made by the other management servers.
+ */
+public interface StoragePoolCapacityView {
+
+    /**
+     * @return the bytes allocated on the pool, including the volumes reserved on it that are not created yet
+     */
+    long getAllocatedBytes(StoragePool pool);
+
+    /**
+     * @return the bytes that can be allocated on the pool, including over-provisioning
+     */
+    long getTotalBytes(StoragePool pool);
+
+    /**
+     * @return the fraction of the total bytes above which the pool is not allocated from anymore
+     */
+    double getAllocatedDisableThreshold(StoragePool pool);
+
+    /**
+     * Orders the pools of a zone by their free capacity, the most free first.
+     */
+    List<Long> orderPoolsByFreeCapacity(long dcId, List<Long> poolIds);
+
+    /**
+     * Orders the pools of a zone by the number of Ready volumes of an account on them, the least first.
+     */
+    List<Long> orderPoolsByVolumeCount(long dcId, List<Long> poolIds, long accountId);
+
+    /**
+     * Counts a volume that is about to be created on a pool as allocated, until it is created there.
+     */
+    void reserve(Volume volume, StoragePool pool);
+}
@@ -0,0 +1,395 @@
+package com.cloud.storage;
+
+import com.cloud.capacity.CapacityManager;
+import com.cloud.configuration.Config;
+import com.cloud.framework.config.dao.ConfigurationDao;
+import com.cloud.storage.Storage.StoragePoolType;
+import com.cloud.storage.Volume.Event;
+import com.cloud.storage.Volume.State;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.storage.datastore.db.PrimaryDataStoreDao;
+import com.cloud.storage.datastore.db.StoragePoolVO;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.fsm.StateListener;
+import com.cloud.utils.fsm.StateMachine2;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StoragePoolCapacityViewImpl extends ManagerBase implements StoragePoolCapacityView, StateListener<State, Event, Volume> {
+    private static final Logger s_logger = LoggerFactory.getLogger(StoragePoolCapacityViewImpl.class);
+
+    // a reservation of a volume that was never created, because its deployment failed, is dropped after this time
+    static final long RESERVATION_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    @Inject
+    PrimaryDataStoreDao _storagePoolDao;
+    @Inject
+    VolumeDao _volumeDao;
+    @Inject
+    CapacityManager _capacityMgr;
+    @Inject
+    ConfigurationDao _configDao;
+
+    long _refreshIntervalMillis = 120 * 1000L;
+
+    private final Map<Long, ZoneCapacity> _zones = new ConcurrentHashMap<>();
+
+    static boolean isCounted(final State state) {
+        // like VolumeDao.getNonDestroyedCountAndTotalByPool, removed volumes are expunged
+        return state != State.Destroy && state != State.Expunged;
+    }
+
+    @Override
+    public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
+        final int refreshInterval = NumbersUtil.parseInt(_configDao.getValue(Config.StoragePoolCapacityViewRefreshInterval.key()), 120);
+        _refreshIntervalMillis = refreshInterval * 1000L;
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        Volume.State.getStateMachine().registerListener(this);
+        return true;
+    }
+
+    @Override
+    public long getAllocatedBytes(final StoragePool pool) {
+        final ZoneCapacity zone = getZone(pool);
+        synchronized (zone) {
+            final PoolCapacity capacity = zone.pools.get(pool.getId());
+            if (capacity != null) {
+                return capacity.getAllocatedBytes(System.currentTimeMillis());
+            }
+        }
+        // not in its zone anymore
+        final StoragePoolVO poolVO = _storagePoolDao.findById(pool.getId());
+        return poolVO != null ? _capacityMgr.getAllocatedPoolCapacity(poolVO, null) : 0;
+    }
+
+    @Override
+    public long getTotalBytes(final StoragePool pool) {
+        final ZoneCapacity zone = getZone(pool);
+        synchronized (zone) {
+            final PoolCapacity capacity = zone.pools.get(pool.getId());
+            return capacity != null ? capacity.getTotalBytes() : pool.getCapacityBytes();
+        }
+    }
+
+    @Override
+    public double getAllocatedDisableThreshold(final StoragePool pool) {
+        final ZoneCapacity zone = getZone(pool);
+        synchronized (zone) {
+            final PoolCapacity capacity = zone.pools.get(pool.getId());
+            return capacity != null ? capacity.allocatedDisableThreshold : CapacityManager.StorageAllocatedCapacityDisableThreshold.valueIn(pool.getDataCenterId());
+        }
+    }
+
+    @Override
+    public List<Long> orderPoolsByFreeCapacity(final long dcId, final List<Long> poolIds) {
+        final ZoneCapacity zone = getZone(dcId, poolIds);
+        final long now = System.currentTimeMillis();
+        final Map<Long, Long> free = new HashMap<>();
+        synchronized (zone) {
+            for (final Long poolId : poolIds) {
+                final PoolCapacity capacity = zone.pools.get(poolId);
+                free.put(poolId, capacity != null ? capacity.getTotalBytes() - capacity.getAllocatedBytes(now) : 0);
+            }
+        }
+        final List<Long> ordered = new ArrayList<>(poolIds);
+        ordered.sort(Comparator.comparing((Long poolId) -> free.get(poolId)).reversed());
+        return ordered;
+    }
+
+    @Override
+    public List<Long> orderPoolsByVolumeCount(final long dcId, final List<Long> poolIds, final long accountId) {
+        final ZoneCapacity zone = getZone(dcId, poolIds);
+        final Map<Long, Integer> counts = new HashMap<>();
+        synchronized (zone) {
+            for (final Long poolId : poolIds) {
+                final PoolCapacity capacity = zone.pools.get(poolId);
+                counts.put(poolId, capacity != null ? capacity.readyVolumesByAccount.getOrDefault(accountId, 0) : 0);
+            }
+        }
+        final List<Long> ordered = new ArrayList<>(poolIds);
+        ordered.sort(Comparator.comparing(counts::get));
+        return ordered;
+    }
+
+    @Override
+    public void reserve(final Volume volume, final StoragePool pool) {
+        final ZoneCapacity zone = getZone(pool);
+        synchronized (zone) {
+            zone.release(volume.getId());
+            final PoolCapacity capacity = zone.pools.get(pool.getId());
+            if (capacity != null && volume.getSize() != null) {
+                capacity.reservations.put(volume.getId(), new Reservation(volume.getSize(), System.currentTimeMillis() + RESERVATION_TIMEOUT_MILLIS));
+                zone.reservedPools.put(volume.getId(), pool.getId());
+            }
+        }
+    }
+
+    @Override
+    public boolean preStateTransitionEvent(final State oldState, final Event event, final State newState, final Volume vo, final boolean status, final Object opaque) {
+        return true;
+    }
+
+    @Override
+    public boolean postStateTransitionEvent(final StateMachine2.Transition<State, Event> transition, final Volume vo, final boolean status, final Object opaque) {
+        if (!status) {
+            return true;
+        }
+        final ZoneCapacity zone = _zones.get(vo.getDataCenterId());
+        if (zone != null) {
+            synchronized (zone) {
+                zone.volumeChanged(vo, transition.getToState());
+            }
+        }
+        return true;
+    }
+
+    private ZoneCapacity getZone(final StoragePool pool) {
+        final ZoneCapacity zone = _zones.get(pool.getDataCenterId());
+        if (zone != null && System.currentTimeMillis() < zone.loadedAt + _refreshIntervalMillis && zone.hasPool(pool.getId())) {
+            return zone;
+        }
+        return getZone(pool.getDataCenterId(), Collections.singletonList(pool.getId()));
+    }
+
+    /**
+     * @param poolIds the pools that are needed, the zone is loaded again when one of them was added since it was loaded
+     */
+    private ZoneCapacity getZone(final long dcId, final List<Long> poolIds) {
+        final ZoneCapacity zone = _zones.get(dcId);
+        if (zone != null && System.currentTimeMillis() < zone.loadedAt + _refreshIntervalMillis && zone.hasPools(poolIds)) {
+            return zone;
+        }
+        synchronized (this) {
+            final ZoneCapacity current = _zones.get(dcId);
+            if (current != zone && current != null) {
+                // loaded by another thread meanwhile
+                return current;
+            }
+            final ZoneCapacity loaded = load(dcId);
+            for (final Long poolId : poolIds) {
+                if (!loaded.pools.containsKey(poolId)) {
+                    loaded.absentPools.add(poolId);
+                }
+            }
+            if (current != null) {
+                synchronized (current) {
+                    loaded.keepReservations(current);
+                }
+            }
+            _zones.put(dcId, loaded);
+            return loaded;
+        }
+    }
+
+    private ZoneCapacity load(final long dcId) {
+        final long start = System.currentTimeMillis();
+        final ZoneCapacity zone = new ZoneCapacity(start);
+        for (final StoragePoolVO pool : _storagePoolDao.listByDataCenterId(dcId)) {
+            final BigDecimal overProvisioningFactor;
+            if (pool.getPoolType() == StoragePoolType.NetworkFilesystem || pool.getPoolType() == StoragePoolType.Filesystem) {
+                overProvisioningFactor = new BigDecimal(CapacityManager.StorageOverprovisioningFactor.valueIn(pool.getId()));
+            } else {
+                overProvisioningFactor = BigDecimal.ONE;
+            }
+            final double allocatedDisableThreshold = CapacityManager.StorageAllocatedCapacityDisableThreshold.valueIn(dcId);
+            zone.pools.put(pool.getId(), new PoolCapacity(overProvisioningFactor.multiply(new BigDecimal(pool.getCapacityBytes())).longValue(),
+                    allocatedDisableThreshold, pool.isManaged(), _capacityMgr.getAllocatedPoolCapacity(pool, null)));
+        }
+        for (final Volume volume : _volumeDao.findByDc(dcId)) {
+            if (volume.getPoolId() != null && isCounted(volume.getState())) {
+                zone.loaded(volume);
+            }
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Loaded the capacity of " + zone.pools.size() + " storage pools in zone " + dcId + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return zone;
+    }
+
+    static final class ZoneCapacity {
+        final long loadedAt;
+        final Map<Long, PoolCapacity> pools = new HashMap<>();
+        // volume id -> the pool it is counted on
+        final Map<Long, Long> volumePools = new HashMap<>();
+        // volume id -> the pool it is reserved on
+        final Map<Long, Long> reservedPools = new HashMap<>();
+        // pools asked for that are not in the zone, so it is not loaded again for them
+        final Set<Long> absentPools = new HashSet<>();
+
+        ZoneCapacity(final long loadedAt) {
+            this.loadedAt = loadedAt;
+        }
+
+        boolean hasPool(final long poolId) {
+            return pools.containsKey(poolId) || absentPools.contains(poolId);
+        }
+
+        boolean hasPools(final List<Long> poolIds) {
+            for (final Long poolId : poolIds) {
+                if (!hasPool(poolId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds a volume that is counted in the allocated bytes the pool was loaded with.
+         */
+        void loaded(final Volume volume) {
+            final PoolCapacity capacity = pools.get(volume.getPoolId());
+            if (capacity != null) {
+                capacity.add(volume.getId(), new VolumeUsage(volume.getSize(), volume.getAccountId(), volume.getState() == State.Ready), false);
+                volumePools.put(volume.getId(), volume.getPoolId());
+            }
+        }
+
+        void volumeChanged(final Volume volume, final State state) {
+            final Long previousPoolId = volumePools.remove(volume.getId());
+            if (previousPoolId != null) {
+                pools.get(previousPoolId).remove(volume.getId());
+            }
+            final Long poolId = volume.getPoolId();
+            if (poolId == null || !isCounted(state)) {
+                if (!isCounted(state)) {
+                    release(volume.getId());
+                }
+                return;
+            }
+            final PoolCapacity capacity = pools.get(poolId);
+            if (capacity == null) {
+                // a pool added since the zone was loaded, it is loaded on its first use
+                return;
+            }
+            capacity.add(volume.getId(), new VolumeUsage(volume.getSize(), volume.getAccountId(), state == State.Ready), true);
+            volumePools.put(volume.getId(), poolId);
+            if (poolId.equals(reservedPools.get(volume.getId()))) {
+                release(volume.getId());
+            }
+        }
+
+        void release(final long volumeId) {
+            final Long poolId = reservedPools.remove(volumeId);
+            if (poolId != null) {
+                pools.get(poolId).reservations.remove(volumeId);
+            }
+        }
+
+        void keepReservations(final ZoneCapacity previous) {
+            for (final Map.Entry<Long, Long> reserved : previous.reservedPools.entrySet()) {
+                final Long volumeId = reserved.getKey();
+                final PoolCapacity capacity = pools.get(reserved.getValue());
+                if (capacity != null && !volumePools.containsKey(volumeId)) {
+                    capacity.reservations.put(volumeId, previous.pools.get(reserved.getValue()).reservations.get(volumeId));
+                    reservedPools.put(volumeId, reserved.getValue());
+                }
+            }
+        }
+    }
+
+    static final class PoolCapacity {
+        final long totalBytes;
+        final double allocatedDisableThreshold;
+        final boolean managed;
+        // the allocated bytes of the volumes the pool was loaded with, and of its templates and vm snapshots
+        long baseBytes;
+        // the bytes of the volumes counted on the pool since
+        long volumeBytes = 0;
+        final Map<Long, VolumeUsage> volumes = new HashMap<>();
+        final Map<Long, Integer> readyVolumesByAccount = new HashMap<>();
+        final Map<Long, Reservation> reservations = new HashMap<>();
+
+        PoolCapacity(final long totalBytes, final double allocatedDisableThreshold, final boolean managed, final long allocatedBytes) {
+            this.totalBytes = totalBytes;
+            this.allocatedDisableThreshold = allocatedDisableThreshold;
+            this.managed = managed;
+            this.baseBytes = allocatedBytes;
+        }
+
+        long getTotalBytes() {
+            return totalBytes;
+        }
+
+        long getAllocatedBytes(final long now) {
+            long allocated = baseBytes + volumeBytes;
+            reservations.values().removeIf(reservation -> reservation.expiresAt < now);
+            for (final Reservation reservation : reservations.values()) {
+                allocated += reservation.bytes;
+            }
+            return allocated;
+        }
+
+        /**
+         * @param counted whether the volume adds to the allocated bytes the pool was loaded with; the allocated bytes
+         *                of a managed pool are its used bytes, that only change when it is loaded again
+         */
+        void add(final long volumeId, final VolumeUsage volume, final boolean counted) {
+            volume.counted = counted && !managed;
+            volumes.put(volumeId, volume);
+            if (volume.counted) {
+                volumeBytes += volume.size;
+            }
+            if (volume.ready) {
+                readyVolumesByAccount.merge(volume.accountId, 1, Integer::sum);
+            }
+        }
+
+        void remove(final long volumeId) {
+            final VolumeUsage volume = volumes.remove(volumeId);
+            if (volume == null) {
+                return;
+            }
+            if (volume.counted) {
+                volumeBytes -= volume.size;
+            } else if (!managed) {
+                // it was part of the allocated bytes the pool was loaded with
+                baseBytes -= volume.size;
+            }
+            if (volume.ready) {
+                readyVolumesByAccount.computeIfPresent(volume.accountId, (accountId, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    static final class VolumeUsage {
+        final long size;
+        final long accountId;
+        final boolean ready;
+        boolean counted;
+
+        VolumeUsage(final Long size, final long accountId, final boolean ready) {
+            this.size = size != null ? size : 0;
+            this.accountId = accountId;
+            this.ready = ready;
+        }
+    }
+
+    static final class Reservation {
+        final long bytes;
+        final long expiresAt;
+
+        Reservation(final long bytes, final long expiresAt) {
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -23,6 +23,8 @@ import java.util.Map;
 public interface AccountManager extends AccountService {
     public static final String MESSAGE_ADD_ACCOUNT_EVENT = "Message.AddAccount.Event";
     public static final String MESSAGE_REMOVE_ACCOUNT_EVENT = "Message.RemoveAccount.Event";
+    public static final String MESSAGE_UPDATE_ACCOUNT_EVENT = "Message.UpdateAccount.Event";
+    public static final String MESSAGE_UPDATE_USER_EVENT = "Message.UpdateUser.Event";
 
     /**
      * Disables an account by accountId
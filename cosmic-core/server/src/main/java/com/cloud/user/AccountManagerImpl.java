@@ -135,6 +135,7 @@ import java.net.InetAddress;
 import java.net.URLEncoder;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -678,6 +679,19 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         return _userAccountDao.getUserAccount(username, domainId);
     }
 
+    @Override
+    public List<? extends Account> getActiveAccountsByName(final Collection<String> accountNames, final Long domainId) {
+        if (domainId == null) {
+            throw new InvalidParameterValueException("domainId is required for finding active accounts in the system");
+        }
+        return _accountDao.findActiveAccountsByName(accountNames, domainId);
+    }
+
+    @Override
+    public List<? extends UserAccount> getActiveUserAccounts(final Collection<String> usernames, final Long domainId) {
+        return _userAccountDao.getUserAccounts(usernames, domainId);
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_USER_UPDATE, eventDescription = "updating User")
     public UserAccount updateUser(final Long userId, final String firstName, final String lastName, final String email, final String userName, final String password, final
@@ -789,6 +803,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
         }
         _userDao.update(userId, user);
+        userChanged(userId);
         CallContext.current().putContextParameter(User.class, user.getUuid());
 
         return _userAccountDao.findById(userId);
@@ -902,6 +917,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                     _userAccountDao.update(id, user);
                 }
             });
+            if (toDisable) {
+                userChanged(id);
+            }
         } catch (final Exception e) {
             s_logger.error("Failed to update login attempts for user with id " + id);
         }
@@ -968,6 +986,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        accountChanged(accountId);
         return success;
     }
 
@@ -1030,6 +1049,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("Unable to delete account " + accountId);
             return false;
         }
+        accountChanged(accountId);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
@@ -1361,6 +1381,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
 
             if (success) {
+                accountChanged(accountId);
                 boolean disableAccountResult = false;
                 try {
                     disableAccountResult = doDisableAccount(accountId);
@@ -1560,6 +1581,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             updatedUser.setApiKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            userChanged(userId);
             return encodedKey;
         } catch (final NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -1587,6 +1609,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
             updatedUser.setSecretKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            userChanged(userId);
             return encodedKey;
         } catch (final NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -1597,7 +1620,17 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(final long userId, final State state) {
         final UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        final boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        userChanged(userId);
+        return success;
+    }
+
+    private void userChanged(final long userId) {
+        _messageBus.publish(_name, MESSAGE_UPDATE_USER_EVENT, PublishScope.LOCAL, userId);
+    }
+
+    private void accountChanged(final long accountId) {
+        _messageBus.publish(_name, MESSAGE_UPDATE_ACCOUNT_EVENT, PublishScope.LOCAL, accountId);
     }
 
     protected boolean lockAccount(final long accountId) {
@@ -1610,6 +1643,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 final AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                accountChanged(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -2070,6 +2104,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         });
 
         if (success) {
+            accountChanged(account.getId());
             CallContext.current().putContextParameter(Account.class, account.getUuid());
             return _accountDao.findById(account.getId());
         } else {
@@ -2102,7 +2137,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), AccessType.OperateEntry, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        final boolean removed = _userDao.remove(id);
+        userChanged(id);
+        return removed;
     }
 
     @Override
@@ -0,0 +1,209 @@
+package com.cloud.user;
+
+import com.cloud.configuration.Config;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.framework.config.dao.ConfigurationDao;
+import com.cloud.framework.messagebus.MessageBus;
+import com.cloud.framework.messagebus.MessageSubscriber;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.mgmt.JmxUtil;
+
+import javax.inject.Inject;
+import javax.management.StandardMBean;
+import javax.naming.ConfigurationException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the authorization contexts of the users that called the API recently, by user id for the requests of a logged
+ * in session and by API key for the signed requests.
+ * <p>
+ * Changes made to users, accounts and domains on this management server invalidate the affected entries through the
+ * message bus. Changes made through other management servers are not seen here, so entries also expire after
+ * api.authorization.cache.ttl seconds. The number of entries is bounded by api.authorization.cache.size; when it is
+ * reached, the expired entries are dropped, or all of them when there are none.
+ */
+public class AuthorizationContextCacheImpl extends ManagerBase implements AuthorizationContextCache, AuthorizationContextCacheMBean {
+    private static final Logger s_logger = LoggerFactory.getLogger(AuthorizationContextCacheImpl.class);
+
+    @Inject
+    UserDao _userDao;
+    @Inject
+    AccountDao _accountDao;
+    @Inject
+    DomainDao _domainDao;
+    @Inject
+    AccountService _accountService;
+    @Inject
+    ConfigurationDao _configDao;
+    @Inject
+    MessageBus _messageBus;
+
+    long _ttlMillis = 30 * 1000L;
+    int _maxSize = 10000;
+
+    private final Map<Long, Entry> byUserId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> byApiKey = new ConcurrentHashMap<>();
+    // bumped on every invalidation, so a context loaded while its data changed is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Override
+    public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
+        final Map<String, String> configs = _configDao.getConfiguration(params);
+        _ttlMillis = NumbersUtil.parseInt(configs.get(Config.ApiAuthorizationCacheTtl.key()), 30) * 1000L;
+        _maxSize = NumbersUtil.parseInt(configs.get(Config.ApiAuthorizationCacheSize.key()), 10000);
+
+        final MessageSubscriber userChanged = (senderAddress, subject, args) -> invalidateUser((Long) args);
+        final MessageSubscriber accountChanged = (senderAddress, subject, args) -> invalidateAccount((Long) args);
+        final MessageSubscriber domainChanged = (senderAddress, subject, args) -> invalidateAll();
+        _messageBus.subscribe(AccountManager.MESSAGE_UPDATE_USER_EVENT, userChanged);
+        _messageBus.subscribe(AccountManager.MESSAGE_UPDATE_ACCOUNT_EVENT, accountChanged);
+        _messageBus.subscribe(AccountManager.MESSAGE_REMOVE_ACCOUNT_EVENT, accountChanged);
+        _messageBus.subscribe(DomainManager.MESSAGE_UPDATE_DOMAIN_EVENT, domainChanged);
+        _messageBus.subscribe(DomainManager.MESSAGE_REMOVE_DOMAIN_EVENT, domainChanged);
+
+        try {
+            JmxUtil.registerMBean("AuthorizationContextCache", "AuthorizationContextCacheImpl", new StandardMBean(this, AuthorizationContextCacheMBean.class));
+        } catch (final Exception e) {
+            s_logger.error("Failed to register MBean", e);
+        }
+        return true;
+    }
+
+    @Override
+    public AuthorizationContext getByUserId(final long userId) {
+        final Entry entry = byUserId.get(userId);
+        if (isValid(entry)) {
+            hits.incrementAndGet();
+            return entry.context;
+        }
+        misses.incrementAndGet();
+
+        final long loadedGeneration = generation.get();
+        final User user = _userDao.findById(userId);
+        if (user == null) {
+            return null;
+        }
+        final AuthorizationContext context = load(user, _accountDao.findByIdIncludingRemoved(user.getAccountId()));
+        put(byUserId, userId, new Entry(context), loadedGeneration);
+        return context;
+    }
+
+    @Override
+    public AuthorizationContext getByApiKey(final String apiKey) {
+        final Entry entry = byApiKey.get(apiKey);
+        if (isValid(entry)) {
+            hits.incrementAndGet();
+            return entry.context;
+        }
+        misses.incrementAndGet();
+
+        final long loadedGeneration = generation.get();
+        final Pair<User, Account> userAccount = _accountDao.findUserAccountByApiKey(apiKey);
+        if (userAccount == null) {
+            return null;
+        }
+        final AuthorizationContext context = load(userAccount.first(), userAccount.second());
+        put(byApiKey, apiKey, new Entry(context), loadedGeneration);
+        return context;
+    }
+
+    private AuthorizationContext load(final User user, final Account account) {
+        String domainPath = null;
+        if (account != null) {
+            final DomainVO domain = _domainDao.findByIdIncludingRemoved(account.getDomainId());
+            domainPath = domain == null ? null : domain.getPath();
+        }
+        return new AuthorizationContext(user, account, _accountService.getRoleType(account), domainPath);
+    }
+
+    private boolean isValid(final Entry entry) {
+        return entry != null && System.currentTimeMillis() - entry.loadedAt <= _ttlMillis;
+    }
+
+    private <K> void put(final Map<K, Entry> map, final K key, final Entry entry, final long loadedGeneration) {
+        if (map.size() >= _maxSize) {
+            map.values().removeIf(e -> !isValid(e));
+            if (map.size() >= _maxSize) {
+                map.clear();
+            }
+        }
+        map.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            map.remove(key, entry);
+        }
+    }
+
+    @Override
+    public void invalidateUser(final long userId) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        byUserId.remove(userId);
+        byApiKey.values().removeIf(e -> e.context.getUser().getId() == userId);
+    }
+
+    @Override
+    public void invalidateAccount(final long accountId) {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        byUserId.values().removeIf(e -> e.context.getUser().getAccountId() == accountId);
+        byApiKey.values().removeIf(e -> e.context.getUser().getAccountId() == accountId);
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        byUserId.clear();
+        byApiKey.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public int getSize() {
+        return byUserId.size() + byApiKey.size();
+    }
+
+    private static final class Entry {
+        private final AuthorizationContext context;
+        private final long loadedAt;
+
+        private Entry(final AuthorizationContext context) {
+            this.context = context;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.cloud.user;
+
+/**
+ * Allows JMX access to the statistics of the {@link AuthorizationContextCache}
+ */
+public interface AuthorizationContextCacheMBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getInvalidations();
+
+    int getSize();
+
+    void invalidateAll();
+}
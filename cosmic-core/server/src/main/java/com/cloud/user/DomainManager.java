@@ -10,6 +10,7 @@ import java.util.Set;
 public interface DomainManager extends DomainService {
     public static final String MESSAGE_ADD_DOMAIN_EVENT = "Message.AddDomain.Event";
     public static final String MESSAGE_REMOVE_DOMAIN_EVENT = "Message.RemoveDomain.Event";
+    public static final String MESSAGE_UPDATE_DOMAIN_EVENT = "Message.UpdateDomain.Event";
 
     Set<Long> getDomainChildrenIds(String parentDomainPath);
 
@@ -326,6 +326,10 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
                 CallContext.current().putContextParameter(Domain.class, domain.getUuid());
             }
         });
+        if (domainName != null) {
+            // the paths of the domain and its children changed
+            _messageBus.publish(_name, MESSAGE_UPDATE_DOMAIN_EVENT, PublishScope.LOCAL, domainId);
+        }
 
         return _domainDao.findById(domainId);
     }
@@ -0,0 +1,153 @@
+package com.cloud.api;
+
+import static org.junit.Assert.assertEquals;
+
+import com.cloud.utils.testcase.Benchmarks;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ApiRequestSignerTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(ApiRequestSignerTest.class);
+    private static final String SECRET_KEY = "JM9dI2g3nF1jFQb3jPp4PJrEx0sP2Ie7vZd3yNqkVbB3eCgk0n6zUsRtYc4a9yXWbZ2g0qC1H8oFpbYzJvA2Lw";
+
+    /**
+     * Signs the request the way the api server did before, building the unsigned request a parameter at a time
+     */
+    private static String signWithStrings(final String secretKey, final Map<String, Object[]> requestParameters) throws Exception {
+        final List<String> parameterNames = new ArrayList<>(requestParameters.keySet());
+        Collections.sort(parameterNames);
+
+        String unsignedRequest = null;
+        for (final String paramName : parameterNames) {
+            final String paramValue = ((String[]) requestParameters.get(paramName))[0];
+            if (!ApiConstants.SIGNATURE.equalsIgnoreCase(paramName)) {
+                if (unsignedRequest == null) {
+                    unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+                } else {
+                    unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+                }
+            }
+        }
+        unsignedRequest = unsignedRequest.toLowerCase();
+
+        final Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(secretKey.getBytes(), "HmacSHA1"));
+        mac.update(unsignedRequest.getBytes());
+        return Base64.encodeBase64String(mac.doFinal());
+    }
+
+    private static Map<String, Object[]> buildRequest(final String command, final int parameterCount, final int valueLength, final Random random) {
+        final Map<String, Object[]> requestParameters = new HashMap<>();
+        requestParameters.put(ApiConstants.COMMAND, new String[]{command});
+        requestParameters.put(ApiConstants.API_KEY, new String[]{"Xy7Q-Bv2_nF1.jFQ*b3jPp4PJrEx0sP2Ie7vZd3"});
+        requestParameters.put(ApiConstants.SIGNATURE, new String[]{"invalid"});
+        for (int i = 0; i < parameterCount; i++) {
+            requestParameters.put("details[" + i + "].Value", new String[]{randomValue(valueLength, random)});
+        }
+        return requestParameters;
+    }
+
+    private static String randomValue(final int length, final Random random) {
+        final String alphabet = "aZ09 .-*_+&=/%?~!'()\"\n\u00e9\u00df\u20ac\u4e2d\ud83d\ude00";
+        final StringBuilder value = new StringBuilder(length);
+        while (value.length() < length) {
+            value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return value.toString();
+    }
+
+    @Test
+    public void testSignatureOfASimpleRequest() throws Exception {
+        final Map<String, Object[]> requestParameters = new HashMap<>();
+        requestParameters.put("command", new String[]{"listUsers"});
+        requestParameters.put("apiKey", new String[]{"plgWJfZK4gyS3mOMTVmjUVg-X-jlWlnfaUJ9GAbBbf9EdM-kAYMmAiLqzzq1ElZLYq_u38zCm0bewzGUdP66mg"});
+        requestParameters.put("response", new String[]{"json"});
+        requestParameters.put("signature", new String[]{"whatever"});
+
+        // the signature the api documentation gives for this request
+        assertEquals("TTpdDq/7j/J58XCRHomKoQXEQds=",
+                ApiRequestSigner.sign("VDaACYb0LV9eNjTetIOElcVQkvJck_J_QljX_FcHRj87ZKiy0z0ty0ZsYBkoXkY9b7eq1EhwJaw7FF3akA3KBQ", requestParameters));
+    }
+
+    @Test
+    public void testSignatureIsTheOneOfTheUnsignedRequest() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            final Map<String, Object[]> requestParameters = buildRequest("deployVirtualMachine", random.nextInt(20), random.nextInt(200), random);
+            assertEquals(signWithStrings(SECRET_KEY, requestParameters), ApiRequestSigner.sign(SECRET_KEY, requestParameters));
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogatesAreSignedAsTheEncoderReplacesThem() throws Exception {
+        final Map<String, Object[]> requestParameters = buildRequest("listZones", 0, 0, new Random());
+        requestParameters.put("name", new String[]{"a\ud83db\ude00c\ud83d"});
+
+        assertEquals(signWithStrings(SECRET_KEY, requestParameters), ApiRequestSigner.sign(SECRET_KEY, requestParameters));
+    }
+
+    @Test
+    public void testSignatureOfARequestLargerThanTheBuffer() throws Exception {
+        final Map<String, Object[]> requestParameters = buildRequest("deployVirtualMachine", 1, 0, new Random());
+        requestParameters.put(ApiConstants.USER_DATA, new String[]{randomValue(64 * 1024, new Random(7))});
+
+        assertEquals(signWithStrings(SECRET_KEY, requestParameters), ApiRequestSigner.sign(SECRET_KEY, requestParameters));
+    }
+
+    /**
+     * Signs requests of growing sizes the way the api server did before and single pass: a small one, a
+     * deployVirtualMachine with 32 KB of userdata and updateConfiguration like batches of 100 and 1000 parameters.
+     */
+    @Test
+    public void benchmarkSigning() throws Exception {
+        Benchmarks.assumeEnabled();
+        final Random random = new Random(1);
+        final Map<String, Map<String, Object[]>> requests = new LinkedHashMap<>();
+        requests.put("small", buildRequest("listZones", 3, 10, random));
+        final Map<String, Object[]> deploy = buildRequest("deployVirtualMachine", 10, 36, random);
+        deploy.put(ApiConstants.USER_DATA, new String[]{Base64.encodeBase64String(randomValue(24 * 1024, random).getBytes())});
+        requests.put("userdata", deploy);
+        requests.put("batch of 100", buildRequest("updateConfiguration", 100, 50, random));
+        requests.put("batch of 1000", buildRequest("updateConfiguration", 1000, 50, random));
+
+        for (final Map.Entry<String, Map<String, Object[]>> request : requests.entrySet()) {
+            final int iterations = 50;
+            String expected = null;
+            String actual = null;
+            // warm up both
+            for (int i = 0; i < 10; i++) {
+                signWithStrings(SECRET_KEY, request.getValue());
+                ApiRequestSigner.sign(SECRET_KEY, request.getValue());
+            }
+
+            final long stringsStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                expected = signWithStrings(SECRET_KEY, request.getValue());
+            }
+            final long stringsMicros = (System.nanoTime() - stringsStart) / 1000 / iterations;
+
+            final long singlePassStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                actual = ApiRequestSigner.sign(SECRET_KEY, request.getValue());
+            }
+            final long singlePassMicros = (System.nanoTime() - singlePassStart) / 1000 / iterations;
+
+            s_logger.info("Signing a " + request.getKey() + " request took " + stringsMicros + " us building strings and " + singlePassMicros + " us single pass");
+            assertEquals(expected, actual);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.cloud.api.dispatch;
 
 import com.cloud.api.BaseCmd;
+import com.cloud.api.EntityReference;
+import com.cloud.api.Identity;
+import com.cloud.api.InternalIdentity;
 import com.cloud.api.Parameter;
 import com.cloud.api.ServerApiException;
 import com.cloud.context.CallContext;
+import com.cloud.dao.EntityManager;
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.exception.InsufficientCapacityException;
 import com.cloud.exception.NetworkRuleConflictException;
@@ -12,8 +16,16 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.testcase.Benchmarks;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -23,20 +35,26 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ParamProcessWorkerTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(ParamProcessWorkerTest.class);
 
     @Mock
     protected AccountManager accountManager;
 
     protected ParamProcessWorker paramProcessWorker;
 
+    protected TestEntityManager entityManager = new TestEntityManager();
+
     @Before
     public void setup() {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -58,6 +76,63 @@ public class ParamProcessWorkerTest {
         Assert.assertTrue(Double.compare(cmd.doubleparam1, 11.89) == 0);
     }
 
+    @Test
+    public void processUuidListParameterWithOneLookup() {
+        final List<String> uuids = entityManager.createEntities(200);
+        final HashMap<String, String> params = new HashMap<>();
+        params.put("ids", String.join(",", uuids));
+        params.put("id", uuids.get(7));
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+
+        Assert.assertEquals(200, cmd.ids.size());
+        Assert.assertEquals(Long.valueOf(1), cmd.ids.get(0));
+        Assert.assertEquals(Long.valueOf(200), cmd.ids.get(199));
+        Assert.assertEquals(Long.valueOf(8), cmd.id);
+        Assert.assertEquals(1, entityManager.lookups.get());
+    }
+
+    @Test(expected = ServerApiException.class)
+    public void processUnknownUuid() {
+        entityManager.createEntities(1);
+        final HashMap<String, String> params = new HashMap<>();
+        params.put("ids", UUID.randomUUID().toString());
+        paramProcessWorker.processParameters(new TestCmd(), params);
+    }
+
+    @Test(expected = ServerApiException.class)
+    public void processMissingRequiredParameter() {
+        final HashMap<String, String> params = new HashMap<>();
+        paramProcessWorker.processParameters(new RequiredParamCmd(), params);
+    }
+
+    /**
+     * Dispatches a command with a few plain parameters and a list of 200 uuids, and counts the entity lookups it takes.
+     */
+    @Test
+    public void benchmarkDispatch() {
+        Benchmarks.assumeEnabled();
+        final List<String> uuids = entityManager.createEntities(200);
+        final HashMap<String, String> params = new HashMap<>();
+        params.put("strparam1", "foo");
+        params.put("intparam1", "100");
+        params.put("boolparam1", "true");
+        params.put("doubleparam1", "11.89");
+        params.put("ids", String.join(",", uuids));
+
+        final int dispatches = 2000;
+        final long start = System.nanoTime();
+        for (int i = 0; i < dispatches; i++) {
+            final TestCmd cmd = new TestCmd();
+            paramProcessWorker.processParameters(cmd, params);
+            Assert.assertEquals(200, cmd.ids.size());
+        }
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        s_logger.info("Dispatched " + dispatches + " commands with 200 uuids each in " + elapsedMs + " ms, " + entityManager.lookups.get() + " entity lookups");
+        Assert.assertEquals(dispatches, entityManager.lookups.get());
+    }
+
     public static class TestCmd extends BaseCmd {
 
         @Parameter(name = "strparam1")
@@ -72,6 +147,12 @@ public class ParamProcessWorkerTest {
         @Parameter(name = "doubleparam1", type = CommandType.DOUBLE)
         double doubleparam1;
 
+        @Parameter(name = "id", type = CommandType.UUID, entityType = TestEntityResponse.class, since = "4.4")
+        Long id;
+
+        @Parameter(name = "ids", type = CommandType.LIST, collectionType = CommandType.UUID, entityType = TestEntityResponse.class, since = "4.4")
+        List<Long> ids;
+
         @Override
         public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException,
                 ResourceAllocationException, NetworkRuleConflictException {
@@ -80,7 +161,7 @@ public class ParamProcessWorkerTest {
 
         @Override
         public String getCommandName() {
-            return "test";
+            return "testresponse";
         }
 
         @Override
@@ -88,4 +169,87 @@ public class ParamProcessWorkerTest {
             return 0;
         }
     }
+
+    public static class RequiredParamCmd extends TestCmd {
+        @Parameter(name = "requiredparam", required = true)
+        String requiredparam;
+    }
+
+    public interface TestEntity extends InternalIdentity, Identity {
+    }
+
+    @EntityReference(value = TestEntity.class)
+    public static class TestEntityResponse {
+    }
+
+    /**
+     * Keeps test entities by uuid, and counts the lookups of the worker.
+     */
+    protected static class TestEntityManager implements EntityManager {
+        final Map<String, TestEntity> entities = new HashMap<>();
+        final AtomicInteger lookups = new AtomicInteger();
+
+        List<String> createEntities(final int count) {
+            final List<String> uuids = new ArrayList<>();
+            for (int i = 1; i <= count; i++) {
+                final long id = i;
+                final String uuid = UUID.randomUUID().toString();
+                entities.put(uuid, new TestEntity() {
+                    @Override
+                    public long getId() {
+                        return id;
+                    }
+
+                    @Override
+                    public String getUuid() {
+                        return uuid;
+                    }
+                });
+                uuids.add(uuid);
+            }
+            return uuids;
+        }
+
+        @Override
+        public <T> List<? extends T> listByUuidsIncludingRemoved(final Class<T> entityType, final Collection<String> uuids) {
+            lookups.incrementAndGet();
+            final List<T> found = new ArrayList<>();
+            for (final String uuid : uuids) {
+                if (entities.containsKey(uuid)) {
+                    found.add(entityType.cast(entities.get(uuid)));
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public <T> T findByUuidIncludingRemoved(final Class<T> entityType, final String uuid) {
+            lookups.incrementAndGet();
+            return entityType.cast(entities.get(uuid));
+        }
+
+        @Override
+        public <T, K extends Serializable> T findById(final Class<T> entityType, final K id) {
+            return null;
+        }
+
+        @Override
+        public <T> T findByUuid(final Class<T> entityType, final String uuid) {
+            return null;
+        }
+
+        @Override
+        public <T> List<? extends T> list(final Class<T> entityType) {
+            return null;
+        }
+
+        @Override
+        public <T, K extends Serializable> void remove(final Class<T> entityType, final K id) {
+        }
+
+        @Override
+        public <T, K extends Serializable> T findByIdIncludingRemoved(final Class<T> entityType, final K id) {
+            return null;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.cloud.ha;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -11,6 +12,7 @@ import com.cloud.dc.DataCenterVO;
 import com.cloud.dc.HostPodVO;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.HostPodDao;
+import com.cloud.deploy.DeploymentPlanner;
 import com.cloud.engine.orchestration.service.VolumeOrchestrationService;
 import com.cloud.framework.config.dao.ConfigurationDao;
 import com.cloud.ha.HighAvailabilityManager.Step;
@@ -24,24 +26,34 @@ import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.managed.context.ManagedContext;
 import com.cloud.resource.ResourceManager;
 import com.cloud.server.ManagementServer;
+import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.GuestOSDao;
 import com.cloud.user.AccountManager;
+import com.cloud.utils.testcase.Benchmarks;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachineManager;
 import com.cloud.vm.dao.VMInstanceDao;
 
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -226,4 +238,158 @@ public class HighAvailabilityManagerImplTest {
     public void processWorkWithRetryCountNotExceeded() {
         processWorkWithRetryCount(3, Step.Scheduled);
     }
+
+    @Test
+    public void planRecoveryStartsSystemVmsFirstAndLargestFirst() {
+        final List<HaWorkVO> batch = new ArrayList<>();
+        batch.add(haWork(1L, VirtualMachine.Type.User, 512));
+        batch.add(haWork(2L, VirtualMachine.Type.User, 4096));
+        batch.add(haWork(3L, VirtualMachine.Type.DomainRouter, 256));
+        batch.add(haWork(4L, VirtualMachine.Type.ConsoleProxy, 1024));
+
+        final List<List<HaWorkVO>> tiers = highAvailabilityManager.planRecovery(batch);
+
+        assertEquals(2, tiers.size());
+        assertEquals(4L, tiers.get(0).get(0).getInstanceId());
+        assertEquals(3L, tiers.get(0).get(1).getInstanceId());
+        assertEquals(2L, tiers.get(1).get(0).getInstanceId());
+        assertEquals(1L, tiers.get(1).get(1).getInstanceId());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void testRecoveryParallelismHasToBeAtLeastOne() throws Exception {
+        final Map<String, String> params = new HashMap<>();
+        params.put("ha.recovery.parallelism", "0");
+        Mockito.when(_configDao.getConfiguration(Mockito.anyString(), Mockito.anyMap())).thenReturn(params);
+
+        highAvailabilityManager.configure("HA", new HashMap<>());
+    }
+
+    /**
+     * Simulates losing a host with 80 vms, where asking about a vm or the host takes 20 ms and starting a vm 30 ms, and
+     * compares recovering the vms one by one with recovering the host as a whole.
+     */
+    @Test
+    public void benchmarkHostLoss() throws Exception {
+        Benchmarks.assumeEnabled();
+        final long hostId = 42L;
+        final int vmCount = 80;
+        final int systemVmCount = 4;
+        final AtomicInteger vmInvestigations = new AtomicInteger();
+        final AtomicInteger hostInvestigations = new AtomicInteger();
+        final List<Long> started = Collections.synchronizedList(new ArrayList<>());
+        final Set<Long> fenced = ConcurrentHashMap.newKeySet();
+        final List<Long> startedUnfenced = Collections.synchronizedList(new ArrayList<>());
+        simulateHostLoss(hostId, vmInvestigations, hostInvestigations, started, fenced, startedUnfenced);
+
+        long start = System.currentTimeMillis();
+        for (final HaWorkVO work : hostWork(hostId, vmCount, systemVmCount)) {
+            highAvailabilityManager.restart(work);
+        }
+        final long oneByOne = System.currentTimeMillis() - start;
+        assertEquals(vmCount, started.size());
+        assertEquals(vmCount, vmInvestigations.get());
+
+        started.clear();
+        fenced.clear();
+        vmInvestigations.set(0);
+        final List<HaWorkVO> work = hostWork(hostId, vmCount, systemVmCount);
+        Mockito.when(_haDao.takeHaWorkForHost(Mockito.anyLong(), Mockito.eq(hostId))).thenReturn(work.subList(1, work.size()));
+        highAvailabilityManager._recoveryExecutor = Executors.newFixedThreadPool(10);
+        try {
+            start = System.currentTimeMillis();
+            highAvailabilityManager.recoverHost(work.get(0));
+        } finally {
+            highAvailabilityManager._recoveryExecutor.shutdown();
+        }
+        final long asHost = System.currentTimeMillis() - start;
+
+        s_logger.info("Recovered " + vmCount + " vms of a lost host in " + oneByOne + " ms one by one, in " + asHost + " ms as a host");
+        assertEquals(vmCount, started.size());
+        assertEquals(0, vmInvestigations.get());
+        assertEquals(1, hostInvestigations.get());
+        // a host that is down may only be unreachable, its vms are fenced off before they are restarted elsewhere
+        assertTrue("started without being fenced off: " + startedUnfenced, startedUnfenced.isEmpty());
+        for (int i = 0; i < systemVmCount; i++) {
+            assertTrue(started.get(i) <= systemVmCount);
+        }
+        assertTrue(asHost < oneByOne);
+    }
+
+    private void simulateHostLoss(final long hostId, final AtomicInteger vmInvestigations, final AtomicInteger hostInvestigations, final List<Long> started,
+                                  final Set<Long> fenced, final List<Long> startedUnfenced) throws Exception {
+        Mockito.when(hostVO.getId()).thenReturn(hostId);
+        Mockito.when(hostVO.getStatus()).thenReturn(Status.Down);
+        Mockito.when(hostVO.getState()).thenReturn(Status.Down);
+        Mockito.when(_hostDao.findById(hostId)).thenReturn(hostVO);
+        Mockito.when(_podDao.findById(Mockito.anyLong())).thenReturn(Mockito.mock(HostPodVO.class));
+        Mockito.when(_dcDao.findById(Mockito.anyLong())).thenReturn(Mockito.mock(DataCenterVO.class));
+        Mockito.when(volumeMgr.canVmRestartOnAnotherServer(Mockito.anyLong())).thenReturn(true);
+
+        final Investigator investigator = Mockito.mock(Investigator.class);
+        Mockito.when(investigator.isVmAlive(Mockito.any(VirtualMachine.class), Mockito.any(Host.class))).thenAnswer(invocation -> {
+            vmInvestigations.incrementAndGet();
+            Thread.sleep(20);
+            throw new Investigator.UnknownVM();
+        });
+        Mockito.when(investigator.isAgentAlive(hostVO)).thenAnswer(invocation -> {
+            hostInvestigations.incrementAndGet();
+            Thread.sleep(20);
+            return Status.Down;
+        });
+        highAvailabilityManager.setInvestigators(Collections.singletonList(investigator));
+
+        final FenceBuilder fencer = Mockito.mock(FenceBuilder.class);
+        Mockito.when(fencer.fenceOff(Mockito.any(VirtualMachine.class), Mockito.any(Host.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            fenced.add(((VirtualMachine) invocation.getArguments()[0]).getId());
+            return true;
+        });
+        highAvailabilityManager.setFenceBuilders(Collections.singletonList(fencer));
+
+        Mockito.doAnswer(invocation -> {
+            Thread.sleep(30);
+            final long vmId = Long.parseLong((String) invocation.getArguments()[0]);
+            if (!fenced.contains(vmId)) {
+                startedUnfenced.add(vmId);
+            }
+            started.add(vmId);
+            return null;
+        }).when(_itMgr).advanceStart(Mockito.anyString(), Mockito.anyMap(), Mockito.any(DeploymentPlanner.class));
+    }
+
+    private List<HaWorkVO> hostWork(final long hostId, final int vmCount, final int systemVmCount) {
+        final List<HaWorkVO> work = new ArrayList<>();
+        // the system vms come last, as they would in the order the vms were listed
+        for (long vmId = vmCount; vmId >= 1; vmId--) {
+            final VirtualMachine.Type type = vmId <= systemVmCount ? VirtualMachine.Type.DomainRouter : VirtualMachine.Type.User;
+            work.add(haWork(vmId, type, 1024));
+        }
+        return work;
+    }
+
+    private HaWorkVO haWork(final long vmId, final VirtualMachine.Type type, final int ramSize) {
+        final VMInstanceVO vm = Mockito.mock(VMInstanceVO.class);
+        Mockito.when(vm.getId()).thenReturn(vmId);
+        Mockito.when(vm.getUuid()).thenReturn(Long.toString(vmId));
+        Mockito.when(vm.getType()).thenReturn(type);
+        Mockito.when(vm.getState()).thenReturn(VirtualMachine.State.Running);
+        Mockito.when(vm.getUpdated()).thenReturn(1L);
+        Mockito.when(vm.getHostId()).thenReturn(42L);
+        Mockito.when(vm.isHaEnabled()).thenReturn(true);
+        Mockito.when(vm.getServiceOfferingId()).thenReturn(vmId);
+        Mockito.when(_instanceDao.findById(vmId)).thenReturn(vm);
+        Mockito.when(_itMgr.findById(vmId)).thenReturn(vm);
+
+        final ServiceOfferingVO offering = Mockito.mock(ServiceOfferingVO.class);
+        Mockito.when(offering.getRamSize()).thenReturn(ramSize);
+        Mockito.when(_serviceOfferingDao.findByIdIncludingRemoved(vmId)).thenReturn(offering);
+
+        return new HaWorkVO(vmId, type, WorkType.HA, Step.Investigating, 42L, VirtualMachine.State.Running, 0, 1L) {
+            @Override
+            public long getId() {
+                return vmId;
+            }
+        };
+    }
 }
@@ -16,10 +16,10 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.IpAddressPool;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedSet;
 
 import com.cloud.vm.NicSecondaryIp;
 import com.cloud.vm.dao.NicDao;
@@ -99,18 +99,18 @@ public class NetworkModelTest {
         when(nicSecondaryIpDao.search(any(SearchCriteria.class), (Filter) org.mockito.Matchers.isNull())).thenReturn(fakeList);
         when(appLbRuleDao.search(any(SearchCriteria.class), (Filter) org.mockito.Matchers.isNull())).thenReturn(fakeList);
 
-        SortedSet<Long> possibleAddresses = modelImpl.getAvailableIps(network, "10.0.0.5");
+        IpAddressPool possibleAddresses = modelImpl.getAvailableIps(network, "10.0.0.5");
         org.junit.Assert.assertNull(possibleAddresses);
 
         possibleAddresses = modelImpl.getAvailableIps(network, "10.0.0.6");
-        org.junit.Assert.assertEquals(possibleAddresses.size(), 2);
+        org.junit.Assert.assertEquals(possibleAddresses.getAvailableCount(), 2);
 
         network = new NetworkVO(1L, null, null,null, 1L, 1L, 1L, 1L,
                 null, null, null,null, 1L, null, null,
                 false, null, false, null,null, null);
         ((NetworkVO)network).setCidr("10.0.0.0/29");
         possibleAddresses = modelImpl.getAvailableIps(network, "10.0.0.6");
-        org.junit.Assert.assertEquals(possibleAddresses.size(), 6);
+        org.junit.Assert.assertEquals(possibleAddresses.getAvailableCount(), 6);
 
     }
 }
@@ -0,0 +1,256 @@
+package com.cloud.network.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.manager.Commands;
+import com.cloud.network.security.LocalSecurityGroupWorkQueue.LocalSecurityGroupWork;
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityGroupRulesetCache.GroupRuleset;
+import com.cloud.network.security.SecurityGroupWork.Step;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+import com.cloud.network.security.dao.SecurityGroupRuleDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.utils.testcase.Benchmarks;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.NicDao;
+import com.cloud.vm.dao.UserVmDao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SecurityGroupRulesetCacheTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(SecurityGroupRulesetCacheTest.class);
+
+    private static final long GROUP_ID = 1L;
+    private static final long HOST_ID = 3L;
+    private static final int VM_COUNT = 2000;
+    private static final int PASS_VM_COUNT = 20;
+
+    @Test
+    public void testMembershipChangeInvalidatesAllowingRulesets() {
+        final SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache();
+        cache.put(ruleset(10L, Collections.singleton(20L)), cache.getGeneration());
+        cache.put(ruleset(11L, Collections.emptySet()), cache.getGeneration());
+
+        cache.invalidateMembersOf(20L);
+
+        assertNull(cache.get(10L, SecurityRuleType.IngressRule));
+        assertNotNull(cache.get(11L, SecurityRuleType.IngressRule));
+    }
+
+    @Test
+    public void testRulesetLoadedDuringInvalidationIsNotCached() {
+        final SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache();
+        final long generation = cache.getGeneration();
+        cache.invalidateGroup(10L);
+        cache.put(ruleset(10L, Collections.emptySet()), generation);
+
+        assertNull(cache.get(10L, SecurityRuleType.IngressRule));
+    }
+
+    @Test
+    public void testAppliedRuleset() {
+        final SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache();
+        cache.rulesetSent(5L, HOST_ID, "sig", 7L);
+        assertFalse(cache.isApplied(5L, HOST_ID, "sig"));
+
+        cache.rulesetApplied(5L, 6L);
+        assertFalse(cache.isApplied(5L, HOST_ID, "sig"));
+
+        cache.rulesetApplied(5L, 7L);
+        assertTrue(cache.isApplied(5L, HOST_ID, "sig"));
+        assertFalse(cache.isApplied(5L, HOST_ID, "other"));
+        assertFalse(cache.isApplied(5L, HOST_ID + 1, "sig"));
+
+        cache.markUnchanged(5L, 9L);
+        assertTrue(cache.isInSync(5L, 7L, 9L));
+        assertFalse(cache.isInSync(5L, 7L, 10L));
+
+        cache.forgetHost(HOST_ID);
+        assertFalse(cache.isApplied(5L, HOST_ID, "sig"));
+    }
+
+    @Test
+    public void testUnchangedPassLoadsEachGroupOnce() throws Exception {
+        final AtomicInteger memberLookups = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final List<SecurityGroupVMMapVO> members = new ArrayList<>();
+        final SecurityGroupManagerImpl2 manager = createManager(PASS_VM_COUNT, members, memberLookups, sent);
+
+        reprogram(manager, PASS_VM_COUNT, 1);
+        assertEquals(PASS_VM_COUNT, sent.get());
+        assertEquals(1, memberLookups.get());
+
+        reprogram(manager, PASS_VM_COUNT, 2);
+        assertEquals(PASS_VM_COUNT, sent.get());
+        assertEquals(PASS_VM_COUNT, manager.getRulesetsUnchanged());
+        // the group is loaded again once for the pass, not for every vm
+        assertEquals(2, memberLookups.get());
+    }
+
+    @Test
+    public void testChangeByAnotherServerIsSent() throws Exception {
+        final AtomicInteger memberLookups = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final List<SecurityGroupVMMapVO> members = new ArrayList<>();
+        final SecurityGroupManagerImpl2 manager = createManager(PASS_VM_COUNT, members, memberLookups, sent);
+        reprogram(manager, PASS_VM_COUNT, 1);
+
+        // changed in the database without invalidating the cache of this server
+        when(manager._securityGroupRuleDao.listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule)).thenReturn(
+                Collections.singletonList(new SecurityGroupRuleVO(SecurityRuleType.IngressRule, GROUP_ID, 80, 80, "tcp", GROUP_ID)));
+        reprogram(manager, PASS_VM_COUNT, 2);
+
+        assertEquals(2 * PASS_VM_COUNT, sent.get());
+        assertEquals(0, manager.getRulesetsUnchanged());
+    }
+
+    /**
+     * Reprograms all members of a 2000 vm group that allows itself: a first round, a round without changes and a round
+     * after a vm joined, comparing the queries made with computing every ruleset from scratch.
+     */
+    @Test
+    public void benchmarkLargeGroup() throws Exception {
+        Benchmarks.assumeEnabled();
+        final AtomicInteger memberLookups = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final List<SecurityGroupVMMapVO> members = new ArrayList<>();
+        final SecurityGroupManagerImpl2 manager = createManager(VM_COUNT, members, memberLookups, sent);
+
+        long start = System.nanoTime();
+        for (long vmId = 1; vmId <= VM_COUNT; vmId++) {
+            manager.generateRulesForVM(vmId, SecurityRuleType.IngressRule);
+            manager.generateRulesForVM(vmId, SecurityRuleType.EgressRule);
+        }
+        final long fromScratch = (System.nanoTime() - start) / 1000000;
+        final int fromScratchLookups = memberLookups.getAndSet(0);
+
+        start = System.nanoTime();
+        reprogram(manager, VM_COUNT, 1);
+        final long first = (System.nanoTime() - start) / 1000000;
+        assertEquals(VM_COUNT, sent.get());
+        assertEquals(1, memberLookups.get());
+
+        start = System.nanoTime();
+        reprogram(manager, VM_COUNT, 2);
+        final long unchanged = (System.nanoTime() - start) / 1000000;
+        assertEquals(VM_COUNT, sent.get());
+        assertEquals(VM_COUNT, manager.getRulesetsUnchanged());
+        // a vm is only skipped after its rules were loaded again, the cache could be stale, once for every pass
+        final int passes = VM_COUNT / SecurityGroupManagerImpl2.WORK_BATCH_SIZE;
+        assertEquals(1 + passes, memberLookups.get());
+
+        members.add(member(VM_COUNT + 1));
+        manager._rulesetCache.invalidateMembersOf(GROUP_ID);
+        start = System.nanoTime();
+        reprogram(manager, VM_COUNT, 3);
+        final long joined = (System.nanoTime() - start) / 1000000;
+        assertEquals(2 * VM_COUNT, sent.get());
+        assertEquals(2 + passes, memberLookups.get());
+
+        s_logger.info("Rulesets of " + VM_COUNT + " vms in one group: from scratch " + fromScratch + " ms / " + fromScratchLookups + " member lookups, first round " + first
+                + " ms, unchanged round " + unchanged + " ms, after a membership change " + joined + " ms / " + memberLookups.get() + " member lookups in total, average "
+                + manager.getAverageRulesetComputationMicros() + " us per vm");
+        assertEquals(VM_COUNT, fromScratchLookups);
+    }
+
+    /**
+     * Updates the vms in passes of the size a worker takes from the queue.
+     */
+    private void reprogram(final SecurityGroupManagerImpl2 manager, final int vmCount, final long seqno) {
+        Map<SecurityRuleType, Map<Long, GroupRuleset>> verified = null;
+        for (long vmId = 1; vmId <= vmCount; vmId++) {
+            if ((vmId - 1) % SecurityGroupManagerImpl2.WORK_BATCH_SIZE == 0) {
+                verified = new HashMap<>();
+            }
+            manager.sendRulesetUpdates(new LocalSecurityGroupWork(vmId, seqno, Step.Scheduled), verified);
+            manager.handleRulesetApplied(vmId, seqno);
+        }
+    }
+
+    private SecurityGroupManagerImpl2 createManager(final int vmCount, final List<SecurityGroupVMMapVO> members, final AtomicInteger memberLookups,
+                                                    final AtomicInteger sent) throws Exception {
+        final SecurityGroupManagerImpl2 manager = new SecurityGroupManagerImpl2();
+        manager._userVMDao = mock(UserVmDao.class);
+        manager._securityGroupVMMapDao = mock(SecurityGroupVMMapDao.class);
+        manager._securityGroupRuleDao = mock(SecurityGroupRuleDao.class);
+        manager._nicDao = mock(NicDao.class);
+        manager._agentMgr = mock(AgentManager.class);
+
+        for (long vmId = 1; vmId <= vmCount; vmId++) {
+            final UserVmVO vm = mock(UserVmVO.class);
+            when(vm.getId()).thenReturn(vmId);
+            when(vm.getState()).thenReturn(State.Running);
+            when(vm.getHostId()).thenReturn(HOST_ID);
+            when(vm.getInstanceName()).thenReturn("i-2-" + vmId + "-VM");
+            when(vm.getPrivateIpAddress()).thenReturn(ip(vmId));
+            when(vm.getPrivateMacAddress()).thenReturn("06:00:00:00:00:01");
+            when(manager._userVMDao.findById(vmId)).thenReturn(vm);
+
+            final SecurityGroupVMMapVO member = member(vmId);
+            when(manager._securityGroupVMMapDao.listByInstanceId(vmId)).thenReturn(Collections.singletonList(member));
+            members.add(member);
+        }
+        when(manager._securityGroupVMMapDao.listBySecurityGroup(GROUP_ID, State.Running)).thenAnswer(invocation -> {
+            memberLookups.incrementAndGet();
+            return members;
+        });
+
+        final List<SecurityGroupRuleVO> ingress = Collections.singletonList(new SecurityGroupRuleVO(SecurityRuleType.IngressRule, GROUP_ID, 22, 22, "tcp", GROUP_ID));
+        final List<SecurityGroupRuleVO> egress = Collections.singletonList(new SecurityGroupRuleVO(SecurityRuleType.EgressRule, GROUP_ID, 0, 65535, "tcp", "0.0.0.0/0"));
+        when(manager._securityGroupRuleDao.listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule)).thenReturn(ingress);
+        when(manager._securityGroupRuleDao.listBySecurityGroupId(GROUP_ID, SecurityRuleType.EgressRule)).thenReturn(egress);
+        when(manager._nicDao.findByIp4AddressAndVmId(anyString(), anyLong())).thenReturn(null);
+        when(manager._agentMgr.send(anyLong(), any(Commands.class), any(Listener.class))).thenAnswer(invocation -> {
+            final SecurityGroupRulesCmd cmd = (SecurityGroupRulesCmd) ((Commands) invocation.getArguments()[1]).toCommands()[0];
+            assertEquals(members.size(), cmd.getIngressRuleSet()[0].getAllowedCidrs().length);
+            sent.incrementAndGet();
+            return 1L;
+        });
+        return manager;
+    }
+
+    private static GroupRuleset ruleset(final long groupId, final Set<Long> allowedGroupIds) {
+        final Map<PortAndProto, Set<String>> rules = new TreeMap<>();
+        rules.put(new PortAndProto("tcp", 22, 22), Collections.singleton("10.0.0.0/8"));
+        return new GroupRuleset(groupId, SecurityRuleType.IngressRule, rules, allowedGroupIds);
+    }
+
+    // not a mock, computing every ruleset from scratch reads the members millions of times
+    private static SecurityGroupVMMapVO member(final long vmId) {
+        final String guestIp = ip(vmId);
+        return new SecurityGroupVMMapVO(GROUP_ID, vmId) {
+            @Override
+            public String getGuestIpAddress() {
+                return guestIp;
+            }
+        };
+    }
+
+    private static String ip(final long vmId) {
+        return "10.1." + vmId / 250 + "." + (vmId % 250 + 2);
+    }
+}
@@ -0,0 +1,225 @@
+package com.cloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloud.capacity.CapacityManager;
+import com.cloud.storage.Storage.StoragePoolType;
+import com.cloud.storage.Volume.Event;
+import com.cloud.storage.Volume.State;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.storage.datastore.db.PrimaryDataStoreDao;
+import com.cloud.storage.datastore.db.StoragePoolVO;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StoragePoolCapacityViewImplTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(StoragePoolCapacityViewImplTest.class);
+
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final long ZONE = 1;
+
+    private StoragePoolCapacityViewImpl view;
+    private PrimaryDataStoreDao poolDao;
+    private VolumeDao volumeDao;
+    private CapacityManager capacityMgr;
+    private final List<StoragePoolVO> pools = new ArrayList<>();
+    private final List<VolumeVO> volumes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        poolDao = mock(PrimaryDataStoreDao.class);
+        volumeDao = mock(VolumeDao.class);
+        capacityMgr = mock(CapacityManager.class);
+        when(poolDao.listByDataCenterId(ZONE)).thenReturn(pools);
+        when(volumeDao.findByDc(ZONE)).thenReturn(volumes);
+
+        view = new StoragePoolCapacityViewImpl();
+        view._storagePoolDao = poolDao;
+        view._volumeDao = volumeDao;
+        view._capacityMgr = capacityMgr;
+    }
+
+    private StoragePoolVO pool(final long id, final long capacityBytes, final long allocatedBytes) {
+        final StoragePoolVO pool = new StoragePoolVO();
+        pool.setId(id);
+        pool.setDataCenterId(ZONE);
+        pool.setCapacityBytes(capacityBytes);
+        pool.setPoolType(StoragePoolType.RBD);
+        when(capacityMgr.getAllocatedPoolCapacity(pool, null)).thenReturn(allocatedBytes);
+        pools.add(pool);
+        return pool;
+    }
+
+    private VolumeVO volume(final long id, final Long poolId, final long size, final long accountId, final State state) {
+        final VolumeVO volume = mock(VolumeVO.class);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getDataCenterId()).thenReturn(ZONE);
+        when(volume.getPoolId()).thenReturn(poolId);
+        when(volume.getSize()).thenReturn(size);
+        when(volume.getAccountId()).thenReturn(accountId);
+        when(volume.getState()).thenReturn(state);
+        return volume;
+    }
+
+    private void transition(final Volume volume, final State from, final State to) {
+        view.postStateTransitionEvent(new StateMachine2.Transition<>(from, Event.OperationSucceeded, to, null), volume, true, null);
+    }
+
+    @Test
+    public void testZoneIsLoadedOnce() {
+        final StoragePoolVO pool1 = pool(1, 1000 * GB, 100 * GB);
+        final StoragePoolVO pool2 = pool(2, 1000 * GB, 300 * GB);
+
+        assertEquals(100 * GB, view.getAllocatedBytes(pool1));
+        assertEquals(300 * GB, view.getAllocatedBytes(pool2));
+        assertEquals(1000 * GB, view.getTotalBytes(pool1));
+        assertEquals(Arrays.asList(1L, 2L), view.orderPoolsByFreeCapacity(ZONE, Arrays.asList(2L, 1L)));
+
+        verify(poolDao, times(1)).listByDataCenterId(ZONE);
+        verify(volumeDao, times(1)).findByDc(ZONE);
+        verify(capacityMgr, times(2)).getAllocatedPoolCapacity(any(StoragePoolVO.class), any());
+    }
+
+    @Test
+    public void testVolumeTransitionsUpdateAllocatedBytes() {
+        final StoragePoolVO pool1 = pool(1, 1000 * GB, 100 * GB);
+        final StoragePoolVO pool2 = pool(2, 1000 * GB, 0);
+        final VolumeVO loaded = volume(10, 1L, 10 * GB, 5, State.Ready);
+        volumes.add(loaded);
+        view.getAllocatedBytes(pool1);
+
+        transition(loaded, State.Ready, State.Destroy);
+        transition(volume(11, 2L, 5 * GB, 5, State.Ready), State.Creating, State.Ready);
+
+        assertEquals(90 * GB, view.getAllocatedBytes(pool1));
+        assertEquals(5 * GB, view.getAllocatedBytes(pool2));
+
+        // migrated and resized
+        transition(volume(11, 1L, 8 * GB, 5, State.Ready), State.Migrating, State.Ready);
+        assertEquals(98 * GB, view.getAllocatedBytes(pool1));
+        assertEquals(0, view.getAllocatedBytes(pool2));
+    }
+
+    @Test
+    public void testReservationCountsUntilVolumeIsCreated() {
+        final StoragePoolVO pool1 = pool(1, 1000 * GB, 100 * GB);
+        final VolumeVO allocated = volume(20, null, 20 * GB, 5, State.Allocated);
+
+        view.reserve(allocated, pool1);
+        assertEquals(120 * GB, view.getAllocatedBytes(pool1));
+
+        // reserving it again, on another deployment attempt, replaces the reservation
+        view.reserve(allocated, pool1);
+        assertEquals(120 * GB, view.getAllocatedBytes(pool1));
+
+        transition(volume(20, 1L, 20 * GB, 5, State.Creating), State.Allocated, State.Creating);
+        assertEquals(120 * GB, view.getAllocatedBytes(pool1));
+        transition(volume(20, 1L, 20 * GB, 5, State.Ready), State.Creating, State.Ready);
+        assertEquals(120 * GB, view.getAllocatedBytes(pool1));
+    }
+
+    @Test
+    public void testReservationOfDestroyedVolumeIsReleased() {
+        final StoragePoolVO pool1 = pool(1, 1000 * GB, 100 * GB);
+        final VolumeVO allocated = volume(20, null, 20 * GB, 5, State.Allocated);
+        view.reserve(allocated, pool1);
+
+        transition(allocated, State.Allocated, State.Destroy);
+
+        assertEquals(100 * GB, view.getAllocatedBytes(pool1));
+    }
+
+    @Test
+    public void testOrderPoolsByVolumeCountOfAccount() {
+        pool(1, 1000 * GB, 0);
+        pool(2, 1000 * GB, 0);
+        pool(3, 1000 * GB, 0);
+        volumes.add(volume(1, 1L, GB, 5, State.Ready));
+        volumes.add(volume(2, 1L, GB, 5, State.Ready));
+        volumes.add(volume(3, 2L, GB, 5, State.Ready));
+        volumes.add(volume(4, 3L, GB, 6, State.Ready));
+        volumes.add(volume(5, 3L, GB, 5, State.Destroy));
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), view.orderPoolsByVolumeCount(ZONE, Arrays.asList(1L, 2L, 3L), 5));
+
+        transition(volume(6, 3L, GB, 5, State.Ready), State.Creating, State.Ready);
+        transition(volume(7, 3L, GB, 5, State.Ready), State.Creating, State.Ready);
+        assertEquals(Arrays.asList(2L, 1L, 3L), view.orderPoolsByVolumeCount(ZONE, Arrays.asList(1L, 2L, 3L), 5));
+    }
+
+    @Test
+    public void testPoolAddedToZoneIsLoaded() {
+        final StoragePoolVO pool1 = pool(1, 1000 * GB, 100 * GB);
+        view.getAllocatedBytes(pool1);
+
+        final StoragePoolVO pool2 = pool(2, 1000 * GB, 200 * GB);
+        assertEquals(200 * GB, view.getAllocatedBytes(pool2));
+
+        // a pool that is not in the zone does not load it every time
+        final StoragePoolVO removed = new StoragePoolVO();
+        removed.setId(3);
+        removed.setDataCenterId(ZONE);
+        view.getAllocatedBytes(removed);
+        view.getAllocatedBytes(removed);
+        verify(poolDao, times(3)).listByDataCenterId(ZONE);
+    }
+
+    @Test
+    public void benchmarkPoolSelectionForManyDisks() {
+        Benchmarks.assumeEnabled();
+        final List<StoragePoolVO> zonePools = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            zonePools.add(pool(i, 1000 * GB, i * 10 * GB));
+        }
+        for (long i = 1; i <= 5000; i++) {
+            volumes.add(volume(i, i % 20 + 1, GB, i % 50, State.Ready));
+        }
+        final List<Long> poolIds = new ArrayList<>();
+        for (final StoragePoolVO pool : zonePools) {
+            poolIds.add(pool.getId());
+        }
+
+        // the zone is loaded on the first use
+        final long loadStart = System.nanoTime();
+        view.getAllocatedBytes(zonePools.get(0));
+        s_logger.info("Loaded " + zonePools.size() + " pools with " + volumes.size() + " volumes in " + (System.nanoTime() - loadStart) / 1000000 + " ms");
+
+        final int deployments = 1000;
+        final int disks = 10;
+        final long start = System.nanoTime();
+        long checks = 0;
+        for (int deployment = 0; deployment < deployments; deployment++) {
+            for (int disk = 0; disk < disks; disk++) {
+                view.orderPoolsByFreeCapacity(ZONE, poolIds);
+                for (final StoragePoolVO pool : zonePools) {
+                    if (view.getAllocatedBytes(pool) < view.getTotalBytes(pool) * view.getAllocatedDisableThreshold(pool)) {
+                        checks++;
+                    }
+                }
+            }
+        }
+        final long micros = (System.nanoTime() - start) / 1000;
+        s_logger.info("Selected pools for " + deployments + " deployments of " + disks + " disks over " + zonePools.size() + " pools in " + micros / 1000 +
+                " ms, " + micros / deployments + " us per deployment");
+
+        assertEquals(deployments * disks * zonePools.size(), checks);
+        verify(poolDao, times(1)).listByDataCenterId(ZONE);
+        verify(capacityMgr, times(zonePools.size())).getAllocatedPoolCapacity(any(StoragePoolVO.class), any());
+        verify(volumeDao, times(0)).findById(anyLong());
+    }
+}
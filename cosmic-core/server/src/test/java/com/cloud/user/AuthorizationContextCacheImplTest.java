@@ -0,0 +1,192 @@
+package com.cloud.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.cloud.acl.RoleType;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.user.dao.UserDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AuthorizationContextCacheImplTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(AuthorizationContextCacheImplTest.class);
+
+    private AuthorizationContextCacheImpl cache;
+    private final AtomicInteger userLoads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        cache = new AuthorizationContextCacheImpl();
+        cache._userDao = mock(UserDao.class);
+        cache._accountDao = mock(AccountDao.class);
+        cache._domainDao = mock(DomainDao.class);
+        cache._accountService = mock(AccountService.class);
+
+        when(cache._userDao.findById(anyLong())).thenAnswer(invocation -> {
+            userLoads.incrementAndGet();
+            return user((Long) invocation.getArguments()[0]);
+        });
+        when(cache._accountDao.findByIdIncludingRemoved(anyLong())).thenAnswer(invocation -> account((Long) invocation.getArguments()[0]));
+        when(cache._accountDao.findUserAccountByApiKey(anyString())).thenAnswer(invocation -> {
+            final String apiKey = (String) invocation.getArguments()[0];
+            final long userId = Long.parseLong(apiKey.substring("key-".length()));
+            return new Pair<User, Account>(user(userId), account(userId * 10));
+        });
+        final DomainVO domain = new DomainVO("ROOT", 2L, null, null);
+        domain.setPath("/");
+        when(cache._domainDao.findByIdIncludingRemoved(anyLong())).thenReturn(domain);
+        when(cache._accountService.getRoleType(Matchers.any(Account.class))).thenReturn(RoleType.User);
+    }
+
+    private static UserVO user(final long id) {
+        final UserVO user = new UserVO(id);
+        user.setAccountId(id * 10);
+        user.setSecretKey("secret-" + id);
+        return user;
+    }
+
+    private static AccountVO account(final long id) {
+        final AccountVO account = new AccountVO(id);
+        account.setDomainId(1L);
+        return account;
+    }
+
+    @Test
+    public void testContextIsLoadedOnce() {
+        final AuthorizationContext context = cache.getByUserId(1L);
+        assertEquals(10L, context.getAccount().getId());
+        assertEquals(RoleType.User, context.getRoleType());
+        assertEquals("/", context.getDomainPath());
+        assertEquals("secret-1", context.getSecretKey());
+
+        assertSame(context, cache.getByUserId(1L));
+        assertEquals(1, userLoads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testUnknownUserIsNotCached() {
+        doReturn(null).when(cache._accountDao).findUserAccountByApiKey("unknown");
+
+        assertNull(cache.getByApiKey("unknown"));
+        assertNull(cache.getByApiKey("unknown"));
+        assertEquals(0, cache.getSize());
+        verify(cache._accountDao, times(2)).findUserAccountByApiKey("unknown");
+    }
+
+    @Test
+    public void testUserChangeInvalidatesBothLookups() {
+        cache.getByUserId(1L);
+        cache.getByApiKey("key-1");
+        cache.getByApiKey("key-2");
+
+        cache.invalidateUser(1L);
+
+        assertEquals(1, cache.getSize());
+        cache.getByUserId(1L);
+        assertEquals(2, userLoads.get());
+    }
+
+    @Test
+    public void testAccountChangeInvalidatesItsUsers() {
+        cache.getByUserId(1L);
+        cache.getByUserId(2L);
+        cache.getByApiKey("key-1");
+
+        cache.invalidateAccount(10L);
+
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        cache._ttlMillis = 0;
+        cache.getByUserId(1L);
+        Thread.sleep(5);
+        cache.getByUserId(1L);
+
+        assertEquals(2, userLoads.get());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        cache._maxSize = 100;
+        for (long i = 1; i <= 1000; i++) {
+            cache.getByUserId(i);
+        }
+        assertTrue(cache.getSize() <= 100);
+    }
+
+    @Test
+    public void testContextLoadedDuringInvalidationIsNotCached() {
+        doAnswer(invocation -> {
+            userLoads.incrementAndGet();
+            // the user changes while it is read
+            cache.invalidateUser(1L);
+            return user(1L);
+        }).when(cache._userDao).findById(1L);
+
+        cache.getByUserId(1L);
+        cache.getByUserId(1L);
+
+        assertEquals(2, userLoads.get());
+    }
+
+    /**
+     * Authorizes requests of a few hundred users the way the API does, once reading the user, account and domain for
+     * every request and once through the cache.
+     */
+    @Test
+    public void benchmarkRequestPath() {
+        Benchmarks.assumeEnabled();
+        final int users = 200;
+        final int requests = 20000;
+
+        final AuthorizationContextCacheImpl uncached = new AuthorizationContextCacheImpl();
+        uncached._userDao = cache._userDao;
+        uncached._accountDao = cache._accountDao;
+        uncached._domainDao = cache._domainDao;
+        uncached._accountService = cache._accountService;
+        uncached._ttlMillis = -1;
+
+        final long uncachedStart = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            uncached.getByApiKey("key-" + (i % users + 1));
+        }
+        final long uncachedMs = (System.nanoTime() - uncachedStart) / 1000000;
+
+        final long cachedStart = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            cache.getByApiKey("key-" + (i % users + 1));
+        }
+        final long cachedMs = (System.nanoTime() - cachedStart) / 1000000;
+
+        s_logger.info("Authorizing " + requests + " requests of " + users + " users took " + uncachedMs + " ms loading the contexts and " + cachedMs +
+                " ms cached, hit ratio " + cache.getHitRatio());
+        assertEquals(users, cache.getMisses());
+        assertEquals(requests - users, cache.getHits());
+    }
+}
@@ -24,6 +24,7 @@ import com.cloud.utils.db.SearchCriteria;
 
 import javax.naming.ConfigurationException;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -268,6 +269,18 @@ public class MockAccountManagerImpl extends ManagerBase implements Manager, Acco
         return null;
     }
 
+    @Override
+    public List<? extends Account> getActiveAccountsByName(final Collection<String> accountNames, final Long domainId) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public List<? extends UserAccount> getActiveUserAccounts(final Collection<String> usernames, final Long domainId) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public UserAccount updateUser(final Long userId, final String firstName, final String lastName, final String email, final String userName, final String password, final
     String apiKey, final String secretKey,
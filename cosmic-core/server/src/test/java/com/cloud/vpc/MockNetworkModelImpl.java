@@ -26,6 +26,7 @@ import com.cloud.offerings.dao.NetworkOfferingServiceMapDao;
 import com.cloud.user.Account;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.exception.InvalidParameterValueException;
+import com.cloud.utils.net.IpAddressPool;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
 import com.cloud.vm.VirtualMachine;
@@ -36,7 +37,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 
 public class MockNetworkModelImpl extends ManagerBase implements NetworkModel {
 
@@ -772,7 +772,7 @@ public class MockNetworkModelImpl extends ManagerBase implements NetworkModel {
      * @see com.cloud.network.NetworkModel#getAvailableIps(com.cloud.network.Network, java.lang.String)
      */
     @Override
-    public SortedSet<Long> getAvailableIps(final Network network, final String requestedIp) {
+    public IpAddressPool getAvailableIps(final Network network, final String requestedIp) {
         // TODO Auto-generated method stub
         return null;
     }
@@ -1,7 +1,7 @@
 package com.cloud.storage.resource;
 
 import static com.cloud.utils.StringUtils.join;
-import static com.cloud.utils.storage.S3.S3Utils.putFile;
+import static com.cloud.utils.storage.S3.S3Utils.uploadFile;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
@@ -86,6 +86,7 @@ import com.cloud.utils.imagestore.ImageStoreUtil;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
+import com.cloud.utils.storage.ChecksumUtils;
 import com.cloud.utils.storage.S3.S3Utils;
 import com.cloud.vm.SecondaryStorageVm;
 
@@ -98,14 +99,10 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -325,7 +322,7 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
 
             final File destFile = new File(downloadDirectory, substringAfterLast(srcData.getPath(), S3Utils.SEPARATOR));
 
-            S3Utils.getFile(s3, s3.getBucketName(), srcData.getPath(), destFile).waitForCompletion();
+            S3Utils.downloadFile(s3, s3.getBucketName(), srcData.getPath(), destFile);
 
             if (destFile == null) {
                 return new CopyCmdAnswer("Can't find template");
@@ -831,7 +828,7 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             final ImageFormat format = getTemplateFormat(srcFile.getName());
             final String key = destData.getPath() + S3Utils.SEPARATOR + srcFile.getName();
 
-            putFile(s3, srcFile, bucket, key).waitForCompletion();
+            uploadFile(s3, srcFile, bucket, key);
 
             DataTO retObj = null;
             if (destData.getObjectType() == DataObjectType.TEMPLATE) {
@@ -1101,45 +1098,20 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             parent += File.separator;
         }
         final String absoluteTemplatePath = parent + relativeTemplatePath;
-        final MessageDigest digest;
-        String checksum = null;
-        final File f = new File(absoluteTemplatePath);
-        InputStream is = null;
-        final byte[] buffer = new byte[8192];
-        int read = 0;
+        final String checksum;
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("parent path " + parent + " relative template path " + relativeTemplatePath);
         }
 
         try {
-            digest = MessageDigest.getInstance("MD5");
-            is = new FileInputStream(f);
-            while ((read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
-            }
-            final byte[] md5sum = digest.digest();
-            final BigInteger bigInt = new BigInteger(1, md5sum);
-            checksum = bigInt.toString(16);
+            checksum = ChecksumUtils.computeChecksum(new File(absoluteTemplatePath), ChecksumUtils.MD5);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Successfully calculated checksum for file " + absoluteTemplatePath + " - " + checksum);
             }
         } catch (final IOException e) {
             final String logMsg = "Unable to process file for MD5 - " + absoluteTemplatePath;
             s_logger.error(logMsg);
-            return new Answer(cmd, false, checksum);
-        } catch (final NoSuchAlgorithmException e) {
-            return new Answer(cmd, false, checksum);
-        } finally {
-            try {
-                if (is != null) {
-                    is.close();
-                }
-            } catch (final IOException e) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Could not close the file " + absoluteTemplatePath);
-                }
-                return new Answer(cmd, false, checksum);
-            }
+            return new Answer(cmd, false, null);
         }
 
         return new Answer(cmd, true, checksum);
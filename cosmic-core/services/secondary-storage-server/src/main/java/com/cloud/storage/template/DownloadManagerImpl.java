@@ -24,19 +24,16 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.Proxy;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
+import com.cloud.utils.storage.ChecksumUtils;
 import com.cloud.utils.storage.QCOW2Utils;
 
 import javax.naming.ConfigurationException;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -66,6 +63,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     private String listTmpltScr;
     private String listVolScr;
     private int installTimeoutPerGig = 180 * 60 * 1000;
+    private int downloadSegments = 1;
 
     public DownloadManagerImpl() {
     }
@@ -223,9 +221,27 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         final ResourceType resourceType = dnld.getResourceType();
 
         final File originalTemplate = new File(td.getDownloadLocalPath());
-        final String checkSum = computeCheckSum(originalTemplate);
+        final String expectedCheckSum = dnld.getChecksum();
+        final boolean verifyCheckSum = isChecksumProvided(expectedCheckSum);
+        final String algorithm;
+        try {
+            algorithm = ChecksumUtils.getAlgorithm(verifyCheckSum ? expectedCheckSum : null);
+        } catch (final CloudRuntimeException e) {
+            s_logger.warn("Unable to verify downloaded template " + dnld.getTmpltName() + ": " + e.getMessage());
+            originalTemplate.delete();
+            return e.getMessage();
+        }
+        final String checkSum = computeCheckSum(td, originalTemplate, algorithm);
         if (checkSum == null) {
             s_logger.warn("Something wrong happened when try to calculate the checksum of downloaded template!");
+            if (verifyCheckSum) {
+                originalTemplate.delete();
+                return "Unable to verify the checksum of " + dnld.getTmpltName();
+            }
+        } else if (verifyCheckSum && !checkSum.equalsIgnoreCase(expectedCheckSum.trim())) {
+            s_logger.warn("Checksum " + checkSum + " of downloaded template " + dnld.getTmpltName() + " does not match the expected checksum " + expectedCheckSum);
+            originalTemplate.delete();
+            return "Checksum " + checkSum + " does not match the expected checksum " + expectedCheckSum;
         }
         dnld.setCheckSum(checkSum);
 
@@ -262,9 +278,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         scr.add("-t", resourcePath);
         scr.add("-f", td.getDownloadLocalPath()); // this is the temporary
         // template file downloaded
-        if (dnld.getChecksum() != null && dnld.getChecksum().length() > 1) {
-            scr.add("-c", dnld.getChecksum());
-        }
+        // no -c here, the checksum was already verified above and having the script verify it would read the whole file again
         scr.add("-u"); // cleanup
         final String result;
         result = scr.execute();
@@ -326,34 +340,26 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         return null;
     }
 
-    private String computeCheckSum(final File f) {
-        final byte[] buffer = new byte[8192];
-        int read = 0;
-        final MessageDigest digest;
-        String checksum = null;
-        InputStream is = null;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-            is = new FileInputStream(f);
-            while ((read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
+    /**
+     * Returns the checksum of a downloaded file. Downloaders that digest the data while streaming it already know the
+     * answer, only the others need another pass over the file.
+     */
+    private static boolean isChecksumProvided(final String checksum) {
+        return checksum != null && checksum.length() > 1;
+    }
+
+    private String computeCheckSum(final TemplateDownloader td, final File f, final String algorithm) {
+        if (td instanceof HttpTemplateDownloader) {
+            final HttpTemplateDownloader httpTd = (HttpTemplateDownloader) td;
+            if (httpTd.getChecksum() != null && algorithm.equals(httpTd.getChecksumAlgorithm())) {
+                return httpTd.getChecksum();
             }
-            final byte[] md5sum = digest.digest();
-            final BigInteger bigInt = new BigInteger(1, md5sum);
-            checksum = String.format("%032x", bigInt);
-            return checksum;
-        } catch (final IOException e) {
-            return null;
-        } catch (final NoSuchAlgorithmException e) {
+        }
+        try {
+            return ChecksumUtils.computeChecksum(f, algorithm);
+        } catch (final IOException | CloudRuntimeException e) {
+            s_logger.warn("Unable to compute " + algorithm + " checksum of " + f.getAbsolutePath() + ": " + e.getMessage());
             return null;
-        } finally {
-            try {
-                if (is != null) {
-                    is.close();
-                }
-            } catch (final IOException e) {
-                return null;
-            }
         }
     }
 
@@ -397,7 +403,11 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
             final TemplateDownloader td;
             if (uri != null && uri.getScheme() != null) {
                 if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
-                    td = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy, resourceType);
+                    final HttpTemplateDownloader httpTd = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy,
+                            resourceType);
+                    httpTd.setChecksumAlgorithm(ChecksumUtils.getAlgorithm(isChecksumProvided(cksum) ? cksum : null));
+                    httpTd.setSegments(downloadSegments);
+                    td = httpTd;
                 } else if (uri.getScheme().equalsIgnoreCase("file")) {
                     td = new LocalTemplateDownloader(_storage, url, tmpDir, maxTemplateSizeInBytes, new Completion(jobId));
                 } else if (uri.getScheme().equalsIgnoreCase("scp")) {
@@ -783,6 +793,9 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         value = (String) params.get("install.timeout.pergig");
         installTimeoutPerGig = NumbersUtil.parseInt(value, 15 * 60) * 1000;
 
+        value = (String) params.get("download.segments");
+        downloadSegments = NumbersUtil.parseInt(value, 1);
+
         value = (String) params.get("install.numthreads");
         final int numInstallThreads = NumbersUtil.parseInt(value, 10);
 
@@ -2,6 +2,8 @@ package com.cloud.utils.imagestore;
 
 import com.cloud.utils.script.Script;
 
+import java.nio.charset.StandardCharsets;
+
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +11,15 @@ import org.slf4j.LoggerFactory;
 public class ImageStoreUtil {
     public static final Logger s_logger = LoggerFactory.getLogger(ImageStoreUtil.class.getName());
 
+    public static final int FORMAT_PROBE_HEADER_SIZE = 64 * 1024;
+
+    private static final byte[] QCOW2_MAGIC = {'Q', 'F', 'I', (byte) 0xfb};
+    private static final byte[] VHD_COOKIE = "conectix".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TAR_MAGIC = "ustar".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ISO_MAGIC = "CD001".getBytes(StandardCharsets.US_ASCII);
+    private static final int TAR_MAGIC_OFFSET = 257;
+    private static final int ISO_MAGIC_OFFSET = 32769;
+
     public static String generatePostUploadUrl(final String ssvmUrlDomain, final String ipAddress, final String uuid) {
         String hostname = ipAddress;
 
@@ -62,6 +73,44 @@ public class ImageStoreUtil {
         return output;
     }
 
+    // given the first bytes of an image, returns empty if the header proves the image matches its extension and null
+    // if the header alone is not conclusive, in which case checkTemplateFormat has to be used on the file
+    public static String probeTemplateFormat(final byte[] header, final int length, final String uripath) {
+        if (uripath == null || isCompressedExtension(uripath)) {
+            return null;
+        }
+        if (isCorrectExtension(uripath, "qcow2") && startsWith(header, length, 0, QCOW2_MAGIC)) {
+            s_logger.debug("Header of " + uripath + " looks like QCOW2");
+            return "";
+        }
+        // dynamic and differencing disks carry a copy of the footer at offset 0, fixed disks only at the end
+        if ((isCorrectExtension(uripath, "vhd") || isCorrectExtension(uripath, "vhdx")) && startsWith(header, length, 0, VHD_COOKIE)) {
+            s_logger.debug("Header of " + uripath + " looks like vhd");
+            return "";
+        }
+        if (isCorrectExtension(uripath, "tar") && startsWith(header, length, TAR_MAGIC_OFFSET, TAR_MAGIC)) {
+            s_logger.debug("Header of " + uripath + " looks like just tar");
+            return "";
+        }
+        if (isCorrectExtension(uripath, "iso") && startsWith(header, length, ISO_MAGIC_OFFSET, ISO_MAGIC)) {
+            s_logger.debug("Header of " + uripath + " looks like an iso");
+            return "";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(final byte[] header, final int length, final int offset, final byte[] magic) {
+        if (header == null || length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static boolean isCompressedExtension(final String path) {
         if (path.toLowerCase().endsWith(".gz")
                 || path.toLowerCase().endsWith(".bz2")
@@ -0,0 +1,278 @@
+package com.cloud.utils.net;
+
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The free addresses of an IPv4 range, kept as a bitmap of one bit per address.
+ * <p>
+ * A /16 takes 8 KB instead of the megabytes of a {@code SortedSet<Long>} holding every free address, and looking up
+ * the lowest or a random free address does not need the whole range to be materialized and copied first.
+ * <p>
+ * Instances are not thread safe; they are meant to be built, queried and dropped by a single allocation.
+ */
+public final class IpAddressPool {
+    // random probes before falling back to picking the n-th free address
+    private static final int RANDOM_PROBES = 8;
+
+    private final long firstIp;
+    private final int size;
+    // a set bit is an address that is not available; the bits past the end of the range are set as well
+    private final long[] used;
+    private int availableCount;
+    // no address below this index is available
+    private int lowestAvailable;
+
+    /**
+     * @param firstIp the first address of the range
+     * @param lastIp  the last address of the range, inclusive. A last address below the first one makes an empty pool.
+     */
+    public IpAddressPool(final long firstIp, final long lastIp) {
+        final long rangeSize = Math.max(0, lastIp - firstIp + 1);
+        if (rangeSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range " + NetUtils.long2Ip(firstIp) + "-" + NetUtils.long2Ip(lastIp) + " is too large for an address pool");
+        }
+        this.firstIp = firstIp;
+        this.size = (int) rangeSize;
+        this.used = new long[(size + 63) >>> 6];
+        this.availableCount = size;
+        if ((size & 63) != 0) {
+            used[used.length - 1] = -1L << (size & 63);
+        }
+    }
+
+    public long getFirstIp() {
+        return firstIp;
+    }
+
+    public long getLastIp() {
+        return firstIp + size - 1;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getAvailableCount() {
+        return availableCount;
+    }
+
+    public boolean isEmpty() {
+        return availableCount == 0;
+    }
+
+    public boolean contains(final long ip) {
+        return ip >= firstIp && ip - firstIp < size;
+    }
+
+    public boolean isAvailable(final long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+        final int index = (int) (ip - firstIp);
+        return (used[index >>> 6] & 1L << index) == 0;
+    }
+
+    /**
+     * Marks an address as not available. Addresses outside of the range are ignored.
+     *
+     * @return true when the address was available
+     */
+    public boolean exclude(final long ip) {
+        if (!isAvailable(ip)) {
+            return false;
+        }
+        final int index = (int) (ip - firstIp);
+        used[index >>> 6] |= 1L << index;
+        availableCount--;
+        return true;
+    }
+
+    /**
+     * Marks a range of addresses as not available, a word of the bitmap at a time. The part of the range outside of
+     * the pool is ignored.
+     *
+     * @return the number of addresses that were available
+     */
+    public int exclude(final long fromIp, final long toIp) {
+        final long from = Math.max(fromIp, firstIp);
+        final long to = Math.min(toIp, getLastIp());
+        if (from > to) {
+            return 0;
+        }
+        final int start = (int) (from - firstIp);
+        final int end = (int) (to - firstIp);
+        final int startWord = start >>> 6;
+        final int endWord = end >>> 6;
+        int excluded = 0;
+        for (int word = startWord; word <= endWord; word++) {
+            long mask = -1L;
+            if (word == startWord) {
+                mask &= -1L << start;
+            }
+            if (word == endWord) {
+                mask &= -1L >>> 63 - (end & 63);
+            }
+            excluded += Long.bitCount(mask & ~used[word]);
+            used[word] |= mask;
+        }
+        availableCount -= excluded;
+        return excluded;
+    }
+
+    /**
+     * Marks the addresses of a range list like "10.1.1.1-10.1.1.10,10.1.1.20" as not available, without expanding the
+     * ranges into lists of addresses.
+     *
+     * @return the number of addresses that were available
+     */
+    public int excludeRangeList(final String ipRangeList) {
+        if (StringUtils.isEmpty(ipRangeList)) {
+            return 0;
+        }
+        int excluded = 0;
+        for (final String range : ipRangeList.split(",")) {
+            final String[] ips = range.split("-");
+            final long from = NetUtils.ip2Long(ips[0].trim());
+            final long to = ips.length > 1 ? NetUtils.ip2Long(ips[1].trim()) : from;
+            excluded += exclude(from, to);
+        }
+        return excluded;
+    }
+
+    /**
+     * Makes an address of the range available again.
+     *
+     * @return true when the address was not available
+     */
+    public boolean release(final long ip) {
+        if (!contains(ip) || isAvailable(ip)) {
+            return false;
+        }
+        final int index = (int) (ip - firstIp);
+        used[index >>> 6] &= ~(1L << index);
+        availableCount++;
+        if (index < lowestAvailable) {
+            lowestAvailable = index;
+        }
+        return true;
+    }
+
+    /**
+     * @return the lowest available address, or -1 when the pool is empty
+     */
+    public long first() {
+        final int index = nextAvailableIndex(lowestAvailable);
+        if (index < 0) {
+            lowestAvailable = size;
+            return -1;
+        }
+        lowestAvailable = index;
+        return firstIp + index;
+    }
+
+    /**
+     * @return the lowest available address from the given one on, or -1 when there is none
+     */
+    public long nextAvailable(final long fromIp) {
+        if (fromIp >= firstIp + size) {
+            return -1;
+        }
+        final int index = nextAvailableIndex((int) Math.max(lowestAvailable, fromIp - firstIp));
+        return index < 0 ? -1 : firstIp + index;
+    }
+
+    /**
+     * Picks one of the available addresses, every available address being equally likely. As long as a fair share of
+     * the pool is available, a couple of random probes hit one; a nearly full pool is scanned for the n-th available
+     * address instead.
+     *
+     * @return the address, or -1 when the pool is empty
+     */
+    public long randomAvailable(final Random random) {
+        if (availableCount == 0) {
+            return -1;
+        }
+        for (int probe = 0; probe < RANDOM_PROBES; probe++) {
+            final int index = random.nextInt(size);
+            if ((used[index >>> 6] & 1L << index) == 0) {
+                return firstIp + index;
+            }
+        }
+
+        int remaining = random.nextInt(availableCount);
+        for (int word = lowestAvailable >>> 6; word < used.length; word++) {
+            long free = ~used[word];
+            final int count = Long.bitCount(free);
+            if (remaining >= count) {
+                remaining -= count;
+                continue;
+            }
+            while (remaining-- > 0) {
+                free &= free - 1;
+            }
+            return firstIp + (word << 6) + Long.numberOfTrailingZeros(free);
+        }
+        throw new IllegalStateException("Available address count " + availableCount + " does not match the bitmap");
+    }
+
+    /**
+     * Takes the lowest available address out of the pool.
+     *
+     * @return the address, or -1 when the pool is empty
+     */
+    public long allocateFirst() {
+        final long ip = first();
+        if (ip >= 0) {
+            exclude(ip);
+        }
+        return ip;
+    }
+
+    /**
+     * Takes a random available address out of the pool.
+     *
+     * @return the address, or -1 when the pool is empty
+     */
+    public long allocateRandom(final Random random) {
+        final long ip = randomAvailable(random);
+        if (ip >= 0) {
+            exclude(ip);
+        }
+        return ip;
+    }
+
+    /**
+     * @return the available addresses as a sorted set, for callers that still need one
+     */
+    public SortedSet<Long> toSortedSet() {
+        final SortedSet<Long> result = new TreeSet<>();
+        for (int index = nextAvailableIndex(lowestAvailable); index >= 0; index = nextAvailableIndex(index + 1)) {
+            result.add(firstIp + index);
+        }
+        return result;
+    }
+
+    private int nextAvailableIndex(final int fromIndex) {
+        if (fromIndex >= size) {
+            return -1;
+        }
+        int word = fromIndex >>> 6;
+        long free = ~used[word] & -1L << fromIndex;
+        while (free == 0) {
+            if (++word == used.length) {
+                return -1;
+            }
+            free = ~used[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(free);
+    }
+
+    @Override
+    public String toString() {
+        return "IpAddressPool[" + NetUtils.long2Ip(firstIp) + "-" + NetUtils.long2Ip(getLastIp()) + ", available=" + availableCount + "]";
+    }
+}
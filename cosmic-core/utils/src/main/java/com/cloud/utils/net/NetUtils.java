@@ -587,6 +587,21 @@ public class NetUtils {
         return result;
     }
 
+    /**
+     * @return a pool of the usable addresses of the cidr, i.e. without the network and broadcast addresses, all of them
+     * available
+     */
+    public static IpAddressPool getIpAddressPoolFromCidr(final String cidr) {
+        final Pair<String, Integer> cidrPair = getCidr(cidr);
+        return getIpAddressPoolFromCidr(cidrPair.first(), cidrPair.second());
+    }
+
+    public static IpAddressPool getIpAddressPoolFromCidr(final String cidr_ip, final long size) {
+        final long start = ip2Long(getIpRangeStartIpFromCidr(cidr_ip, size));
+        final long end = ip2Long(getIpRangeEndIpFromCidr(cidr_ip, size));
+        return new IpAddressPool(start, end);
+    }
+
     public static SortedSet<Long> listIp2LongList(final List<String> ipStringList) {
         SortedSet<Long> ipLongList = new TreeSet<>();
         for (String ip : ipStringList) {
@@ -45,7 +45,7 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected ExecutorService _threadExecutor;
     protected Future<Boolean> _futureTask;
 
-    protected boolean _isRunning;
+    protected volatile boolean _isRunning;
     protected boolean _isStartup;
     protected int _port;
     protected List<ChangeRequest> _todos;
@@ -78,11 +78,11 @@ public abstract class NioConnection implements Callable<Boolean> {
             throw new NioConnectionException(e.getMessage(), e);
         }
         _isStartup = true;
+        // before the selector loop starts, which would otherwise see it is not running and end right away
+        _isRunning = true;
 
         _threadExecutor = Executors.newSingleThreadExecutor();
         _futureTask = _threadExecutor.submit(this);
-
-        _isRunning = true;
     }
 
     abstract void init() throws IOException;
@@ -0,0 +1,124 @@
+package com.cloud.utils.storage;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class ChecksumUtils {
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA224 = "SHA-224";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA384 = "SHA-384";
+    public static final String SHA512 = "SHA-512";
+
+    private static final int VERIFY_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Private constructor ->  This utility class cannot be instantiated.
+     */
+    private ChecksumUtils() {
+    }
+
+    /**
+     * Picks the digest algorithm matching a hex encoded checksum, the same way createtmplt.sh does it.
+     *
+     * @param checksum The expected checksum, may be null or empty when there is none.
+     * @return The digest algorithm, MD5 when there is no checksum.
+     * @throws CloudRuntimeException when the length of the checksum matches none of the algorithms.
+     */
+    public static String getAlgorithm(final String checksum) {
+        if (checksum == null || checksum.trim().isEmpty()) {
+            return MD5;
+        }
+        switch (checksum.trim().length()) {
+            case 32:
+                return MD5;
+            case 40:
+                return SHA1;
+            case 56:
+                return SHA224;
+            case 64:
+                return SHA256;
+            case 96:
+                return SHA384;
+            case 128:
+                return SHA512;
+            default:
+                throw new CloudRuntimeException("Unsupported checksum " + checksum + ", its length matches no digest algorithm");
+        }
+    }
+
+    /**
+     * @param algorithm The digest algorithm, for example MD5 or SHA-256.
+     * @return A fresh digest for the algorithm.
+     */
+    public static MessageDigest getDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unsupported checksum algorithm " + algorithm, e);
+        }
+    }
+
+    /**
+     * @param digest The raw digest bytes.
+     * @return The lower case, zero padded hex representation of the digest.
+     */
+    public static String toHexString(final byte[] digest) {
+        final char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Feeds the first bytes of a file into a digest, used when a streaming digest has to pick up a resumed download.
+     *
+     * @param digest The digest to update.
+     * @param file   The file to read.
+     * @param length The number of bytes to read from the start of the file.
+     */
+    public static void update(final MessageDigest digest, final File file, final long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(VERIFY_BUFFER_SIZE);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                final int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Unexpected end-of-file after " + (length - remaining) + " bytes of " + file.getAbsolutePath());
+                }
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Computes the checksum of a complete file. Reads through a large direct buffer so the data does not get copied
+     * onto the heap, which keeps standalone verification of multi-GB images cheap.
+     *
+     * @param file      The file to checksum.
+     * @param algorithm The digest algorithm.
+     * @return The hex encoded checksum.
+     */
+    public static String computeChecksum(final File file, final String algorithm) throws IOException {
+        final MessageDigest digest = getDigest(algorithm);
+        update(digest, file, file.length());
+        return toHexString(digest.digest());
+    }
+}
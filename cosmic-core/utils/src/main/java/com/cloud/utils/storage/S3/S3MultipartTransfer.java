@@ -0,0 +1,834 @@
+package com.cloud.utils.storage.S3;
+
+import static java.lang.String.format;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.storage.ChecksumUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves objects between a file, or a stream, and an S3 store as a number of parts transferred in parallel.
+ * <p>
+ * An upload is a multipart upload: every part is sent with its MD5, which the store checks, and the parts are read into
+ * buffers taken from a pool sized by the memory budget, so a slow store holds back the reader instead of filling the
+ * heap. A download reads ranges of the object in parallel into their place in the file, and verifies the file against
+ * the ETag of the object when the ETag is an MD5, or the MD5 of the MD5s of parts of the same size.
+ * <p>
+ * The progress of a file transfer, the upload id and the parts that are done with their checksums, is persisted next
+ * to the file, so a transfer that failed picks up where it stopped when it is retried. An upload starts over when the
+ * file changed since. Uploads that made no progress within {@link #UPLOAD_EXPIRY_MILLIS} are aborted and their state is
+ * removed, so the store does not keep the parts forever. Only the uploads recorded in a state file are aborted, the
+ * uploads of other clients of the bucket are left alone.
+ * <p>
+ * All transfers share one pool of part buffers and one executor, so the memory budget and the number of threads bound
+ * the transfers together rather than each of them.
+ */
+public class S3MultipartTransfer {
+    private static final Logger s_logger = LoggerFactory.getLogger(S3MultipartTransfer.class);
+
+    public static final String STATE_FILE_SUFFIX = ".s3parts";
+
+    public static final long DEFAULT_PART_SIZE = 16L * 1024 * 1024;
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+    public static final long UPLOAD_EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // the most parts S3 accepts for an object
+    private static final int MAX_PARTS = 10000;
+    private static final int PART_ATTEMPTS = 3;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final Pattern MD5_ETAG = Pattern.compile("[0-9a-fA-F]{32}");
+    private static final Pattern MULTIPART_ETAG = Pattern.compile("[0-9a-fA-F]{32}-(\\d+)");
+    private static final int SHARED_THREADS = 16;
+    private static final long EXPIRY_CHECK_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final PartBuffers sharedBuffers = new PartBuffers(DEFAULT_MEMORY_BUDGET);
+    private static final ExecutorService sharedExecutor = createSharedExecutor();
+    // directory -> when its expired uploads were last looked for
+    private static final Map<String, Long> expiryChecks = new ConcurrentHashMap<>();
+
+    private final AmazonS3 client;
+    private final long partSize;
+    private final int parallelism;
+    private final PartBuffers buffers;
+
+    public S3MultipartTransfer(final AmazonS3 client) {
+        this(client, DEFAULT_PART_SIZE, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param partSize    the size of the parts, S3 wants at least 5 MB for all but the last one
+     * @param parallelism the number of parts of this transfer transferred at the same time
+     */
+    public S3MultipartTransfer(final AmazonS3 client, final long partSize, final int parallelism) {
+        this(client, partSize, parallelism, sharedBuffers);
+    }
+
+    /**
+     * With buffers of its own instead of the shared ones.
+     *
+     * @param memoryBudget the bytes of the buffers of the parts being uploaded
+     */
+    S3MultipartTransfer(final AmazonS3 client, final long partSize, final int parallelism, final long memoryBudget) {
+        this(client, partSize, parallelism, new PartBuffers(memoryBudget));
+    }
+
+    private S3MultipartTransfer(final AmazonS3 client, final long partSize, final int parallelism, final PartBuffers buffers) {
+        this.client = client;
+        this.partSize = partSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.buffers = buffers;
+    }
+
+    private static ExecutorService createSharedExecutor() {
+        final NamedThreadFactory threadFactory = new NamedThreadFactory("S3Transfer");
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(SHARED_THREADS, SHARED_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = threadFactory.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Uploads a file as the object, resuming the upload of an earlier attempt that did not complete.
+     */
+    public void upload(final File source, final String bucketName, final String key) throws IOException {
+        final long size = source.length();
+        final long effectivePartSize = getPartSize(size);
+        if (size <= effectivePartSize) {
+            putObject(new PutObjectRequest(bucketName, key, source), size);
+            return;
+        }
+        expireUploads(source.getAbsoluteFile().getParentFile());
+
+        final File stateFile = getStateFile(source);
+        final int partCount = getPartCount(size, effectivePartSize);
+        final TransferState state = resumeUpload(stateFile, bucketName, key, source, effectivePartSize);
+        if (state.uploadId == null) {
+            state.uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, new ObjectMetadata())).getUploadId();
+            state.save(stateFile);
+        } else {
+            s_logger.info(format("Resuming the upload of %1$s as S3 object %2$s in bucket %3$s, %4$d of %5$d parts are uploaded", source.getAbsolutePath(), key, bucketName,
+                    state.parts.size(), partCount));
+        }
+
+        final PartTasks tasks = new PartTasks();
+        try (RandomAccessFile file = new RandomAccessFile(source, "r")) {
+            final FileChannel channel = file.getChannel();
+            try {
+                for (int partNumber = 1; partNumber <= partCount && !tasks.hasFailed(); partNumber++) {
+                    if (state.getPart(partNumber) != null) {
+                        continue;
+                    }
+                    final int part = partNumber;
+                    final long offset = (part - 1) * effectivePartSize;
+                    final int length = (int) Math.min(effectivePartSize, size - offset);
+                    final byte[] buffer = buffers.take((int) effectivePartSize);
+                    tasks.submit(buffer, () -> {
+                        readFully(channel, buffer, offset, length);
+                        uploadPart(bucketName, key, state, part, buffer, length);
+                        state.save(stateFile);
+                    });
+                }
+            } finally {
+                tasks.awaitAll();
+            }
+        }
+        tasks.throwFailure("uploading " + source.getAbsolutePath());
+
+        completeUpload(bucketName, key, state, partCount);
+        stateFile.delete();
+    }
+
+    /**
+     * Uploads the stream of a request as the object, the parts are read from the stream one after the other and sent in
+     * parallel. A stream can not be read again, so a failed upload is aborted instead of being kept for a retry.
+     *
+     * @param request  a request with the stream and the content length of the object in its metadata
+     * @param progress called with the number of bytes of every part that is uploaded
+     */
+    public void upload(final PutObjectRequest request, final LongConsumer progress) throws IOException {
+        final long size = request.getMetadata().getContentLength();
+        final long effectivePartSize = getPartSize(size);
+        if (size <= effectivePartSize) {
+            putObject(request, size);
+            progress.accept(size);
+            return;
+        }
+
+        // the content length of the object is not the one of the request that starts the upload
+        final ObjectMetadata metadata = new ObjectMetadata();
+        if (request.getMetadata().getContentType() != null) {
+            metadata.setContentType(request.getMetadata().getContentType());
+        }
+        final InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(request.getBucketName(), request.getKey(), metadata);
+        if (request.getStorageClass() != null) {
+            initiateRequest.setStorageClass(StorageClass.fromValue(request.getStorageClass()));
+        }
+        final TransferState state = new TransferState(request.getBucketName(), request.getKey(), size, effectivePartSize);
+        state.uploadId = client.initiateMultipartUpload(initiateRequest).getUploadId();
+
+        final int partCount = getPartCount(size, effectivePartSize);
+        final PartTasks tasks = new PartTasks();
+        boolean completed = false;
+        try {
+            try {
+                final InputStream in = request.getInputStream();
+                for (int partNumber = 1; partNumber <= partCount && !tasks.hasFailed(); partNumber++) {
+                    final int part = partNumber;
+                    final int length = (int) Math.min(effectivePartSize, size - (part - 1) * effectivePartSize);
+                    // waits for a buffer, so the stream is read no faster than the parts are sent
+                    final byte[] buffer = buffers.take((int) effectivePartSize);
+                    try {
+                        readFully(in, buffer, length);
+                    } catch (final IOException e) {
+                        buffers.release(buffer);
+                        throw e;
+                    }
+                    tasks.submit(buffer, () -> {
+                        uploadPart(request.getBucketName(), request.getKey(), state, part, buffer, length);
+                        progress.accept(length);
+                    });
+                }
+            } finally {
+                tasks.awaitAll();
+            }
+            tasks.throwFailure("uploading the stream of S3 object " + request.getKey());
+            completeUpload(request.getBucketName(), request.getKey(), state, partCount);
+            completed = true;
+        } finally {
+            if (!completed) {
+                abortUpload(state);
+            }
+        }
+    }
+
+    /**
+     * Downloads the object into a file, resuming the download of an earlier attempt that did not complete.
+     */
+    public void download(final String bucketName, final String key, final File destination) throws IOException {
+        final ObjectMetadata metadata = client.getObjectMetadata(bucketName, key);
+        final long size = metadata.getContentLength();
+        final String eTag = metadata.getETag();
+        final long effectivePartSize = getPartSize(size);
+        final int partCount = Math.max(1, getPartCount(size, effectivePartSize));
+
+        final File stateFile = getStateFile(destination);
+        TransferState state = TransferState.load(stateFile);
+        if (state != null && state.matches(bucketName, key, size, effectivePartSize) && eTag != null && eTag.equals(state.eTag) && destination.length() == size
+                && !isExpired(stateFile)) {
+            s_logger.info(format("Resuming the download of S3 object %1$s in bucket %2$s to %3$s, %4$d of %5$d parts are downloaded", key, bucketName,
+                    destination.getAbsolutePath(), state.parts.size(), partCount));
+        } else {
+            state = new TransferState(bucketName, key, size, effectivePartSize);
+            state.eTag = eTag;
+            try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+                file.setLength(size);
+            }
+            state.save(stateFile);
+        }
+
+        final TransferState downloadState = state;
+        final PartTasks tasks = new PartTasks();
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            final FileChannel channel = file.getChannel();
+            try {
+                for (int partNumber = 1; partNumber <= partCount && !tasks.hasFailed(); partNumber++) {
+                    if (downloadState.getPart(partNumber) != null) {
+                        continue;
+                    }
+                    final int part = partNumber;
+                    tasks.submit(null, () -> {
+                        downloadPart(channel, downloadState, part);
+                        synchronized (downloadState) {
+                            // the state never claims a part that is not on disk
+                            channel.force(false);
+                            downloadState.save(stateFile);
+                        }
+                    });
+                }
+            } finally {
+                tasks.awaitAll();
+            }
+        }
+        tasks.throwFailure("downloading S3 object " + key);
+
+        if (!verifyDownload(destination, downloadState, partCount)) {
+            stateFile.delete();
+            throw new IOException(format("The download of S3 object %1$s in bucket %2$s to %3$s does not match its ETag %4$s", key, bucketName, destination.getAbsolutePath(),
+                    eTag));
+        }
+        stateFile.delete();
+    }
+
+    public static File getStateFile(final File file) {
+        return new File(file.getAbsolutePath() + STATE_FILE_SUFFIX);
+    }
+
+    long getPartSize(final long size) {
+        // the parts grow for objects that would need more than the maximum number of parts
+        final long minimumPartSize = (size + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(partSize, minimumPartSize);
+    }
+
+    private static int getPartCount(final long size, final long partSize) {
+        return (int) ((size + partSize - 1) / partSize);
+    }
+
+    private void putObject(final PutObjectRequest request, final long size) {
+        s_logger.debug(format("Sending %1$d bytes as S3 object %2$s in bucket %3$s in a single part", size, request.getKey(), request.getBucketName()));
+        client.putObject(request);
+    }
+
+    private TransferState resumeUpload(final File stateFile, final String bucketName, final String key, final File source, final long partSize) {
+        final TransferState fresh = new TransferState(bucketName, key, source.length(), partSize);
+        fresh.sourceModified = source.lastModified();
+        final TransferState state = TransferState.load(stateFile);
+        if (state == null || state.uploadId == null) {
+            return fresh;
+        }
+        if (!state.matches(bucketName, key, source.length(), partSize) || state.sourceModified != source.lastModified() || isExpired(stateFile)) {
+            s_logger.info(format("Not resuming upload %1$s of S3 object %2$s, %3$s changed or the upload expired", state.uploadId, state.key, source.getAbsolutePath()));
+            abortUpload(state);
+            return fresh;
+        }
+
+        // only the parts the store still has, with the checksum they were sent with, are kept
+        final Map<Integer, String> uploadedParts = new TreeMap<>();
+        try {
+            final ListPartsRequest request = new ListPartsRequest(bucketName, key, state.uploadId);
+            PartListing listing;
+            do {
+                listing = client.listParts(request);
+                for (final PartSummary part : listing.getParts()) {
+                    uploadedParts.put(part.getPartNumber(), stripQuotes(part.getETag()));
+                }
+                request.setPartNumberMarker(listing.getNextPartNumberMarker());
+            } while (listing.isTruncated());
+        } catch (final AmazonServiceException e) {
+            s_logger.info(format("Unable to resume upload %1$s of S3 object %2$s, starting over: %3$s", state.uploadId, key, e.getMessage()));
+            return fresh;
+        }
+        state.parts.entrySet().removeIf(part -> !part.getValue().equals(uploadedParts.get(part.getKey())));
+        return state;
+    }
+
+    private static boolean isExpired(final File stateFile) {
+        // the state is saved with every part, so this is the time the transfer last made progress
+        return System.currentTimeMillis() - stateFile.lastModified() > UPLOAD_EXPIRY_MILLIS;
+    }
+
+    /**
+     * Aborts the uploads recorded in the state files in the directory that made no progress within the expiry, and
+     * removes those state files. Looks at most once an interval per directory.
+     */
+    private void expireUploads(final File directory) {
+        if (directory != null && isExpiryCheckDue(directory.getAbsolutePath(), System.currentTimeMillis())) {
+            removeExpiredStateFiles(directory);
+        }
+    }
+
+    private static boolean isExpiryCheckDue(final String directory, final long now) {
+        final Long lastCheck = expiryChecks.get(directory);
+        if (lastCheck != null && now - lastCheck < EXPIRY_CHECK_INTERVAL_MILLIS) {
+            return false;
+        }
+        return lastCheck == null ? expiryChecks.putIfAbsent(directory, now) == null : expiryChecks.replace(directory, lastCheck, now);
+    }
+
+    void removeExpiredStateFiles(final File directory) {
+        final File[] stateFiles = directory.listFiles((dir, name) -> name.endsWith(STATE_FILE_SUFFIX));
+        if (stateFiles == null) {
+            return;
+        }
+        for (final File stateFile : stateFiles) {
+            if (isExpired(stateFile)) {
+                final TransferState state = TransferState.load(stateFile);
+                if (state != null && state.uploadId != null) {
+                    abortUpload(state);
+                }
+                s_logger.info("Removing the state of a transfer that did not complete: " + stateFile.getAbsolutePath());
+                stateFile.delete();
+            }
+        }
+    }
+
+    private void uploadPart(final String bucketName, final String key, final TransferState state, final int partNumber, final byte[] buffer, final int length)
+            throws IOException {
+        final byte[] md5 = md5(buffer, length);
+        final String expectedETag = ChecksumUtils.toHexString(md5);
+        AmazonClientException lastError = null;
+        for (int attempt = 1; attempt <= PART_ATTEMPTS; attempt++) {
+            final UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName)
+                                                                     .withKey(key)
+                                                                     .withUploadId(state.uploadId)
+                                                                     .withPartNumber(partNumber)
+                                                                     .withPartSize(length)
+                                                                     .withMD5Digest(Base64.encodeBase64String(md5))
+                                                                     .withInputStream(new ByteArrayInputStream(buffer, 0, length));
+            try {
+                final String eTag = stripQuotes(client.uploadPart(request).getETag());
+                if (!expectedETag.equalsIgnoreCase(eTag)) {
+                    throw new AmazonClientException(format("Part %1$d of S3 object %2$s was stored with ETag %3$s instead of its MD5 %4$s", partNumber, key, eTag, expectedETag));
+                }
+                state.putPart(partNumber, expectedETag);
+                return;
+            } catch (final AmazonClientException e) {
+                s_logger.warn(format("Attempt %1$d to upload part %2$d of S3 object %3$s failed: %4$s", attempt, partNumber, key, e.getMessage()));
+                lastError = e;
+            }
+        }
+        throw new IOException(format("Unable to upload part %1$d of S3 object %2$s", partNumber, key), lastError);
+    }
+
+    private void completeUpload(final String bucketName, final String key, final TransferState state, final int partCount) {
+        final List<PartETag> partETags = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            partETags.add(new PartETag(partNumber, state.getPart(partNumber)));
+        }
+        final CompleteMultipartUploadResult result = client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, state.uploadId, partETags));
+
+        final String expectedETag = getMultipartETag(state, partCount);
+        if (!expectedETag.equalsIgnoreCase(stripQuotes(result.getETag()))) {
+            // stores that encrypt the objects have ETags of their own, the parts were checked when they were sent
+            s_logger.info(format("S3 object %1$s in bucket %2$s has ETag %3$s, the MD5 of the MD5s of its parts is %4$s", key, bucketName, result.getETag(), expectedETag));
+        }
+        s_logger.debug(format("Completed the upload of S3 object %1$s in bucket %2$s in %3$d parts", key, bucketName, partCount));
+    }
+
+    private void abortUpload(final TransferState state) {
+        abortUpload(state.bucketName, state.key, state.uploadId);
+    }
+
+    private void abortUpload(final String bucketName, final String key, final String uploadId) {
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (final AmazonClientException e) {
+            s_logger.warn(format("Unable to abort upload %1$s of S3 object %2$s: %3$s", uploadId, key, e.getMessage()));
+        }
+    }
+
+    private void downloadPart(final FileChannel channel, final TransferState state, final int partNumber) throws IOException {
+        final long start = (partNumber - 1) * state.partSize;
+        final long end = Math.min(start + state.partSize, state.size) - 1;
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= PART_ATTEMPTS; attempt++) {
+            try {
+                state.putPart(partNumber, transferRange(channel, state, start, end));
+                return;
+            } catch (final IOException | AmazonClientException e) {
+                s_logger.warn(format("Attempt %1$d to download bytes %2$d-%3$d of S3 object %4$s failed: %5$s", attempt, start, end, state.key, e.getMessage()));
+                lastError = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * @return the MD5 of the range
+     */
+    private String transferRange(final FileChannel channel, final TransferState state, final long start, final long end) throws IOException {
+        final MessageDigest digest = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+        if (end < start) {
+            // an empty object
+            return ChecksumUtils.toHexString(digest.digest());
+        }
+        final GetObjectRequest request = new GetObjectRequest(state.bucketName, state.key).withMatchingETagConstraint(state.eTag);
+        request.setRange(start, end);
+        final S3Object object = client.getObject(request);
+        if (object == null) {
+            throw new IOException(format("S3 object %1$s changed since its download started", state.key));
+        }
+        try (InputStream in = object.getObjectContent()) {
+            final byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, end - start + 1)];
+            long position = start;
+            while (position <= end) {
+                final int bytes = in.read(chunk, 0, (int) Math.min(chunk.length, end - position + 1));
+                if (bytes < 0) {
+                    throw new EOFException(format("Connection closed at byte %1$d of S3 object %2$s, expected data up to byte %3$d", position, state.key, end));
+                }
+                digest.update(chunk, 0, bytes);
+                final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, bytes);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+        return ChecksumUtils.toHexString(digest.digest());
+    }
+
+    private boolean verifyDownload(final File destination, final TransferState state, final int partCount) throws IOException {
+        final String eTag = stripQuotes(state.eTag);
+        if (eTag == null) {
+            return true;
+        }
+        final Matcher multipartETag = MULTIPART_ETAG.matcher(eTag);
+        if (multipartETag.matches() && Integer.parseInt(multipartETag.group(1)) == partCount) {
+            // uploaded in parts of the size of the ranges, most likely by this engine
+            return eTag.equalsIgnoreCase(getMultipartETag(state, partCount));
+        }
+        if (MD5_ETAG.matcher(eTag).matches()) {
+            if (partCount == 1) {
+                return eTag.equalsIgnoreCase(state.getPart(1));
+            }
+            return eTag.equalsIgnoreCase(ChecksumUtils.computeChecksum(destination, ChecksumUtils.MD5));
+        }
+        // uploaded in parts of another size, or by a store that computes ETags of its own
+        s_logger.debug(format("Unable to verify the download of S3 object %1$s against its ETag %2$s", state.key, state.eTag));
+        return true;
+    }
+
+    /**
+     * @return the ETag S3 gives an object uploaded in these parts: the MD5 of the MD5s of the parts, and the number of parts
+     */
+    private static String getMultipartETag(final TransferState state, final int partCount) {
+        final MessageDigest digest = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            final String part = state.getPart(partNumber);
+            if (part == null) {
+                return "";
+            }
+            try {
+                digest.update(Hex.decodeHex(part.toCharArray()));
+            } catch (final DecoderException e) {
+                return "";
+            }
+        }
+        return ChecksumUtils.toHexString(digest.digest()) + "-" + partCount;
+    }
+
+    private static String stripQuotes(final String eTag) {
+        return eTag != null && eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    private static byte[] md5(final byte[] buffer, final int length) {
+        final MessageDigest digest = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+        digest.update(buffer, 0, length);
+        return digest.digest();
+    }
+
+    private static void readFully(final FileChannel channel, final byte[] buffer, final long offset, final int length) throws IOException {
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        long position = offset;
+        while (byteBuffer.hasRemaining()) {
+            final int bytes = channel.read(byteBuffer, position);
+            if (bytes < 0) {
+                throw new EOFException("The file ended at byte " + position + ", expected " + (offset + length) + " bytes");
+            }
+            position += bytes;
+        }
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer, final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int bytes = in.read(buffer, read, length - read);
+            if (bytes < 0) {
+                throw new EOFException("The stream ended after " + read + " bytes of a part of " + length + " bytes");
+            }
+            read += bytes;
+        }
+    }
+
+    private interface PartTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * The parts of one transfer on the shared executor. At most parallelism of them are queued or running at a time, so
+     * a large transfer does not hold back the others, and the parts that did not start when one failed are skipped.
+     */
+    private class PartTasks {
+        private final Semaphore slots = new Semaphore(parallelism);
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private IOException failure;
+
+        /**
+         * Waits for a slot and runs the part, the buffer it was given is released when it is done.
+         *
+         * @param buffer may be null
+         */
+        void submit(final byte[] buffer, final PartTask task) throws IOException {
+            try {
+                slots.acquire();
+            } catch (final InterruptedException e) {
+                release(buffer);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the parts being transferred", e);
+            }
+            try {
+                futures.add(sharedExecutor.submit(() -> {
+                    try {
+                        if (!failed.get()) {
+                            task.run();
+                        }
+                    } catch (final IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        slots.release();
+                        release(buffer);
+                    }
+                    return null;
+                }));
+            } catch (final RejectedExecutionException e) {
+                slots.release();
+                release(buffer);
+                throw new IOException("Unable to transfer a part", e);
+            }
+        }
+
+        private void release(final byte[] buffer) {
+            if (buffer != null) {
+                buffers.release(buffer);
+            }
+        }
+
+        boolean hasFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Waits for all parts that were submitted, so none of them changes the file, the state or the upload after the
+         * transfer returned, and keeps the first failure.
+         */
+        void awaitAll() {
+            boolean interrupted = false;
+            for (final Future<?> future : futures) {
+                boolean done = false;
+                while (!done) {
+                    try {
+                        future.get();
+                        done = true;
+                    } catch (final InterruptedException e) {
+                        // the parts that did not start are skipped, the ones that did are still waited for
+                        interrupted = true;
+                        failed.set(true);
+                        recordFailure(new IOException("Interrupted", e));
+                    } catch (final ExecutionException e) {
+                        final Throwable cause = e.getCause();
+                        recordFailure(cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause));
+                        done = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void recordFailure(final IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        void throwFailure(final String operation) throws IOException {
+            if (failure != null) {
+                throw new IOException("Failed " + operation + ": " + failure.getMessage(), failure);
+            }
+        }
+    }
+
+    /**
+     * The buffers of the parts being uploaded, as many as fit in the memory budget. Buffers of a size nobody needs are
+     * dropped to make room for others. The takers hold no other buffers while they wait, and the holders do not wait.
+     */
+    static final class PartBuffers {
+        private final long memoryBudget;
+        private final Map<Integer, Deque<byte[]>> free = new HashMap<>();
+        private long allocated = 0;
+
+        PartBuffers(final long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+
+        synchronized byte[] take(final int size) throws IOException {
+            try {
+                while (true) {
+                    final Deque<byte[]> sameSize = free.get(size);
+                    if (sameSize != null && !sameSize.isEmpty()) {
+                        return sameSize.pop();
+                    }
+                    // a part larger than the budget is sent on its own
+                    if (allocated + size <= memoryBudget || allocated == 0) {
+                        allocated += size;
+                        return new byte[size];
+                    }
+                    if (!dropFreeBuffer()) {
+                        wait();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a buffer", e);
+            }
+        }
+
+        synchronized void release(final byte[] buffer) {
+            free.computeIfAbsent(buffer.length, length -> new ArrayDeque<>()).push(buffer);
+            notifyAll();
+        }
+
+        private boolean dropFreeBuffer() {
+            for (final Deque<byte[]> buffers : free.values()) {
+                if (!buffers.isEmpty()) {
+                    allocated -= buffers.pop().length;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The parts of a transfer that are done, by part number with their MD5, persisted as properties.
+     */
+    static final class TransferState {
+        final String bucketName;
+        final String key;
+        final long size;
+        final long partSize;
+        final Map<Integer, String> parts = new TreeMap<>();
+        String uploadId;
+        String eTag;
+        // the last modification time of the file that is uploaded
+        long sourceModified = -1;
+
+        TransferState(final String bucketName, final String key, final long size, final long partSize) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.size = size;
+            this.partSize = partSize;
+        }
+
+        boolean matches(final String bucketName, final String key, final long size, final long partSize) {
+            return this.bucketName.equals(bucketName) && this.key.equals(key) && this.size == size && this.partSize == partSize;
+        }
+
+        synchronized String getPart(final int partNumber) {
+            return parts.get(partNumber);
+        }
+
+        synchronized void putPart(final int partNumber, final String md5) {
+            parts.put(partNumber, md5);
+        }
+
+        static TransferState load(final File stateFile) {
+            if (!stateFile.exists()) {
+                return null;
+            }
+            final Properties props = new Properties();
+            try (FileInputStream in = new FileInputStream(stateFile)) {
+                props.load(in);
+            } catch (final IOException e) {
+                s_logger.warn("Unable to read the transfer state " + stateFile.getAbsolutePath() + ", starting over: " + e.getMessage());
+                return null;
+            }
+            final String bucketName = props.getProperty("bucket");
+            final String key = props.getProperty("key");
+            final long size = NumbersUtil.parseLong(props.getProperty("size"), -1);
+            final long partSize = NumbersUtil.parseLong(props.getProperty("partsize"), -1);
+            if (bucketName == null || key == null || size < 0 || partSize <= 0) {
+                return null;
+            }
+            final TransferState state = new TransferState(bucketName, key, size, partSize);
+            state.uploadId = props.getProperty("uploadid");
+            state.eTag = props.getProperty("etag");
+            state.sourceModified = NumbersUtil.parseLong(props.getProperty("sourcemodified"), -1);
+            for (final String name : props.stringPropertyNames()) {
+                if (name.startsWith("part.")) {
+                    state.parts.put(NumbersUtil.parseInt(name.substring("part.".length()), 0), props.getProperty(name));
+                }
+            }
+            return state;
+        }
+
+        synchronized void save(final File stateFile) throws IOException {
+            final Properties props = new Properties();
+            props.setProperty("bucket", bucketName);
+            props.setProperty("key", key);
+            props.setProperty("size", Long.toString(size));
+            props.setProperty("partsize", Long.toString(partSize));
+            if (uploadId != null) {
+                props.setProperty("uploadid", uploadId);
+            }
+            if (eTag != null) {
+                props.setProperty("etag", eTag);
+            }
+            if (sourceModified >= 0) {
+                props.setProperty("sourcemodified", Long.toString(sourceModified));
+            }
+            for (final Map.Entry<Integer, String> part : parts.entrySet()) {
+                props.setProperty("part." + part.getKey(), part.getValue());
+            }
+            final File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, null);
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import static java.util.Collections.unmodifiableList;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
@@ -15,6 +16,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.LongConsumer;
 
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.HttpMethod;
@@ -137,6 +139,33 @@ public final class S3Utils {
         return getTransferManager(clientOptions).download(getObjectRequest, file);
     }
 
+    /**
+     * Sends a file as S3 object in parts uploaded in parallel, resuming an earlier attempt that did not complete.
+     */
+    public static void uploadFile(final ClientOptions clientOptions, final File sourceFile, final String bucketName, final String key) throws IOException {
+        LOGGER.debug(format("Sending file %1$s as S3 object %2$s in bucket %3$s in parallel parts", sourceFile.getName(), key, bucketName));
+
+        new S3MultipartTransfer(getAmazonS3Client(clientOptions)).upload(sourceFile, bucketName, key);
+    }
+
+    /**
+     * Sends the stream of a request as S3 object in parts uploaded in parallel.
+     */
+    public static void uploadObject(final ClientOptions clientOptions, final PutObjectRequest req, final LongConsumer progress) throws IOException {
+        LOGGER.debug(format("Sending stream as S3 object %1$s in bucket %2$s in parallel parts", req.getKey(), req.getBucketName()));
+
+        new S3MultipartTransfer(getAmazonS3Client(clientOptions)).upload(req, progress);
+    }
+
+    /**
+     * Receives an S3 object as file in ranges downloaded in parallel, resuming an earlier attempt that did not complete.
+     */
+    public static void downloadFile(final ClientOptions clientOptions, final String bucketName, final String key, final File file) throws IOException {
+        LOGGER.debug(format("Receiving object %1$s as file %2$s from bucket %3$s in parallel parts", key, file.getAbsolutePath(), bucketName));
+
+        new S3MultipartTransfer(getAmazonS3Client(clientOptions)).download(bucketName, key, file);
+    }
+
     public static URL generatePresignedUrl(final ClientOptions clientOptions, final String bucketName, final String key, final Date expiration) {
         LOGGER.debug(format("Generating presigned url for key %1s in bucket %2s with expiration date %3s", key, bucketName, expiration.toString()));
 
@@ -28,6 +28,18 @@ public class ImageStoreUtilTest {
         assertPostUploadUrl(url, ipAddress.replace(".", "-") + ssvmdomain.substring(1), uuid);
     }
 
+    @Test
+    public void testProbeTemplateFormat() {
+        final byte[] qcow2 = {'Q', 'F', 'I', (byte) 0xfb, 0, 0, 0, 2};
+        Assert.assertEquals("", ImageStoreUtil.probeTemplateFormat(qcow2, qcow2.length, "/templates/centos.qcow2"));
+        Assert.assertNull(ImageStoreUtil.probeTemplateFormat(qcow2, qcow2.length, "/templates/centos.vhd"));
+        Assert.assertNull(ImageStoreUtil.probeTemplateFormat(qcow2, qcow2.length, "/templates/centos.qcow2.gz"));
+
+        final byte[] vhd = "conectix".getBytes();
+        Assert.assertEquals("", ImageStoreUtil.probeTemplateFormat(vhd, vhd.length, "/templates/centos.vhd"));
+        Assert.assertNull(ImageStoreUtil.probeTemplateFormat(vhd, 4, "/templates/centos.vhd"));
+    }
+
     private void assertPostUploadUrl(final String urlStr, final String domain, final String uuid) throws MalformedURLException {
         final URL url = new URL(urlStr);
         Assert.assertNotNull(url);
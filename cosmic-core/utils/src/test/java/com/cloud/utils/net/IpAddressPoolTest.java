@@ -0,0 +1,162 @@
+package com.cloud.utils.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IpAddressPoolTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(IpAddressPoolTest.class);
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testPoolFromCidrSkipsNetworkAndBroadcast() {
+        final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr("10.0.0.0/29");
+
+        assertEquals(6, pool.getAvailableCount());
+        assertEquals(NetUtils.ip2Long("10.0.0.1"), pool.first());
+        assertEquals(NetUtils.ip2Long("10.0.0.6"), pool.getLastIp());
+        assertFalse(pool.isAvailable(NetUtils.ip2Long("10.0.0.0")));
+        assertFalse(pool.isAvailable(NetUtils.ip2Long("10.0.0.7")));
+    }
+
+    @Test
+    public void testExcludeRangeList() {
+        final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr("10.0.0.0/29");
+
+        assertEquals(4, pool.excludeRangeList("10.0.0.1-10.0.0.3,10.0.0.5"));
+        assertEquals(0, pool.excludeRangeList("10.0.0.2"));
+        assertEquals(2, pool.getAvailableCount());
+        assertEquals(NetUtils.ip2Long("10.0.0.4"), pool.first());
+        assertEquals(NetUtils.ip2Long("10.0.0.6"), pool.nextAvailable(NetUtils.ip2Long("10.0.0.5")));
+        assertEquals(-1, pool.nextAvailable(NetUtils.ip2Long("10.0.0.7")));
+    }
+
+    @Test
+    public void testExcludeRangeAcrossWords() {
+        final IpAddressPool pool = new IpAddressPool(1000, 1999);
+
+        assertEquals(500, pool.exclude(1010, 1509));
+        assertEquals(10, pool.exclude(900, 1009));
+        assertEquals(490, pool.getAvailableCount());
+        assertEquals(1510, pool.first());
+        assertEquals(0, pool.exclude(2000, 3000));
+        assertEquals(490, pool.toSortedSet().size());
+    }
+
+    @Test
+    public void testAllocateAndRelease() {
+        final IpAddressPool pool = new IpAddressPool(100, 102);
+
+        assertEquals(100, pool.allocateFirst());
+        assertEquals(101, pool.allocateFirst());
+        assertEquals(102, pool.allocateFirst());
+        assertEquals(-1, pool.allocateFirst());
+        assertTrue(pool.isEmpty());
+
+        assertTrue(pool.release(101));
+        assertFalse(pool.release(101));
+        assertFalse(pool.release(103));
+        assertEquals(101, pool.first());
+        assertEquals(101, pool.randomAvailable(new Random()));
+    }
+
+    @Test
+    public void testEmptyRange() {
+        final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr("10.0.0.1/32");
+
+        assertTrue(pool.isEmpty());
+        assertEquals(-1, pool.first());
+        assertEquals(-1, pool.randomAvailable(new Random()));
+    }
+
+    @Test
+    public void testRandomAvailableInNearlyFullPool() {
+        final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr("10.0.0.0/16");
+        pool.exclude(pool.getFirstIp(), pool.getLastIp());
+        final long[] free = {NetUtils.ip2Long("10.0.0.77"), NetUtils.ip2Long("10.0.128.1"), NetUtils.ip2Long("10.0.255.254")};
+        for (final long ip : free) {
+            pool.release(ip);
+        }
+
+        final Random random = new Random(42);
+        final Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            final long ip = pool.randomAvailable(random);
+            assertTrue(pool.isAvailable(ip));
+            seen.add(ip);
+        }
+        assertEquals(free.length, seen.size());
+    }
+
+    @Test
+    public void testMatchesSortedSet() {
+        final Random random = new Random(7);
+        final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr("172.16.0.0/22");
+        final Set<Long> used = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            final long ip = pool.getFirstIp() + random.nextInt(pool.getSize());
+            used.add(ip);
+            pool.exclude(ip);
+        }
+
+        final SortedSet<Long> expected = NetUtils.getAllIpsFromCidr("172.16.0.0", 22, used);
+        assertEquals(expected, pool.toSortedSet());
+        assertEquals(expected.size(), pool.getAvailableCount());
+        assertEquals(expected.first().longValue(), pool.first());
+    }
+
+    /**
+     * Compares picking a random free address of a /16 with a couple of thousand addresses in use, the way a guest
+     * address is acquired, between the materialized sorted set and the bitmap pool.
+     */
+    @Test
+    public void benchmarkAcquireAddressInLargeNetwork() {
+        Benchmarks.assumeEnabled();
+        final String cidrIp = "10.8.0.0";
+        final int cidrSize = 16;
+        final Random random = new Random(1);
+        final Set<Long> used = new TreeSet<>();
+        final long start = NetUtils.ip2Long(NetUtils.getIpRangeStartIpFromCidr(cidrIp, cidrSize));
+        for (int i = 0; i < 2000; i++) {
+            used.add(start + random.nextInt(65000));
+        }
+
+        long sortedSetNanos = 0;
+        long poolNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            final SortedSet<Long> availableSet = NetUtils.getAllIpsFromCidr(cidrIp, cidrSize, used);
+            final Long[] array = availableSet.toArray(new Long[availableSet.size()]);
+            final long fromSet = array[random.nextInt(array.length)];
+            sortedSetNanos += System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            final IpAddressPool pool = NetUtils.getIpAddressPoolFromCidr(cidrIp, cidrSize);
+            for (final long ip : used) {
+                pool.exclude(ip);
+            }
+            final long fromPool = pool.randomAvailable(random);
+            poolNanos += System.nanoTime() - begin;
+
+            assertEquals(availableSet.size(), pool.getAvailableCount());
+            assertFalse(used.contains(fromSet));
+            assertTrue(pool.isAvailable(fromPool));
+        }
+
+        s_logger.info(ROUNDS + " address acquisitions in a /" + cidrSize + " with " + used.size() + " addresses in use: sorted set " + sortedSetNanos / 1000000 + " ms, bitmap pool "
+                + poolNanos / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloud.utils.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumUtilsTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("checksum", ".tmp");
+        Files.write(file.toPath(), "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void getAlgorithmTest() {
+        assertEquals(ChecksumUtils.MD5, ChecksumUtils.getAlgorithm(null));
+        assertEquals(ChecksumUtils.MD5, ChecksumUtils.getAlgorithm("9e107d9d372bb6826bd81d3542a419d6"));
+        assertEquals(ChecksumUtils.SHA1, ChecksumUtils.getAlgorithm("2fd4e1c67a2d28fced849ee1bb76e7391b93eb12"));
+        assertEquals(ChecksumUtils.SHA224, ChecksumUtils.getAlgorithm("730e109bd7a8a32b1cb9d9a09aa2325d2430587ddbc0c38bad911525"));
+        assertEquals(ChecksumUtils.SHA256, ChecksumUtils.getAlgorithm("d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592"));
+        assertEquals(ChecksumUtils.SHA384, ChecksumUtils.getAlgorithm("ca737f1014a48f4c0b6dd43cb177b0afd9e5169367544c494011e3317dbf9a509cb1e5dc1e85a941bbee3d7f2afbc9b1"));
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void getAlgorithmRejectsUnknownLength() {
+        ChecksumUtils.getAlgorithm("9e107d9d372bb6826bd81d3542a4");
+    }
+
+    @Test
+    public void toHexStringKeepsLeadingZeros() {
+        assertEquals("000fff", ChecksumUtils.toHexString(new byte[]{0x00, 0x0f, (byte) 0xff}));
+    }
+
+    @Test
+    public void computeChecksumTest() throws IOException {
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", ChecksumUtils.computeChecksum(file, ChecksumUtils.MD5));
+        assertEquals("d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592", ChecksumUtils.computeChecksum(file, ChecksumUtils.SHA256));
+        assertEquals("730e109bd7a8a32b1cb9d9a09aa2325d2430587ddbc0c38bad911525", ChecksumUtils.computeChecksum(file, ChecksumUtils.SHA224));
+        assertEquals("ca737f1014a48f4c0b6dd43cb177b0afd9e5169367544c494011e3317dbf9a509cb1e5dc1e85a941bbee3d7f2afbc9b1",
+                ChecksumUtils.computeChecksum(file, ChecksumUtils.SHA384));
+    }
+
+    @Test
+    public void updateWithPrefixTest() throws IOException {
+        final MessageDigest digest = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+        ChecksumUtils.update(digest, file, 10);
+        digest.update("brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", ChecksumUtils.toHexString(digest.digest()));
+    }
+}
@@ -0,0 +1,721 @@
+package com.cloud.utils.storage.S3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloud.utils.storage.ChecksumUtils;
+import com.cloud.utils.testcase.Benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class S3MultipartTransferTest {
+    private static final Logger s_logger = LoggerFactory.getLogger(S3MultipartTransferTest.class);
+    private static final String BUCKET = "templates";
+    private static final int PART_SIZE = 1024 * 1024;
+
+    private S3StandIn store;
+    private AmazonS3Client client;
+    private File source;
+    private File destination;
+
+    @Before
+    public void setup() throws IOException {
+        store = new S3StandIn();
+        final ClientConfiguration configuration = new ClientConfiguration();
+        // the v2 signer sends the parts as they are, instead of in signed chunks
+        configuration.setSignerOverride("S3SignerType");
+        // the retries of the engine are tested, not the ones of the client
+        configuration.setMaxErrorRetry(0);
+        client = new AmazonS3Client(new BasicAWSCredentials("access", "secret"), configuration);
+        client.setEndpoint("http://127.0.0.1:" + store.getPort());
+        client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+
+        source = File.createTempFile("s3multipart", ".src");
+        destination = File.createTempFile("s3multipart", ".dst");
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        store.stop();
+        source.delete();
+        destination.delete();
+        S3MultipartTransfer.getStateFile(source).delete();
+        S3MultipartTransfer.getStateFile(destination).delete();
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private S3MultipartTransfer newTransfer(final int parallelism) {
+        return new S3MultipartTransfer(client, PART_SIZE, parallelism);
+    }
+
+    @Test
+    public void testUploadAndDownloadInParts() throws IOException {
+        final byte[] data = randomBytes(5 * PART_SIZE + 12345);
+        Files.write(source.toPath(), data);
+
+        newTransfer(4).upload(source, BUCKET, "template/1/disk.qcow2");
+
+        assertArrayEquals(data, store.getObject("template/1/disk.qcow2"));
+        assertEquals(6, store.partUploads.get());
+        assertTrue(store.getETag("template/1/disk.qcow2").endsWith("-6"));
+        assertFalse(S3MultipartTransfer.getStateFile(source).exists());
+
+        newTransfer(4).download(BUCKET, "template/1/disk.qcow2", destination);
+
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+        assertEquals(6, store.rangedGets.get());
+        assertFalse(S3MultipartTransfer.getStateFile(destination).exists());
+    }
+
+    @Test
+    public void testSmallObjectIsSentInASinglePart() throws IOException {
+        final byte[] data = randomBytes(1000);
+        Files.write(source.toPath(), data);
+
+        newTransfer(4).upload(source, BUCKET, "small");
+        newTransfer(4).download(BUCKET, "small", destination);
+
+        assertEquals(0, store.partUploads.get());
+        assertEquals(ChecksumUtils.toHexString(md5(data)), store.getETag("small"));
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void testMemoryBudgetBoundsTheParallelism() throws IOException {
+        final byte[] data = randomBytes(8 * PART_SIZE);
+        Files.write(source.toPath(), data);
+
+        new S3MultipartTransfer(client, PART_SIZE, 8, 2L * PART_SIZE).upload(source, BUCKET, "bounded");
+
+        assertArrayEquals(data, store.getObject("bounded"));
+        assertTrue("at most 2 parts in flight, there were " + store.maxConcurrentParts.get(), store.maxConcurrentParts.get() <= 2);
+    }
+
+    @Test
+    public void testUploadOfAStream() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE + 17);
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        final AtomicLong transferred = new AtomicLong();
+
+        newTransfer(2).upload(new PutObjectRequest(BUCKET, "stream", new java.io.ByteArrayInputStream(data), metadata), transferred::addAndGet);
+
+        assertArrayEquals(data, store.getObject("stream"));
+        assertEquals(data.length, transferred.get());
+    }
+
+    @Test
+    public void testFailedUploadOfAStreamIsAborted() {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        store.failingPart = 2;
+
+        try {
+            newTransfer(2).upload(new PutObjectRequest(BUCKET, "stream", new java.io.ByteArrayInputStream(data), metadata), bytes -> {
+            });
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            assertTrue(store.uploads.isEmpty());
+            assertEquals(1, store.aborts.get());
+        }
+    }
+
+    @Test
+    public void testFailedPartIsRetried() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        store.partFailures.set(2);
+
+        newTransfer(1).upload(source, BUCKET, "retried");
+
+        assertArrayEquals(data, store.getObject("retried"));
+        assertEquals(5, store.partUploads.get());
+    }
+
+    @Test
+    public void testUploadResumesWithTheMissingParts() throws IOException {
+        final byte[] data = randomBytes(6 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        store.failingPart = 4;
+
+        try {
+            newTransfer(1).upload(source, BUCKET, "resumed");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            assertTrue(S3MultipartTransfer.getStateFile(source).exists());
+        }
+        assertEquals(3, store.storedParts());
+
+        store.failingPart = 0;
+        store.partUploads.set(0);
+        newTransfer(2).upload(source, BUCKET, "resumed");
+
+        assertEquals(3, store.partUploads.get());
+        assertEquals(1, store.initiates.get());
+        assertArrayEquals(data, store.getObject("resumed"));
+        assertFalse(S3MultipartTransfer.getStateFile(source).exists());
+    }
+
+    @Test
+    public void testUploadStartsOverWhenTheStoreLostTheUpload() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        store.failingPart = 3;
+        try {
+            newTransfer(1).upload(source, BUCKET, "lost");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            store.uploads.clear();
+        }
+
+        store.failingPart = 0;
+        store.partUploads.set(0);
+        newTransfer(1).upload(source, BUCKET, "lost");
+
+        assertEquals(3, store.partUploads.get());
+        assertEquals(2, store.initiates.get());
+        assertArrayEquals(data, store.getObject("lost"));
+    }
+
+    @Test
+    public void testUploadStartsOverWhenTheSourceChanged() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        store.failingPart = 3;
+        try {
+            newTransfer(1).upload(source, BUCKET, "changed");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            // the same size, other content
+            data[10] ^= 1;
+            Files.write(source.toPath(), data);
+            assertTrue(source.setLastModified(source.lastModified() + 10000));
+        }
+
+        store.failingPart = 0;
+        store.partUploads.set(0);
+        newTransfer(1).upload(source, BUCKET, "changed");
+
+        assertEquals(3, store.partUploads.get());
+        assertEquals(2, store.initiates.get());
+        assertEquals(1, store.aborts.get());
+        assertArrayEquals(data, store.getObject("changed"));
+    }
+
+    @Test
+    public void testExpiredUploadIsNotResumed() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        store.failingPart = 3;
+        try {
+            newTransfer(1).upload(source, BUCKET, "expired");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            final File stateFile = S3MultipartTransfer.getStateFile(source);
+            assertTrue(stateFile.setLastModified(System.currentTimeMillis() - S3MultipartTransfer.UPLOAD_EXPIRY_MILLIS - 1000));
+        }
+
+        store.failingPart = 0;
+        store.partUploads.set(0);
+        newTransfer(1).upload(source, BUCKET, "expired");
+
+        assertEquals(3, store.partUploads.get());
+        assertEquals(2, store.initiates.get());
+        assertEquals(1, store.aborts.get());
+        assertTrue(store.uploads.isEmpty());
+    }
+
+    @Test
+    public void testExpiredUploadsAndStateAreRemoved() throws IOException {
+        Files.write(source.toPath(), randomBytes(3 * PART_SIZE));
+        store.failingPart = 3;
+        try {
+            newTransfer(1).upload(source, BUCKET, "abandoned");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            // left for a retry that never comes
+        }
+        final File stateFile = S3MultipartTransfer.getStateFile(source);
+        assertTrue(stateFile.setLastModified(System.currentTimeMillis() - S3MultipartTransfer.UPLOAD_EXPIRY_MILLIS - 1000));
+        // an upload of another client of the bucket
+        store.initiateUpload("other");
+
+        newTransfer(1).removeExpiredStateFiles(source.getAbsoluteFile().getParentFile());
+
+        assertFalse(stateFile.exists());
+        // only the upload of the state file
+        assertEquals(1, store.aborts.get());
+        assertEquals(1, store.uploads.size());
+    }
+
+    @Test
+    public void testSharedBuffersAreReused() throws IOException {
+        final S3MultipartTransfer.PartBuffers buffers = new S3MultipartTransfer.PartBuffers(2L * PART_SIZE);
+        final byte[] first = buffers.take(PART_SIZE);
+        final byte[] second = buffers.take(PART_SIZE);
+        buffers.release(first);
+
+        assertTrue(first == buffers.take(PART_SIZE));
+        buffers.release(first);
+        buffers.release(second);
+        // the free buffers of another size make room
+        assertEquals(2 * PART_SIZE, buffers.take(2 * PART_SIZE).length);
+    }
+
+    @Test
+    public void testDownloadResumesWithTheMissingParts() throws IOException {
+        final byte[] data = randomBytes(6 * PART_SIZE + 1);
+        store.putObject("resumed", data, ChecksumUtils.toHexString(md5(data)));
+        store.failingRangeStart = 3L * PART_SIZE;
+
+        try {
+            newTransfer(1).download(BUCKET, "resumed", destination);
+            fail("the download should have failed");
+        } catch (final IOException e) {
+            assertTrue(S3MultipartTransfer.getStateFile(destination).exists());
+        }
+
+        store.failingRangeStart = -1;
+        store.rangedGets.set(0);
+        newTransfer(1).download(BUCKET, "resumed", destination);
+
+        assertEquals(4, store.rangedGets.get());
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void testDownloadStartsOverWhenTheObjectChanged() throws IOException {
+        final byte[] data = randomBytes(4 * PART_SIZE);
+        store.putObject("changed", data, ChecksumUtils.toHexString(md5(data)));
+        store.failingRangeStart = 2L * PART_SIZE;
+        try {
+            newTransfer(1).download(BUCKET, "changed", destination);
+            fail("the download should have failed");
+        } catch (final IOException e) {
+            final byte[] changed = randomBytes(4 * PART_SIZE + 1);
+            store.putObject("changed", changed, ChecksumUtils.toHexString(md5(changed)));
+        }
+
+        store.failingRangeStart = -1;
+        newTransfer(1).download(BUCKET, "changed", destination);
+
+        assertArrayEquals(store.getObject("changed"), Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void testCorruptDownloadIsDetected() throws IOException {
+        final byte[] data = randomBytes(3 * PART_SIZE);
+        Files.write(source.toPath(), data);
+        newTransfer(2).upload(source, BUCKET, "corrupt");
+        store.getObject("corrupt")[PART_SIZE + 10] ^= 1;
+
+        try {
+            newTransfer(2).download(BUCKET, "corrupt", destination);
+            fail("the corrupt download should have been detected");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("does not match its ETag"));
+        }
+    }
+
+    @Test
+    public void testPartStoredWithAnotherChecksumIsRejected() throws IOException {
+        Files.write(source.toPath(), randomBytes(2 * PART_SIZE + 1));
+        store.corruptParts = true;
+
+        try {
+            newTransfer(2).upload(source, BUCKET, "rejected");
+            fail("the upload should have failed");
+        } catch (final IOException e) {
+            assertFalse(store.objects.containsKey("rejected"));
+        }
+    }
+
+    @Test
+    public void testPartSizeGrowsForLargeObjects() {
+        final S3MultipartTransfer transfer = newTransfer(1);
+
+        assertEquals(PART_SIZE, transfer.getPartSize(100L * PART_SIZE));
+        assertEquals(2L * PART_SIZE, transfer.getPartSize(20000L * PART_SIZE));
+    }
+
+    /**
+     * Transfers a 24 MB template to and from a store that sends and receives each stream at a limited rate, in a single
+     * stream through the client and in 3 MB parts 4 at a time through the engine.
+     */
+    @Test
+    public void benchmarkTransfer() throws IOException {
+        Benchmarks.assumeEnabled();
+        final int partSize = 3 * PART_SIZE;
+        final byte[] data = randomBytes(8 * partSize);
+        Files.write(source.toPath(), data);
+        store.throttled = true;
+
+        final long singleUploadStart = System.nanoTime();
+        client.putObject(BUCKET, "single", source);
+        final long singleUploadMillis = (System.nanoTime() - singleUploadStart) / 1000000;
+
+        final long singleDownloadStart = System.nanoTime();
+        client.getObject(new GetObjectRequest(BUCKET, "single"), destination);
+        final long singleDownloadMillis = (System.nanoTime() - singleDownloadStart) / 1000000;
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+        destination.delete();
+
+        final S3MultipartTransfer transfer = new S3MultipartTransfer(client, partSize, 4, 4L * partSize);
+        final long partsUploadStart = System.nanoTime();
+        transfer.upload(source, BUCKET, "parts");
+        final long partsUploadMillis = (System.nanoTime() - partsUploadStart) / 1000000;
+
+        final long partsDownloadStart = System.nanoTime();
+        transfer.download(BUCKET, "parts", destination);
+        final long partsDownloadMillis = (System.nanoTime() - partsDownloadStart) / 1000000;
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+
+        s_logger.info("Uploading " + data.length + " bytes took " + singleUploadMillis + " ms in a single stream and " + partsUploadMillis + " ms in parallel parts");
+        s_logger.info("Downloading " + data.length + " bytes took " + singleDownloadMillis + " ms in a single stream and " + partsDownloadMillis + " ms in parallel parts");
+        assertEquals(8, store.partUploads.get());
+        assertEquals(8, store.rangedGets.get());
+    }
+
+    private static byte[] md5(final byte[] data) {
+        final MessageDigest digest = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+        return digest.digest(data);
+    }
+
+    /**
+     * An S3 compatible store in memory, serving path style requests.
+     */
+    private static class S3StandIn {
+        private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+        private static final int CHUNK_SIZE = 64 * 1024;
+        // the bytes per second of a connection when throttled, like a store that limits the bandwidth of a connection
+        private static final long STREAM_RATE = 8L * 1024 * 1024;
+
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, String> eTags = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final AtomicInteger initiates = new AtomicInteger();
+        final AtomicInteger partUploads = new AtomicInteger();
+        final AtomicInteger partFailures = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final AtomicInteger rangedGets = new AtomicInteger();
+        final AtomicInteger concurrentParts = new AtomicInteger();
+        final AtomicInteger maxConcurrentParts = new AtomicInteger();
+        volatile int failingPart = 0;
+        volatile long failingRangeStart = -1;
+        volatile boolean corruptParts = false;
+        volatile boolean throttled = false;
+
+        private final HttpServer server;
+
+        S3StandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/" + BUCKET, this::handle);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+        }
+
+        int getPort() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        byte[] getObject(final String key) {
+            return objects.get(key);
+        }
+
+        String getETag(final String key) {
+            return eTags.get(key);
+        }
+
+        void putObject(final String key, final byte[] data, final String eTag) {
+            objects.put(key, data);
+            eTags.put(key, eTag);
+        }
+
+        int storedParts() {
+            return uploads.values().stream().mapToInt(Map::size).sum();
+        }
+
+        private void handle(final HttpExchange exchange) throws IOException {
+            try {
+                final String path = exchange.getRequestURI().getPath();
+                final String key = path.length() > BUCKET.length() + 2 ? path.substring(BUCKET.length() + 2) : "";
+                final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                final String method = exchange.getRequestMethod();
+                if ("POST".equals(method) && query.containsKey("uploads")) {
+                    initiate(exchange, key);
+                } else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+                    uploadPart(exchange, query.get("uploadId"), Integer.parseInt(query.get("partNumber")));
+                } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                    complete(exchange, key, query.get("uploadId"));
+                } else if ("GET".equals(method) && query.containsKey("uploadId")) {
+                    listParts(exchange, key, query.get("uploadId"));
+                } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                    aborts.incrementAndGet();
+                    uploads.remove(query.get("uploadId"));
+                    exchange.sendResponseHeaders(204, -1);
+                } else if ("PUT".equals(method)) {
+                    final byte[] data = readBody(exchange);
+                    putObject(key, data, ChecksumUtils.toHexString(md5(data)));
+                    setHeader(exchange, "ETag", "\"" + eTags.get(key) + "\"");
+                    exchange.sendResponseHeaders(200, -1);
+                } else if ("HEAD".equals(method)) {
+                    head(exchange, key);
+                } else if ("GET".equals(method)) {
+                    get(exchange, key);
+                } else {
+                    exchange.sendResponseHeaders(405, -1);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        String initiateUpload(final String key) {
+            final String uploadId = "upload-" + initiates.incrementAndGet();
+            uploads.put(uploadId, new ConcurrentHashMap<>());
+            return uploadId;
+        }
+
+        private void initiate(final HttpExchange exchange, final String key) throws IOException {
+            final String uploadId = initiateUpload(key);
+            sendXml(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>" + key + "</Key><UploadId>" + uploadId
+                    + "</UploadId></InitiateMultipartUploadResult>");
+        }
+
+        private void uploadPart(final HttpExchange exchange, final String uploadId, final int partNumber) throws IOException {
+            final int concurrent = concurrentParts.incrementAndGet();
+            maxConcurrentParts.accumulateAndGet(concurrent, Math::max);
+            try {
+                partUploads.incrementAndGet();
+                final byte[] data = readBody(exchange);
+                final Map<Integer, byte[]> parts = uploads.get(uploadId);
+                if (parts == null) {
+                    sendXml(exchange, 404, "<Error><Code>NoSuchUpload</Code><Message>The upload does not exist</Message></Error>");
+                    return;
+                }
+                if (partNumber == failingPart || partFailures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+                    sendXml(exchange, 500, "<Error><Code>InternalError</Code><Message>Failed to store the part</Message></Error>");
+                    return;
+                }
+                final String contentMd5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+                if (contentMd5 == null || !contentMd5.equals(java.util.Base64.getEncoder().encodeToString(md5(data)))) {
+                    sendXml(exchange, 400, "<Error><Code>BadDigest</Code><Message>The Content-MD5 did not match</Message></Error>");
+                    return;
+                }
+                parts.put(partNumber, data);
+                final String eTag = corruptParts ? ChecksumUtils.toHexString(md5(new byte[1])) : ChecksumUtils.toHexString(md5(data));
+                setHeader(exchange, "ETag", "\"" + eTag + "\"");
+                exchange.sendResponseHeaders(200, -1);
+            } finally {
+                concurrentParts.decrementAndGet();
+            }
+        }
+
+        private void complete(final HttpExchange exchange, final String key, final String uploadId) throws IOException {
+            final String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+            final Map<Integer, byte[]> parts = uploads.remove(uploadId);
+            if (parts == null) {
+                sendXml(exchange, 404, "<Error><Code>NoSuchUpload</Code><Message>The upload does not exist</Message></Error>");
+                return;
+            }
+            final ByteArrayOutputStream object = new ByteArrayOutputStream();
+            final MessageDigest partDigests = ChecksumUtils.getDigest(ChecksumUtils.MD5);
+            int partCount = 0;
+            final Matcher matcher = PART_NUMBER.matcher(body);
+            while (matcher.find()) {
+                final byte[] part = parts.get(Integer.parseInt(matcher.group(1)));
+                object.write(part);
+                partDigests.update(md5(part));
+                partCount++;
+            }
+            final String eTag = ChecksumUtils.toHexString(partDigests.digest()) + "-" + partCount;
+            putObject(key, object.toByteArray(), eTag);
+            sendXml(exchange, 200, "<CompleteMultipartUploadResult><Location>http://127.0.0.1/" + BUCKET + "/" + key + "</Location><Bucket>" + BUCKET + "</Bucket><Key>" + key
+                    + "</Key><ETag>\"" + eTag + "\"</ETag></CompleteMultipartUploadResult>");
+        }
+
+        private void listParts(final HttpExchange exchange, final String key, final String uploadId) throws IOException {
+            final Map<Integer, byte[]> parts = uploads.get(uploadId);
+            if (parts == null) {
+                sendXml(exchange, 404, "<Error><Code>NoSuchUpload</Code><Message>The upload does not exist</Message></Error>");
+                return;
+            }
+            final StringBuilder xml = new StringBuilder("<ListPartsResult><Bucket>" + BUCKET + "</Bucket><Key>" + key + "</Key><UploadId>" + uploadId
+                    + "</UploadId><PartNumberMarker>0</PartNumberMarker><MaxParts>1000</MaxParts><IsTruncated>false</IsTruncated>");
+            for (final Map.Entry<Integer, byte[]> part : new TreeMap<>(parts).entrySet()) {
+                xml.append("<Part><PartNumber>").append(part.getKey()).append("</PartNumber><LastModified>2016-01-01T00:00:00.000Z</LastModified><ETag>\"")
+                   .append(ChecksumUtils.toHexString(md5(part.getValue()))).append("\"</ETag><Size>").append(part.getValue().length).append("</Size></Part>");
+            }
+            sendXml(exchange, 200, xml.append("</ListPartsResult>").toString());
+        }
+
+        private void head(final HttpExchange exchange, final String key) throws IOException {
+            final byte[] data = objects.get(key);
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            setHeader(exchange, "Content-Length", Integer.toString(data.length));
+            setHeader(exchange, "ETag", "\"" + eTags.get(key) + "\"");
+            exchange.sendResponseHeaders(200, -1);
+        }
+
+        private void get(final HttpExchange exchange, final String key) throws IOException {
+            final byte[] data = objects.get(key);
+            final String eTag = eTags.get(key);
+            if (data == null) {
+                sendXml(exchange, 404, "<Error><Code>NoSuchKey</Code><Message>The key does not exist</Message></Error>");
+                return;
+            }
+            final String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            if (ifMatch != null && !ifMatch.replace("\"", "").equals(eTag)) {
+                sendXml(exchange, 412, "<Error><Code>PreconditionFailed</Code><Message>The ETag does not match</Message></Error>");
+                return;
+            }
+            setHeader(exchange, "ETag", "\"" + eTag + "\"");
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0;
+            int end = data.length - 1;
+            if (range != null) {
+                rangedGets.incrementAndGet();
+                final String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+                if (start == failingRangeStart) {
+                    sendXml(exchange, 503, "<Error><Code>SlowDown</Code><Message>Reduce your request rate</Message></Error>");
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            }
+            // the client checks the length of the body against the header in the case S3 sends it
+            setHeader(exchange, "Content-Length", Integer.toString(end - start + 1));
+            exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                final long started = System.nanoTime();
+                for (int position = start; position <= end; position += CHUNK_SIZE) {
+                    out.write(data, position, Math.min(CHUNK_SIZE, end - position + 1));
+                    throttle(started, position + CHUNK_SIZE - start);
+                }
+            }
+        }
+
+        private byte[] readBody(final HttpExchange exchange) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                final byte[] chunk = new byte[CHUNK_SIZE];
+                final long started = System.nanoTime();
+                int bytes;
+                while ((bytes = in.read(chunk)) >= 0) {
+                    body.write(chunk, 0, bytes);
+                    throttle(started, body.size());
+                }
+            }
+            return body.toByteArray();
+        }
+
+        /**
+         * Holds the stream back until it took the time the bytes take at the rate of a connection.
+         */
+        private void throttle(final long started, final long bytes) {
+            if (throttled) {
+                final long ahead = bytes * 1000 / STREAM_RATE - (System.nanoTime() - started) / 1000000;
+                if (ahead > 0) {
+                    try {
+                        Thread.sleep(ahead);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets a header in the case S3 sends it, the server would send ETag as Etag, which the client does not read.
+         */
+        @SuppressWarnings("unchecked")
+        private static void setHeader(final HttpExchange exchange, final String name, final String value) {
+            try {
+                final Field map = Headers.class.getDeclaredField("map");
+                map.setAccessible(true);
+                ((Map<String, List<String>>) map.get(exchange.getResponseHeaders())).put(name, Collections.singletonList(value));
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void sendXml(final HttpExchange exchange, final int status, final String xml) throws IOException {
+            final byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        private static Map<String, String> parseQuery(final String query) {
+            final Map<String, String> parameters = new TreeMap<>();
+            if (query != null) {
+                for (final String parameter : query.split("&")) {
+                    final int separator = parameter.indexOf('=');
+                    if (separator < 0) {
+                        parameters.put(parameter, "");
+                    } else {
+                        parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+                    }
+                }
+            }
+            return parameters;
+        }
+    }
+}
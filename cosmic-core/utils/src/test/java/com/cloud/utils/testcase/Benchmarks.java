@@ -0,0 +1,23 @@
+package com.cloud.utils.testcase;
+
+import org.junit.Assume;
+
+/**
+ * Keeps the benchmarks out of the regular unit test runs. A benchmark calls {@link #assumeEnabled()} first and is
+ * skipped unless the tests run with -Dbenchmarks, for example: mvn test -Dbenchmarks -Dtest=ApiRequestSignerTest
+ */
+public final class Benchmarks {
+    public static final String PROPERTY = "benchmarks";
+
+    private Benchmarks() {
+    }
+
+    public static boolean isEnabled() {
+        final String value = System.getProperty(PROPERTY);
+        return value != null && !value.equalsIgnoreCase("false");
+    }
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue(isEnabled());
+    }
+}